@@ -0,0 +1,238 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.client;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.io.ByteStreams;
+import io.airlift.json.JsonCodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Compact binary encoding of {@link QueryResults}. The data is sent column by column instead of
+ * as JSON rows, so values are neither printed nor parsed as text, and the rows are only boxed
+ * when they are read.
+ * <p>
+ * The encoding is little endian:
+ * <pre>
+ * int      length of the envelope
+ * byte[]   envelope: the query results as JSON, without data
+ * int      page count (no pages means no data)
+ * page:
+ *   int    position count
+ *   column, in the order of the envelope columns:
+ *     byte[]  null flags, one bit per position
+ *     values:
+ *       boolean  one byte per position
+ *       bigint   one long per position
+ *       double   one double per position
+ *       varchar  one int length per position, followed by the UTF-8 bytes of all positions
+ * </pre>
+ * Null positions are encoded as zero values.
+ * <p>
+ * The output buffers of a query that returns parallel results are read in the same encoding,
+ * but without the envelope, as the client already knows the columns from the query results.
+ */
+public final class ColumnarResults
+{
+    public static final String PRESTO_COLUMNAR_RESULTS = "application/X-presto-columnar-results";
+    public static final String PRESTO_COLUMNAR_PAGES = "application/X-presto-columnar-pages";
+
+    private ColumnarResults()
+    {
+    }
+
+    public static QueryResults readQueryResults(InputStream input, JsonCodec<QueryResults> queryResultsCodec)
+            throws IOException
+    {
+        checkNotNull(input, "input is null");
+        checkNotNull(queryResultsCodec, "queryResultsCodec is null");
+
+        ByteBuffer buffer = ByteBuffer.wrap(ByteStreams.toByteArray(input)).order(ByteOrder.LITTLE_ENDIAN);
+
+        byte[] envelopeBytes = new byte[buffer.getInt()];
+        buffer.get(envelopeBytes);
+        QueryResults envelope = queryResultsCodec.fromJson(new String(envelopeBytes, Charsets.UTF_8));
+
+        Iterable<List<Object>> data = null;
+        List<List<List<Object>>> pages = readPages(buffer, envelope.getColumns());
+        if (!pages.isEmpty()) {
+            data = Iterables.concat(pages);
+        }
+
+        return new QueryResults(
+                envelope.getId(),
+                envelope.getInfoUri(),
+                envelope.getPartialCancelUri(),
+                envelope.getNextUri(),
+                envelope.getColumns(),
+                data,
+                envelope.getDataUris(),
+                envelope.getStats(),
+                envelope.getError());
+    }
+
+    /**
+     * Reads pages without an envelope, as sent by the output buffers of a query.
+     */
+    public static List<List<List<Object>>> readPages(InputStream input, List<Column> columns)
+            throws IOException
+    {
+        checkNotNull(input, "input is null");
+        checkNotNull(columns, "columns is null");
+
+        ByteBuffer buffer = ByteBuffer.wrap(ByteStreams.toByteArray(input)).order(ByteOrder.LITTLE_ENDIAN);
+        return readPages(buffer, columns);
+    }
+
+    private static List<List<List<Object>>> readPages(ByteBuffer buffer, List<Column> columns)
+    {
+        int pageCount = buffer.getInt();
+        checkState(pageCount == 0 || columns != null, "data without columns");
+
+        ImmutableList.Builder<List<List<Object>>> pages = ImmutableList.builder();
+        for (int i = 0; i < pageCount; i++) {
+            pages.add(readPage(buffer, columns));
+        }
+        checkState(!buffer.hasRemaining(), "unexpected data after the last page");
+        return pages.build();
+    }
+
+    private static ColumnarPage readPage(ByteBuffer buffer, List<Column> columns)
+    {
+        int positionCount = buffer.getInt();
+        Object[] values = new Object[columns.size()];
+        boolean[][] nulls = new boolean[columns.size()][];
+        for (int column = 0; column < columns.size(); column++) {
+            nulls[column] = readNulls(buffer, positionCount);
+            values[column] = readValues(buffer, columns.get(column).getType(), positionCount);
+        }
+        return new ColumnarPage(positionCount, values, nulls);
+    }
+
+    private static boolean[] readNulls(ByteBuffer buffer, int positionCount)
+    {
+        boolean[] nulls = new boolean[positionCount];
+        for (int position = 0; position < positionCount; position += 8) {
+            byte flags = buffer.get();
+            for (int bit = 0; bit < 8 && position + bit < positionCount; bit++) {
+                nulls[position + bit] = (flags & (1 << bit)) != 0;
+            }
+        }
+        return nulls;
+    }
+
+    private static Object readValues(ByteBuffer buffer, String type, int positionCount)
+    {
+        switch (type) {
+            case "boolean": {
+                boolean[] values = new boolean[positionCount];
+                for (int position = 0; position < positionCount; position++) {
+                    values[position] = buffer.get() != 0;
+                }
+                return values;
+            }
+            case "bigint": {
+                long[] values = new long[positionCount];
+                buffer.asLongBuffer().get(values);
+                buffer.position(buffer.position() + (positionCount * 8));
+                return values;
+            }
+            case "double": {
+                double[] values = new double[positionCount];
+                buffer.asDoubleBuffer().get(values);
+                buffer.position(buffer.position() + (positionCount * 8));
+                return values;
+            }
+            case "varchar": {
+                int[] lengths = new int[positionCount];
+                buffer.asIntBuffer().get(lengths);
+                buffer.position(buffer.position() + (positionCount * 4));
+
+                String[] values = new String[positionCount];
+                for (int position = 0; position < positionCount; position++) {
+                    values[position] = new String(buffer.array(), buffer.position(), lengths[position], Charsets.UTF_8);
+                    buffer.position(buffer.position() + lengths[position]);
+                }
+                return values;
+            }
+        }
+        throw new AssertionError("unimplemented type: " + type);
+    }
+
+    private static class ColumnarPage
+            extends AbstractList<List<Object>>
+    {
+        private final int positionCount;
+        private final Object[] values;
+        private final boolean[][] nulls;
+
+        private ColumnarPage(int positionCount, Object[] values, boolean[][] nulls)
+        {
+            this.positionCount = positionCount;
+            this.values = values;
+            this.nulls = nulls;
+        }
+
+        @Override
+        public int size()
+        {
+            return positionCount;
+        }
+
+        @Override
+        public List<Object> get(final int position)
+        {
+            checkElementIndex(position, positionCount);
+            return new AbstractList<Object>()
+            {
+                @Override
+                public int size()
+                {
+                    return values.length;
+                }
+
+                @Override
+                public Object get(int column)
+                {
+                    if (nulls[column][position]) {
+                        return null;
+                    }
+                    Object columnValues = values[column];
+                    if (columnValues instanceof long[]) {
+                        return ((long[]) columnValues)[position];
+                    }
+                    if (columnValues instanceof double[]) {
+                        return ((double[]) columnValues)[position];
+                    }
+                    if (columnValues instanceof boolean[]) {
+                        return ((boolean[]) columnValues)[position];
+                    }
+                    return ((String[]) columnValues)[position];
+                }
+            };
+        }
+    }
+}
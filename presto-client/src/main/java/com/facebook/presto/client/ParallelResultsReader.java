@@ -0,0 +1,402 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.client;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.MediaType;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.http.client.AsyncHttpClient;
+import io.airlift.http.client.HttpStatus;
+import io.airlift.http.client.Request;
+import io.airlift.http.client.Response;
+import io.airlift.http.client.ResponseHandler;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.facebook.presto.client.ColumnarResults.PRESTO_COLUMNAR_PAGES;
+import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_SEQUENCE_ID;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.net.HttpHeaders.ACCEPT;
+import static com.google.common.net.HttpHeaders.CONTENT_TYPE;
+import static com.google.common.net.HttpHeaders.USER_AGENT;
+import static io.airlift.http.client.HttpUriBuilder.uriBuilderFrom;
+import static io.airlift.http.client.Request.Builder.prepareDelete;
+import static io.airlift.http.client.Request.Builder.prepareGet;
+import static io.airlift.http.client.StatusResponseHandler.createStatusResponseHandler;
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * Reads the output buffers of a query with parallel results directly from the workers,
+ * with one request in flight per buffer. The pages are queued until they are polled,
+ * and a buffer is not read while the queue is full. A failed request is retried for the
+ * same sequence id with a growing delay, and the query only fails once a buffer has been
+ * failing for two minutes.
+ */
+@ThreadSafe
+class ParallelResultsReader
+        implements Closeable
+{
+    private static final int MAX_QUEUED_PAGES = 64;
+    private static final long MAX_ERROR_DURATION_NANOS = MINUTES.toNanos(2);
+    private static final long MAX_RETRY_DELAY_NANOS = MILLISECONDS.toNanos(1000);
+    private static final MediaType COLUMNAR_PAGES_TYPE = MediaType.parse(PRESTO_COLUMNAR_PAGES);
+
+    private final AsyncHttpClient httpClient;
+    private final List<Column> columns;
+    private final String userAgent;
+
+    private final BlockingQueue<List<List<Object>>> pages = new LinkedBlockingQueue<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    @GuardedBy("this")
+    private final Map<URI, BufferReader> buffers = new HashMap<>();
+    @GuardedBy("this")
+    private final Queue<BufferReader> blockedBuffers = new ArrayDeque<>();
+    @GuardedBy("this")
+    private final List<BufferReader> failedBuffers = new ArrayList<>();
+    @GuardedBy("this")
+    private boolean closed;
+
+    ParallelResultsReader(AsyncHttpClient httpClient, List<Column> columns, String userAgent)
+    {
+        this.httpClient = checkNotNull(httpClient, "httpClient is null");
+        this.columns = ImmutableList.copyOf(checkNotNull(columns, "columns is null"));
+        this.userAgent = checkNotNull(userAgent, "userAgent is null");
+    }
+
+    /**
+     * Starts reading the buffers that are not already being read.
+     */
+    public synchronized void addLocations(List<URI> locations)
+    {
+        if (closed) {
+            return;
+        }
+        for (URI location : locations) {
+            if (!buffers.containsKey(location)) {
+                BufferReader buffer = new BufferReader(location);
+                buffers.put(location, buffer);
+                buffer.scheduleRequest();
+            }
+        }
+    }
+
+    /**
+     * Returns the queued pages, waiting up to the specified time for the first page.
+     */
+    public List<List<List<Object>>> poll(long maxWait, TimeUnit unit)
+    {
+        List<List<List<Object>>> result = new ArrayList<>();
+        try {
+            List<List<Object>> page = pages.poll(maxWait, unit);
+            if (page != null) {
+                result.add(page);
+                pages.drainTo(result);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+
+        Throwable cause = failure.get();
+        if (cause != null) {
+            throw new RuntimeException("Error reading query results", cause);
+        }
+
+        resumeBlockedBuffers();
+        retryFailedBuffers();
+        return result;
+    }
+
+    /**
+     * Returns true if all buffers added so far have been read completely and all pages have been polled.
+     */
+    public synchronized boolean isFinished()
+    {
+        for (BufferReader buffer : buffers.values()) {
+            if (!buffer.isFinished()) {
+                return false;
+            }
+        }
+        return pages.isEmpty();
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        for (BufferReader buffer : buffers.values()) {
+            buffer.abort();
+        }
+        blockedBuffers.clear();
+        failedBuffers.clear();
+        pages.clear();
+    }
+
+    private synchronized void resumeBlockedBuffers()
+    {
+        while (!closed && pages.size() < MAX_QUEUED_PAGES && !blockedBuffers.isEmpty()) {
+            blockedBuffers.poll().scheduleRequest();
+        }
+    }
+
+    private synchronized void retryFailedBuffers()
+    {
+        long now = System.nanoTime();
+        Iterator<BufferReader> iterator = failedBuffers.iterator();
+        while (!closed && iterator.hasNext()) {
+            BufferReader buffer = iterator.next();
+            if (buffer.isRetryDue(now)) {
+                iterator.remove();
+                buffer.scheduleRequest();
+            }
+        }
+    }
+
+    @ThreadSafe
+    private class BufferReader
+    {
+        private final URI location;
+
+        @GuardedBy("ParallelResultsReader.this")
+        private long sequenceId;
+        @GuardedBy("ParallelResultsReader.this")
+        private boolean finished;
+        @GuardedBy("ParallelResultsReader.this")
+        private ListenableFuture<?> future;
+        @GuardedBy("ParallelResultsReader.this")
+        private int errorCount;
+        @GuardedBy("ParallelResultsReader.this")
+        private long firstErrorNanos;
+        @GuardedBy("ParallelResultsReader.this")
+        private long nextRequestNanos;
+
+        private BufferReader(URI location)
+        {
+            this.location = location;
+        }
+
+        public boolean isFinished()
+        {
+            synchronized (ParallelResultsReader.this) {
+                return finished;
+            }
+        }
+
+        public void scheduleRequest()
+        {
+            synchronized (ParallelResultsReader.this) {
+                Request request = prepareGet()
+                        .setHeader(USER_AGENT, userAgent)
+                        .setHeader(ACCEPT, PRESTO_COLUMNAR_PAGES)
+                        .setUri(uriBuilderFrom(location).appendPath(String.valueOf(sequenceId)).build())
+                        .build();
+                ListenableFuture<BufferResponse> future = httpClient.executeAsync(request, new BufferResponseHandler(columns));
+                this.future = future;
+
+                Futures.addCallback(future, new FutureCallback<BufferResponse>()
+                {
+                    @Override
+                    public void onSuccess(BufferResponse response)
+                    {
+                        requestComplete(response);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t)
+                    {
+                        requestFailed(t);
+                    }
+                });
+            }
+        }
+
+        private boolean isRetryDue(long now)
+        {
+            synchronized (ParallelResultsReader.this) {
+                return now - nextRequestNanos >= 0;
+            }
+        }
+
+        private void requestFailed(Throwable t)
+        {
+            synchronized (ParallelResultsReader.this) {
+                future = null;
+                if (closed) {
+                    return;
+                }
+
+                long now = System.nanoTime();
+                if (errorCount == 0) {
+                    firstErrorNanos = now;
+                }
+                errorCount++;
+
+                // the retry asks for the same sequence id, so no pages are lost or read twice
+                if (now - firstErrorNanos < MAX_ERROR_DURATION_NANOS) {
+                    nextRequestNanos = now + Math.min(errorCount * MILLISECONDS.toNanos(100), MAX_RETRY_DELAY_NANOS);
+                    failedBuffers.add(this);
+                    return;
+                }
+            }
+            failure.compareAndSet(null, new RuntimeException(format("Error reading %s for more than two minutes", location), t));
+        }
+
+        private void requestComplete(BufferResponse response)
+        {
+            synchronized (ParallelResultsReader.this) {
+                future = null;
+                if (closed) {
+                    return;
+                }
+                errorCount = 0;
+
+                // the pages are queued before the buffer is marked finished, so isFinished never misses them
+                List<List<List<Object>>> newPages = response.getPages(sequenceId);
+                sequenceId += newPages.size();
+                pages.addAll(newPages);
+
+                if (response.isBufferClosed()) {
+                    finished = true;
+                }
+                else if (pages.size() >= MAX_QUEUED_PAGES) {
+                    blockedBuffers.add(this);
+                }
+                else {
+                    scheduleRequest();
+                }
+            }
+        }
+
+        public void abort()
+        {
+            synchronized (ParallelResultsReader.this) {
+                if (future != null) {
+                    future.cancel(true);
+                    future = null;
+                }
+                if (finished) {
+                    return;
+                }
+                finished = true;
+            }
+
+            // abort the output buffer on the worker; the response is ignored
+            httpClient.executeAsync(prepareDelete().setHeader(USER_AGENT, userAgent).setUri(location).build(), createStatusResponseHandler());
+        }
+    }
+
+    private static class BufferResponse
+    {
+        private final long startingSequenceId;
+        private final List<List<List<Object>>> pages;
+        private final boolean bufferClosed;
+
+        private BufferResponse(long startingSequenceId, List<List<List<Object>>> pages, boolean bufferClosed)
+        {
+            this.startingSequenceId = startingSequenceId;
+            this.pages = pages;
+            this.bufferClosed = bufferClosed;
+        }
+
+        /**
+         * Returns the pages starting at the specified sequence id, as a retried request may return pages that were already read.
+         */
+        public List<List<List<Object>>> getPages(long sequenceId)
+        {
+            int skip = (int) Math.max(0, Math.min(sequenceId - startingSequenceId, pages.size()));
+            return pages.subList(skip, pages.size());
+        }
+
+        public boolean isBufferClosed()
+        {
+            return bufferClosed;
+        }
+    }
+
+    private static class BufferResponseHandler
+            implements ResponseHandler<BufferResponse, RuntimeException>
+    {
+        private final List<Column> columns;
+
+        private BufferResponseHandler(List<Column> columns)
+        {
+            this.columns = columns;
+        }
+
+        @Override
+        public BufferResponse handleException(Request request, Exception exception)
+        {
+            throw Throwables.propagate(exception);
+        }
+
+        @Override
+        public BufferResponse handle(Request request, Response response)
+        {
+            String sequenceIdHeader = response.getHeader(PRESTO_PAGE_SEQUENCE_ID);
+            if (sequenceIdHeader == null) {
+                throw new IllegalStateException(format("Expected %s header from %s, but got %s %s", PRESTO_PAGE_SEQUENCE_ID, request.getUri(), response.getStatusCode(), response.getStatusMessage()));
+            }
+            long startingSequenceId = Long.parseLong(sequenceIdHeader);
+
+            // the buffer is finished when we get a GONE response
+            if (response.getStatusCode() == HttpStatus.GONE.code()) {
+                return new BufferResponse(startingSequenceId, ImmutableList.<List<List<Object>>>of(), true);
+            }
+
+            // no content means no pages were added within the wait period
+            if (response.getStatusCode() == HttpStatus.NO_CONTENT.code()) {
+                return new BufferResponse(startingSequenceId, ImmutableList.<List<List<Object>>>of(), false);
+            }
+
+            String contentType = response.getHeader(CONTENT_TYPE);
+            if (response.getStatusCode() != HttpStatus.OK.code() || contentType == null || !MediaType.parse(contentType).is(COLUMNAR_PAGES_TYPE)) {
+                throw new IllegalStateException(format("Expected %s response from %s, but got %s %s (%s)", PRESTO_COLUMNAR_PAGES, request.getUri(), response.getStatusCode(), response.getStatusMessage(), contentType));
+            }
+
+            try {
+                return new BufferResponse(startingSequenceId, ColumnarResults.readPages(response.getInputStream(), columns), false);
+            }
+            catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+}
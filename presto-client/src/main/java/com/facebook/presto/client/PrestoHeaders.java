@@ -19,8 +19,10 @@ public final class PrestoHeaders
     public static final String PRESTO_SOURCE = "X-Presto-Source";
     public static final String PRESTO_CATALOG = "X-Presto-Catalog";
     public static final String PRESTO_SCHEMA = "X-Presto-Schema";
+    public static final String PRESTO_PARALLEL_RESULTS = "X-Presto-Parallel-Results";
 
     public static final String PRESTO_CURRENT_STATE = "X-Presto-Current-State";
+    public static final String PRESTO_CURRENT_VERSION = "X-Presto-Current-Version";
     public static final String PRESTO_MAX_WAIT = "X-Presto-Max-Wait";
     public static final String PRESTO_MAX_SIZE = "X-Presto-Max-Size";
     public static final String PRESTO_PAGE_SEQUENCE_ID = "X-Presto-Page-Sequence-Id";
@@ -40,6 +40,7 @@ public class QueryResults
     private final URI nextUri;
     private final List<Column> columns;
     private final Iterable<List<Object>> data;
+    private final List<URI> dataUris;
     private final StatementStats stats;
     private final QueryError error;
 
@@ -51,10 +52,11 @@ public class QueryResults
             @JsonProperty("nextUri") URI nextUri,
             @JsonProperty("columns") List<Column> columns,
             @JsonProperty("data") List<List<Object>> data,
+            @JsonProperty("dataUris") List<URI> dataUris,
             @JsonProperty("stats") StatementStats stats,
             @JsonProperty("error") QueryError error)
     {
-        this(id, infoUri, partialCancelUri, nextUri, columns, fixData(columns, data), stats, error);
+        this(id, infoUri, partialCancelUri, nextUri, columns, fixData(columns, data), dataUris, stats, error);
     }
 
     public QueryResults(
@@ -64,6 +66,7 @@ public class QueryResults
             URI nextUri,
             List<Column> columns,
             Iterable<List<Object>> data,
+            List<URI> dataUris,
             StatementStats stats,
             QueryError error)
     {
@@ -73,6 +76,7 @@ public class QueryResults
         this.nextUri = nextUri;
         this.columns = (columns != null) ? ImmutableList.copyOf(columns) : null;
         this.data = (data != null) ? unmodifiableIterable(data) : null;
+        this.dataUris = (dataUris != null) ? ImmutableList.copyOf(dataUris) : null;
         this.stats = checkNotNull(stats, "stats is null");
         this.error = error;
     }
@@ -119,6 +123,17 @@ public class QueryResults
         return data;
     }
 
+    /**
+     * Returns the output buffers the data of the query can be read from, when the client requested
+     * parallel results. The data of these buffers is not included in {@link #getData()}.
+     */
+    @Nullable
+    @JsonProperty
+    public List<URI> getDataUris()
+    {
+        return dataUris;
+    }
+
     @NotNull
     @JsonProperty
     public StatementStats getStats()
@@ -143,6 +158,7 @@ public class QueryResults
                 .add("nextUri", nextUri)
                 .add("columns", columns)
                 .add("hasData", data != null)
+                .add("dataUris", dataUris)
                 .add("stats", stats)
                 .add("error", error)
                 .toString();
@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.client;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.MediaType;
+import io.airlift.http.client.HttpStatus;
+import io.airlift.http.client.Request;
+import io.airlift.http.client.Response;
+import io.airlift.http.client.ResponseHandler;
+import io.airlift.json.JsonCodec;
+
+import java.io.IOException;
+
+import static com.facebook.presto.client.ColumnarResults.PRESTO_COLUMNAR_RESULTS;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.net.HttpHeaders.CONTENT_TYPE;
+import static java.lang.String.format;
+
+/**
+ * Reads query results sent either as JSON or in the {@link ColumnarResults} encoding,
+ * depending on the content type of the response.
+ */
+class QueryResultsResponseHandler
+        implements ResponseHandler<QueryResultsResponseHandler.QueryResultsResponse, RuntimeException>
+{
+    private static final MediaType COLUMNAR_RESULTS_TYPE = MediaType.parse(PRESTO_COLUMNAR_RESULTS);
+
+    private final JsonCodec<QueryResults> queryResultsCodec;
+
+    QueryResultsResponseHandler(JsonCodec<QueryResults> queryResultsCodec)
+    {
+        this.queryResultsCodec = checkNotNull(queryResultsCodec, "queryResultsCodec is null");
+    }
+
+    @Override
+    public QueryResultsResponse handleException(Request request, Exception exception)
+    {
+        throw Throwables.propagate(exception);
+    }
+
+    @Override
+    public QueryResultsResponse handle(Request request, Response response)
+    {
+        if (response.getStatusCode() != HttpStatus.OK.code()) {
+            return new QueryResultsResponse(response.getStatusCode(), response.getStatusMessage(), null);
+        }
+
+        String contentType = response.getHeader(CONTENT_TYPE);
+        if (contentType == null) {
+            return new QueryResultsResponse(response.getStatusCode(), response.getStatusMessage(), null);
+        }
+        MediaType mediaType = MediaType.parse(contentType);
+
+        try {
+            QueryResults results;
+            if (mediaType.is(COLUMNAR_RESULTS_TYPE)) {
+                results = ColumnarResults.readQueryResults(response.getInputStream(), queryResultsCodec);
+            }
+            else if (mediaType.is(MediaType.JSON_UTF_8.withoutParameters())) {
+                String json = new String(ByteStreams.toByteArray(response.getInputStream()), Charsets.UTF_8);
+                results = queryResultsCodec.fromJson(json);
+            }
+            else {
+                return new QueryResultsResponse(response.getStatusCode(), response.getStatusMessage(), null);
+            }
+            return new QueryResultsResponse(response.getStatusCode(), response.getStatusMessage(), results);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(format("Error reading query results from %s", request.getUri()), e);
+        }
+    }
+
+    public static class QueryResultsResponse
+    {
+        private final int statusCode;
+        private final String statusMessage;
+        private final QueryResults value;
+
+        public QueryResultsResponse(int statusCode, String statusMessage, QueryResults value)
+        {
+            this.statusCode = statusCode;
+            this.statusMessage = statusMessage;
+            this.value = value;
+        }
+
+        public int getStatusCode()
+        {
+            return statusCode;
+        }
+
+        public String getStatusMessage()
+        {
+            return statusMessage;
+        }
+
+        public boolean hasValue()
+        {
+            return value != null;
+        }
+
+        public QueryResults getValue()
+        {
+            checkState(value != null, "Response does not contain query results: %s %s", statusCode, statusMessage);
+            return value;
+        }
+    }
+}
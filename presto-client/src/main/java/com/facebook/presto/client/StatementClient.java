@@ -13,10 +13,11 @@
  */
 package com.facebook.presto.client;
 
+import com.facebook.presto.client.QueryResultsResponseHandler.QueryResultsResponse;
 import com.google.common.base.Charsets;
 import com.google.common.base.Objects;
+import com.google.common.collect.Iterables;
 import io.airlift.http.client.AsyncHttpClient;
-import io.airlift.http.client.FullJsonResponseHandler;
 import io.airlift.http.client.HttpStatus;
 import io.airlift.http.client.Request;
 import io.airlift.json.JsonCodec;
@@ -25,15 +26,18 @@ import javax.annotation.concurrent.ThreadSafe;
 
 import java.io.Closeable;
 import java.net.URI;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static com.facebook.presto.client.ColumnarResults.PRESTO_COLUMNAR_RESULTS;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.net.HttpHeaders.ACCEPT;
 import static com.google.common.net.HttpHeaders.USER_AGENT;
+import static com.google.common.net.MediaType.JSON_UTF_8;
 import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
-import static io.airlift.http.client.FullJsonResponseHandler.JsonResponse;
-import static io.airlift.http.client.FullJsonResponseHandler.createFullJsonResponseHandler;
 import static io.airlift.http.client.HttpStatus.Family;
 import static io.airlift.http.client.HttpStatus.familyForStatusCode;
 import static io.airlift.http.client.HttpUriBuilder.uriBuilderFrom;
@@ -46,6 +50,7 @@ import static io.airlift.http.client.StatusResponseHandler.createStatusResponseH
 import static java.lang.String.format;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 @ThreadSafe
 public class StatementClient
@@ -54,17 +59,49 @@ public class StatementClient
     private static final String USER_AGENT_VALUE = StatementClient.class.getSimpleName() +
             "/" +
             Objects.firstNonNull(StatementClient.class.getPackage().getImplementationVersion(), "unknown");
+    private static final String JSON = JSON_UTF_8.withoutParameters().toString();
+    // the coordinator abandons queries that are not polled within the client timeout (at least five seconds)
+    private static final long COORDINATOR_POLL_INTERVAL_NANOS = SECONDS.toNanos(1);
 
     private final AsyncHttpClient httpClient;
-    private final FullJsonResponseHandler<QueryResults> responseHandler;
+    private final QueryResultsResponseHandler responseHandler;
+    private final String acceptedMediaTypes;
     private final boolean debug;
     private final String query;
     private final AtomicReference<QueryResults> currentResults = new AtomicReference<>();
     private final AtomicBoolean closed = new AtomicBoolean();
     private final AtomicBoolean gone = new AtomicBoolean();
     private final AtomicBoolean valid = new AtomicBoolean(true);
+    private final boolean parallelResults;
+    private final AtomicReference<ParallelResultsReader> parallelResultsReader = new AtomicReference<>();
+    private final AtomicLong lastCoordinatorPoll = new AtomicLong(System.nanoTime());
 
     public StatementClient(AsyncHttpClient httpClient, JsonCodec<QueryResults> queryResultsCodec, ClientSession session, String query)
+    {
+        this(httpClient, queryResultsCodec, session, query, false);
+    }
+
+    /**
+     * @param columnarResults request the results in the compact {@link ColumnarResults} encoding,
+     * falling back to JSON if the server does not support it
+     */
+    public StatementClient(AsyncHttpClient httpClient, JsonCodec<QueryResults> queryResultsCodec, ClientSession session, String query, boolean columnarResults)
+    {
+        this(httpClient, queryResultsCodec, session, query, columnarResults, false);
+    }
+
+    /**
+     * @param columnarResults request the results in the compact {@link ColumnarResults} encoding,
+     * falling back to JSON if the server does not support it
+     * @param parallelResults read the results directly from the output buffers of the workers, in parallel,
+     * instead of through the coordinator; the output of the query is not gathered on a single node
+     */
+    public StatementClient(AsyncHttpClient httpClient,
+            JsonCodec<QueryResults> queryResultsCodec,
+            ClientSession session,
+            String query,
+            boolean columnarResults,
+            boolean parallelResults)
     {
         checkNotNull(httpClient, "httpClient is null");
         checkNotNull(queryResultsCodec, "queryResultsCodec is null");
@@ -72,15 +109,25 @@ public class StatementClient
         checkNotNull(query, "query is null");
 
         this.httpClient = httpClient;
-        this.responseHandler = createFullJsonResponseHandler(queryResultsCodec);
+        this.responseHandler = new QueryResultsResponseHandler(queryResultsCodec);
+        if (columnarResults) {
+            // older servers only produce JSON
+            this.acceptedMediaTypes = PRESTO_COLUMNAR_RESULTS + ", " + JSON + "; q=0.5";
+        }
+        else {
+            this.acceptedMediaTypes = JSON;
+        }
         this.debug = session.isDebug();
         this.query = query;
+        this.parallelResults = parallelResults;
 
-        Request request = buildQueryRequest(session, query);
-        currentResults.set(httpClient.execute(request, responseHandler).getValue());
+        Request request = buildQueryRequest(session, query, acceptedMediaTypes, parallelResults);
+        QueryResults results = httpClient.execute(request, responseHandler).getValue();
+        currentResults.set(results);
+        addDataUris(results);
     }
 
-    private static Request buildQueryRequest(ClientSession session, String query)
+    private static Request buildQueryRequest(ClientSession session, String query, String acceptedMediaTypes, boolean parallelResults)
     {
         Request.Builder builder = preparePost()
                 .setUri(uriBuilderFrom(session.getServer()).replacePath("/v1/statement").build())
@@ -98,7 +145,11 @@ public class StatementClient
         if (session.getSchema() != null) {
             builder.setHeader(PrestoHeaders.PRESTO_SCHEMA, session.getSchema());
         }
+        if (parallelResults) {
+            builder.setHeader(PrestoHeaders.PRESTO_PARALLEL_RESULTS, "true");
+        }
         builder.setHeader(USER_AGENT, USER_AGENT_VALUE);
+        builder.setHeader(ACCEPT, acceptedMediaTypes);
 
         return builder.build();
     }
@@ -147,14 +198,118 @@ public class StatementClient
 
     public boolean advance()
     {
+        if (parallelResults) {
+            return advanceParallel();
+        }
+
         if (isClosed() || (current().getNextUri() == null)) {
             valid.set(false);
             return false;
         }
 
+        currentResults.set(fetchNextResults());
+        return true;
+    }
+
+    /**
+     * Returns the data read from the output buffers of the workers, if any, and otherwise
+     * polls the coordinator for the state of the query and new output buffers. The coordinator
+     * is also polled at least once per second while data is being read, which keeps the query
+     * alive and picks up output buffers added after the query started.
+     */
+    private boolean advanceParallel()
+    {
+        if (isClosed() || isFailed()) {
+            closeParallelResultsReader();
+            valid.set(false);
+            return false;
+        }
+
+        QueryResults current = current();
+        ParallelResultsReader reader = parallelResultsReader.get();
+        boolean queryDone = current.getNextUri() == null;
+
+        if (reader != null) {
+            // once the query is done, only the buffered data remains, so wait for it
+            List<List<List<Object>>> pages = reader.poll(queryDone ? 1000 : 0, MILLISECONDS);
+            if (!pages.isEmpty()) {
+                if (!queryDone && System.nanoTime() - lastCoordinatorPoll.get() >= COORDINATOR_POLL_INTERVAL_NANOS) {
+                    // do not wait for a state change, as the data is already here
+                    current = fetchNextResults(uriBuilderFrom(current.getNextUri()).addParameter("maxWait", "0ms").build());
+                    addDataUris(current);
+                }
+                currentResults.set(withData(current, Iterables.<List<Object>>concat(pages)));
+                return true;
+            }
+        }
+
+        if (queryDone) {
+            if (reader == null || reader.isFinished()) {
+                valid.set(false);
+                return false;
+            }
+            currentResults.set(withData(current, null));
+            return true;
+        }
+
+        QueryResults results = fetchNextResults();
+        currentResults.set(results);
+        addDataUris(results);
+        return true;
+    }
+
+    private void addDataUris(QueryResults results)
+    {
+        if (!parallelResults || results.getDataUris() == null || results.getColumns() == null) {
+            return;
+        }
+
+        ParallelResultsReader reader = parallelResultsReader.get();
+        if (reader == null) {
+            parallelResultsReader.compareAndSet(null, new ParallelResultsReader(httpClient, results.getColumns(), USER_AGENT_VALUE));
+            reader = parallelResultsReader.get();
+        }
+        reader.addLocations(results.getDataUris());
+
+        // the client may have been closed while the reader was created
+        if (isClosed()) {
+            closeParallelResultsReader();
+        }
+    }
+
+    private void closeParallelResultsReader()
+    {
+        ParallelResultsReader reader = parallelResultsReader.get();
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+    private static QueryResults withData(QueryResults results, Iterable<List<Object>> data)
+    {
+        return new QueryResults(
+                results.getId(),
+                results.getInfoUri(),
+                results.getPartialCancelUri(),
+                results.getNextUri(),
+                results.getColumns(),
+                data,
+                results.getDataUris(),
+                results.getStats(),
+                results.getError());
+    }
+
+    private QueryResults fetchNextResults()
+    {
+        return fetchNextResults(current().getNextUri());
+    }
+
+    private QueryResults fetchNextResults(URI nextUri)
+    {
         Request request = prepareGet()
                 .setHeader(USER_AGENT, USER_AGENT_VALUE)
-                .setUri(current().getNextUri())
+                .setHeader(ACCEPT, acceptedMediaTypes)
+                .setUri(nextUri)
                 .build();
 
         Exception cause = null;
@@ -168,7 +323,7 @@ public class StatementClient
             }
             attempts++;
 
-            JsonResponse<QueryResults> response;
+            QueryResultsResponse response;
             try {
                 response = httpClient.execute(request, responseHandler);
             }
@@ -178,8 +333,8 @@ public class StatementClient
             }
 
             if (response.getStatusCode() == HttpStatus.OK.code() && response.hasValue()) {
-                currentResults.set(response.getValue());
-                return true;
+                lastCoordinatorPoll.set(System.nanoTime());
+                return response.getValue();
             }
 
             if (response.getStatusCode() != HttpStatus.SERVICE_UNAVAILABLE.code()) {
@@ -217,6 +372,8 @@ public class StatementClient
     public void close()
     {
         if (!closed.getAndSet(true)) {
+            closeParallelResultsReader();
+
             URI uri = currentResults.get().getNextUri();
             if (uri != null) {
                 Request request = prepareDelete()
@@ -27,6 +27,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class StatementStats
 {
     private final String state;
+    private final Integer queuePosition;
     private final boolean scheduled;
     private final int nodes;
     private final int totalSplits;
@@ -43,6 +44,7 @@ public class StatementStats
     @JsonCreator
     public StatementStats(
             @JsonProperty("state") String state,
+            @JsonProperty("queuePosition") Integer queuePosition,
             @JsonProperty("scheduled") boolean scheduled,
             @JsonProperty("nodes") int nodes,
             @JsonProperty("totalSplits") int totalSplits,
@@ -57,6 +59,7 @@ public class StatementStats
             @JsonProperty("rootStage") StageStats rootStage)
     {
         this.state = checkNotNull(state, "state is null");
+        this.queuePosition = queuePosition;
         this.scheduled = scheduled;
         this.nodes = nodes;
         this.totalSplits = totalSplits;
@@ -78,6 +81,16 @@ public class StatementStats
         return state;
     }
 
+    /**
+     * The number of queries ahead of this query in the admission queue, or null if the query is not queued.
+     */
+    @Nullable
+    @JsonProperty
+    public Integer getQueuePosition()
+    {
+        return queuePosition;
+    }
+
     @JsonProperty
     public boolean isScheduled()
     {
@@ -156,6 +169,7 @@ public class StatementStats
     {
         return Objects.toStringHelper(this)
                 .add("state", state)
+                .add("queuePosition", queuePosition)
                 .add("scheduled", scheduled)
                 .add("nodes", nodes)
                 .add("totalSplits", totalSplits)
@@ -179,6 +193,7 @@ public class StatementStats
     public static class Builder
     {
         private String state;
+        private Integer queuePosition;
         private boolean scheduled;
         private int nodes;
         private int totalSplits;
@@ -200,6 +215,12 @@ public class StatementStats
             return this;
         }
 
+        public Builder setQueuePosition(Integer queuePosition)
+        {
+            this.queuePosition = queuePosition;
+            return this;
+        }
+
         public Builder setNodes(int nodes)
         {
             this.nodes = nodes;
@@ -276,6 +297,7 @@ public class StatementStats
         {
             return new StatementStats(
                     state,
+                    queuePosition,
                     scheduled,
                     nodes,
                     totalSplits,
@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.hive;
+
+import com.facebook.presto.spi.BatchRecordSet;
+import com.facebook.presto.spi.ColumnType;
+import com.facebook.presto.spi.RecordBatchCursor;
+import com.facebook.presto.spi.RecordCursor;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Exposes the batch reader of a {@link HiveRecordSet} for splits that support it.
+ */
+public class HiveBatchRecordSet
+        implements BatchRecordSet
+{
+    private final HiveRecordSet recordSet;
+
+    public HiveBatchRecordSet(HiveRecordSet recordSet)
+    {
+        this.recordSet = checkNotNull(recordSet, "recordSet is null");
+        checkArgument(recordSet.supportsBatchCursor(), "recordSet does not support batch reads");
+    }
+
+    @Override
+    public List<ColumnType> getColumnTypes()
+    {
+        return recordSet.getColumnTypes();
+    }
+
+    @Override
+    public RecordCursor cursor()
+    {
+        return recordSet.cursor();
+    }
+
+    @Override
+    public RecordBatchCursor batchCursor()
+    {
+        return recordSet.batchCursor();
+    }
+}
@@ -492,7 +492,11 @@ public class HiveClient
         checkArgument(split instanceof HiveSplit, "expected instance of %s: %s", HiveSplit.class, split.getClass());
 
         List<HiveColumnHandle> hiveColumns = ImmutableList.copyOf(transform(columns, hiveColumnHandle()));
-        return new HiveRecordSet(hdfsEnvironment, (HiveSplit) split, hiveColumns);
+        HiveRecordSet recordSet = new HiveRecordSet(hdfsEnvironment, (HiveSplit) split, hiveColumns);
+        if (recordSet.supportsBatchCursor()) {
+            return new HiveBatchRecordSet(recordSet);
+        }
+        return recordSet;
     }
 
     @Override
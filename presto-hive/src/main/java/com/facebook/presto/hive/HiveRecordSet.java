@@ -15,14 +15,18 @@ package com.facebook.presto.hive;
 
 import com.facebook.presto.hadoop.HadoopNative;
 import com.facebook.presto.spi.ColumnType;
+import com.facebook.presto.spi.RecordBatchCursor;
 import com.facebook.presto.spi.RecordCursor;
 import com.facebook.presto.spi.RecordSet;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.metastore.api.MetaException;
+import org.apache.hadoop.hive.ql.io.RCFile;
+import org.apache.hadoop.hive.ql.io.RCFileInputFormat;
 import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
@@ -127,6 +131,30 @@ public class HiveRecordSet
                 columns);
     }
 
+    /**
+     * Can this split be read with {@link #batchCursor}?
+     */
+    boolean supportsBatchCursor()
+    {
+        return isRcFile(split) && usesColumnarSerDe(split);
+    }
+
+    RecordBatchCursor batchCursor()
+    {
+        checkState(supportsBatchCursor(), "split is not a columnar RCFile: %s", split.getPath());
+
+        // Tell hive the columns we would like to read, so the reader can skip the other columns
+        ColumnProjectionUtils.setReadColumnIDs(configuration, readHiveColumnIndexes);
+
+        return new RcFileHiveRecordBatchCursor(
+                createRcFileReader(split, configuration, wrappedPath),
+                split.getStart(),
+                split.getLength(),
+                split.getSchema(),
+                split.getPartitionKeys(),
+                columns);
+    }
+
     @SuppressWarnings("unchecked")
     private static RecordReader<?, BytesRefArrayWritable> bytesRecordReader(RecordReader<?, ?> recordReader)
     {
@@ -139,6 +167,11 @@ public class HiveRecordSet
         return (RecordReader<?, ? extends Writable>) recordReader;
     }
 
+    private static boolean isRcFile(HiveSplit split)
+    {
+        return getInputFormatName(split.getSchema()).equals(RCFileInputFormat.class.getName());
+    }
+
     private static boolean usesColumnarSerDe(HiveSplit split)
     {
         try {
@@ -197,6 +230,31 @@ public class HiveRecordSet
         }
     }
 
+    private static RCFile.Reader createRcFileReader(HiveSplit split, final Configuration configuration, final Path wrappedPath)
+    {
+        try {
+            return retry().stopOnIllegalExceptions().run("createRcFileReader", new Callable<RCFile.Reader>()
+            {
+                @Override
+                public RCFile.Reader call()
+                        throws IOException
+                {
+                    FileSystem fileSystem = wrappedPath.getFileSystem(configuration);
+                    return new RCFile.Reader(fileSystem, wrappedPath, configuration);
+                }
+            });
+        }
+        catch (Exception e) {
+            throw new RuntimeException(String.format("Error opening Hive split %s (offset=%s, length=%s) using %s: %s",
+                    split.getPath(),
+                    split.getStart(),
+                    split.getLength(),
+                    RCFile.class.getSimpleName(),
+                    e.getMessage()),
+                    e);
+        }
+    }
+
     private static FileSplit createFileSplit(final Path path, long start, long length)
     {
         return new FileSplit(path, start, length, (String[]) null)
@@ -0,0 +1,664 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.hive;
+
+import com.facebook.presto.hive.shaded.org.apache.commons.codec.binary.Base64;
+import com.facebook.presto.spi.ColumnType;
+import com.facebook.presto.spi.RecordBatchCursor;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import org.apache.hadoop.hive.metastore.api.MetaException;
+import org.apache.hadoop.hive.ql.io.RCFile;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.SerDeUtils;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefWritable;
+import org.apache.hadoop.hive.serde2.lazy.ByteArrayRef;
+import org.apache.hadoop.hive.serde2.lazy.LazyFactory;
+import org.apache.hadoop.hive.serde2.lazy.LazyObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.Text;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static com.facebook.presto.hive.HiveBooleanParser.isFalse;
+import static com.facebook.presto.hive.HiveBooleanParser.isTrue;
+import static com.facebook.presto.hive.HiveUtil.getTableObjectInspector;
+import static com.facebook.presto.hive.HiveUtil.parseHiveTimestamp;
+import static com.facebook.presto.hive.NumberParser.parseDouble;
+import static com.facebook.presto.hive.NumberParser.parseLong;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.Maps.uniqueIndex;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Reads an RCFile one row group at a time. A column of the current row group is only
+ * decompressed and decoded when the batch values of that column are requested, so columns
+ * that are never read are never decoded. String values are handed out directly from the
+ * decompressed column buffer when possible.
+ */
+class RcFileHiveRecordBatchCursor
+        implements RecordBatchCursor
+{
+    private static final int INITIAL_BATCH_CAPACITY = 1024;
+
+    private final RCFile.Reader reader;
+    private final long start;
+    private final long end;
+    private final long totalBytes;
+    private final int fileColumnCount;
+
+    @SuppressWarnings("FieldCanBeLocal") // include names for debugging
+    private final String[] names;
+    private final ColumnType[] types;
+    private final HiveType[] hiveTypes;
+
+    private final ObjectInspector[] fieldInspectors; // DON'T USE THESE UNLESS EXTRACTION WILL BE SLOW ANYWAY
+
+    private final int[] hiveColumnIndexes;
+
+    private final boolean[] isPartitionColumn;
+    private final boolean[] partitionBooleans;
+    private final long[] partitionLongs;
+    private final double[] partitionDoubles;
+    private final byte[][] partitionStrings;
+
+    private final BytesRefArrayWritable[] columnValues;
+    private final boolean[] loaded;
+
+    private int capacity;
+    private final boolean[][] booleans;
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final byte[][] stringBytes;
+    private final byte[][] stringBuffers;
+    private final int[][] stringOffsets;
+    private final boolean[][] nulls;
+
+    private int batchSize;
+    private boolean more;
+    private long completedBytes;
+    private boolean closed;
+
+    public RcFileHiveRecordBatchCursor(RCFile.Reader reader,
+            long start,
+            long length,
+            Properties splitSchema,
+            List<HivePartitionKey> partitionKeys,
+            List<HiveColumnHandle> columns)
+    {
+        checkNotNull(reader, "reader is null");
+        checkArgument(start >= 0, "start is negative");
+        checkArgument(length >= 0, "length is negative");
+        checkNotNull(splitSchema, "splitSchema is null");
+        checkNotNull(partitionKeys, "partitionKeys is null");
+        checkNotNull(columns, "columns is null");
+        checkArgument(!columns.isEmpty(), "columns is empty");
+
+        this.reader = reader;
+        this.totalBytes = length;
+        this.end = start + length;
+
+        // position the reader at the first row group that starts in this split
+        try {
+            if (start > reader.getPosition()) {
+                reader.sync(start);
+            }
+            this.start = reader.getPosition();
+        }
+        catch (IOException e) {
+            close();
+            throw Throwables.propagate(e);
+        }
+        this.more = this.start < end;
+        this.fileColumnCount = getFileColumnCount(reader);
+
+        int size = columns.size();
+
+        this.names = new String[size];
+        this.types = new ColumnType[size];
+        this.hiveTypes = new HiveType[size];
+
+        this.fieldInspectors = new ObjectInspector[size];
+
+        this.hiveColumnIndexes = new int[size];
+
+        this.isPartitionColumn = new boolean[size];
+        this.partitionBooleans = new boolean[size];
+        this.partitionLongs = new long[size];
+        this.partitionDoubles = new double[size];
+        this.partitionStrings = new byte[size][];
+
+        this.columnValues = new BytesRefArrayWritable[size];
+        this.loaded = new boolean[size];
+
+        this.booleans = new boolean[size][];
+        this.longs = new long[size][];
+        this.doubles = new double[size][];
+        this.stringBytes = new byte[size][];
+        this.stringBuffers = new byte[size][];
+        this.stringOffsets = new int[size][];
+        this.nulls = new boolean[size][];
+
+        // initialize data columns
+        try {
+            StructObjectInspector rowInspector = getTableObjectInspector(splitSchema);
+
+            for (int i = 0; i < columns.size(); i++) {
+                HiveColumnHandle column = columns.get(i);
+
+                names[i] = column.getName();
+                types[i] = column.getType();
+                hiveTypes[i] = column.getHiveType();
+
+                if (!column.isPartitionKey()) {
+                    fieldInspectors[i] = rowInspector.getStructFieldRef(column.getName()).getFieldObjectInspector();
+                    columnValues[i] = new BytesRefArrayWritable();
+                }
+
+                hiveColumnIndexes[i] = column.getHiveColumnIndex();
+                isPartitionColumn[i] = column.isPartitionKey();
+            }
+        }
+        catch (MetaException | SerDeException | RuntimeException e) {
+            close();
+            throw Throwables.propagate(e);
+        }
+
+        // parse requested partition columns
+        Map<String, HivePartitionKey> partitionKeysByName = uniqueIndex(partitionKeys, HivePartitionKey.nameGetter());
+        for (int columnIndex = 0; columnIndex < columns.size(); columnIndex++) {
+            HiveColumnHandle column = columns.get(columnIndex);
+            if (column.isPartitionKey()) {
+                HivePartitionKey partitionKey = partitionKeysByName.get(column.getName());
+                checkArgument(partitionKey != null, "Unknown partition key %s", column.getName());
+
+                byte[] bytes = partitionKey.getValue().getBytes(Charsets.UTF_8);
+
+                switch (types[columnIndex]) {
+                    case BOOLEAN:
+                        if (isTrue(bytes, 0, bytes.length)) {
+                            partitionBooleans[columnIndex] = true;
+                        }
+                        else if (isFalse(bytes, 0, bytes.length)) {
+                            partitionBooleans[columnIndex] = false;
+                        }
+                        else {
+                            String valueString = new String(bytes, Charsets.UTF_8);
+                            throw new IllegalArgumentException(String.format("Invalid partition value '%s' for BOOLEAN partition key %s", valueString, names[columnIndex]));
+                        }
+                        break;
+                    case LONG:
+                        if (bytes.length == 0) {
+                            throw new IllegalArgumentException(String.format("Invalid partition value '' for BIGINT partition key %s", names[columnIndex]));
+                        }
+                        partitionLongs[columnIndex] = parseLong(bytes, 0, bytes.length);
+                        break;
+                    case DOUBLE:
+                        if (bytes.length == 0) {
+                            throw new IllegalArgumentException(String.format("Invalid partition value '' for DOUBLE partition key %s", names[columnIndex]));
+                        }
+                        partitionDoubles[columnIndex] = parseDouble(bytes, 0, bytes.length);
+                        break;
+                    case STRING:
+                        partitionStrings[columnIndex] = Arrays.copyOf(bytes, bytes.length);
+                        break;
+                    default:
+                        throw new UnsupportedOperationException("Unsupported column type: " + types[columnIndex]);
+                }
+            }
+        }
+
+        ensureCapacity(INITIAL_BATCH_CAPACITY);
+    }
+
+    private static int getFileColumnCount(RCFile.Reader reader)
+    {
+        Text columnCount = reader.getMetadata().get(new Text(RCFile.COLUMN_NUMBER_METADATA_STR));
+        if (columnCount == null) {
+            return Integer.MAX_VALUE;
+        }
+        return Integer.parseInt(columnCount.toString());
+    }
+
+    @Override
+    public long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    @Override
+    public long getCompletedBytes()
+    {
+        if (!closed) {
+            try {
+                long newCompletedBytes = reader.getPosition() - start;
+                completedBytes = min(totalBytes, max(completedBytes, newCompletedBytes));
+            }
+            catch (IOException ignored) {
+            }
+        }
+        return completedBytes;
+    }
+
+    @Override
+    public ColumnType getType(int field)
+    {
+        return types[field];
+    }
+
+    @Override
+    public boolean advanceNextBatch()
+    {
+        try {
+            batchSize = 0;
+            while (batchSize == 0) {
+                // a row group belongs to the split containing the sync marker that precedes it
+                if (closed || !more || !reader.nextColumnsBatch() || reader.lastSeenSyncPos() >= end) {
+                    more = false;
+                    completedBytes = totalBytes;
+                    close();
+                    return false;
+                }
+                batchSize = reader.getCurrentKeyBufferObj().getNumberRows();
+            }
+            ensureCapacity(batchSize);
+
+            // partition keys are constant and everything else is decoded on first access
+            Arrays.fill(loaded, false);
+            return true;
+        }
+        catch (IOException | RuntimeException e) {
+            close();
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private void ensureCapacity(int size)
+    {
+        if (size <= capacity) {
+            return;
+        }
+
+        capacity = max(size, capacity * 2);
+        for (int field = 0; field < types.length; field++) {
+            nulls[field] = new boolean[capacity];
+            switch (types[field]) {
+                case BOOLEAN:
+                    booleans[field] = new boolean[capacity];
+                    break;
+                case LONG:
+                    longs[field] = new long[capacity];
+                    break;
+                case DOUBLE:
+                    doubles[field] = new double[capacity];
+                    break;
+                case STRING:
+                    stringOffsets[field] = new int[capacity + 1];
+                    if (stringBuffers[field] == null) {
+                        stringBuffers[field] = new byte[capacity];
+                    }
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unsupported column type: " + types[field]);
+            }
+        }
+    }
+
+    @Override
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    @Override
+    public boolean[] getBooleans(int field)
+    {
+        checkState(!closed, "Cursor is closed");
+
+        validateType(field, ColumnType.BOOLEAN);
+        if (!loaded[field]) {
+            loadColumn(field);
+        }
+        return booleans[field];
+    }
+
+    @Override
+    public long[] getLongs(int field)
+    {
+        checkState(!closed, "Cursor is closed");
+
+        validateType(field, ColumnType.LONG);
+        if (!loaded[field]) {
+            loadColumn(field);
+        }
+        return longs[field];
+    }
+
+    @Override
+    public double[] getDoubles(int field)
+    {
+        checkState(!closed, "Cursor is closed");
+
+        validateType(field, ColumnType.DOUBLE);
+        if (!loaded[field]) {
+            loadColumn(field);
+        }
+        return doubles[field];
+    }
+
+    @Override
+    public byte[] getStringBytes(int field)
+    {
+        checkState(!closed, "Cursor is closed");
+
+        validateType(field, ColumnType.STRING);
+        if (!loaded[field]) {
+            loadColumn(field);
+        }
+        return stringBytes[field];
+    }
+
+    @Override
+    public int[] getStringOffsets(int field)
+    {
+        checkState(!closed, "Cursor is closed");
+
+        validateType(field, ColumnType.STRING);
+        if (!loaded[field]) {
+            loadColumn(field);
+        }
+        return stringOffsets[field];
+    }
+
+    @Override
+    public boolean[] getNulls(int field)
+    {
+        checkState(!closed, "Cursor is closed");
+
+        if (!loaded[field]) {
+            loadColumn(field);
+        }
+        return nulls[field];
+    }
+
+    private void loadColumn(int field)
+    {
+        loaded[field] = true;
+
+        if (isPartitionColumn[field]) {
+            loadPartitionColumn(field);
+            return;
+        }
+
+        if (hiveColumnIndexes[field] >= fileColumnCount) {
+            // this partition may contain fewer fields than what's declared in the schema
+            // this happens when additional columns are added to the hive table after a partition has been created
+            Arrays.fill(nulls[field], 0, batchSize, true);
+            if (types[field] == ColumnType.STRING) {
+                Arrays.fill(stringOffsets[field], 0, batchSize + 1, 0);
+                stringBytes[field] = stringBuffers[field];
+            }
+            return;
+        }
+
+        BytesRefArrayWritable column;
+        try {
+            column = reader.getColumn(hiveColumnIndexes[field], columnValues[field]);
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        checkState(column.size() == batchSize, "Expected %s values in column %s, but found %s", batchSize, names[field], column.size());
+
+        switch (types[field]) {
+            case BOOLEAN:
+                parseBooleanColumn(field, column);
+                break;
+            case LONG:
+                parseLongColumn(field, column);
+                break;
+            case DOUBLE:
+                parseDoubleColumn(field, column);
+                break;
+            case STRING:
+                if (hiveTypes[field] == HiveType.STRING) {
+                    parseStringColumn(field, column);
+                }
+                else {
+                    parseEncodedStringColumn(field, column);
+                }
+                break;
+            default:
+                throw new UnsupportedOperationException("Unsupported column type: " + types[field]);
+        }
+    }
+
+    private void loadPartitionColumn(int field)
+    {
+        Arrays.fill(nulls[field], 0, batchSize, false);
+        switch (types[field]) {
+            case BOOLEAN:
+                Arrays.fill(booleans[field], 0, batchSize, partitionBooleans[field]);
+                break;
+            case LONG:
+                Arrays.fill(longs[field], 0, batchSize, partitionLongs[field]);
+                break;
+            case DOUBLE:
+                Arrays.fill(doubles[field], 0, batchSize, partitionDoubles[field]);
+                break;
+            case STRING:
+                byte[] value = partitionStrings[field];
+                byte[] buffer = stringBuffers[field];
+                if (buffer.length < value.length * batchSize) {
+                    buffer = new byte[value.length * batchSize];
+                    stringBuffers[field] = buffer;
+                }
+                int[] offsets = stringOffsets[field];
+                for (int position = 0; position < batchSize; position++) {
+                    offsets[position] = position * value.length;
+                    System.arraycopy(value, 0, buffer, offsets[position], value.length);
+                }
+                offsets[batchSize] = batchSize * value.length;
+                stringBytes[field] = buffer;
+                break;
+            default:
+                throw new UnsupportedOperationException("Unsupported column type: " + types[field]);
+        }
+    }
+
+    private void parseBooleanColumn(int field, BytesRefArrayWritable column)
+    {
+        boolean[] values = booleans[field];
+        boolean[] isNull = nulls[field];
+        for (int position = 0; position < batchSize; position++) {
+            BytesRefWritable value = column.unCheckedGet(position);
+            byte[] bytes = getData(value);
+            int start = value.getStart();
+            int length = value.getLength();
+
+            if (isTrue(bytes, start, length)) {
+                values[position] = true;
+                isNull[position] = false;
+            }
+            else if (isFalse(bytes, start, length)) {
+                values[position] = false;
+                isNull[position] = false;
+            }
+            else {
+                isNull[position] = true;
+            }
+        }
+    }
+
+    private void parseLongColumn(int field, BytesRefArrayWritable column)
+    {
+        long[] values = longs[field];
+        boolean[] isNull = nulls[field];
+        boolean timestamp = hiveTypes[field] == HiveType.TIMESTAMP;
+        for (int position = 0; position < batchSize; position++) {
+            BytesRefWritable value = column.unCheckedGet(position);
+            byte[] bytes = getData(value);
+            int start = value.getStart();
+            int length = value.getLength();
+
+            if (length == 0 || isNullSequence(bytes, start, length)) {
+                isNull[position] = true;
+            }
+            else if (timestamp) {
+                values[position] = parseHiveTimestamp(new String(bytes, start, length));
+                isNull[position] = false;
+            }
+            else {
+                values[position] = parseLong(bytes, start, length);
+                isNull[position] = false;
+            }
+        }
+    }
+
+    private void parseDoubleColumn(int field, BytesRefArrayWritable column)
+    {
+        double[] values = doubles[field];
+        boolean[] isNull = nulls[field];
+        for (int position = 0; position < batchSize; position++) {
+            BytesRefWritable value = column.unCheckedGet(position);
+            byte[] bytes = getData(value);
+            int start = value.getStart();
+            int length = value.getLength();
+
+            if (length == 0 || isNullSequence(bytes, start, length)) {
+                isNull[position] = true;
+            }
+            else {
+                values[position] = parseDouble(bytes, start, length);
+                isNull[position] = false;
+            }
+        }
+    }
+
+    private void parseStringColumn(int field, BytesRefArrayWritable column)
+    {
+        // RCFile stores the values of a column back to back in one buffer, so
+        // the offsets can point directly into the decompressed column data
+        int[] offsets = stringOffsets[field];
+        boolean[] isNull = nulls[field];
+        byte[] data = null;
+        for (int position = 0; position < batchSize; position++) {
+            BytesRefWritable value = column.unCheckedGet(position);
+            byte[] bytes = getData(value);
+            int start = value.getStart();
+            int length = value.getLength();
+
+            if (position == 0) {
+                data = bytes;
+                offsets[0] = start;
+            }
+            else if (bytes != data || start != offsets[position]) {
+                // values are not laid out back to back, so fall back to copying
+                parseEncodedStringColumn(field, column);
+                return;
+            }
+
+            isNull[position] = isNullSequence(bytes, start, length);
+            offsets[position + 1] = start + length;
+        }
+        stringBytes[field] = data;
+    }
+
+    private void parseEncodedStringColumn(int field, BytesRefArrayWritable column)
+    {
+        int[] offsets = stringOffsets[field];
+        boolean[] isNull = nulls[field];
+        byte[] buffer = stringBuffers[field];
+        int offset = 0;
+        offsets[0] = 0;
+        for (int position = 0; position < batchSize; position++) {
+            BytesRefWritable value = column.unCheckedGet(position);
+            byte[] bytes = getData(value);
+            int start = value.getStart();
+            int length = value.getLength();
+
+            isNull[position] = isNullSequence(bytes, start, length);
+            if (!isNull[position]) {
+                if (hiveTypes[field] == HiveType.MAP || hiveTypes[field] == HiveType.LIST || hiveTypes[field] == HiveType.STRUCT) {
+                    // temporarily special case MAP, LIST, and STRUCT types as strings
+                    // TODO: create a real parser for these complex types when we implement data types
+                    LazyObject<? extends ObjectInspector> lazyObject = LazyFactory.createLazyObject(fieldInspectors[field]);
+                    ByteArrayRef byteArrayRef = new ByteArrayRef();
+                    byteArrayRef.setData(bytes);
+                    lazyObject.init(byteArrayRef, start, length);
+                    bytes = SerDeUtils.getJSONString(lazyObject.getObject(), fieldInspectors[field]).getBytes(Charsets.UTF_8);
+                    start = 0;
+                    length = bytes.length;
+                }
+                else if (hiveTypes[field] == HiveType.BINARY) {
+                    // Hive base64 encodes binary data in a binary file format
+                    bytes = Base64.decodeBase64(Arrays.copyOfRange(bytes, start, start + length));
+                    start = 0;
+                    length = bytes.length;
+                }
+
+                if (offset + length > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, max(buffer.length * 2, offset + length));
+                }
+                System.arraycopy(bytes, start, buffer, offset, length);
+                offset += length;
+            }
+            offsets[position + 1] = offset;
+        }
+        stringBuffers[field] = buffer;
+        stringBytes[field] = buffer;
+    }
+
+    private static byte[] getData(BytesRefWritable value)
+    {
+        try {
+            // the first access to a value decompresses the whole column of the row group
+            return value.getData();
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private static boolean isNullSequence(byte[] bytes, int start, int length)
+    {
+        return length == "\\N".length() && bytes[start] == '\\' && bytes[start + 1] == 'N';
+    }
+
+    private void validateType(int field, ColumnType type)
+    {
+        if (types[field] != type) {
+            throw new IllegalArgumentException(String.format("Expected field to be %s, actual %s (field %s)", type, types[field], field));
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        reader.close();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.hive;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import io.airlift.testing.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.io.RCFile;
+import org.apache.hadoop.hive.ql.io.RCFileOutputFormat;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefWritable;
+import org.apache.hadoop.hive.serde2.columnar.ColumnarSerDe;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.apache.hadoop.hive.serde.serdeConstants.LIST_COLUMNS;
+import static org.apache.hadoop.hive.serde.serdeConstants.LIST_COLUMN_TYPES;
+import static org.apache.hadoop.hive.serde.serdeConstants.SERIALIZATION_LIB;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestRcFileHiveRecordBatchCursor
+{
+    private static final String CLIENT_ID = "test";
+
+    private File tempDir;
+    private Configuration configuration;
+    private FileSystem fileSystem;
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception
+    {
+        tempDir = Files.createTempDir();
+        configuration = new Configuration();
+        fileSystem = FileSystem.getLocal(configuration);
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        FileUtils.deleteRecursively(tempDir);
+    }
+
+    @Test
+    public void testReadColumns()
+            throws Exception
+    {
+        Path path = writeRcFile(new String[][] {
+                {"1", "apple", "1.5"},
+                {"\\N", "", "\\N"},
+                {"3", "\\N", "3.5"},
+                {"4", "banana", ""},
+                {"5", "cherry", "5.5"},
+        });
+
+        List<HiveColumnHandle> columns = ImmutableList.of(
+                new HiveColumnHandle(CLIENT_ID, "id", 0, HiveType.LONG, 0, false),
+                new HiveColumnHandle(CLIENT_ID, "name", 1, HiveType.STRING, 1, false),
+                new HiveColumnHandle(CLIENT_ID, "price", 2, HiveType.DOUBLE, 2, false),
+                new HiveColumnHandle(CLIENT_ID, "added", 3, HiveType.STRING, 3, false),
+                new HiveColumnHandle(CLIENT_ID, "ds", 4, HiveType.STRING, -1, true));
+
+        List<Long> ids = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<Double> prices = new ArrayList<>();
+        try (RcFileHiveRecordBatchCursor cursor = createCursor(path, columns)) {
+            while (cursor.advanceNextBatch()) {
+                long[] idValues = cursor.getLongs(0);
+                boolean[] idNulls = cursor.getNulls(0);
+                byte[] nameBytes = cursor.getStringBytes(1);
+                int[] nameOffsets = cursor.getStringOffsets(1);
+                boolean[] nameNulls = cursor.getNulls(1);
+                double[] priceValues = cursor.getDoubles(2);
+                boolean[] priceNulls = cursor.getNulls(2);
+                boolean[] addedNulls = cursor.getNulls(3);
+                byte[] partitionBytes = cursor.getStringBytes(4);
+                int[] partitionOffsets = cursor.getStringOffsets(4);
+                boolean[] partitionNulls = cursor.getNulls(4);
+
+                for (int position = 0; position < cursor.getBatchSize(); position++) {
+                    ids.add(idNulls[position] ? null : idValues[position]);
+                    names.add(nameNulls[position] ? null : toString(nameBytes, nameOffsets, position));
+                    prices.add(priceNulls[position] ? null : priceValues[position]);
+
+                    // column added to the table after the file was written
+                    assertTrue(addedNulls[position]);
+
+                    assertFalse(partitionNulls[position]);
+                    assertEquals(toString(partitionBytes, partitionOffsets, position), "2013-01-01");
+                }
+            }
+            assertEquals(cursor.getCompletedBytes(), cursor.getTotalBytes());
+        }
+
+        assertEquals(ids, list(1L, null, 3L, 4L, 5L));
+        assertEquals(names, list("apple", "", null, "banana", "cherry"));
+        assertEquals(prices, list(1.5, null, 3.5, null, 5.5));
+    }
+
+    @Test
+    public void testSplitAfterLastRowGroup()
+            throws Exception
+    {
+        Path path = writeRcFile(new String[][] {
+                {"1", "apple", "1.5"},
+        });
+
+        List<HiveColumnHandle> columns = ImmutableList.of(new HiveColumnHandle(CLIENT_ID, "id", 0, HiveType.LONG, 0, false));
+
+        // the only row group starts before the split, so it belongs to the previous split
+        long length = fileSystem.getFileStatus(path).getLen();
+        RCFile.Reader reader = new RCFile.Reader(fileSystem, path, configuration);
+        try (RcFileHiveRecordBatchCursor cursor = new RcFileHiveRecordBatchCursor(reader, length - 1, 1, createSchema(), ImmutableList.<HivePartitionKey>of(), columns)) {
+            assertFalse(cursor.advanceNextBatch());
+        }
+    }
+
+    private RcFileHiveRecordBatchCursor createCursor(Path path, List<HiveColumnHandle> columns)
+            throws IOException
+    {
+        long length = fileSystem.getFileStatus(path).getLen();
+        RCFile.Reader reader = new RCFile.Reader(fileSystem, path, configuration);
+        List<HivePartitionKey> partitionKeys = ImmutableList.of(new HivePartitionKey("ds", HiveType.STRING, "2013-01-01"));
+        return new RcFileHiveRecordBatchCursor(reader, 0, length, createSchema(), partitionKeys, columns);
+    }
+
+    private Path writeRcFile(String[][] rows)
+            throws IOException
+    {
+        Path path = new Path(new File(tempDir, "data.rc").toURI());
+        Configuration writerConfiguration = new Configuration(configuration);
+        RCFileOutputFormat.setColumnNumber(writerConfiguration, 3);
+
+        RCFile.Writer writer = new RCFile.Writer(fileSystem, writerConfiguration, path);
+        try {
+            for (String[] row : rows) {
+                BytesRefArrayWritable value = new BytesRefArrayWritable(row.length);
+                for (int column = 0; column < row.length; column++) {
+                    value.set(column, new BytesRefWritable(row[column].getBytes(Charsets.UTF_8)));
+                }
+                writer.append(value);
+            }
+        }
+        finally {
+            writer.close();
+        }
+        return path;
+    }
+
+    private static Properties createSchema()
+    {
+        Properties schema = new Properties();
+        schema.setProperty(SERIALIZATION_LIB, ColumnarSerDe.class.getName());
+        schema.setProperty(LIST_COLUMNS, "id,name,price,added");
+        schema.setProperty(LIST_COLUMN_TYPES, "bigint:string:double:string");
+        return schema;
+    }
+
+    private static String toString(byte[] bytes, int[] offsets, int position)
+    {
+        return new String(bytes, offsets[position], offsets[position + 1] - offsets[position], Charsets.UTF_8);
+    }
+
+    @SafeVarargs
+    private static <T> List<T> list(T... values)
+    {
+        List<T> list = new ArrayList<>();
+        for (T value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
@@ -19,6 +19,8 @@ public final class PrestoMediaTypes
 {
     public static final String PRESTO_PAGES = "application/X-presto-pages";
     public static final MediaType PRESTO_PAGES_TYPE = MediaType.create("application", "X-presto-pages");
+    public static final String PRESTO_PAGES_SNAPPY = "application/X-presto-pages-snappy";
+    public static final MediaType PRESTO_PAGES_SNAPPY_TYPE = MediaType.create("application", "X-presto-pages-snappy");
 
     private PrestoMediaTypes()
     {
@@ -0,0 +1,194 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.execution;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.units.DataSize;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.units.DataSize.Unit.BYTE;
+
+/**
+ * Node wide memory pool shared by all tasks running on this node.  Memory
+ * is reserved on behalf of a query, so the pool can report how much memory
+ * each query holds on this node.
+ * <p>
+ * When blocking is enabled, operators whose reservation is rejected by the
+ * pool wait on {@link #getMemoryFuture} instead of failing.
+ */
+@ThreadSafe
+public class MemoryPool
+{
+    private final long maxBytes;
+    private final boolean blockingEnabled;
+
+    @GuardedBy("this")
+    private long freeBytes;
+
+    @GuardedBy("this")
+    private final Map<QueryId, Long> queryMemoryReservations = new HashMap<>();
+
+    // set when a reservation is rejected and cleared when memory is returned to the pool
+    @GuardedBy("this")
+    private boolean exhausted;
+
+    @GuardedBy("this")
+    private SettableFuture<?> memoryFuture;
+
+    public MemoryPool(DataSize maxSize)
+    {
+        this(maxSize, false);
+    }
+
+    public MemoryPool(DataSize maxSize, boolean blockingEnabled)
+    {
+        checkNotNull(maxSize, "maxSize is null");
+        this.maxBytes = maxSize.toBytes();
+        checkArgument(maxBytes >= 0, "maxSize is negative");
+        this.freeBytes = maxBytes;
+        this.blockingEnabled = blockingEnabled;
+    }
+
+    public boolean isBlockingEnabled()
+    {
+        return blockingEnabled;
+    }
+
+    public synchronized boolean tryReserve(QueryId queryId, long bytes)
+    {
+        checkNotNull(queryId, "queryId is null");
+        checkArgument(bytes >= 0, "bytes is negative");
+
+        if (bytes > freeBytes) {
+            exhausted = true;
+            return false;
+        }
+        freeBytes -= bytes;
+        if (bytes != 0) {
+            Long reservation = queryMemoryReservations.get(queryId);
+            queryMemoryReservations.put(queryId, (reservation == null ? 0 : reservation) + bytes);
+        }
+        return true;
+    }
+
+    public void free(QueryId queryId, long bytes)
+    {
+        checkNotNull(queryId, "queryId is null");
+        checkArgument(bytes >= 0, "bytes is negative");
+        if (bytes == 0) {
+            return;
+        }
+
+        SettableFuture<?> future;
+        synchronized (this) {
+            Long reservation = queryMemoryReservations.get(queryId);
+            checkState(reservation != null && reservation >= bytes, "Query %s freed more memory than it reserved", queryId);
+            if (reservation == bytes) {
+                queryMemoryReservations.remove(queryId);
+            }
+            else {
+                queryMemoryReservations.put(queryId, reservation - bytes);
+            }
+            freeBytes += bytes;
+            exhausted = false;
+
+            future = memoryFuture;
+            memoryFuture = null;
+        }
+
+        // complete the future outside of the lock, since listeners may reserve memory
+        if (future != null) {
+            future.set(null);
+        }
+    }
+
+    /**
+     * Returns a future that completes when memory is returned to the pool.  If memory
+     * was returned since the last rejected reservation, the future is already done.
+     */
+    public synchronized ListenableFuture<?> getMemoryFuture()
+    {
+        if (!exhausted) {
+            return Futures.immediateFuture(null);
+        }
+        if (memoryFuture == null) {
+            memoryFuture = SettableFuture.create();
+        }
+        return memoryFuture;
+    }
+
+    public synchronized long getQueryMemoryReservation(QueryId queryId)
+    {
+        checkNotNull(queryId, "queryId is null");
+        Long reservation = queryMemoryReservations.get(queryId);
+        return reservation == null ? 0 : reservation;
+    }
+
+    public synchronized Map<QueryId, Long> getQueryMemoryReservations()
+    {
+        return ImmutableMap.copyOf(queryMemoryReservations);
+    }
+
+    public DataSize getMaxSize()
+    {
+        return new DataSize(maxBytes, BYTE).convertToMostSuccinctDataSize();
+    }
+
+    @Managed
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    @Managed
+    public synchronized long getFreeBytes()
+    {
+        return freeBytes;
+    }
+
+    @Managed
+    public synchronized int getQueryCount()
+    {
+        return queryMemoryReservations.size();
+    }
+
+    @Managed
+    public synchronized boolean isExhausted()
+    {
+        return exhausted;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return Objects.toStringHelper(this)
+                .add("maxBytes", maxBytes)
+                .add("freeBytes", freeBytes)
+                .add("queries", queryMemoryReservations.size())
+                .toString();
+    }
+}
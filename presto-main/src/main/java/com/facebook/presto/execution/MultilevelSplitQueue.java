@@ -0,0 +1,400 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.execution;
+
+import com.facebook.presto.execution.TaskExecutor.PrioritizedSplitRunner;
+import com.facebook.presto.execution.TaskExecutor.ThreadUsage;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Queue of runnable splits organized into levels by the thread time used by the task
+ * of the split.  Each level is entitled to a share of the runner thread time, and the
+ * share shrinks by {@code levelTimeMultiplier} for each level, so new short running work
+ * is preferred, but long running work is never starved.  Within a level, the split of the
+ * group, and then of the query, with the least weighted thread usage is run first, and
+ * groups and queries with the same usage take turns.
+ * <p>
+ * There is no queue wide lock.  Each level is guarded by its own lock, the scheduled
+ * time of the levels is tracked with atomics, and waiting runners are woken with a
+ * semaphore holding one permit per queued split.
+ */
+@ThreadSafe
+class MultilevelSplitQueue
+{
+    private static final long[] LEVEL_THRESHOLD_MILLIS = {0, 1_000, 10_000, 60_000, 300_000};
+    public static final int LEVELS = LEVEL_THRESHOLD_MILLIS.length;
+
+    private final long[] levelWeights = new long[LEVELS];
+    private final List<Level> levels = new ArrayList<>(LEVELS);
+
+    private final AtomicLongArray levelScheduledNanos = new AtomicLongArray(LEVELS);
+    private final AtomicLongArray levelSelectedSplits = new AtomicLongArray(LEVELS);
+
+    // one permit for each queued split
+    private final Semaphore queuedSplits = new Semaphore(0);
+
+    public MultilevelSplitQueue(int levelTimeMultiplier)
+    {
+        checkArgument(levelTimeMultiplier >= 1, "levelTimeMultiplier must be at least 1");
+        long weight = 1;
+        for (int level = LEVELS - 1; level >= 0; level--) {
+            levelWeights[level] = weight;
+            weight *= levelTimeMultiplier;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            levels.add(new Level());
+        }
+    }
+
+    public static int computeLevel(long threadUsageNanos)
+    {
+        long millis = TimeUnit.NANOSECONDS.toMillis(threadUsageNanos);
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if (millis >= LEVEL_THRESHOLD_MILLIS[level]) {
+                return level;
+            }
+        }
+        return 0;
+    }
+
+    public void put(PrioritizedSplitRunner split)
+    {
+        checkNotNull(split, "split is null");
+
+        int level = split.getPriorityLevel();
+        if (levels.get(level).isEmpty()) {
+            // an idle level must not get a burst of thread time to make up for the time it did not use
+            resetScheduledTime(level);
+        }
+        if (levels.get(level).add(split)) {
+            queuedSplits.release();
+        }
+    }
+
+    public PrioritizedSplitRunner take()
+            throws InterruptedException
+    {
+        while (true) {
+            queuedSplits.acquire();
+
+            // the permit guarantees a split is queued unless it was removed
+            // concurrently, in which case the permit of that split was consumed
+            while (true) {
+                int level = selectLevel();
+                if (level < 0) {
+                    break;
+                }
+                PrioritizedSplitRunner split = levels.get(level).poll();
+                if (split != null) {
+                    levelSelectedSplits.incrementAndGet(level);
+                    return split;
+                }
+            }
+        }
+    }
+
+    public boolean remove(PrioritizedSplitRunner split)
+    {
+        for (Level level : levels) {
+            if (level.remove(split)) {
+                // if a runner holds the permit of this split, it will find the queue empty and wait again
+                queuedSplits.tryAcquire();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for (Level level : levels) {
+            size += level.size();
+        }
+        return size;
+    }
+
+    /**
+     * Charges thread time to the level the split ran at.
+     */
+    public void addScheduledNanos(int level, long nanos)
+    {
+        levelScheduledNanos.addAndGet(level, nanos);
+    }
+
+    public long getScheduledNanos(int level)
+    {
+        return levelScheduledNanos.get(level);
+    }
+
+    public long getSelectedSplits(int level)
+    {
+        return levelSelectedSplits.get(level);
+    }
+
+    public int getQueuedSplits(int level)
+    {
+        return levels.get(level).size();
+    }
+
+    private int selectLevel()
+    {
+        int selectedLevel = -1;
+        double minimumTime = Double.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            if (levels.get(level).isEmpty()) {
+                continue;
+            }
+            double time = levelScheduledNanos.get(level) / (double) levelWeights[level];
+            if (time < minimumTime) {
+                selectedLevel = level;
+                minimumTime = time;
+            }
+        }
+        return selectedLevel;
+    }
+
+    private void resetScheduledTime(int idleLevel)
+    {
+        double minimumTime = Double.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            if (level != idleLevel && !levels.get(level).isEmpty()) {
+                minimumTime = Math.min(minimumTime, levelScheduledNanos.get(level) / (double) levelWeights[level]);
+            }
+        }
+        if (minimumTime == Double.MAX_VALUE) {
+            return;
+        }
+
+        long minimumScheduledNanos = (long) (minimumTime * levelWeights[idleLevel]);
+        while (true) {
+            long scheduledNanos = levelScheduledNanos.get(idleLevel);
+            if (scheduledNanos >= minimumScheduledNanos || levelScheduledNanos.compareAndSet(idleLevel, scheduledNanos, minimumScheduledNanos)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * The splits of a level, grouped by scheduling group and then by query.  The groups are
+     * kept in a priority queue by the weighted thread usage of the group, and the queries of
+     * a group by the weighted thread usage of the query, so a split is selected in logarithmic
+     * time.  The usage is sampled when a group or query is queued, and sampled again each time
+     * one of its splits is selected.
+     */
+    @ThreadSafe
+    private static class Level
+    {
+        @GuardedBy("this")
+        private final Map<ThreadUsage, GroupSplits> groups = new HashMap<>();
+        @GuardedBy("this")
+        private final PriorityQueue<GroupSplits> groupQueue = new PriorityQueue<>();
+        @GuardedBy("this")
+        private long nextSequence;
+
+        // read without the lock when selecting a level
+        private final AtomicInteger size = new AtomicInteger();
+
+        public boolean isEmpty()
+        {
+            return size.get() == 0;
+        }
+
+        public int size()
+        {
+            return size.get();
+        }
+
+        public synchronized boolean add(PrioritizedSplitRunner split)
+        {
+            ThreadUsage groupUsage = split.getTaskHandle().getGroup();
+            GroupSplits group = groups.get(groupUsage);
+            if (group == null) {
+                group = new GroupSplits(groupUsage);
+                groups.put(groupUsage, group);
+                group.prioritize(nextSequence++);
+                groupQueue.add(group);
+            }
+            if (!group.add(split, nextSequence++)) {
+                return false;
+            }
+            size.incrementAndGet();
+            return true;
+        }
+
+        public synchronized boolean remove(PrioritizedSplitRunner split)
+        {
+            ThreadUsage groupUsage = split.getTaskHandle().getGroup();
+            GroupSplits group = groups.get(groupUsage);
+            if (group == null || !group.remove(split)) {
+                return false;
+            }
+            if (group.isEmpty()) {
+                groups.remove(groupUsage);
+                groupQueue.remove(group);
+            }
+            size.decrementAndGet();
+            return true;
+        }
+
+        public synchronized PrioritizedSplitRunner poll()
+        {
+            GroupSplits group = groupQueue.poll();
+            if (group == null) {
+                return null;
+            }
+
+            PrioritizedSplitRunner split = group.poll(nextSequence++);
+            if (group.isEmpty()) {
+                groups.remove(group.getUsage());
+            }
+            else {
+                group.prioritize(nextSequence++);
+                groupQueue.add(group);
+            }
+            size.decrementAndGet();
+            return split;
+        }
+    }
+
+    private static class GroupSplits
+            extends PrioritizedSplits
+    {
+        private final Map<ThreadUsage, QuerySplits> queries = new HashMap<>();
+        private final PriorityQueue<QuerySplits> queryQueue = new PriorityQueue<>();
+
+        private GroupSplits(ThreadUsage usage)
+        {
+            super(usage);
+        }
+
+        public boolean isEmpty()
+        {
+            return queries.isEmpty();
+        }
+
+        public boolean add(PrioritizedSplitRunner split, long sequence)
+        {
+            ThreadUsage queryUsage = split.getTaskHandle().getQuery();
+            QuerySplits query = queries.get(queryUsage);
+            if (query == null) {
+                query = new QuerySplits(queryUsage);
+                queries.put(queryUsage, query);
+                query.prioritize(sequence);
+                queryQueue.add(query);
+            }
+            return query.splits.add(split);
+        }
+
+        public boolean remove(PrioritizedSplitRunner split)
+        {
+            ThreadUsage queryUsage = split.getTaskHandle().getQuery();
+            QuerySplits query = queries.get(queryUsage);
+            if (query == null || !query.splits.remove(split)) {
+                return false;
+            }
+            if (query.splits.isEmpty()) {
+                queries.remove(queryUsage);
+                queryQueue.remove(query);
+            }
+            return true;
+        }
+
+        public PrioritizedSplitRunner poll(long sequence)
+        {
+            // a queued group always has a query with a queued split
+            QuerySplits query = queryQueue.poll();
+            Iterator<PrioritizedSplitRunner> iterator = query.splits.iterator();
+            PrioritizedSplitRunner split = iterator.next();
+            iterator.remove();
+
+            if (query.splits.isEmpty()) {
+                queries.remove(query.getUsage());
+            }
+            else {
+                query.prioritize(sequence);
+                queryQueue.add(query);
+            }
+            return split;
+        }
+    }
+
+    private static class QuerySplits
+            extends PrioritizedSplits
+    {
+        // splits of the query in the order they were added
+        private final Set<PrioritizedSplitRunner> splits = new LinkedHashSet<>();
+
+        private QuerySplits(ThreadUsage usage)
+        {
+            super(usage);
+        }
+    }
+
+    /**
+     * Orders by the weighted thread usage sampled when last queued, and then by the order
+     * in which the entries were queued.  Must not be reprioritized while queued.
+     */
+    private abstract static class PrioritizedSplits
+            implements Comparable<PrioritizedSplits>
+    {
+        private final ThreadUsage usage;
+        private long priority;
+        private long sequence;
+
+        protected PrioritizedSplits(ThreadUsage usage)
+        {
+            this.usage = usage;
+        }
+
+        public ThreadUsage getUsage()
+        {
+            return usage;
+        }
+
+        public void prioritize(long sequence)
+        {
+            this.priority = usage.getWeightedThreadUsageNanos();
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(PrioritizedSplits other)
+        {
+            int result = Long.compare(priority, other.priority);
+            if (result == 0) {
+                result = Long.compare(sequence, other.sequence);
+            }
+            return result;
+        }
+    }
+}
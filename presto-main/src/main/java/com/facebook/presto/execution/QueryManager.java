@@ -14,6 +14,7 @@
 package com.facebook.presto.execution;
 
 import com.facebook.presto.sql.analyzer.Session;
+import com.google.common.base.Optional;
 import io.airlift.units.Duration;
 
 import java.util.List;
@@ -27,6 +28,11 @@ public interface QueryManager
 
     QueryInfo getQueryInfo(QueryId queryId);
 
+    /**
+     * Returns the number of queries ahead of the query in the admission queue, or absent if the query is not queued.
+     */
+    Optional<Integer> getQueuePosition(QueryId queryId);
+
     QueryInfo createQuery(Session session, String query);
 
     void cancelQuery(QueryId queryId);
@@ -14,6 +14,8 @@
 package com.facebook.presto.execution;
 
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import io.airlift.units.MinDuration;
 
@@ -34,6 +36,16 @@ public class QueryManagerConfig
     private int remoteTaskMaxConsecutiveErrorCount = 10;
     private Duration remoteTaskMinErrorDuration = new Duration(2, TimeUnit.MINUTES);
 
+    private boolean distributedJoinsEnabled;
+    private boolean optimizeHashGeneration;
+
+    private DataSize maxQueryMemory = new DataSize(20, DataSize.Unit.GIGABYTE);
+
+    private int maxConcurrentQueries = 1000;
+    private int maxQueuedQueries = 5000;
+    private Integer maxConcurrentQueriesPerUser;
+    private Integer maxConcurrentQueriesPerSource;
+
     @Min(1)
     public int getMaxPendingSplitsPerNode()
     {
@@ -125,4 +137,100 @@ public class QueryManagerConfig
         this.remoteTaskMinErrorDuration = remoteTaskMinErrorDuration;
         return this;
     }
+
+    public boolean isDistributedJoinsEnabled()
+    {
+        return distributedJoinsEnabled;
+    }
+
+    @Config("query.distributed-joins-enabled")
+    @ConfigDescription("Hash partition both inputs of a join across the cluster instead of replicating the right input to every node")
+    public QueryManagerConfig setDistributedJoinsEnabled(boolean distributedJoinsEnabled)
+    {
+        this.distributedJoinsEnabled = distributedJoinsEnabled;
+        return this;
+    }
+
+    public boolean isOptimizeHashGeneration()
+    {
+        return optimizeHashGeneration;
+    }
+
+    @Config("query.optimize-hash-generation")
+    @ConfigDescription("Compute the hash of group by and join keys once, below the aggregation or join, and pass it through exchanges")
+    public QueryManagerConfig setOptimizeHashGeneration(boolean optimizeHashGeneration)
+    {
+        this.optimizeHashGeneration = optimizeHashGeneration;
+        return this;
+    }
+
+    @NotNull
+    public DataSize getMaxQueryMemory()
+    {
+        return maxQueryMemory;
+    }
+
+    @Config("query.max-memory")
+    @ConfigDescription("Maximum memory a query may reserve across the whole cluster before it is killed")
+    public QueryManagerConfig setMaxQueryMemory(DataSize maxQueryMemory)
+    {
+        this.maxQueryMemory = maxQueryMemory;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxConcurrentQueries()
+    {
+        return maxConcurrentQueries;
+    }
+
+    @Config("query.max-concurrent-queries")
+    @ConfigDescription("Maximum number of queries that run at the same time; further queries wait in a queue")
+    public QueryManagerConfig setMaxConcurrentQueries(int maxConcurrentQueries)
+    {
+        this.maxConcurrentQueries = maxConcurrentQueries;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxQueuedQueries()
+    {
+        return maxQueuedQueries;
+    }
+
+    @Config("query.max-queued-queries")
+    @ConfigDescription("Maximum number of queries waiting to run; further queries are rejected")
+    public QueryManagerConfig setMaxQueuedQueries(int maxQueuedQueries)
+    {
+        this.maxQueuedQueries = maxQueuedQueries;
+        return this;
+    }
+
+    @Min(1)
+    public Integer getMaxConcurrentQueriesPerUser()
+    {
+        return maxConcurrentQueriesPerUser;
+    }
+
+    @Config("query.max-concurrent-queries-per-user")
+    @ConfigDescription("Maximum number of queries of a single user that run at the same time")
+    public QueryManagerConfig setMaxConcurrentQueriesPerUser(Integer maxConcurrentQueriesPerUser)
+    {
+        this.maxConcurrentQueriesPerUser = maxConcurrentQueriesPerUser;
+        return this;
+    }
+
+    @Min(1)
+    public Integer getMaxConcurrentQueriesPerSource()
+    {
+        return maxConcurrentQueriesPerSource;
+    }
+
+    @Config("query.max-concurrent-queries-per-source")
+    @ConfigDescription("Maximum number of queries from a single source, such as a dashboard, that run at the same time")
+    public QueryManagerConfig setMaxConcurrentQueriesPerSource(Integer maxConcurrentQueriesPerSource)
+    {
+        this.maxConcurrentQueriesPerSource = maxConcurrentQueriesPerSource;
+        return this;
+    }
 }
@@ -0,0 +1,227 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.execution;
+
+import com.facebook.presto.sql.analyzer.Session;
+import com.google.common.base.Optional;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multiset;
+import io.airlift.stats.CounterStat;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Limits the number of queries running at the same time, in total and optionally per user and
+ * per source. Queries over the limits wait in submission order. A query held back by the limit
+ * of its user or source does not hold back the queries of other users and sources.
+ */
+@ThreadSafe
+public class QueryQueue
+{
+    private final int maxConcurrentQueries;
+    private final int maxQueuedQueries;
+    private final Optional<Integer> maxConcurrentQueriesPerUser;
+    private final Optional<Integer> maxConcurrentQueriesPerSource;
+    private final Executor executor;
+
+    @GuardedBy("this")
+    private final LinkedHashMap<QueryId, QueuedQuery> queuedQueries = new LinkedHashMap<>();
+    @GuardedBy("this")
+    private final Map<QueryId, QueuedQuery> runningQueries = new HashMap<>();
+    @GuardedBy("this")
+    private final Multiset<String> runningQueriesPerUser = HashMultiset.create();
+    @GuardedBy("this")
+    private final Multiset<String> runningQueriesPerSource = HashMultiset.create();
+
+    private final CounterStat rejectedQueries = new CounterStat();
+
+    public QueryQueue(QueryManagerConfig config, Executor executor)
+    {
+        this(config.getMaxConcurrentQueries(),
+                config.getMaxQueuedQueries(),
+                Optional.fromNullable(config.getMaxConcurrentQueriesPerUser()),
+                Optional.fromNullable(config.getMaxConcurrentQueriesPerSource()),
+                executor);
+    }
+
+    public QueryQueue(int maxConcurrentQueries,
+            int maxQueuedQueries,
+            Optional<Integer> maxConcurrentQueriesPerUser,
+            Optional<Integer> maxConcurrentQueriesPerSource,
+            Executor executor)
+    {
+        checkArgument(maxConcurrentQueries > 0, "maxConcurrentQueries must be at least 1");
+        checkArgument(maxQueuedQueries > 0, "maxQueuedQueries must be at least 1");
+        this.maxConcurrentQueries = maxConcurrentQueries;
+        this.maxQueuedQueries = maxQueuedQueries;
+        this.maxConcurrentQueriesPerUser = checkNotNull(maxConcurrentQueriesPerUser, "maxConcurrentQueriesPerUser is null");
+        this.maxConcurrentQueriesPerSource = checkNotNull(maxConcurrentQueriesPerSource, "maxConcurrentQueriesPerSource is null");
+        this.executor = checkNotNull(executor, "executor is null");
+    }
+
+    /**
+     * Runs the query starter on the executor as soon as the limits allow it.
+     *
+     * @return false if the queue is full, in which case the query is not queued
+     */
+    public boolean enqueue(QueryId queryId, Session session, Runnable queryStarter)
+    {
+        checkNotNull(queryId, "queryId is null");
+        checkNotNull(session, "session is null");
+        checkNotNull(queryStarter, "queryStarter is null");
+
+        synchronized (this) {
+            checkArgument(!queuedQueries.containsKey(queryId) && !runningQueries.containsKey(queryId), "Query %s is already queued", queryId);
+            if (queuedQueries.size() >= maxQueuedQueries) {
+                rejectedQueries.update(1);
+                return false;
+            }
+            queuedQueries.put(queryId, new QueuedQuery(session.getUser(), session.getSource(), queryStarter));
+        }
+        startQueries();
+        return true;
+    }
+
+    /**
+     * Removes a query that is done, whether it was still queued or already running,
+     * and starts the queries that were waiting for it.
+     */
+    public void remove(QueryId queryId)
+    {
+        checkNotNull(queryId, "queryId is null");
+
+        synchronized (this) {
+            if (queuedQueries.remove(queryId) == null) {
+                QueuedQuery query = runningQueries.remove(queryId);
+                if (query == null) {
+                    return;
+                }
+                runningQueriesPerUser.remove(query.getUser());
+                runningQueriesPerSource.remove(query.getSource());
+            }
+        }
+        startQueries();
+    }
+
+    /**
+     * Returns the number of queries ahead of the query in the queue, or absent if the query is not queued.
+     */
+    public synchronized Optional<Integer> getQueuePosition(QueryId queryId)
+    {
+        int position = 0;
+        for (QueryId queuedQuery : queuedQueries.keySet()) {
+            if (queuedQuery.equals(queryId)) {
+                return Optional.of(position);
+            }
+            position++;
+        }
+        return Optional.absent();
+    }
+
+    @Managed
+    public synchronized int getQueuedQueries()
+    {
+        return queuedQueries.size();
+    }
+
+    @Managed
+    public synchronized int getRunningQueries()
+    {
+        return runningQueries.size();
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getRejectedQueries()
+    {
+        return rejectedQueries;
+    }
+
+    private void startQueries()
+    {
+        // queries are started outside of the lock
+        for (QueuedQuery query : acquireStartableQueries()) {
+            executor.execute(query.getQueryStarter());
+        }
+    }
+
+    private synchronized List<QueuedQuery> acquireStartableQueries()
+    {
+        ImmutableList.Builder<QueuedQuery> startable = ImmutableList.builder();
+        Iterator<Map.Entry<QueryId, QueuedQuery>> iterator = queuedQueries.entrySet().iterator();
+        while (runningQueries.size() < maxConcurrentQueries && iterator.hasNext()) {
+            Map.Entry<QueryId, QueuedQuery> entry = iterator.next();
+            QueuedQuery query = entry.getValue();
+            if (isAtLimit(runningQueriesPerUser, query.getUser(), maxConcurrentQueriesPerUser) ||
+                    isAtLimit(runningQueriesPerSource, query.getSource(), maxConcurrentQueriesPerSource)) {
+                continue;
+            }
+
+            iterator.remove();
+            runningQueries.put(entry.getKey(), query);
+            runningQueriesPerUser.add(query.getUser());
+            runningQueriesPerSource.add(query.getSource());
+            startable.add(query);
+        }
+        return startable.build();
+    }
+
+    private static boolean isAtLimit(Multiset<String> runningQueries, String key, Optional<Integer> limit)
+    {
+        return limit.isPresent() && runningQueries.count(key) >= limit.get();
+    }
+
+    private static class QueuedQuery
+    {
+        private final String user;
+        private final String source;
+        private final Runnable queryStarter;
+
+        private QueuedQuery(String user, String source, Runnable queryStarter)
+        {
+            this.user = user;
+            this.source = source;
+            this.queryStarter = queryStarter;
+        }
+
+        public String getUser()
+        {
+            return user;
+        }
+
+        public String getSource()
+        {
+            return source;
+        }
+
+        public Runnable getQueryStarter()
+        {
+            return queryStarter;
+        }
+    }
+}
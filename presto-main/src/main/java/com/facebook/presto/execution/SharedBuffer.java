@@ -13,38 +13,48 @@
  */
 package com.facebook.presto.execution;
 
+import com.facebook.presto.execution.StateMachine.StateChangeListener;
 import com.facebook.presto.operator.Page;
+import com.facebook.presto.operator.PagePartitioner;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.primitives.Ints;
+import com.google.common.collect.Ordering;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 
-import javax.annotation.concurrent.GuardedBy;
-import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static com.facebook.presto.execution.BufferResult.emptyResults;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
+/**
+ * Output buffer of a task.
+ * <p/>
+ * Pages are appended to a concurrent page log and each queue tracks the sequence id of the
+ * next page it will read with an atomic counter, so producers adding pages never wait on
+ * consumers reading or acknowledging pages (and vice versa).  When the buffer is partitioned,
+ * each queue has its own page log.  The monitor of the buffer is only used for the rare
+ * state transitions (adding queues, finishing and destroying the buffer).
+ * <p/>
+ * The buffer size is a soft limit: concurrent producers can each add one page past it.
+ */
 @ThreadSafe
 public class SharedBuffer
 {
@@ -66,49 +76,68 @@ public class SharedBuffer
 
     private final long maxBufferedBytes;
 
-    @GuardedBy("this")
-    private long bufferedBytes;
-
-    @GuardedBy("this")
-    private final LinkedList<Page> masterQueue = new LinkedList<>();
-    @GuardedBy("this")
-    private final LinkedList<QueuedPage> queuedPages = new LinkedList<>();
-    @GuardedBy("this")
-    private long masterSequenceId;
-    @GuardedBy("this")
-    private Map<String, NamedQueue> namedQueues = new HashMap<>();
-    @GuardedBy("this")
-    private final SortedSet<NamedQueue> openQueuesBySequenceId = new TreeSet<>();
-    @GuardedBy("this")
-    private QueueState state = QueueState.OPEN;
+    /**
+     * If present, each page is split across the queues instead of being sent to every queue.
+     */
+    @Nullable
+    private final PagePartitioner partitioner;
+
+    private final AtomicLong bufferedBytes = new AtomicLong();
+
+    // only used when the buffer is not partitioned
+    private final PageLog masterLog = new PageLog();
+    private final ConcurrentLinkedQueue<QueuedPage> queuedPages = new ConcurrentLinkedQueue<>();
+    private final Map<String, NamedQueue> namedQueues = new ConcurrentHashMap<>();
+    private volatile List<NamedQueue> partitions = ImmutableList.of();
+    private volatile QueueState state = QueueState.OPEN;
 
     private final AtomicLong pagesAdded = new AtomicLong();
 
+    private final List<StateChangeListener<QueueState>> stateChangeListeners = new CopyOnWriteArrayList<>();
+
     /**
      * If true, no more pages can be added to the queue.
      */
     private final AtomicBoolean closed = new AtomicBoolean();
 
     public SharedBuffer(DataSize maxBufferSize)
+    {
+        this(maxBufferSize, null);
+    }
+
+    public SharedBuffer(DataSize maxBufferSize, @Nullable PagePartitioner partitioner)
     {
         Preconditions.checkArgument(maxBufferSize.toBytes() > 0, "maxBufferSize must be at least 1");
         this.maxBufferedBytes = maxBufferSize.toBytes();
+        this.partitioner = partitioner;
     }
 
-    public synchronized boolean isFinished()
+    public boolean isFinished()
     {
         return state == QueueState.FINISHED;
     }
 
-    public synchronized SharedBufferInfo getInfo()
+    public SharedBufferInfo getInfo()
     {
         ImmutableList.Builder<BufferInfo> infos = ImmutableList.builder();
         for (NamedQueue namedQueue : namedQueues.values()) {
             infos.add(new BufferInfo(namedQueue.getQueueId(), namedQueue.isFinished(), namedQueue.size(), namedQueue.pagesRemoved()));
         }
+        // partitioned queues each have their own sequence of pages
+        long masterSequenceId = partitioner == null ? masterLog.getStartSequenceId() : 0;
         return new SharedBufferInfo(state, masterSequenceId, pagesAdded.get(), infos.build());
     }
 
+    /**
+     * Adds a listener that is called when the state of the buffer changes, or when a queue is
+     * added or finishes.  The listener is called by the thread making the change, possibly while
+     * holding the lock of the buffer, so it must not block.
+     */
+    public void addStateChangeListener(StateChangeListener<QueueState> stateChangeListener)
+    {
+        stateChangeListeners.add(Preconditions.checkNotNull(stateChangeListener, "stateChangeListener is null"));
+    }
+
     public synchronized void addQueue(String queueId)
     {
         Preconditions.checkNotNull(queueId, "queueId is null");
@@ -118,24 +147,34 @@ public class SharedBuffer
             return;
         }
         Preconditions.checkState(state == QueueState.OPEN, "%s is not OPEN", SharedBuffer.class.getSimpleName());
-        NamedQueue namedQueue = new NamedQueue(queueId);
-        namedQueues.put(queueId, namedQueue);
-        openQueuesBySequenceId.add(namedQueue);
+        namedQueues.put(queueId, new NamedQueue(queueId, partitioner == null ? masterLog : new PageLog()));
+        fireStateChanged();
     }
 
     public synchronized void noMoreQueues()
     {
-        namedQueues = ImmutableMap.copyOf(namedQueues);
         if (state != QueueState.OPEN) {
             return;
         }
 
+        if (partitioner != null) {
+            // partitions are assigned in queue id order, so every task writing to the same
+            // set of queues routes a given key to the same queue
+            ImmutableList.Builder<NamedQueue> partitions = ImmutableList.builder();
+            for (String queueId : Ordering.natural().sortedCopy(namedQueues.keySet())) {
+                partitions.add(namedQueues.get(queueId));
+            }
+            this.partitions = partitions.build();
+        }
+
+        // partitions must be visible before the state change, since enqueue does not lock
         state = QueueState.NO_MORE_QUEUES;
+        fireStateChanged();
 
         updateState();
     }
 
-    public synchronized ListenableFuture<?> enqueue(Page page)
+    public ListenableFuture<?> enqueue(Page page)
     {
         Preconditions.checkNotNull(page, "page is null");
 
@@ -145,109 +184,128 @@ public class SharedBuffer
         }
 
         // is there room in the buffer
-        if (bufferedBytes < maxBufferedBytes) {
+        if (bufferedBytes.get() < maxBufferedBytes && canAddPages()) {
             addInternal(page);
             return Futures.immediateFuture(true);
         }
 
         QueuedPage queuedPage = new QueuedPage(page);
-        queuedPages.addLast(queuedPage);
+        queuedPages.add(queuedPage);
+
+        // room may have been freed (or the buffer closed) while the page was being queued
+        processQueuedPages();
+
         return queuedPage.getFuture();
     }
 
-    private synchronized void addInternal(Page page)
+    /**
+     * A partitioned buffer can not split pages until all of the queues are known.
+     */
+    private boolean canAddPages()
+    {
+        return partitioner == null || state != QueueState.OPEN;
+    }
+
+    private void addInternal(Page page)
     {
-        // add page
-        masterQueue.add(page);
         pagesAdded.incrementAndGet();
-        bufferedBytes += page.getDataSize().toBytes();
 
-        // notify consumers an page has arrived
-        this.notifyAll();
+        if (partitioner == null) {
+            // add page (pages added while the buffer is destroyed are released by the log)
+            masterLog.add(page);
+
+            // notify consumers an page has arrived
+            for (NamedQueue namedQueue : namedQueues.values()) {
+                namedQueue.signal();
+            }
+        }
+        else if (!partitions.isEmpty()) {
+            // add each part of the page to the queue of the partition
+            List<Optional<Page>> partitionedPages = partitioner.partitionPage(page, partitions.size());
+            for (int partition = 0; partition < partitionedPages.size(); partition++) {
+                Optional<Page> partitionedPage = partitionedPages.get(partition);
+                if (partitionedPage.isPresent()) {
+                    partitions.get(partition).addPage(partitionedPage.get());
+                }
+            }
+        }
     }
 
-    @VisibleForTesting
-    public synchronized void acknowledge(String outputId, long sequenceId)
+    /**
+     * Moves queued pages into the buffer while there is room, or releases them if the buffer is closed.
+     */
+    private void processQueuedPages()
     {
-        Preconditions.checkNotNull(outputId, "outputId is null");
+        while (!queuedPages.isEmpty()) {
+            if (closed.get()) {
+                // discard queued pages (not officially in the buffer) and waiters
+                QueuedPage queuedPage = queuedPages.poll();
+                if (queuedPage != null) {
+                    queuedPage.getFuture().set(null);
+                }
+                continue;
+            }
 
-        NamedQueue namedQueue = namedQueues.get(outputId);
-        if (namedQueue == null) {
-            throw new NoSuchBufferException(outputId, namedQueues.keySet());
+            if (bufferedBytes.get() >= maxBufferedBytes || !canAddPages()) {
+                return;
+            }
+
+            QueuedPage queuedPage = queuedPages.poll();
+            if (queuedPage != null) {
+                addInternal(queuedPage.getPage());
+                queuedPage.getFuture().set(null);
+            }
         }
+    }
+
+    @VisibleForTesting
+    public void acknowledge(String outputId, long sequenceId)
+    {
+        NamedQueue namedQueue = getNamedQueue(outputId);
 
         if (state == QueueState.FINISHED) {
             return;
         }
 
-        // remove queue from set before calling getPages because getPages changes
-        // the sequence number of the queue which is used for identity comparison in the
-        // sorted set
-        openQueuesBySequenceId.remove(namedQueue);
-
         // acknowledge the pages
         namedQueue.acknowledge(sequenceId);
 
-        // only add back the queue if it is still open
-        if (!closed.get()) {
-            openQueuesBySequenceId.add(namedQueue);
-        }
-        else {
+        // once the buffer is closed, an acknowledgement means the reader is done with the queue
+        if (closed.get()) {
             namedQueue.setFinished();
         }
 
         updateState();
     }
 
-    public synchronized BufferResult get(String outputId, long startingSequenceId, DataSize maxSize, Duration maxWait)
+    public BufferResult get(String outputId, long startingSequenceId, DataSize maxSize, Duration maxWait)
             throws InterruptedException
     {
         Preconditions.checkNotNull(outputId, "outputId is null");
         Preconditions.checkArgument(maxSize.toBytes() > 0, "maxSize must be at least 1 byte");
         Preconditions.checkNotNull(maxWait, "maxWait is null");
 
-        NamedQueue namedQueue = namedQueues.get(outputId);
-        if (namedQueue == null) {
-            throw new NoSuchBufferException(outputId, namedQueues.keySet());
-        }
+        NamedQueue namedQueue = getNamedQueue(outputId);
 
         if (state == QueueState.FINISHED) {
             return emptyResults(namedQueue.getSequenceId(), true);
         }
 
-        // wait for pages to arrive
-        if (namedQueue.isEmpty()) {
-            long remainingNanos = maxWait.roundTo(NANOSECONDS);
-            long end = System.nanoTime() + remainingNanos;
-            while (remainingNanos > 0 && namedQueue.isEmpty() && !namedQueue.isFinished()) {
-                // wait for timeout or notification
-                NANOSECONDS.timedWait(this, remainingNanos);
-                remainingNanos = end - System.nanoTime();
-            }
-        }
+        // pages before the starting sequence id have been received by the reader, so do not count them when deciding whether to wait
+        namedQueue.acknowledge(startingSequenceId);
 
-        // remove queue from set before calling getPages because getPages changes
-        // the sequence number of the queue which is used for identity comparison in the
-        // sorted set
-        openQueuesBySequenceId.remove(namedQueue);
+        // wait for pages to arrive
+        namedQueue.waitForPages(maxWait);
 
         // get the pages
         BufferResult results = namedQueue.getPages(startingSequenceId, maxSize);
 
-        // only add back the queue if it is still open
-        if (!closed.get() || !results.isBufferClosed()) {
-            openQueuesBySequenceId.add(namedQueue);
-        }
-        else {
-            namedQueue.setFinished();
-        }
-
         updateState();
 
         return results;
     }
 
-    public synchronized void abort(String outputId)
+    public void abort(String outputId)
     {
         Preconditions.checkNotNull(outputId, "outputId is null");
         NamedQueue namedQueue = namedQueues.get(outputId);
@@ -255,59 +313,71 @@ public class SharedBuffer
             return;
         }
         namedQueue.setFinished();
-        openQueuesBySequenceId.remove(namedQueue);
 
         updateState();
     }
 
-    private synchronized void updateState()
+    private NamedQueue getNamedQueue(String outputId)
+    {
+        Preconditions.checkNotNull(outputId, "outputId is null");
+
+        NamedQueue namedQueue = namedQueues.get(outputId);
+        if (namedQueue == null) {
+            throw new NoSuchBufferException(outputId, namedQueues.keySet());
+        }
+        return namedQueue;
+    }
+
+    /**
+     * Drops consumed pages and refills the buffer from the queued pages.  This is called
+     * without holding the lock, so every step must be safe to run concurrently.
+     */
+    private void updateState()
     {
         if (closed.get()) {
-            // remove all empty queues
-            for (Iterator<NamedQueue> iterator = openQueuesBySequenceId.iterator(); iterator.hasNext(); ) {
-                NamedQueue namedQueue = iterator.next();
-                if (namedQueue.isEmpty()) {
+            // finish all empty queues
+            for (NamedQueue namedQueue : namedQueues.values()) {
+                if (!namedQueue.isFinished() && namedQueue.isEmpty()) {
                     namedQueue.setFinished();
-                    iterator.remove();
                 }
             }
-            // discard queued pages (not officially in the buffer) and waiters
-            for (QueuedPage queuedPage : queuedPages) {
-                queuedPage.getFuture().set(null);
-            }
-            queuedPages.clear();
-        }
-
-        if (state == QueueState.NO_MORE_QUEUES && !openQueuesBySequenceId.isEmpty()) {
-            // advance master sequence id
-            long oldMasterSequenceId = masterSequenceId;
-            masterSequenceId = openQueuesBySequenceId.iterator().next().getSequenceId();
-
-            // drop consumed pages
-            int pagesToRemove = Ints.checkedCast(masterSequenceId - oldMasterSequenceId);
-            Preconditions.checkState(pagesToRemove >= 0,
-                    "Master sequence id moved backwards: oldMasterSequenceId=%s, newMasterSequenceId=%s",
-                    oldMasterSequenceId,
-                    masterSequenceId);
-
-            for (int i = 0; i < pagesToRemove; i++) {
-                Page page = masterQueue.removeFirst();
-                bufferedBytes -= page.getDataSize().toBytes();
+            processQueuedPages();
+        }
+
+        QueueState state = this.state;
+        if (state == QueueState.NO_MORE_QUEUES) {
+            // partitioned queues drop their own pages when they are acknowledged
+            if (partitioner == null) {
+                // a page can be dropped once every open queue has acknowledged it; a stale
+                // minimum only drops fewer pages, since queue sequence ids never move backwards
+                long masterSequenceId = Long.MAX_VALUE;
+                for (NamedQueue namedQueue : namedQueues.values()) {
+                    if (!namedQueue.isFinished()) {
+                        masterSequenceId = Math.min(masterSequenceId, namedQueue.getSequenceId());
+                    }
+                }
+                if (masterSequenceId != Long.MAX_VALUE) {
+                    masterLog.trimTo(masterSequenceId);
+                }
             }
 
             // refill buffer from queued pages
-            while (!queuedPages.isEmpty() && bufferedBytes < maxBufferedBytes) {
-                QueuedPage queuedPage = queuedPages.removeFirst();
-                addInternal(queuedPage.getPage());
-                queuedPage.getFuture().set(null);
+            processQueuedPages();
+
+            if (closed.get() && allQueuesFinished()) {
+                destroy();
             }
         }
+    }
 
-        if (state == QueueState.NO_MORE_QUEUES && closed.get() && openQueuesBySequenceId.isEmpty()) {
-            destroy();
+    private boolean allQueuesFinished()
+    {
+        for (NamedQueue namedQueue : namedQueues.values()) {
+            if (!namedQueue.isFinished()) {
+                return false;
+            }
         }
-
-        this.notifyAll();
+        return true;
     }
 
     /**
@@ -319,6 +389,11 @@ public class SharedBuffer
 
         // the output will only transition to finished if it isn't already marked as failed or cancel
         updateState();
+
+        // wake readers waiting on an empty queue
+        for (NamedQueue namedQueue : namedQueues.values()) {
+            namedQueue.signal();
+        }
     }
 
     /**
@@ -327,40 +402,156 @@ public class SharedBuffer
     public synchronized void destroy()
     {
         closed.set(true);
+        boolean stateChanged = state != QueueState.FINISHED;
         state = QueueState.FINISHED;
 
-        // drop all of the queues
-        for (NamedQueue namedQueue : openQueuesBySequenceId) {
+        // drop all of the queues, which also notifies readers that the buffer has been destroyed
+        for (NamedQueue namedQueue : namedQueues.values()) {
             namedQueue.setFinished();
         }
-        openQueuesBySequenceId.clear();
 
         // clear the buffer
-        masterQueue.clear();
-        bufferedBytes = 0;
+        masterLog.clear();
 
         // free queued page waiters
-        for (QueuedPage queuedPage : queuedPages) {
-            queuedPage.getFuture().set(null);
+        processQueuedPages();
+
+        if (stateChanged) {
+            fireStateChanged();
+        }
+    }
+
+    private void fireStateChanged()
+    {
+        QueueState state = this.state;
+        for (StateChangeListener<QueueState> stateChangeListener : stateChangeListeners) {
+            stateChangeListener.stateChanged(state);
+        }
+    }
+
+    /**
+     * Append only log of pages indexed by sequence id.  Pages are added without locking and
+     * are removed from the head once every reader has acknowledged them.
+     */
+    @ThreadSafe
+    private class PageLog
+    {
+        private final ConcurrentSkipListMap<Long, Page> pages = new ConcurrentSkipListMap<>();
+        private final AtomicLong nextSequenceId = new AtomicLong();
+        private final AtomicLong startSequenceId = new AtomicLong();
+        private volatile boolean cleared;
+
+        public void add(Page page)
+        {
+            long sequenceId = nextSequenceId.getAndIncrement();
+            bufferedBytes.addAndGet(page.getDataSize().toBytes());
+            pages.put(sequenceId, page);
+
+            // the log may have been trimmed past this page (or cleared) while it was being added
+            if (cleared || sequenceId < startSequenceId.get()) {
+                remove(sequenceId, page);
+            }
+        }
+
+        public long getStartSequenceId()
+        {
+            return startSequenceId.get();
+        }
+
+        public long getNextSequenceId()
+        {
+            return nextSequenceId.get();
         }
-        queuedPages.clear();
 
-        // notify readers that the buffer has been destroyed
-        this.notifyAll();
+        public boolean contains(long sequenceId)
+        {
+            return pages.containsKey(sequenceId);
+        }
+
+        public int size(long sequenceId)
+        {
+            if (cleared) {
+                return 0;
+            }
+            return (int) Math.max(nextSequenceId.get() - Math.max(sequenceId, startSequenceId.get()), 0);
+        }
+
+        /**
+         * Returns the consecutive pages starting at the specified sequence id.  At least one page
+         * is returned if available, even if it is larger than maxBytes.
+         */
+        public List<Page> getPages(long sequenceId, long maxBytes)
+        {
+            ImmutableList.Builder<Page> result = ImmutableList.builder();
+            long bytes = 0;
+            boolean empty = true;
+            for (Page page = pages.get(sequenceId); page != null; page = pages.get(++sequenceId)) {
+                bytes += page.getDataSize().toBytes();
+                // break (and don't add) if this page would exceed the limit
+                if (!empty && bytes > maxBytes) {
+                    break;
+                }
+                result.add(page);
+                empty = false;
+            }
+            return result.build();
+        }
+
+        /**
+         * Drops all pages before the specified sequence id.
+         */
+        public void trimTo(long sequenceId)
+        {
+            // advance the start of the log; it never moves backwards
+            while (true) {
+                long current = startSequenceId.get();
+                if (current >= sequenceId || startSequenceId.compareAndSet(current, sequenceId)) {
+                    break;
+                }
+            }
+
+            long start = startSequenceId.get();
+            for (Map.Entry<Long, Page> entry = pages.firstEntry(); entry != null && entry.getKey() < start; entry = pages.firstEntry()) {
+                remove(entry.getKey(), entry.getValue());
+            }
+        }
+
+        public void clear()
+        {
+            cleared = true;
+            for (Map.Entry<Long, Page> entry = pages.firstEntry(); entry != null; entry = pages.firstEntry()) {
+                remove(entry.getKey(), entry.getValue());
+            }
+        }
+
+        private void remove(long sequenceId, Page page)
+        {
+            // only the thread that actually removes the page releases its memory
+            if (pages.remove(sequenceId, page)) {
+                bufferedBytes.addAndGet(-page.getDataSize().toBytes());
+            }
+        }
     }
 
-    @NotThreadSafe
+    @ThreadSafe
     private class NamedQueue
-            implements Comparable<NamedQueue>
     {
         private final String queueId;
 
-        private long sequenceId;
-        private boolean finished;
+        // the master log, or the log of this queue when the buffer is partitioned
+        private final PageLog pageLog;
 
-        private NamedQueue(String queueId)
+        // sequence id of the first page that has not been acknowledged
+        private final AtomicLong sequenceId = new AtomicLong();
+        private volatile boolean finished;
+
+        // readers blocked in waitForPages; producers only take the monitor of the queue when this is not zero
+        private final AtomicInteger waitingReaders = new AtomicInteger();
+
+        private NamedQueue(String queueId, PageLog pageLog)
         {
             this.queueId = queueId;
+            this.pageLog = pageLog;
         }
 
         public String getQueueId()
@@ -370,28 +561,44 @@ public class SharedBuffer
 
         public boolean isFinished()
         {
-            Preconditions.checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
-
             return finished;
         }
 
         public void setFinished()
         {
-            Preconditions.checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
-
+            boolean stateChanged = !finished;
             finished = true;
+
+            // release the pages of this partition
+            if (partitioner != null) {
+                pageLog.clear();
+            }
+
+            signal();
+
+            if (stateChanged) {
+                fireStateChanged();
+            }
+        }
+
+        public void addPage(Page page)
+        {
+            if (finished) {
+                return;
+            }
+            // a page added while the queue finishes is released by the cleared log
+            pageLog.add(page);
+            signal();
         }
 
         public boolean isEmpty()
         {
-            return size() == 0;
+            return !pageLog.contains(getSequenceId());
         }
 
         public long getSequenceId()
         {
-            Preconditions.checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
-
-            return sequenceId;
+            return sequenceId.get();
         }
 
         public long pagesRemoved()
@@ -401,69 +608,82 @@ public class SharedBuffer
 
         public int size()
         {
-            Preconditions.checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
-
             if (finished) {
                 return 0;
             }
-
-            int listOffset = Ints.checkedCast(sequenceId - masterSequenceId);
-            if (listOffset >= masterQueue.size()) {
-                return 0;
-            }
             // todo include queued pages?
-            return masterQueue.size() - listOffset;
+            return pageLog.size(getSequenceId());
         }
 
         public void acknowledge(long sequenceId)
         {
-            if (this.sequenceId < sequenceId) {
-                this.sequenceId = sequenceId;
+            // pages that were never added can not be acknowledged
+            long newSequenceId = Math.min(sequenceId, pageLog.getNextSequenceId());
+            while (true) {
+                long current = this.sequenceId.get();
+                if (current >= newSequenceId || this.sequenceId.compareAndSet(current, newSequenceId)) {
+                    break;
+                }
+            }
+
+            // pages of a partition are only referenced by this queue, so drop them now
+            if (partitioner != null) {
+                pageLog.trimTo(getSequenceId());
+            }
+        }
+
+        public void waitForPages(Duration maxWait)
+                throws InterruptedException
+        {
+            long remainingNanos = maxWait.roundTo(NANOSECONDS);
+            if (remainingNanos <= 0 || !isEmpty()) {
+                return;
+            }
+
+            long end = System.nanoTime() + remainingNanos;
+            synchronized (this) {
+                // register before checking the queue again, so a page added concurrently either
+                // is seen by the check below or notifies this reader
+                waitingReaders.incrementAndGet();
+                try {
+                    while (remainingNanos > 0 && isEmpty() && !finished && !closed.get()) {
+                        // wait for timeout or notification
+                        NANOSECONDS.timedWait(this, remainingNanos);
+                        remainingNanos = end - System.nanoTime();
+                    }
+                }
+                finally {
+                    waitingReaders.decrementAndGet();
+                }
+            }
+        }
+
+        public void signal()
+        {
+            if (waitingReaders.get() > 0) {
+                synchronized (this) {
+                    this.notifyAll();
+                }
             }
         }
 
         public BufferResult getPages(long startingSequenceId, DataSize maxSize)
         {
-            Preconditions.checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
             Preconditions.checkArgument(maxSize.toBytes() > 0, "maxSize must be at least 1 byte");
 
             acknowledge(startingSequenceId);
 
+            long sequenceId = getSequenceId();
             if (finished) {
                 return emptyResults(sequenceId, true);
             }
 
-            int listOffset = Ints.checkedCast(sequenceId - masterSequenceId);
-            if (listOffset >= masterQueue.size()) {
+            List<Page> pages = pageLog.getPages(sequenceId, maxSize.toBytes());
+            if (pages.isEmpty()) {
                 return emptyResults(sequenceId, false);
             }
 
-            long maxBytes = maxSize.toBytes();
-
-            List<Page> pages = new ArrayList<>();
-            long bytes = 0;
-            while (listOffset < masterQueue.size()) {
-                Page page = masterQueue.get(listOffset++);
-                bytes += page.getDataSize().toBytes();
-                // break (and don't add) if this page would exceed the limit
-                if (!pages.isEmpty() && bytes > maxBytes) {
-                    break;
-                }
-                pages.add(page);
-            }
-
-            return new BufferResult(startingSequenceId, false, ImmutableList.copyOf(pages));
-        }
-
-        @Override
-        public int compareTo(NamedQueue other)
-        {
-            Preconditions.checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
-
-            return ComparisonChain.start()
-                    .compare(this.sequenceId, other.sequenceId)
-                    .compare(this.queueId, other.queueId)
-                    .result();
+            return new BufferResult(sequenceId, false, pages);
         }
 
         @Override
@@ -471,7 +691,7 @@ public class SharedBuffer
         {
             return Objects.toStringHelper(this)
                     .add("queueId", queueId)
-                    .add("sequenceId", sequenceId)
+                    .add("sequenceId", getSequenceId())
                     .add("finished", finished)
                     .toString();
         }
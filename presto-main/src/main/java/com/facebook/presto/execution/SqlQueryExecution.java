@@ -75,6 +75,7 @@ public class SqlQueryExecution
     private final RemoteTaskFactory remoteTaskFactory;
     private final LocationFactory locationFactory;
     private final int maxPendingSplitsPerNode;
+    private final boolean distributedJoinsEnabled;
     private final ExecutorService queryExecutor;
     private final ShardManager shardManager;
     private final StorageManager storageManager;
@@ -96,6 +97,7 @@ public class SqlQueryExecution
             RemoteTaskFactory remoteTaskFactory,
             LocationFactory locationFactory,
             int maxPendingSplitsPerNode,
+            boolean distributedJoinsEnabled,
             ExecutorService queryExecutor,
             ShardManager shardManager,
             StorageManager storageManager,
@@ -116,6 +118,7 @@ public class SqlQueryExecution
 
             checkArgument(maxPendingSplitsPerNode > 0, "maxPendingSplitsPerNode must be greater than 0");
             this.maxPendingSplitsPerNode = maxPendingSplitsPerNode;
+            this.distributedJoinsEnabled = distributedJoinsEnabled;
 
             checkNotNull(queryId, "queryId is null");
             checkNotNull(query, "query is null");
@@ -123,7 +126,7 @@ public class SqlQueryExecution
             checkNotNull(self, "self is null");
             this.stateMachine = new QueryStateMachine(queryId, query, session, self, queryExecutor);
 
-            this.queryExplainer = new QueryExplainer(session, planOptimizers, metadata, periodicImportManager, storageManager);
+            this.queryExplainer = new QueryExplainer(session, planOptimizers, metadata, periodicImportManager, storageManager, distributedJoinsEnabled);
         }
     }
 
@@ -205,7 +208,8 @@ public class SqlQueryExecution
         stateMachine.setInputs(inputs);
 
         // fragment the plan
-        SubPlan subplan = new DistributedLogicalPlanner(metadata, idAllocator).createSubplans(plan, false);
+        boolean partitionedOutput = stateMachine.getSession().isParallelResults();
+        SubPlan subplan = new DistributedLogicalPlanner(metadata, idAllocator, distributedJoinsEnabled, partitionedOutput).createSubplans(plan, false);
 
         stateMachine.recordAnalysisTime(analysisStart);
         return subplan;
@@ -378,6 +382,7 @@ public class SqlQueryExecution
             implements QueryExecutionFactory<SqlQueryExecution>
     {
         private final int maxPendingSplitsPerNode;
+        private final boolean distributedJoinsEnabled;
         private final Metadata metadata;
         private final SplitManager splitManager;
         private final NodeScheduler nodeScheduler;
@@ -405,6 +410,7 @@ public class SqlQueryExecution
         {
             Preconditions.checkNotNull(config, "config is null");
             this.maxPendingSplitsPerNode = config.getMaxPendingSplitsPerNode();
+            this.distributedJoinsEnabled = config.isDistributedJoinsEnabled();
             this.metadata = checkNotNull(metadata, "metadata is null");
             this.locationFactory = checkNotNull(locationFactory, "locationFactory is null");
             this.splitManager = checkNotNull(splitManager, "splitManager is null");
@@ -441,6 +447,7 @@ public class SqlQueryExecution
                     remoteTaskFactory,
                     locationFactory,
                     maxPendingSplitsPerNode,
+                    distributedJoinsEnabled,
                     executor,
                     shardManager,
                     storageManager,
@@ -16,19 +16,23 @@ package com.facebook.presto.execution;
 import com.facebook.presto.event.query.QueryMonitor;
 import com.facebook.presto.execution.QueryExecution.QueryExecutionFactory;
 import com.facebook.presto.execution.StateMachine.StateChangeListener;
+import com.facebook.presto.operator.TaskStats;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.parser.ParsingException;
 import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.Statement;
 import com.facebook.presto.util.IterableTransformer;
 import com.facebook.presto.util.SetThreadName;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Ordering;
 import io.airlift.concurrent.ThreadPoolExecutorMBean;
 import io.airlift.log.Logger;
+import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import org.joda.time.DateTime;
 import org.weakref.jmx.Flatten;
@@ -39,10 +43,15 @@ import javax.annotation.Nullable;
 import javax.annotation.PreDestroy;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
+
 import java.net.URI;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
@@ -50,7 +59,9 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static com.facebook.presto.execution.StageInfo.getAllStages;
 import static com.facebook.presto.util.Threads.threadsNamed;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Predicates.compose;
@@ -58,6 +69,7 @@ import static com.google.common.base.Predicates.isNull;
 import static com.google.common.base.Predicates.not;
 import static com.google.common.collect.Iterables.filter;
 import static com.google.common.collect.Iterables.transform;
+import static io.airlift.units.DataSize.Unit.BYTE;
 
 @ThreadSafe
 public class SqlQueryManager
@@ -72,8 +84,13 @@ public class SqlQueryManager
     private final Duration maxQueryAge;
 
     private final ConcurrentMap<QueryId, QueryExecution> queries = new ConcurrentHashMap<>();
+    private final QueryQueue queryQueue;
 
     private final Duration clientTimeout;
+    private final long maxQueryMemory;
+
+    // last query killed to free an exhausted node memory pool
+    private final AtomicReference<QueryId> lowMemoryVictim = new AtomicReference<>();
 
     private final ScheduledExecutorService queryManagementExecutor;
     private final ThreadPoolExecutorMBean queryManagementExecutorMBean;
@@ -99,6 +116,7 @@ public class SqlQueryManager
 
         this.queryExecutor = Executors.newCachedThreadPool(threadsNamed("query-scheduler-%d"));
         this.queryExecutorMBean = new ThreadPoolExecutorMBean((ThreadPoolExecutor) queryExecutor);
+        this.queryQueue = new QueryQueue(config, queryExecutor);
 
         this.queryMonitor = checkNotNull(queryMonitor, "queryMonitor is null");
         this.locationFactory = checkNotNull(locationFactory, "locationFactory is null");
@@ -107,6 +125,7 @@ public class SqlQueryManager
         this.maxQueryAge = config.getMaxQueryAge();
         this.maxQueryHistory = config.getMaxQueryHistory();
         this.clientTimeout = config.getClientTimeout();
+        this.maxQueryMemory = config.getMaxQueryMemory().toBytes();
 
         queryManagementExecutor = Executors.newScheduledThreadPool(config.getQueryManagerExecutorPoolSize(), threadsNamed("query-management-%d"));
         queryManagementExecutorMBean = new ThreadPoolExecutorMBean((ThreadPoolExecutor) queryManagementExecutor);
@@ -127,6 +146,12 @@ public class SqlQueryManager
                 catch (Throwable e) {
                     log.warn(e, "Error removing old queries");
                 }
+                try {
+                    enforceMemoryLimits();
+                }
+                catch (Throwable e) {
+                    log.warn(e, "Error enforcing memory limits");
+                }
             }
         }, 200, 200, TimeUnit.MILLISECONDS);
     }
@@ -186,13 +211,20 @@ public class SqlQueryManager
         return query.getQueryInfo();
     }
 
+    @Override
+    public Optional<Integer> getQueuePosition(QueryId queryId)
+    {
+        checkNotNull(queryId, "queryId is null");
+        return queryQueue.getQueuePosition(queryId);
+    }
+
     @Override
     public QueryInfo createQuery(Session session, String query)
     {
         checkNotNull(query, "query is null");
         Preconditions.checkArgument(!query.isEmpty(), "query must not be empty string");
 
-        QueryId queryId = queryIdGenerator.createNextQueryId();
+        final QueryId queryId = queryIdGenerator.createNextQueryId();
 
         Statement statement;
         try {
@@ -213,6 +245,9 @@ public class SqlQueryManager
             public void stateChanged(QueryState newValue)
             {
                 if (newValue.isDone()) {
+                    // let the next queued query run
+                    queryQueue.remove(queryId);
+
                     QueryInfo info = queryExecution.getQueryInfo();
 
                     stats.queryFinished(info);
@@ -223,8 +258,14 @@ public class SqlQueryManager
 
         queries.put(queryId, queryExecution);
 
-        // start the query in the background
-        queryExecutor.submit(new QueryStarter(queryExecution, stats));
+        // start the query in the background once the queue allows it
+        if (!queryQueue.enqueue(queryId, session, new QueryStarter(queryExecution, stats))) {
+            queryExecution.fail(new QueryQueueFullException(String.format("Too many queued queries: %s", queryQueue.getQueuedQueries())));
+        }
+        else if (queryExecution.getQueryInfo().getState().isDone()) {
+            // the query was canceled before it was queued
+            queryQueue.remove(queryId);
+        }
 
         return queryExecution.getQueryInfo();
     }
@@ -262,6 +303,13 @@ public class SqlQueryManager
         return stats;
     }
 
+    @Managed(description = "Query admission queue")
+    @Nested
+    public QueryQueue getQueryQueue()
+    {
+        return queryQueue;
+    }
+
     @Managed(description = "Query scheduler executor")
     @Nested
     public ThreadPoolExecutorMBean getExecutor()
@@ -335,6 +383,120 @@ public class SqlQueryManager
         }
     }
 
+    /**
+     * Fails queries that reserved more than the cluster wide limit, and when a worker
+     * reports that its memory pool is exhausted, fails the query holding the most
+     * memory on that worker.
+     */
+    public void enforceMemoryLimits()
+    {
+        ImmutableList.Builder<QueryInfo> runningQueries = ImmutableList.builder();
+        for (QueryExecution queryExecution : queries.values()) {
+            try {
+                QueryInfo queryInfo = queryExecution.getQueryInfo();
+                if (queryInfo.getState().isDone()) {
+                    continue;
+                }
+
+                DataSize memoryReservation = queryInfo.getQueryStats().getTotalMemoryReservation();
+                if (memoryReservation.toBytes() > maxQueryMemory) {
+                    log.info("Failing query %s: reserved %s of memory", queryInfo.getQueryId(), memoryReservation);
+                    queryExecution.fail(new ExceededMemoryLimitException(String.format("Query exceeded max memory size of %s", new DataSize(maxQueryMemory, BYTE).convertToMostSuccinctDataSize())));
+                    continue;
+                }
+                runningQueries.add(queryInfo);
+            }
+            catch (RuntimeException e) {
+                log.warn(e, "Error while inspecting memory of query %s", queryExecution.getQueryInfo().getQueryId());
+            }
+        }
+
+        // wait for the tasks of the previous victim to release their memory before killing another query
+        QueryId previousVictim = lowMemoryVictim.get();
+        if (previousVictim != null) {
+            QueryExecution queryExecution = queries.get(previousVictim);
+            if (queryExecution != null && hasRunningTasks(queryExecution.getQueryInfo())) {
+                return;
+            }
+            lowMemoryVictim.compareAndSet(previousVictim, null);
+        }
+
+        QueryId victim = selectLowMemoryVictim(runningQueries.build());
+        if (victim != null) {
+            QueryExecution queryExecution = queries.get(victim);
+            if (queryExecution != null) {
+                log.info("Failing query %s to free memory on an exhausted node", victim);
+                lowMemoryVictim.set(victim);
+                queryExecution.fail(new ExceededMemoryLimitException("Query killed because the cluster is out of memory"));
+            }
+        }
+    }
+
+    /**
+     * Returns the query holding the most memory on a node with an exhausted memory pool, or null
+     * if no node reported an exhausted pool.
+     */
+    @VisibleForTesting
+    @Nullable
+    static QueryId selectLowMemoryVictim(Iterable<QueryInfo> queryInfos)
+    {
+        Map<String, Map<QueryId, Long>> nodeReservations = new HashMap<>();
+        Set<String> exhaustedNodes = new HashSet<>();
+        for (QueryInfo queryInfo : queryInfos) {
+            if (queryInfo.getOutputStage() == null) {
+                continue;
+            }
+            for (StageInfo stageInfo : getAllStages(queryInfo.getOutputStage())) {
+                for (TaskInfo taskInfo : stageInfo.getTasks()) {
+                    if (taskInfo.getState().isDone()) {
+                        continue;
+                    }
+                    URI self = taskInfo.getSelf();
+                    String node = self.getHost() + ":" + self.getPort();
+                    TaskStats taskStats = taskInfo.getStats();
+                    if (taskStats.isMemoryPoolExhausted()) {
+                        exhaustedNodes.add(node);
+                    }
+
+                    Map<QueryId, Long> reservations = nodeReservations.get(node);
+                    if (reservations == null) {
+                        reservations = new HashMap<>();
+                        nodeReservations.put(node, reservations);
+                    }
+                    // all tasks of a query on a node report the same node wide reservation
+                    reservations.put(queryInfo.getQueryId(), taskStats.getQueryMemoryReservation().toBytes());
+                }
+            }
+        }
+
+        QueryId victim = null;
+        long victimReservation = -1;
+        for (String node : exhaustedNodes) {
+            for (Entry<QueryId, Long> entry : nodeReservations.get(node).entrySet()) {
+                if (entry.getValue() > victimReservation) {
+                    victim = entry.getKey();
+                    victimReservation = entry.getValue();
+                }
+            }
+        }
+        return victim;
+    }
+
+    private static boolean hasRunningTasks(QueryInfo queryInfo)
+    {
+        if (queryInfo.getOutputStage() == null) {
+            return false;
+        }
+        for (StageInfo stageInfo : getAllStages(queryInfo.getOutputStage())) {
+            for (TaskInfo taskInfo : stageInfo.getTasks()) {
+                if (!taskInfo.getState().isDone()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private boolean isAbandoned(QueryExecution query)
     {
         DateTime oldestAllowedHeartbeat = DateTime.now().minus(clientTimeout.toMillis());
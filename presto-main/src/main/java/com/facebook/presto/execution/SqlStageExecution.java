@@ -21,6 +21,7 @@ import com.facebook.presto.spi.Split;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.planner.OutputReceiver;
 import com.facebook.presto.sql.planner.PlanFragment;
+import com.facebook.presto.sql.planner.PlanFragment.PlanDistribution;
 import com.facebook.presto.sql.planner.StageExecutionPlan;
 import com.facebook.presto.sql.planner.plan.ExchangeNode;
 import com.facebook.presto.sql.planner.plan.PlanFragmentId;
@@ -454,7 +455,17 @@ public class SqlStageExecution
 
                 // determine partitions
                 AtomicInteger nextTaskId = new AtomicInteger(0);
-                if (!dataSource.isPresent()) {
+                if (fragment.getDistribution() == PlanDistribution.FIXED) {
+                    // create one partition on every node; the set of nodes must not change after
+                    // this point, since each task is assigned one hash partition of the sub stage output
+                    nodeSelector.lockDownNodes();
+                    List<Node> nodes = nodeSelector.allNodes();
+                    Preconditions.checkState(!nodes.isEmpty(), "Cluster does not have any active nodes");
+                    for (Node node : nodes) {
+                        scheduleTask(nextTaskId, node, null);
+                    }
+                }
+                else if (!dataSource.isPresent()) {
                     // create a single partition on a random node for this fragment
                     scheduleTask(nextTaskId, nodeSelector.selectRandomNode(), null);
                 }
@@ -18,24 +18,30 @@ import com.facebook.presto.ScheduledSplit;
 import com.facebook.presto.TaskSource;
 import com.facebook.presto.client.FailureInfo;
 import com.facebook.presto.event.query.QueryMonitor;
+import com.facebook.presto.execution.SharedBuffer.QueueState;
 import com.facebook.presto.execution.StateMachine.StateChangeListener;
 import com.facebook.presto.execution.TaskExecutor.TaskHandle;
 import com.facebook.presto.operator.Driver;
 import com.facebook.presto.operator.DriverContext;
 import com.facebook.presto.operator.DriverFactory;
+import com.facebook.presto.operator.PagePartitioner;
 import com.facebook.presto.operator.PipelineContext;
 import com.facebook.presto.operator.TaskContext;
 import com.facebook.presto.operator.TaskOutputOperator.TaskOutputFactory;
+import com.facebook.presto.operator.TaskStats;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.planner.LocalExecutionPlanner;
 import com.facebook.presto.sql.planner.LocalExecutionPlanner.LocalExecutionPlan;
 import com.facebook.presto.sql.planner.PlanFragment;
+import com.facebook.presto.sql.planner.PlanFragment.OutputPartitioning;
+import com.facebook.presto.sql.planner.Symbol;
 import com.facebook.presto.sql.planner.plan.PlanNodeId;
 import com.facebook.presto.util.SetThreadName;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.FutureCallback;
@@ -45,6 +51,7 @@ import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import org.joda.time.DateTime;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 import java.lang.ref.WeakReference;
@@ -108,6 +115,9 @@ public class SqlTaskExecution
 
     private final AtomicLong nextTaskInfoVersion = new AtomicLong(TaskInfo.STARTING_VERSION);
 
+    // task infos with a version lower than this do not reflect the latest change of the task or buffer state
+    private final StateMachine<Long> taskInfoChangeVersion;
+
     public static SqlTaskExecution createSqlTaskExecution(Session session,
             TaskId taskId,
             URI location,
@@ -116,6 +126,7 @@ public class SqlTaskExecution
             DataSize maxBufferSize,
             TaskExecutor taskExecutor,
             ExecutorService notificationExecutor,
+            MemoryPool memoryPool,
             DataSize maxTaskMemoryUsage,
             DataSize operatorPreAllocatedMemory,
             QueryMonitor queryMonitor,
@@ -128,6 +139,7 @@ public class SqlTaskExecution
                 planner,
                 maxBufferSize,
                 taskExecutor,
+                memoryPool,
                 maxTaskMemoryUsage,
                 operatorPreAllocatedMemory,
                 queryMonitor,
@@ -148,6 +160,7 @@ public class SqlTaskExecution
             LocalExecutionPlanner planner,
             DataSize maxBufferSize,
             TaskExecutor taskExecutor,
+            MemoryPool memoryPool,
             DataSize maxTaskMemoryUsage,
             DataSize operatorPreAllocatedMemory,
             QueryMonitor queryMonitor,
@@ -159,12 +172,15 @@ public class SqlTaskExecution
             this.location = checkNotNull(location, "location is null");
             this.taskExecutor = checkNotNull(taskExecutor, "driverExecutor is null");
 
+            this.taskInfoChangeVersion = new StateMachine<>("task info " + taskId, notificationExecutor, TaskInfo.STARTING_VERSION);
+
             this.taskStateMachine = new TaskStateMachine(taskId, notificationExecutor);
             taskStateMachine.addStateChangeListener(new StateChangeListener<TaskState>()
             {
                 @Override
                 public void stateChanged(TaskState taskState)
                 {
+                    taskInfoChanged();
                     if (taskState.isDone()) {
                         SqlTaskExecution.this.taskExecutor.removeTask(taskHandle);
                         // make sure buffers are cleaned up
@@ -176,15 +192,24 @@ public class SqlTaskExecution
             this.taskContext = new TaskContext(taskStateMachine,
                     notificationExecutor,
                     session,
+                    checkNotNull(memoryPool, "memoryPool is null"),
                     checkNotNull(maxTaskMemoryUsage, "maxTaskMemoryUsage is null"),
                     checkNotNull(operatorPreAllocatedMemory, "operatorPreAllocatedMemory is null"),
                     cpuTimerEnabled);
 
-            this.sharedBuffer = new SharedBuffer(checkNotNull(maxBufferSize, "maxBufferSize is null"));
+            this.sharedBuffer = new SharedBuffer(checkNotNull(maxBufferSize, "maxBufferSize is null"), createPartitioner(fragment));
+            sharedBuffer.addStateChangeListener(new StateChangeListener<QueueState>()
+            {
+                @Override
+                public void stateChanged(QueueState newValue)
+                {
+                    taskInfoChanged();
+                }
+            });
 
             this.queryMonitor = checkNotNull(queryMonitor, "queryMonitor is null");
 
-            taskHandle = taskExecutor.addTask(taskId);
+            taskHandle = taskExecutor.addTask(taskId, session.getUser());
 
             LocalExecutionPlan localExecutionPlan = planner.plan(session, fragment.getRoot(), fragment.getSymbols(), new TaskOutputFactory(sharedBuffer));
             List<DriverFactory> driverFactories = localExecutionPlan.getDriverFactories();
@@ -200,6 +225,9 @@ public class SqlTaskExecution
                     PipelineContext pipelineContext = taskContext.addPipelineContext(driverFactory.isInputDriver(), driverFactory.isOutputDriver());
                     Driver driver = driverFactory.createDriver(pipelineContext.addDriverContext());
                     unpartitionedDrivers.add(driver);
+
+                    // an unpartitioned pipeline has a single driver
+                    driverFactory.close();
                 }
             }
             this.unpartitionedDrivers = ImmutableList.copyOf(unpartitionedDrivers);
@@ -258,26 +286,63 @@ public class SqlTaskExecution
         try (SetThreadName setThreadName = new SetThreadName("Task-%s", taskId)) {
             checkTaskCompletion();
 
+            // the version is taken before the state is read, so a change after this point results in a higher change version
+            long version = nextTaskInfoVersion.getAndIncrement();
             TaskState state = taskStateMachine.getState();
             List<FailureInfo> failures = ImmutableList.of();
             if (state == TaskState.FAILED) {
                 failures = toFailures(taskStateMachine.getFailureCauses());
             }
 
+            // the pipeline details are large, so they are only sent when requested or once the task is done
+            TaskStats taskStats = taskContext.getTaskStats();
+            if (!full && !state.isDone()) {
+                taskStats = taskStats.summarize();
+            }
+
             return new TaskInfo(
                     taskStateMachine.getTaskId(),
-                    nextTaskInfoVersion.getAndIncrement(),
+                    version,
                     state,
                     location,
                     lastHeartbeat.get(),
                     sharedBuffer.getInfo(),
                     getNoMoreSplits(),
-                    taskContext.getTaskStats(),
+                    taskStats,
                     failures,
                     taskContext.getOutputItems());
         }
     }
 
+    @Override
+    public void waitForTaskInfoChange(long currentVersion, Duration maxWait)
+            throws InterruptedException
+    {
+        try (SetThreadName setThreadName = new SetThreadName("Task-%s", taskId)) {
+            while (true) {
+                Long changeVersion = taskInfoChangeVersion.get();
+                if (changeVersion > currentVersion || maxWait.toMillis() <= 1) {
+                    return;
+                }
+                maxWait = taskInfoChangeVersion.waitForStateChange(changeVersion, maxWait);
+            }
+        }
+    }
+
+    private void taskInfoChanged()
+    {
+        // every task info created from now on reflects the change
+        final long version = nextTaskInfoVersion.get();
+        taskInfoChangeVersion.setIf(version, new Predicate<Long>()
+        {
+            @Override
+            public boolean apply(Long currentVersion)
+            {
+                return currentVersion < version;
+            }
+        });
+    }
+
     @Override
     public void addSources(List<TaskSource> sources)
     {
@@ -562,6 +627,22 @@ public class SqlTaskExecution
                 .toString();
     }
 
+    @Nullable
+    private static PagePartitioner createPartitioner(PlanFragment fragment)
+    {
+        if (fragment.getOutputPartitioning() != OutputPartitioning.HASH) {
+            return null;
+        }
+
+        // the sink produces one channel per output symbol
+        List<Symbol> outputSymbols = fragment.getRoot().getOutputSymbols();
+        ImmutableList.Builder<Integer> partitionChannels = ImmutableList.builder();
+        for (Symbol symbol : fragment.getPartitionBy()) {
+            partitionChannels.add(outputSymbols.indexOf(symbol));
+        }
+        return new PagePartitioner(fragment.getTupleInfos(), partitionChannels.build());
+    }
+
     private static class DriverSplitRunner
             implements SplitRunner
     {
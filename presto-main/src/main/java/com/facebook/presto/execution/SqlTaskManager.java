@@ -37,6 +37,7 @@ import org.joda.time.DateTime;
 import org.weakref.jmx.Managed;
 import org.weakref.jmx.Nested;
 
+import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
@@ -76,6 +77,7 @@ public class SqlTaskManager
     private final LocalExecutionPlanner planner;
     private final LocationFactory locationFactory;
     private final QueryMonitor queryMonitor;
+    private final MemoryPool memoryPool;
     private final DataSize maxTaskMemoryUsage;
     private final DataSize operatorPreAllocatedMemory;
     private final Duration infoCacheTime;
@@ -112,6 +114,7 @@ public class SqlTaskManager
 
         checkNotNull(config, "config is null");
         this.maxBufferSize = config.getSinkMaxBufferSize();
+        this.memoryPool = new MemoryPool(config.getMaxNodeMemoryUsage(), config.isMemoryBlockingEnabled());
         this.maxTaskMemoryUsage = config.getMaxTaskMemoryUsage();
         this.operatorPreAllocatedMemory = config.getOperatorPreAllocatedMemory();
         this.infoCacheTime = config.getInfoMaxAge();
@@ -198,6 +201,13 @@ public class SqlTaskManager
         return outputPositions;
     }
 
+    @Managed(description = "Node memory pool")
+    @Nested
+    public MemoryPool getMemoryPool()
+    {
+        return memoryPool;
+    }
+
     @Managed(description = "Task notification executor")
     @Nested
     public ThreadPoolExecutorMBean getTaskNotificationExecutor()
@@ -239,6 +249,22 @@ public class SqlTaskManager
         taskExecution.waitForStateChange(currentState, maxWait);
     }
 
+    @Override
+    public void waitForTaskInfoChange(TaskId taskId, long currentVersion, Duration maxWait)
+            throws InterruptedException
+    {
+        checkNotNull(taskId, "taskId is null");
+        checkNotNull(maxWait, "maxWait is null");
+
+        TaskExecution taskExecution = tasks.get(taskId);
+        if (taskExecution == null) {
+            return;
+        }
+
+        taskExecution.recordHeartbeat();
+        taskExecution.waitForTaskInfoChange(currentVersion, maxWait);
+    }
+
     @Override
     public TaskInfo getTaskInfo(TaskId taskId, boolean full)
     {
@@ -282,7 +308,7 @@ public class SqlTaskManager
     }
 
     @Override
-    public TaskInfo updateTask(Session session, TaskId taskId, PlanFragment fragment, List<TaskSource> sources, OutputBuffers outputIds)
+    public TaskInfo updateTask(Session session, TaskId taskId, @Nullable PlanFragment fragment, List<TaskSource> sources, OutputBuffers outputIds)
     {
         URI location = locationFactory.createLocalTaskLocation(taskId);
 
@@ -296,6 +322,8 @@ public class SqlTaskManager
                     return taskInfo;
                 }
 
+                // the fragment is only sent until the task has been created
+                Preconditions.checkArgument(fragment != null, "Task %s does not exist and no fragment was provided", taskId);
                 taskExecution = SqlTaskExecution.createSqlTaskExecution(session,
                         taskId,
                         location,
@@ -304,6 +332,7 @@ public class SqlTaskManager
                         maxBufferSize,
                         taskExecutor,
                         taskNotificationExecutor,
+                        memoryPool,
                         maxTaskMemoryUsage,
                         operatorPreAllocatedMemory,
                         queryMonitor,
@@ -390,6 +419,7 @@ public class SqlTaskManager
                         new TaskStateMachine(taskId, taskNotificationExecutor),
                         taskManagementExecutor,
                         null,
+                        memoryPool,
                         maxTaskMemoryUsage,
                         operatorPreAllocatedMemory,
                         cpuTimerEnabled);
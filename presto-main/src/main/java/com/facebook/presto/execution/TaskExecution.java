@@ -32,6 +32,13 @@ public interface TaskExecution
     void waitForStateChange(TaskState currentState, Duration maxWait)
             throws InterruptedException;
 
+    /**
+     * Waits until the state of the task or of its output buffers has changed since the
+     * task info with the specified version was created.
+     */
+    void waitForTaskInfoChange(long currentVersion, Duration maxWait)
+            throws InterruptedException;
+
     void addSources(List<TaskSource> sources);
 
     void addResultQueue(OutputBuffers outputIds);
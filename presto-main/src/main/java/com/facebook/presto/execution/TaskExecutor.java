@@ -18,8 +18,6 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 import com.google.common.base.Ticker;
 import com.google.common.collect.Sets;
-import com.google.common.primitives.Ints;
-import com.google.common.primitives.Longs;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import io.airlift.concurrent.ThreadPoolExecutorMBean;
@@ -32,22 +30,22 @@ import org.weakref.jmx.Nested;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.annotation.concurrent.GuardedBy;
-import javax.annotation.concurrent.NotThreadSafe;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -69,39 +67,57 @@ public class TaskExecutor
     // each task is guaranteed a minimum number of tasks
     private static final int GUARANTEED_SPLITS_PER_TASK = 3;
 
-    // each time we run a split, run it for this length before returning to the pool
-    private static final Duration SPLIT_RUN_QUANTA = new Duration(1, TimeUnit.SECONDS);
+    // each time we run a split, run it for at most this length before returning to the pool
+    private static final Duration DEFAULT_MIN_SPLIT_RUN_QUANTA = new Duration(100, TimeUnit.MILLISECONDS);
+    private static final Duration DEFAULT_MAX_SPLIT_RUN_QUANTA = new Duration(2, TimeUnit.SECONDS);
+
+    // each level gets this many times the thread time of the next level
+    private static final int LEVEL_TIME_MULTIPLIER = 2;
+
+    private static final String DEFAULT_GROUP = "default";
 
     private static final AtomicLong NEXT_RUNNER_ID = new AtomicLong();
-    private static final AtomicLong NEXT_WORKER_ID = new AtomicLong();
 
     private final ExecutorService executor;
     private final ThreadPoolExecutorMBean executorMBean;
 
     private final int runnerThreads;
     private final int minimumNumberOfTasks;
+    private final long minSplitRunQuantaNanos;
+    private final long maxSplitRunQuantaNanos;
 
     private final Ticker ticker;
 
     @GuardedBy("this")
     private final List<TaskHandle> tasks;
 
-    private final Set<PrioritizedSplitRunner> allSplits = new HashSet<>();
-    private final PriorityBlockingQueue<PrioritizedSplitRunner> pendingSplits;
+    // thread usage of the queries and groups with tasks on this node
+    @GuardedBy("this")
+    private final Map<QueryId, ThreadUsage> queries = new HashMap<>();
+    @GuardedBy("this")
+    private final Map<String, ThreadUsage> groups = new HashMap<>();
+    private final ConcurrentMap<String, Integer> groupWeights = new ConcurrentHashMap<>();
+
+    private final Set<PrioritizedSplitRunner> allSplits = Sets.newSetFromMap(new ConcurrentHashMap<PrioritizedSplitRunner, Boolean>());
+    private final MultilevelSplitQueue pendingSplits;
     private final Set<PrioritizedSplitRunner> runningSplits = Sets.newSetFromMap(new ConcurrentHashMap<PrioritizedSplitRunner, Boolean>());
     private final Set<PrioritizedSplitRunner> blockedSplits = Sets.newSetFromMap(new ConcurrentHashMap<PrioritizedSplitRunner, Boolean>());
 
-    private final AtomicLongArray completedTasksPerLevel = new AtomicLongArray(5);
+    private final AtomicLongArray completedTasksPerLevel = new AtomicLongArray(MultilevelSplitQueue.LEVELS);
 
     private final DistributionStat queuedTime = new DistributionStat();
     private final DistributionStat wallTime = new DistributionStat();
+    private final DistributionStat splitRunQuanta = new DistributionStat();
 
-    private boolean closed;
+    private volatile boolean closed;
 
     @Inject
     public TaskExecutor(TaskManagerConfig config)
     {
-        this(checkNotNull(config, "config is null").getMaxShardProcessorThreads());
+        this(checkNotNull(config, "config is null").getMaxShardProcessorThreads(),
+                config.getMinSplitRunQuanta(),
+                config.getMaxSplitRunQuanta(),
+                Ticker.systemTicker());
     }
 
     public TaskExecutor(int runnerThreads)
@@ -111,8 +127,19 @@ public class TaskExecutor
 
     @VisibleForTesting
     public TaskExecutor(int runnerThreads, Ticker ticker)
+    {
+        this(runnerThreads, DEFAULT_MIN_SPLIT_RUN_QUANTA, DEFAULT_MAX_SPLIT_RUN_QUANTA, ticker);
+    }
+
+    @VisibleForTesting
+    public TaskExecutor(int runnerThreads, Duration minSplitRunQuanta, Duration maxSplitRunQuanta, Ticker ticker)
     {
         checkArgument(runnerThreads > 0, "runnerThreads must be at least 1");
+        checkNotNull(minSplitRunQuanta, "minSplitRunQuanta is null");
+        checkNotNull(maxSplitRunQuanta, "maxSplitRunQuanta is null");
+        checkArgument(minSplitRunQuanta.compareTo(maxSplitRunQuanta) <= 0, "minSplitRunQuanta is greater than maxSplitRunQuanta");
+        this.minSplitRunQuantaNanos = minSplitRunQuanta.roundTo(TimeUnit.NANOSECONDS);
+        this.maxSplitRunQuantaNanos = maxSplitRunQuanta.roundTo(TimeUnit.NANOSECONDS);
 
         // we manages thread pool size directly, so create an unlimited pool
         this.executor = Executors.newCachedThreadPool(threadsNamed("task-processor-%d"));
@@ -123,7 +150,7 @@ public class TaskExecutor
 
         // we assume we need at least two tasks per runner thread to keep the system busy
         this.minimumNumberOfTasks = 2 * this.runnerThreads;
-        this.pendingSplits = new PriorityBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 10);
+        this.pendingSplits = new MultilevelSplitQueue(LEVEL_TIME_MULTIPLIER);
         this.tasks = new LinkedList<>();
     }
 
@@ -166,7 +193,33 @@ public class TaskExecutor
 
     public synchronized TaskHandle addTask(TaskId taskId)
     {
-        TaskHandle taskHandle = new TaskHandle(checkNotNull(taskId, "taskId is null"));
+        return addTask(taskId, DEFAULT_GROUP);
+    }
+
+    /**
+     * @param group the scheduling group of the task; runner thread time is shared fairly
+     * between groups first, and then between the queries of a group
+     */
+    public synchronized TaskHandle addTask(TaskId taskId, String group)
+    {
+        checkNotNull(taskId, "taskId is null");
+        checkNotNull(group, "group is null");
+
+        ThreadUsage queryUsage = queries.get(taskId.getQueryId());
+        if (queryUsage == null) {
+            queryUsage = new ThreadUsage(taskId.getQueryId().toString(), 1);
+            queries.put(taskId.getQueryId(), queryUsage);
+        }
+        ThreadUsage groupUsage = groups.get(group);
+        if (groupUsage == null) {
+            Integer weight = groupWeights.get(group);
+            groupUsage = new ThreadUsage(group, weight == null ? 1 : weight);
+            groups.put(group, groupUsage);
+        }
+        queryUsage.addTask();
+        groupUsage.addTask();
+
+        TaskHandle taskHandle = new TaskHandle(taskId, queryUsage, groupUsage);
         tasks.add(taskHandle);
         return taskHandle;
     }
@@ -174,7 +227,16 @@ public class TaskExecutor
     public synchronized void removeTask(TaskHandle taskHandle)
     {
         taskHandle.destroy();
-        tasks.remove(taskHandle);
+        if (!tasks.remove(taskHandle)) {
+            return;
+        }
+
+        if (taskHandle.getQuery().removeTask()) {
+            queries.remove(taskHandle.getTaskId().getQueryId());
+        }
+        if (taskHandle.getGroup().removeTask()) {
+            groups.remove(taskHandle.getGroup().getName());
+        }
 
         // record completed stats
         long threadUsageNanos = taskHandle.getThreadUsageNanos();
@@ -182,7 +244,7 @@ public class TaskExecutor
         completedTasksPerLevel.incrementAndGet(priorityLevel);
     }
 
-    public synchronized ListenableFuture<?> enqueueSplit(TaskHandle taskHandle, SplitRunner taskSplit)
+    public ListenableFuture<?> enqueueSplit(TaskHandle taskHandle, SplitRunner taskSplit)
     {
         PrioritizedSplitRunner prioritizedSplitRunner = new PrioritizedSplitRunner(taskHandle, taskSplit, ticker);
         taskHandle.addSplit(prioritizedSplitRunner);
@@ -194,7 +256,7 @@ public class TaskExecutor
         return prioritizedSplitRunner.getFinishedFuture();
     }
 
-    public synchronized ListenableFuture<?> forceRunSplit(TaskHandle taskHandle, SplitRunner taskSplit)
+    public ListenableFuture<?> forceRunSplit(TaskHandle taskHandle, SplitRunner taskSplit)
     {
         PrioritizedSplitRunner prioritizedSplitRunner = new PrioritizedSplitRunner(taskHandle, taskSplit, ticker);
 
@@ -205,7 +267,7 @@ public class TaskExecutor
         return prioritizedSplitRunner.getFinishedFuture();
     }
 
-    private synchronized void splitFinished(PrioritizedSplitRunner split)
+    private void splitFinished(PrioritizedSplitRunner split)
     {
         allSplits.remove(split);
         pendingSplits.remove(split);
@@ -220,36 +282,41 @@ public class TaskExecutor
         addNewEntrants();
     }
 
-    private synchronized void scheduleTaskIfNecessary(TaskHandle taskHandle)
+    private void scheduleTaskIfNecessary(TaskHandle taskHandle)
     {
         // if task has less than the minimum guaranteed splits running,
         // immediately schedule a new split for this task.  This assures
         // that a task gets its fair amount of consideration (you have to
         // have splits to be considered for running on a thread).
-        if (taskHandle.getRunningSplits() < GUARANTEED_SPLITS_PER_TASK) {
-            PrioritizedSplitRunner split = taskHandle.pollNextSplit();
-            if (split != null) {
-                startSplit(split);
-                queuedTime.add(System.nanoTime() - split.createdNanos);
-            }
+        PrioritizedSplitRunner split = taskHandle.pollNextSplit(GUARANTEED_SPLITS_PER_TASK);
+        if (split != null) {
+            startSplit(split);
+            queuedTime.add(System.nanoTime() - split.createdNanos);
         }
     }
 
-    private synchronized void addNewEntrants()
+    private void addNewEntrants()
     {
-        int running = allSplits.size();
-        for (int i = 0; i < minimumNumberOfTasks - running; i++) {
-            PrioritizedSplitRunner split = pollNextSplitWorker();
-            if (split == null) {
-                break;
-            }
+        // the common case of a busy executor does not need the task list lock
+        if (allSplits.size() >= minimumNumberOfTasks) {
+            return;
+        }
 
-            queuedTime.add(System.nanoTime() - split.createdNanos);
-            startSplit(split);
+        synchronized (this) {
+            int running = allSplits.size();
+            for (int i = 0; i < minimumNumberOfTasks - running; i++) {
+                PrioritizedSplitRunner split = pollNextSplitWorker();
+                if (split == null) {
+                    break;
+                }
+
+                queuedTime.add(System.nanoTime() - split.createdNanos);
+                startSplit(split);
+            }
         }
     }
 
-    private synchronized void startSplit(PrioritizedSplitRunner split)
+    private void startSplit(PrioritizedSplitRunner split)
     {
         allSplits.add(split);
         pendingSplits.put(split);
@@ -262,7 +329,7 @@ public class TaskExecutor
         // end of the task list, so we get round robin
         for (Iterator<TaskHandle> iterator = tasks.iterator(); iterator.hasNext(); ) {
             TaskHandle task = iterator.next();
-            PrioritizedSplitRunner split = task.pollNextSplit();
+            PrioritizedSplitRunner split = task.pollNextSplit(Integer.MAX_VALUE);
             if (split != null) {
                 // move task to end of list
                 iterator.remove();
@@ -276,21 +343,88 @@ public class TaskExecutor
         return null;
     }
 
-    @NotThreadSafe
+    /**
+     * Thread time used by all tasks of a query or of a scheduling group.
+     */
+    @ThreadSafe
+    static class ThreadUsage
+    {
+        private final String name;
+        private final AtomicLong threadUsageNanos = new AtomicLong();
+        private volatile int weight;
+
+        // number of tasks using this, guarded by the task executor
+        private int tasks;
+
+        private ThreadUsage(String name, int weight)
+        {
+            this.name = name;
+            this.weight = weight;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public long getThreadUsageNanos()
+        {
+            return threadUsageNanos.get();
+        }
+
+        public long getWeightedThreadUsageNanos()
+        {
+            return threadUsageNanos.get() / weight;
+        }
+
+        private void addThreadUsageNanos(long durationNanos)
+        {
+            threadUsageNanos.addAndGet(durationNanos);
+        }
+
+        private void setWeight(int weight)
+        {
+            this.weight = weight;
+        }
+
+        private void addTask()
+        {
+            tasks++;
+        }
+
+        /**
+         * @return true if this was the last task
+         */
+        private boolean removeTask()
+        {
+            tasks--;
+            return tasks == 0;
+        }
+    }
+
+    @ThreadSafe
     public static class TaskHandle
     {
         private final TaskId taskId;
+        private final ThreadUsage query;
+        private final ThreadUsage group;
+        @GuardedBy("this")
         private final Queue<PrioritizedSplitRunner> queuedSplits = new ArrayDeque<>(10);
+        @GuardedBy("this")
         private final List<PrioritizedSplitRunner> runningSplits = new ArrayList<>(10);
         private final AtomicLong taskThreadUsageNanos = new AtomicLong();
 
-        private TaskHandle(TaskId taskId)
+        private TaskHandle(TaskId taskId, ThreadUsage query, ThreadUsage group)
         {
             this.taskId = taskId;
+            this.query = query;
+            this.group = group;
         }
 
         private long addThreadUsageNanos(long durationNanos)
         {
+            query.addThreadUsageNanos(durationNanos);
+            group.addThreadUsageNanos(durationNanos);
             return taskThreadUsageNanos.addAndGet(durationNanos);
         }
 
@@ -299,7 +433,17 @@ public class TaskExecutor
             return taskId;
         }
 
-        private void destroy()
+        ThreadUsage getQuery()
+        {
+            return query;
+        }
+
+        ThreadUsage getGroup()
+        {
+            return group;
+        }
+
+        private synchronized void destroy()
         {
             for (PrioritizedSplitRunner runningSplit : runningSplits) {
                 runningSplit.destroy();
@@ -312,23 +456,24 @@ public class TaskExecutor
             queuedSplits.clear();
         }
 
-        private void addSplit(PrioritizedSplitRunner split)
+        private synchronized void addSplit(PrioritizedSplitRunner split)
         {
             queuedSplits.add(split);
         }
 
-        private int getRunningSplits()
-        {
-            return runningSplits.size();
-        }
-
         private long getThreadUsageNanos()
         {
             return taskThreadUsageNanos.get();
         }
 
-        private PrioritizedSplitRunner pollNextSplit()
+        /**
+         * Starts the next queued split, unless the task already has {@code maxRunningSplits} running.
+         */
+        private synchronized PrioritizedSplitRunner pollNextSplit(int maxRunningSplits)
         {
+            if (runningSplits.size() >= maxRunningSplits) {
+                return null;
+            }
             PrioritizedSplitRunner split = queuedSplits.poll();
             if (split != null) {
                 runningSplits.add(split);
@@ -336,7 +481,7 @@ public class TaskExecutor
             return split;
         }
 
-        private void splitComplete(PrioritizedSplitRunner split)
+        private synchronized void splitComplete(PrioritizedSplitRunner split)
         {
             runningSplits.remove(split);
             split.destroy();
@@ -351,13 +496,11 @@ public class TaskExecutor
         }
     }
 
-    private static class PrioritizedSplitRunner
-            implements Comparable<PrioritizedSplitRunner>
+    static class PrioritizedSplitRunner
     {
         private final long createdNanos = System.nanoTime();
 
         private final TaskHandle taskHandle;
-        private final long workerId;
         private final SplitRunner split;
 
         private final Ticker ticker;
@@ -369,21 +512,34 @@ public class TaskExecutor
 
         private final AtomicInteger priorityLevel = new AtomicInteger();
         private final AtomicLong threadUsageNanos = new AtomicLong();
-        private final AtomicLong lastRun = new AtomicLong();
+        private final AtomicLong lastRunNanos = new AtomicLong();
 
-        private PrioritizedSplitRunner(TaskHandle taskHandle, SplitRunner split, Ticker ticker)
+        @VisibleForTesting
+        PrioritizedSplitRunner(TaskHandle taskHandle, SplitRunner split, Ticker ticker)
         {
             this.taskHandle = taskHandle;
             this.split = split;
             this.ticker = ticker;
-            this.workerId = NEXT_WORKER_ID.getAndIncrement();
         }
 
-        private TaskHandle getTaskHandle()
+        TaskHandle getTaskHandle()
         {
             return taskHandle;
         }
 
+        int getPriorityLevel()
+        {
+            return priorityLevel.get();
+        }
+
+        /**
+         * Thread time used by the last call to process.
+         */
+        long getLastRunNanos()
+        {
+            return lastRunNanos.get();
+        }
+
         private SettableFuture<?> getFinishedFuture()
         {
             return finishedFuture;
@@ -416,12 +572,12 @@ public class TaskExecutor
             return finished || destroyed.get();
         }
 
-        public ListenableFuture<?> process()
+        public ListenableFuture<?> process(Duration quanta)
                 throws Exception
         {
             try {
                 long start = ticker.read();
-                ListenableFuture<?> blocked = split.processFor(SPLIT_RUN_QUANTA);
+                ListenableFuture<?> blocked = split.processFor(quanta);
                 long endTime = ticker.read();
 
                 // update priority level base on total thread usage of task
@@ -430,8 +586,7 @@ public class TaskExecutor
                 this.threadUsageNanos.set(threadUsageNanos);
                 priorityLevel.set(calculatePriorityLevel(threadUsageNanos));
 
-                // record last run for prioritization within a level
-                lastRun.set(endTime);
+                lastRunNanos.set(durationNanos);
 
                 return blocked;
             }
@@ -453,29 +608,6 @@ public class TaskExecutor
             return true;
         }
 
-        @Override
-        public int compareTo(PrioritizedSplitRunner o)
-        {
-            int level = priorityLevel.get();
-
-            int result = Ints.compare(level, o.priorityLevel.get());
-            if (result != 0) {
-                return result;
-            }
-
-            if (level < 4) {
-                result = Long.compare(threadUsageNanos.get(), threadUsageNanos.get());
-            }
-            else {
-                result = Long.compare(lastRun.get(), o.lastRun.get());
-            }
-            if (result != 0) {
-                return result;
-            }
-
-            return Longs.compare(workerId, o.workerId);
-        }
-
         @Override
         public String toString()
         {
@@ -488,25 +620,25 @@ public class TaskExecutor
 
     private static int calculatePriorityLevel(long threadUsageNanos)
     {
-        long millis = TimeUnit.NANOSECONDS.toMillis(threadUsageNanos);
+        return MultilevelSplitQueue.computeLevel(threadUsageNanos);
+    }
 
-        int priorityLevel;
-        if (millis < 1000) {
-            priorityLevel = 0;
-        }
-        else if (millis < 10_000) {
-            priorityLevel = 1;
-        }
-        else if (millis < 60_000) {
-            priorityLevel = 2;
-        }
-        else if (millis < 300_000) {
-            priorityLevel = 3;
-        }
-        else {
-            priorityLevel = 4;
+    /**
+     * When no splits are waiting, a split runs for the maximum quanta, which keeps
+     * the rescheduling overhead of long scans low.  As splits queue up, the quanta
+     * shrinks in proportion to the number of waiting splits per runner thread, so
+     * new queries get a thread quickly.  Splits that have been running for a long
+     * time are not interactive, so each priority level doubles the quanta.
+     */
+    @VisibleForTesting
+    long computeSplitRunQuantaNanos(int priorityLevel, int queuedSplits)
+    {
+        if (queuedSplits == 0) {
+            return maxSplitRunQuantaNanos;
         }
-        return priorityLevel;
+        double quantaNanos = maxSplitRunQuantaNanos * runnerThreads / (double) (runnerThreads + queuedSplits);
+        quantaNanos *= 1 << priorityLevel;
+        return Math.max(minSplitRunQuantaNanos, Math.min(maxSplitRunQuantaNanos, (long) quantaNanos));
     }
 
     private class Runner
@@ -539,14 +671,18 @@ public class TaskExecutor
 
                         boolean finished;
                         ListenableFuture<?> blocked;
+                        int level = split.getPriorityLevel();
                         try {
                             split.initializeIfNecessary();
-                            blocked = split.process();
+                            long quantaNanos = computeSplitRunQuantaNanos(level, pendingSplits.size());
+                            splitRunQuanta.add(quantaNanos);
+                            blocked = split.process(new Duration(quantaNanos, TimeUnit.NANOSECONDS));
                             finished = split.isFinished();
                         }
                         finally {
                             runningSplits.remove(split);
                         }
+                        pendingSplits.addScheduledNanos(level, split.getLastRunNanos());
 
                         if (finished) {
                             log.debug("%s is finished", split);
@@ -591,7 +727,7 @@ public class TaskExecutor
     //
 
     @Managed
-    public int getTasks()
+    public synchronized int getTasks()
     {
         return tasks.size();
     }
@@ -692,6 +828,120 @@ public class TaskExecutor
         return calculateRunningTasksForLevel(4);
     }
 
+    @Managed
+    public synchronized int getQueries()
+    {
+        return queries.size();
+    }
+
+    @Managed
+    public synchronized int getGroups()
+    {
+        return groups.size();
+    }
+
+    @Managed(description = "Set the share of runner thread time of a scheduling group relative to other groups")
+    public synchronized void setGroupWeight(String group, int weight)
+    {
+        checkNotNull(group, "group is null");
+        checkArgument(weight > 0, "weight must be positive");
+        groupWeights.put(group, weight);
+        ThreadUsage groupUsage = groups.get(group);
+        if (groupUsage != null) {
+            groupUsage.setWeight(weight);
+        }
+    }
+
+    @Managed
+    public long getScheduledNanosLevel0()
+    {
+        return pendingSplits.getScheduledNanos(0);
+    }
+
+    @Managed
+    public long getScheduledNanosLevel1()
+    {
+        return pendingSplits.getScheduledNanos(1);
+    }
+
+    @Managed
+    public long getScheduledNanosLevel2()
+    {
+        return pendingSplits.getScheduledNanos(2);
+    }
+
+    @Managed
+    public long getScheduledNanosLevel3()
+    {
+        return pendingSplits.getScheduledNanos(3);
+    }
+
+    @Managed
+    public long getScheduledNanosLevel4()
+    {
+        return pendingSplits.getScheduledNanos(4);
+    }
+
+    @Managed
+    public long getSelectedSplitsLevel0()
+    {
+        return pendingSplits.getSelectedSplits(0);
+    }
+
+    @Managed
+    public long getSelectedSplitsLevel1()
+    {
+        return pendingSplits.getSelectedSplits(1);
+    }
+
+    @Managed
+    public long getSelectedSplitsLevel2()
+    {
+        return pendingSplits.getSelectedSplits(2);
+    }
+
+    @Managed
+    public long getSelectedSplitsLevel3()
+    {
+        return pendingSplits.getSelectedSplits(3);
+    }
+
+    @Managed
+    public long getSelectedSplitsLevel4()
+    {
+        return pendingSplits.getSelectedSplits(4);
+    }
+
+    @Managed
+    public int getPendingSplitsLevel0()
+    {
+        return pendingSplits.getQueuedSplits(0);
+    }
+
+    @Managed
+    public int getPendingSplitsLevel1()
+    {
+        return pendingSplits.getQueuedSplits(1);
+    }
+
+    @Managed
+    public int getPendingSplitsLevel2()
+    {
+        return pendingSplits.getQueuedSplits(2);
+    }
+
+    @Managed
+    public int getPendingSplitsLevel3()
+    {
+        return pendingSplits.getQueuedSplits(3);
+    }
+
+    @Managed
+    public int getPendingSplitsLevel4()
+    {
+        return pendingSplits.getQueuedSplits(4);
+    }
+
     @Managed
     @Nested
     public DistributionStat getQueuedTime()
@@ -706,6 +956,13 @@ public class TaskExecutor
         return wallTime;
     }
 
+    @Managed
+    @Nested
+    public DistributionStat getSplitRunQuanta()
+    {
+        return splitRunQuanta;
+    }
+
     private synchronized int calculateRunningTasksForLevel(int level)
     {
         int count = 0;
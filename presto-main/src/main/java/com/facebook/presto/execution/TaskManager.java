@@ -20,6 +20,8 @@ import com.facebook.presto.sql.planner.PlanFragment;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 
+import javax.annotation.Nullable;
+
 import java.util.List;
 
 public interface TaskManager
@@ -29,9 +31,12 @@ public interface TaskManager
     void waitForStateChange(TaskId taskId, TaskState currentState, Duration maxWait)
             throws InterruptedException;
 
+    void waitForTaskInfoChange(TaskId taskId, long currentVersion, Duration maxWait)
+            throws InterruptedException;
+
     TaskInfo getTaskInfo(TaskId taskId, boolean full);
 
-    TaskInfo updateTask(Session session, TaskId taskId, PlanFragment fragment, List<TaskSource> sources, OutputBuffers outputIds);
+    TaskInfo updateTask(Session session, TaskId taskId, @Nullable PlanFragment fragment, List<TaskSource> sources, OutputBuffers outputIds);
 
     BufferResult getTaskResults(TaskId taskId, String outputName, long startingSequenceId, DataSize maxSize, Duration maxWaitTime)
             throws InterruptedException;
@@ -14,6 +14,7 @@
 package com.facebook.presto.execution;
 
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import io.airlift.units.Duration;
@@ -22,20 +23,30 @@ import io.airlift.units.MinDuration;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
+import java.io.File;
 import java.util.concurrent.TimeUnit;
 
 public class TaskManagerConfig
 {
     private boolean taskCpuTimerEnabled = true;
     private DataSize maxTaskMemoryUsage = new DataSize(256, Unit.MEGABYTE);
+    private DataSize maxNodeMemoryUsage = new DataSize(Math.round(Runtime.getRuntime().maxMemory() * 0.7), Unit.BYTE);
+    private boolean memoryBlockingEnabled;
     private DataSize operatorPreAllocatedMemory = new DataSize(16, Unit.MEGABYTE);
     private int maxShardProcessorThreads = Runtime.getRuntime().availableProcessors() * 4;
+    private Duration minSplitRunQuanta = new Duration(100, TimeUnit.MILLISECONDS);
+    private Duration maxSplitRunQuanta = new Duration(2, TimeUnit.SECONDS);
 
     private DataSize sinkMaxBufferSize = new DataSize(32, Unit.MEGABYTE);
 
     private Duration clientTimeout = new Duration(5, TimeUnit.MINUTES);
     private Duration infoMaxAge = new Duration(15, TimeUnit.MINUTES);
 
+    private boolean spillEnabled;
+    private File spillPath = new File("var/spill");
+
+    private boolean dynamicFilteringEnabled;
+
     public boolean isTaskCpuTimerEnabled()
     {
         return taskCpuTimerEnabled;
@@ -61,6 +72,33 @@ public class TaskManagerConfig
         return this;
     }
 
+    @NotNull
+    public DataSize getMaxNodeMemoryUsage()
+    {
+        return maxNodeMemoryUsage;
+    }
+
+    @Config("task.max-node-memory")
+    @ConfigDescription("Size of the memory pool shared by all tasks running on this node")
+    public TaskManagerConfig setMaxNodeMemoryUsage(DataSize maxNodeMemoryUsage)
+    {
+        this.maxNodeMemoryUsage = maxNodeMemoryUsage;
+        return this;
+    }
+
+    public boolean isMemoryBlockingEnabled()
+    {
+        return memoryBlockingEnabled;
+    }
+
+    @Config("task.memory-blocking-enabled")
+    @ConfigDescription("Operators wait for memory to be released when the node memory pool is exhausted instead of failing the query")
+    public TaskManagerConfig setMemoryBlockingEnabled(boolean memoryBlockingEnabled)
+    {
+        this.memoryBlockingEnabled = memoryBlockingEnabled;
+        return this;
+    }
+
     @NotNull
     public DataSize getOperatorPreAllocatedMemory()
     {
@@ -87,6 +125,36 @@ public class TaskManagerConfig
         return this;
     }
 
+    @MinDuration("1ms")
+    @NotNull
+    public Duration getMinSplitRunQuanta()
+    {
+        return minSplitRunQuanta;
+    }
+
+    @Config("task.min-split-run-quanta")
+    @ConfigDescription("Shortest time a split runs before returning its thread when many splits are waiting")
+    public TaskManagerConfig setMinSplitRunQuanta(Duration minSplitRunQuanta)
+    {
+        this.minSplitRunQuanta = minSplitRunQuanta;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    @NotNull
+    public Duration getMaxSplitRunQuanta()
+    {
+        return maxSplitRunQuanta;
+    }
+
+    @Config("task.max-split-run-quanta")
+    @ConfigDescription("Longest time a split runs before returning its thread, used when no splits are waiting")
+    public TaskManagerConfig setMaxSplitRunQuanta(Duration maxSplitRunQuanta)
+    {
+        this.maxSplitRunQuanta = maxSplitRunQuanta;
+        return this;
+    }
+
     @NotNull
     public DataSize getSinkMaxBufferSize()
     {
@@ -126,4 +194,43 @@ public class TaskManagerConfig
         this.infoMaxAge = infoMaxAge;
         return this;
     }
+
+    public boolean isSpillEnabled()
+    {
+        return spillEnabled;
+    }
+
+    @Config("task.spill-enabled")
+    @ConfigDescription("Write aggregation, sort and join build state to local disk when a task runs out of memory")
+    public TaskManagerConfig setSpillEnabled(boolean spillEnabled)
+    {
+        this.spillEnabled = spillEnabled;
+        return this;
+    }
+
+    @NotNull
+    public File getSpillPath()
+    {
+        return spillPath;
+    }
+
+    @Config("task.spill-path")
+    public TaskManagerConfig setSpillPath(File spillPath)
+    {
+        this.spillPath = spillPath;
+        return this;
+    }
+
+    public boolean isDynamicFilteringEnabled()
+    {
+        return dynamicFilteringEnabled;
+    }
+
+    @Config("task.dynamic-filtering-enabled")
+    @ConfigDescription("Filter the probe side table scan of a join with the join keys of the build side")
+    public TaskManagerConfig setDynamicFilteringEnabled(boolean dynamicFilteringEnabled)
+    {
+        this.dynamicFilteringEnabled = dynamicFilteringEnabled;
+        return this;
+    }
 }
@@ -50,6 +50,7 @@ public class FunctionInfo
 
     private final MethodHandle scalarFunction;
     private final boolean deterministic;
+    private final boolean hidden;
     private final FunctionBinder functionBinder;
 
     private final boolean isWindow;
@@ -63,6 +64,7 @@ public class FunctionInfo
         this.returnType = returnType;
         this.argumentTypes = argumentTypes;
         this.deterministic = true;
+        this.hidden = false;
 
         this.isAggregate = false;
         this.intermediateType = null;
@@ -86,12 +88,18 @@ public class FunctionInfo
         this.isAggregate = true;
         this.scalarFunction = null;
         this.deterministic = true;
+        this.hidden = false;
         this.functionBinder = null;
         this.isWindow = false;
         this.windowFunction = null;
     }
 
     public FunctionInfo(int id, QualifiedName name, String description, Type returnType, List<Type> argumentTypes, MethodHandle function, boolean deterministic, FunctionBinder functionBinder)
+    {
+        this(id, name, description, returnType, argumentTypes, function, deterministic, false, functionBinder);
+    }
+
+    public FunctionInfo(int id, QualifiedName name, String description, Type returnType, List<Type> argumentTypes, MethodHandle function, boolean deterministic, boolean hidden, FunctionBinder functionBinder)
     {
         this.id = id;
         this.name = name;
@@ -99,6 +107,7 @@ public class FunctionInfo
         this.returnType = returnType;
         this.argumentTypes = argumentTypes;
         this.deterministic = deterministic;
+        this.hidden = hidden;
         this.functionBinder = functionBinder;
 
         this.isAggregate = false;
@@ -173,6 +182,11 @@ public class FunctionInfo
         return deterministic;
     }
 
+    public boolean isHidden()
+    {
+        return hidden;
+    }
+
     public FunctionBinder getFunctionBinder()
     {
         return functionBinder;
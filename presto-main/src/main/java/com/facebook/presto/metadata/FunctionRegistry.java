@@ -25,6 +25,7 @@ import com.facebook.presto.operator.aggregation.LongApproximatePercentileWeighte
 import com.facebook.presto.operator.aggregation.LongStdDevAggregation;
 import com.facebook.presto.operator.aggregation.LongVarianceAggregation;
 import com.facebook.presto.operator.scalar.ColorFunctions;
+import com.facebook.presto.operator.scalar.HashFunctions;
 import com.facebook.presto.operator.scalar.JsonFunctions;
 import com.facebook.presto.operator.scalar.MathFunctions;
 import com.facebook.presto.operator.scalar.RegexpFunctions;
@@ -157,6 +158,7 @@ public class FunctionRegistry
                 .scalar(UnixTimeFunctions.class)
                 .scalar(JsonFunctions.class)
                 .scalar(ColorFunctions.class)
+                .scalar(HashFunctions.class)
                 .build();
 
         functionsByName = Multimaps.index(functions, FunctionInfo.nameGetter());
@@ -172,7 +174,13 @@ public class FunctionRegistry
 
     public List<FunctionInfo> list()
     {
-        return ImmutableList.copyOf(functionsByName.values());
+        ImmutableList.Builder<FunctionInfo> functions = ImmutableList.builder();
+        for (FunctionInfo function : functionsByName.values()) {
+            if (!function.isHidden()) {
+                functions.add(function);
+            }
+        }
+        return functions.build();
     }
 
     public boolean isAggregationFunction(QualifiedName name)
@@ -291,13 +299,18 @@ public class FunctionRegistry
         }
 
         public FunctionListBuilder scalar(String name, MethodHandle function, boolean deterministic, FunctionBinder functionBinder, String description)
+        {
+            return scalar(name, function, deterministic, false, functionBinder, description);
+        }
+
+        public FunctionListBuilder scalar(String name, MethodHandle function, boolean deterministic, boolean hidden, FunctionBinder functionBinder, String description)
         {
             name = name.toLowerCase();
 
             int id = functions.size() + 1;
             Type returnType = type(function.type().returnType());
             List<Type> argumentTypes = types(function);
-            functions.add(new FunctionInfo(id, QualifiedName.of(name), description, returnType, argumentTypes, function, deterministic, functionBinder));
+            functions.add(new FunctionInfo(id, QualifiedName.of(name), description, returnType, argumentTypes, function, deterministic, hidden, functionBinder));
             return this;
         }
 
@@ -318,9 +331,9 @@ public class FunctionRegistry
                     }
                     String description = getDescription(method);
                     FunctionBinder functionBinder = createFunctionBinder(method, scalarFunction);
-                    scalar(name, methodHandle, scalarFunction.deterministic(), functionBinder, description);
+                    scalar(name, methodHandle, scalarFunction.deterministic(), scalarFunction.hidden(), functionBinder, description);
                     for (String alias : scalarFunction.alias()) {
-                        scalar(alias, methodHandle, scalarFunction.deterministic(), functionBinder, description);
+                        scalar(alias, methodHandle, scalarFunction.deterministic(), scalarFunction.hidden(), functionBinder, description);
                     }
                     foundOne = true;
                 }
@@ -18,162 +18,206 @@ import com.facebook.presto.tuple.TupleInfo;
 import io.airlift.slice.Slice;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.longs.Long2IntMap;
-import it.unimi.dsi.fastutil.longs.Long2IntOpenCustomHashMap;
-import it.unimi.dsi.fastutil.longs.LongHash;
-import it.unimi.dsi.fastutil.longs.LongHash.Strategy;
+import it.unimi.dsi.fastutil.HashCommon;
+
+import javax.annotation.concurrent.ThreadSafe;
 
 import java.util.Arrays;
 
 import static com.facebook.presto.operator.SyntheticAddress.decodeSliceIndex;
 import static com.facebook.presto.operator.SyntheticAddress.decodeSliceOffset;
-import static com.facebook.presto.operator.SyntheticAddress.encodeSyntheticAddress;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static io.airlift.slice.SizeOf.SIZE_OF_INT;
 import static io.airlift.slice.SizeOf.sizeOf;
 
+@ThreadSafe
 public class ChannelHash
 {
     //
-    // This class is effectively a Multimap<KeyAddress,Position>.
+    // This class is effectively a Multimap<Key,Position>.
+    //
+    // The position is the position of the key within the channel index.
     //
-    // The key address is a SyntheticAddress and the position is the position of the key withing the
-    // channel index.
+    // The multimap itself is formed out of an open addressing table holding the last position
+    // of each distinct key and a position chaining array.  To perform a lookup, the probe value
+    // is hashed and compared to the keys in the table.  If a position was found, the remaining
+    // positions of the key are located using the position links array.
     //
-    // The multimap itself is formed out of a regular map and position chaining array.  To perform a
-    // lookup, the "lookup" slice is set in the hash, and a synthetic address within the "lookup" slice
-    // is created. The "lookup" slice is given index -1 as to not conflict with any slices
-    // in the channel index.  Then first position is retrieved from the main address to position map.
-    // If a position was found, the remaining value positions are located using the position links array.
+    // The hash is never modified after it is built, and lookups do not keep any state in the
+    // hash, so a single instance is shared by all probe operators.
     //
 
-    private static final int LOOKUP_SLICE_INDEX = 0xFF_FF_FF_FF;
+    private static final float FILL_RATIO = 0.75f;
+
+    private final TupleInfo tupleInfo;
+    private final Slice[] slices;
+    private final long[] valueAddresses;
+    private final int[] positionHashCodes;
+
+    private final int mask;
+    private final int[] keys;
+    private final int[] positionLinks;
 
-    private final SliceHashStrategy hashStrategy;
-    private final AddressToPositionMap addressToPositionMap;
-    private final IntArrayList positionLinks;
+    public ChannelHash(ChannelIndex channelIndex)
+    {
+        this(channelIndex, hashPositions(channelIndex));
+    }
 
-    public ChannelHash(ChannelIndex channelIndex, OperatorContext operatorContext)
+    /**
+     * @param positionHashCodes the hash code of each position in the index as computed by {@link #hashPositions}
+     */
+    public ChannelHash(ChannelIndex channelIndex, int[] positionHashCodes)
     {
-        hashStrategy = new SliceHashStrategy(channelIndex.getTupleInfo(), channelIndex.getSlices().elements());
-        addressToPositionMap = new AddressToPositionMap(channelIndex.getPositionCount(), hashStrategy);
-        addressToPositionMap.defaultReturnValue(-1);
-        positionLinks = new IntArrayList(new int[channelIndex.getValueAddresses().size()]);
-        Arrays.fill(positionLinks.elements(), -1);
-        for (int position = 0; position < channelIndex.getValueAddresses().size(); position++) {
-            operatorContext.setMemoryReservation(getEstimatedSize());
-            long sliceAddress = channelIndex.getValueAddresses().elements()[position];
-            int oldPosition = addressToPositionMap.put(sliceAddress, position);
-            if (oldPosition >= 0) {
-                // link the new position to the old position
-                positionLinks.set(position, oldPosition);
+        checkNotNull(channelIndex, "channelIndex is null");
+        checkNotNull(positionHashCodes, "positionHashCodes is null");
+        int positionCount = channelIndex.getPositionCount();
+        checkArgument(positionHashCodes.length == positionCount, "expected %s hash codes, but got %s", positionCount, positionHashCodes.length);
+
+        this.tupleInfo = channelIndex.getTupleInfo();
+        this.slices = channelIndex.getSlices().elements();
+        this.valueAddresses = channelIndex.getValueAddresses().elements();
+        this.positionHashCodes = positionHashCodes;
+
+        int hashSize = HashCommon.arraySize(positionCount, FILL_RATIO);
+        this.mask = hashSize - 1;
+        this.keys = new int[hashSize];
+        Arrays.fill(keys, -1);
+        this.positionLinks = new int[positionCount];
+        Arrays.fill(positionLinks, -1);
+
+        for (int position = 0; position < positionCount; position++) {
+            int hashCode = positionHashCodes[position];
+            int bucket = HashCommon.murmurHash3(hashCode) & mask;
+            while (keys[bucket] != -1) {
+                int oldPosition = keys[bucket];
+                if (positionHashCodes[oldPosition] == hashCode && positionEqualsPosition(oldPosition, position)) {
+                    // link the new position to the old position
+                    positionLinks[position] = oldPosition;
+                    break;
+                }
+                bucket = (bucket + 1) & mask;
             }
+            keys[bucket] = position;
         }
     }
 
-    public ChannelHash(ChannelHash hash)
+    /**
+     * Computes the hash code of every position in the index.  This is the part of the build that
+     * can be done independently for each partition of a partitioned build.
+     */
+    public static int[] hashPositions(ChannelIndex channelIndex)
     {
-        // hash strategy can not be shared across threads, but everything else can
-        this.hashStrategy = new SliceHashStrategy(hash.hashStrategy.tupleInfo, hash.hashStrategy.slices);
-        this.addressToPositionMap = new AddressToPositionMap(hash.addressToPositionMap, hashStrategy);
-        addressToPositionMap.defaultReturnValue(-1);
-        this.positionLinks = hash.positionLinks;
+        TupleInfo tupleInfo = channelIndex.getTupleInfo();
+        Slice[] slices = channelIndex.getSlices().elements();
+        long[] valueAddresses = channelIndex.getValueAddresses().elements();
+
+        int[] hashCodes = new int[channelIndex.getPositionCount()];
+        for (int position = 0; position < hashCodes.length; position++) {
+            long sliceAddress = valueAddresses[position];
+            Slice slice = slices[decodeSliceIndex(sliceAddress)];
+            int offset = decodeSliceOffset(sliceAddress);
+            hashCodes[position] = slice.hashCode(offset, tupleInfo.size(slice, offset));
+        }
+        return hashCodes;
     }
 
-    private long getEstimatedSize()
+    /**
+     * Returns the hash code of the key at the current position of the cursor, which is the hash code
+     * the hash computes for the key.
+     */
+    public static int hashCurrentPosition(BlockCursor cursor)
     {
-        long addressToPositionSize = addressToPositionMap.getEstimatedSize().toBytes();
-        long positionLinksSize = sizeOf(positionLinks.elements());
-        return addressToPositionSize + positionLinksSize;
+        Slice slice = cursor.getRawSlice();
+        int offset = cursor.getRawOffset();
+        return slice.hashCode(offset, cursor.getTupleInfo().size(slice, offset));
     }
 
-    public void setLookupSlice(Slice lookupSlice)
+    /**
+     * Reads the hash codes of the keys from an index over a BIGINT channel holding the hash code
+     * of the key of each position, which was computed before the keys reached the hash.
+     */
+    public static int[] readPrecomputedHashCodes(ChannelIndex hashCodeIndex)
     {
-        hashStrategy.setLookupSlice(lookupSlice);
+        TupleInfo tupleInfo = hashCodeIndex.getTupleInfo();
+        checkArgument(tupleInfo.equals(TupleInfo.SINGLE_LONG), "Expected a BIGINT hash code channel, but got %s", tupleInfo);
+        Slice[] slices = hashCodeIndex.getSlices().elements();
+        long[] valueAddresses = hashCodeIndex.getValueAddresses().elements();
+
+        int[] hashCodes = new int[hashCodeIndex.getPositionCount()];
+        for (int position = 0; position < hashCodes.length; position++) {
+            long sliceAddress = valueAddresses[position];
+            hashCodes[position] = (int) tupleInfo.getLong(slices[decodeSliceIndex(sliceAddress)], decodeSliceOffset(sliceAddress), 0);
+        }
+        return hashCodes;
     }
 
-    public int get(BlockCursor cursor)
+    /**
+     * Returns the approximate size of a hash over the specified number of positions.
+     */
+    public static DataSize estimateSize(int positionCount)
     {
-        int position = addressToPositionMap.get(encodeSyntheticAddress(LOOKUP_SLICE_INDEX, cursor.getRawOffset()));
-        return position;
+        long hashSize = HashCommon.arraySize(positionCount, FILL_RATIO);
+        return new DataSize(SIZE_OF_INT * (hashSize + 2L * positionCount), Unit.BYTE);
     }
 
-    public int getNextPosition(int currentPosition)
+    public DataSize getEstimatedSize()
     {
-        return positionLinks.getInt(currentPosition);
+        return new DataSize(sizeOf(keys) + sizeOf(positionLinks) + sizeOf(positionHashCodes), Unit.BYTE);
     }
 
-    public static class SliceHashStrategy
-            implements Strategy
+    /**
+     * Returns the last position with the key at the raw offset of the cursor within the specified slice, or -1 if there is none.
+     */
+    public int get(Slice slice, BlockCursor cursor)
     {
-        private final TupleInfo tupleInfo;
-        private final Slice[] slices;
-        private Slice lookupSlice;
-
-        public SliceHashStrategy(TupleInfo tupleInfo, Slice[] slices)
-        {
-            this.tupleInfo = tupleInfo;
-            this.slices = slices;
-        }
-
-        public void setLookupSlice(Slice lookupSlice)
-        {
-            this.lookupSlice = lookupSlice;
-        }
-
-        @Override
-        public int hashCode(long sliceAddress)
-        {
-            Slice slice = getSliceForSyntheticAddress(sliceAddress);
-            int offset = (int) sliceAddress;
-            int length = tupleInfo.size(slice, offset);
-            int hashCode = slice.hashCode(offset, length);
-            return hashCode;
-        }
-
-        @Override
-        public boolean equals(long leftSliceAddress, long rightSliceAddress)
-        {
-            Slice leftSlice = getSliceForSyntheticAddress(leftSliceAddress);
-            int leftOffset = decodeSliceOffset(leftSliceAddress);
-            int leftLength = tupleInfo.size(leftSlice, leftOffset);
+        int offset = cursor.getRawOffset();
+        return get(slice, offset, slice.hashCode(offset, tupleInfo.size(slice, offset)));
+    }
 
-            Slice rightSlice = getSliceForSyntheticAddress(rightSliceAddress);
-            int rightOffset = decodeSliceOffset(rightSliceAddress);
-            int rightLength = tupleInfo.size(rightSlice, rightOffset);
+    /**
+     * Same as {@link #get(Slice, BlockCursor)}, but uses the specified hash code of the key.  This can only
+     * be used if the hash was built with the precomputed hash codes of the keys.
+     */
+    public int get(Slice slice, BlockCursor cursor, int hashCode)
+    {
+        return get(slice, cursor.getRawOffset(), hashCode);
+    }
 
-            return leftSlice.equals(leftOffset, leftLength, rightSlice, rightOffset, rightLength);
-        }
+    private int get(Slice slice, int offset, int hashCode)
+    {
+        int length = tupleInfo.size(slice, offset);
 
-        private Slice getSliceForSyntheticAddress(long sliceAddress)
-        {
-            int sliceIndex = decodeSliceIndex(sliceAddress);
-            Slice slice;
-            if (sliceIndex == LOOKUP_SLICE_INDEX) {
-                slice = lookupSlice;
-            }
-            else {
-                slice = slices[sliceIndex];
+        int bucket = HashCommon.murmurHash3(hashCode) & mask;
+        while (keys[bucket] != -1) {
+            int position = keys[bucket];
+            if (positionHashCodes[position] == hashCode && positionEqualsValue(position, slice, offset, length)) {
+                return position;
             }
-            return slice;
+            bucket = (bucket + 1) & mask;
         }
+        return -1;
     }
 
-    private static class AddressToPositionMap
-            extends Long2IntOpenCustomHashMap
+    public int getNextPosition(int currentPosition)
     {
-        private AddressToPositionMap(int expected, LongHash.Strategy strategy)
-        {
-            super(expected, strategy);
-        }
+        return positionLinks[currentPosition];
+    }
 
-        private AddressToPositionMap(Long2IntMap m, LongHash.Strategy strategy)
-        {
-            super(m, strategy);
-        }
+    private boolean positionEqualsPosition(int leftPosition, int rightPosition)
+    {
+        long rightSliceAddress = valueAddresses[rightPosition];
+        Slice rightSlice = slices[decodeSliceIndex(rightSliceAddress)];
+        int rightOffset = decodeSliceOffset(rightSliceAddress);
+        return positionEqualsValue(leftPosition, rightSlice, rightOffset, tupleInfo.size(rightSlice, rightOffset));
+    }
 
-        public DataSize getEstimatedSize()
-        {
-            return new DataSize(sizeOf(this.key) + sizeOf(this.value) + sizeOf(this.used), Unit.BYTE);
-        }
+    private boolean positionEqualsValue(int position, Slice slice, int offset, int length)
+    {
+        long sliceAddress = valueAddresses[position];
+        Slice positionSlice = slices[decodeSliceIndex(sliceAddress)];
+        int positionOffset = decodeSliceOffset(sliceAddress);
+        int positionLength = tupleInfo.size(positionSlice, positionOffset);
+        return positionSlice.equals(positionOffset, positionLength, slice, offset, length);
     }
 }
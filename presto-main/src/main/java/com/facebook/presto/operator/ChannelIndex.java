@@ -121,6 +121,26 @@ public class ChannelIndex
         }
     }
 
+    /**
+     * Appends the positions of the other index after the positions of this index.  The slices are shared with the other index.
+     */
+    public void addIndex(ChannelIndex index)
+    {
+        Preconditions.checkArgument(index.getTupleInfo().equals(tupleInfo), "index tuple info %s does not match %s", index.getTupleInfo(), tupleInfo);
+
+        int sliceIndexOffset = slices.size();
+        slices.addAll(index.slices);
+        slicesMemorySize += index.slicesMemorySize;
+
+        positionCount += index.positionCount;
+        valueAddresses.ensureCapacity(valueAddresses.size() + index.valueAddresses.size());
+        long[] addresses = index.valueAddresses.elements();
+        for (int position = 0; position < index.valueAddresses.size(); position++) {
+            long sliceAddress = addresses[position];
+            valueAddresses.add(encodeSyntheticAddress(sliceIndexOffset + decodeSliceIndex(sliceAddress), decodeSliceOffset(sliceAddress)));
+        }
+    }
+
     public void appendTo(int position, BlockBuilder output)
     {
         // get slice an offset for the position
@@ -19,11 +19,14 @@ import com.facebook.presto.sql.planner.plan.PlanNodeId;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.stats.CounterStat;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import org.joda.time.DateTime;
 
+import javax.annotation.Nullable;
+
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -67,6 +70,11 @@ public class DriverContext
         this.executor = checkNotNull(executor, "executor is null");
     }
 
+    public TaskContext getTaskContext()
+    {
+        return pipelineContext.getTaskContext();
+    }
+
     public TaskId getTaskId()
     {
         return pipelineContext.getTaskId();
@@ -135,7 +143,7 @@ public class DriverContext
 
     public DataSize getOperatorPreAllocatedMemory()
     {
-        return pipelineContext.getMaxMemorySize();
+        return pipelineContext.getOperatorPreAllocatedMemory();
     }
 
     public boolean reserveMemory(long bytes)
@@ -147,6 +155,12 @@ public class DriverContext
         return result;
     }
 
+    @Nullable
+    public ListenableFuture<?> getMemoryPoolFuture(long bytes)
+    {
+        return pipelineContext.getMemoryPoolFuture(bytes);
+    }
+
     public boolean isCpuTimerEnabled()
     {
         return pipelineContext.isCpuTimerEnabled();
@@ -0,0 +1,226 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.spi.RecordCursor;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Charsets;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import it.unimi.dsi.fastutil.longs.LongListIterator;
+
+import static com.facebook.presto.operator.SyntheticAddress.decodeSliceOffset;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Summary of the join keys on the build side of a hash join. The probe side uses
+ * it to discard rows, or whole splits, that can not have a match before the rows
+ * are read and processed.
+ * <p/>
+ * The summary is a bloom filter over the key values plus the value range for
+ * BIGINT keys, so {@code mightContain} can return false positives but never
+ * false negatives. Null keys never match.
+ */
+public class DynamicFilter
+{
+    public static final int MAX_POSITIONS = 1_000_000;
+
+    private static final int MIN_BITS = 64;
+    private static final int BITS_PER_POSITION = 8;
+
+    private final TupleInfo.Type type;
+    private final long[] bloom;
+    private final int bitMask;
+    private final long minLong;
+    private final long maxLong;
+
+    private DynamicFilter(TupleInfo.Type type, long[] bloom, long minLong, long maxLong)
+    {
+        this.type = type;
+        this.bloom = bloom;
+        this.bitMask = bloom.length * 64 - 1;
+        this.minLong = minLong;
+        this.maxLong = maxLong;
+    }
+
+    public static boolean isSupportedType(TupleInfo tupleInfo)
+    {
+        if (tupleInfo.getFieldCount() != 1) {
+            return false;
+        }
+        TupleInfo.Type type = tupleInfo.getTypes().get(0);
+        return type == TupleInfo.Type.FIXED_INT_64 || type == TupleInfo.Type.DOUBLE || type == TupleInfo.Type.VARIABLE_BINARY;
+    }
+
+    /**
+     * Creates a filter containing every value in the index, or returns null if the index is too large to be summarized.
+     */
+    public static DynamicFilter create(ChannelIndex index)
+    {
+        checkNotNull(index, "index is null");
+        TupleInfo tupleInfo = index.getTupleInfo();
+        checkArgument(isSupportedType(tupleInfo), "Unsupported key type %s", tupleInfo);
+
+        if (index.getPositionCount() > MAX_POSITIONS) {
+            return null;
+        }
+
+        int bits = Integer.highestOneBit(Math.max(MIN_BITS, index.getPositionCount() * BITS_PER_POSITION - 1)) << 1;
+        long[] bloom = new long[bits / 64];
+        int bitMask = bits - 1;
+        TupleInfo.Type type = tupleInfo.getTypes().get(0);
+
+        long minLong = Long.MAX_VALUE;
+        long maxLong = Long.MIN_VALUE;
+        LongListIterator iterator = index.iterator();
+        while (iterator.hasNext()) {
+            long sliceAddress = iterator.nextLong();
+            Slice slice = index.getSliceForSyntheticAddress(sliceAddress);
+            int offset = decodeSliceOffset(sliceAddress);
+            if (tupleInfo.isNull(slice, offset, 0)) {
+                continue;
+            }
+
+            long hash;
+            switch (type) {
+                case FIXED_INT_64:
+                    long value = tupleInfo.getLong(slice, offset, 0);
+                    minLong = Math.min(minLong, value);
+                    maxLong = Math.max(maxLong, value);
+                    hash = hashLong(value);
+                    break;
+                case DOUBLE:
+                    hash = hashDouble(tupleInfo.getDouble(slice, offset, 0));
+                    break;
+                case VARIABLE_BINARY:
+                    hash = hashSlice(tupleInfo.getSlice(slice, offset, 0));
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported type " + type);
+            }
+            setBit(bloom, (int) hash & bitMask);
+            setBit(bloom, (int) (hash >>> 32) & bitMask);
+        }
+
+        return new DynamicFilter(type, bloom, minLong, maxLong);
+    }
+
+    public TupleInfo.Type getType()
+    {
+        return type;
+    }
+
+    public boolean mightContain(BlockCursor cursor, int field)
+    {
+        if (cursor.isNull(field)) {
+            return false;
+        }
+        switch (type) {
+            case FIXED_INT_64:
+                return mightContainLong(cursor.getLong(field));
+            case DOUBLE:
+                return mightContainHash(hashDouble(cursor.getDouble(field)));
+            case VARIABLE_BINARY:
+                return mightContainHash(hashSlice(cursor.getSlice(field)));
+            default:
+                throw new IllegalStateException("Unsupported type " + type);
+        }
+    }
+
+    public boolean mightContain(RecordCursor cursor, int field)
+    {
+        if (cursor.isNull(field)) {
+            return false;
+        }
+        switch (type) {
+            case FIXED_INT_64:
+                return mightContainLong(cursor.getLong(field));
+            case DOUBLE:
+                return mightContainHash(hashDouble(cursor.getDouble(field)));
+            case VARIABLE_BINARY:
+                return mightContainHash(hashSlice(Slices.wrappedBuffer(cursor.getString(field))));
+            default:
+                throw new IllegalStateException("Unsupported type " + type);
+        }
+    }
+
+    /**
+     * Checks a value in its text form, as used for partition keys. Values that can not
+     * be parsed as the key type might be contained.
+     */
+    public boolean mightContain(String value)
+    {
+        checkNotNull(value, "value is null");
+        try {
+            switch (type) {
+                case FIXED_INT_64:
+                    return mightContainLong(Long.parseLong(value));
+                case DOUBLE:
+                    return mightContainHash(hashDouble(Double.parseDouble(value)));
+                case VARIABLE_BINARY:
+                    return mightContainHash(hashSlice(Slices.copiedBuffer(value, Charsets.UTF_8)));
+                default:
+                    throw new IllegalStateException("Unsupported type " + type);
+            }
+        }
+        catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private boolean mightContainLong(long value)
+    {
+        return value >= minLong && value <= maxLong && mightContainHash(hashLong(value));
+    }
+
+    private boolean mightContainHash(long hash)
+    {
+        return isSet(bloom, (int) hash & bitMask) && isSet(bloom, (int) (hash >>> 32) & bitMask);
+    }
+
+    private static void setBit(long[] bloom, int bit)
+    {
+        bloom[bit >>> 6] |= 1L << bit;
+    }
+
+    private static boolean isSet(long[] bloom, int bit)
+    {
+        return (bloom[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    private static long hashDouble(double value)
+    {
+        // normalize negative zero so it hashes like zero
+        return hashLong(Double.doubleToLongBits(value == 0 ? 0 : value));
+    }
+
+    private static long hashSlice(Slice value)
+    {
+        return hashLong(value.hashCode());
+    }
+
+    private static long hashLong(long value)
+    {
+        // murmur3 finalizer
+        long hash = value;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -14,6 +14,7 @@
 package com.facebook.presto.operator;
 
 import com.facebook.presto.operator.HttpPageBufferClient.ClientCallback;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 import com.google.common.io.Closeables;
@@ -44,8 +45,10 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.facebook.presto.util.Threads.checkNotSameThreadExecutor;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 @ThreadSafe
 public class ExchangeClient
@@ -53,9 +56,11 @@ public class ExchangeClient
 {
     private static final Page NO_MORE_PAGES = new Page(0);
 
-    private final long maxBufferedBytes;
+    @GuardedBy("this")
+    private long maxBufferedBytes;
     private final DataSize maxResponseSize;
     private final int concurrentRequestMultiplier;
+    private final boolean compressionEnabled;
     private final AsyncHttpClient httpClient;
     private final Executor executor;
 
@@ -90,10 +95,21 @@ public class ExchangeClient
             int concurrentRequestMultiplier,
             AsyncHttpClient httpClient,
             Executor executor)
+    {
+        this(maxBufferedBytes, maxResponseSize, concurrentRequestMultiplier, false, httpClient, executor);
+    }
+
+    public ExchangeClient(DataSize maxBufferedBytes,
+            DataSize maxResponseSize,
+            int concurrentRequestMultiplier,
+            boolean compressionEnabled,
+            AsyncHttpClient httpClient,
+            Executor executor)
     {
         this.maxBufferedBytes = maxBufferedBytes.toBytes();
         this.maxResponseSize = maxResponseSize;
         this.concurrentRequestMultiplier = concurrentRequestMultiplier;
+        this.compressionEnabled = compressionEnabled;
         this.httpClient = httpClient;
         this.executor = checkNotSameThreadExecutor(executor, "executor");
     }
@@ -105,11 +121,42 @@ public class ExchangeClient
             bufferedPages--;
         }
 
+        long bytesReceived = 0;
+        long uncompressedBytesReceived = 0;
+        long decodeCpuNanos = 0;
         ImmutableList.Builder<PageBufferClientStatus> exchangeStatus = ImmutableList.builder();
         for (HttpPageBufferClient client : allClients.values()) {
             exchangeStatus.add(client.getStatus());
+            bytesReceived += client.getBytesReceived();
+            uncompressedBytesReceived += client.getUncompressedBytesReceived();
+            decodeCpuNanos += client.getDecodeCpuNanos();
         }
-        return new ExchangeClientStatus(bufferBytes, averageBytesPerRequest, bufferedPages, exchangeStatus.build());
+        double compressionRatio = bytesReceived == 0 ? 1.0 : 1.0 * uncompressedBytesReceived / bytesReceived;
+        return new ExchangeClientStatus(bufferBytes,
+                averageBytesPerRequest,
+                bufferedPages,
+                bytesReceived,
+                uncompressedBytesReceived,
+                compressionRatio,
+                new Duration(decodeCpuNanos, NANOSECONDS).convertToMostSuccinctTimeUnit(),
+                exchangeStatus.build());
+    }
+
+    /**
+     * Limits the buffer to an equal share of the configured size, for one of several clients that
+     * read the sources of a single operator.  The buffer can only be shared before any location is added.
+     */
+    public synchronized void shareBuffer(int clientCount)
+    {
+        checkArgument(clientCount > 0, "clientCount must be at least 1");
+        checkState(locations.isEmpty(), "Locations already added");
+        maxBufferedBytes = Math.max(1, maxBufferedBytes / clientCount);
+    }
+
+    @VisibleForTesting
+    synchronized long getMaxBufferedBytes()
+    {
+        return maxBufferedBytes;
     }
 
     public synchronized void addLocation(URI location)
@@ -234,7 +281,7 @@ public class ExchangeClient
         // add clients for new locations
         for (URI location : locations) {
             if (!allClients.containsKey(location)) {
-                HttpPageBufferClient client = new HttpPageBufferClient(httpClient, maxResponseSize, location, new ExchangeClientCallback(), executor);
+                HttpPageBufferClient client = new HttpPageBufferClient(httpClient, maxResponseSize, location, new ExchangeClientCallback(), compressionEnabled, executor);
                 allClients.put(location, client);
                 queuedClients.add(client);
             }
@@ -17,6 +17,7 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
+import io.airlift.units.Duration;
 
 import java.util.List;
 
@@ -27,6 +28,10 @@ public class ExchangeClientStatus
     private final long bufferedBytes;
     private final long averageBytesPerRequest;
     private final int bufferedPages;
+    private final long bytesReceived;
+    private final long uncompressedBytesReceived;
+    private final double compressionRatio;
+    private final Duration decodeCpuTime;
     private final List<PageBufferClientStatus> pageBufferClientStatuses;
 
     @JsonCreator
@@ -34,11 +39,19 @@ public class ExchangeClientStatus
             @JsonProperty("bufferedBytes") long bufferedBytes,
             @JsonProperty("averageBytesPerRequest") long averageBytesPerRequest,
             @JsonProperty("bufferedPages") int bufferedPages,
+            @JsonProperty("bytesReceived") long bytesReceived,
+            @JsonProperty("uncompressedBytesReceived") long uncompressedBytesReceived,
+            @JsonProperty("compressionRatio") double compressionRatio,
+            @JsonProperty("decodeCpuTime") Duration decodeCpuTime,
             @JsonProperty("pageBufferClientStatuses") List<PageBufferClientStatus> pageBufferClientStatuses)
     {
         this.bufferedBytes = bufferedBytes;
         this.averageBytesPerRequest = averageBytesPerRequest;
         this.bufferedPages = bufferedPages;
+        this.bytesReceived = bytesReceived;
+        this.uncompressedBytesReceived = uncompressedBytesReceived;
+        this.compressionRatio = compressionRatio;
+        this.decodeCpuTime = checkNotNull(decodeCpuTime, "decodeCpuTime is null");
         this.pageBufferClientStatuses = ImmutableList.copyOf(checkNotNull(pageBufferClientStatuses, "pageBufferClientStatuses is null"));
     }
 
@@ -60,6 +73,36 @@ public class ExchangeClientStatus
         return bufferedPages;
     }
 
+    /**
+     * Bytes received over the network, which are compressed when compression is enabled.
+     */
+    @JsonProperty
+    public long getBytesReceived()
+    {
+        return bytesReceived;
+    }
+
+    @JsonProperty
+    public long getUncompressedBytesReceived()
+    {
+        return uncompressedBytesReceived;
+    }
+
+    @JsonProperty
+    public double getCompressionRatio()
+    {
+        return compressionRatio;
+    }
+
+    /**
+     * CPU time spent decompressing and deserializing received pages.
+     */
+    @JsonProperty
+    public Duration getDecodeCpuTime()
+    {
+        return decodeCpuTime;
+    }
+
     @JsonProperty
     public List<PageBufferClientStatus> getPageBufferClientStatuses()
     {
@@ -73,6 +116,10 @@ public class ExchangeClientStatus
                 .add("bufferBytes", bufferedBytes)
                 .add("averageBytesPerRequest", averageBytesPerRequest)
                 .add("bufferedPages", bufferedPages)
+                .add("bytesReceived", bytesReceived)
+                .add("uncompressedBytesReceived", uncompressedBytesReceived)
+                .add("compressionRatio", compressionRatio)
+                .add("decodeCpuTime", decodeCpuTime)
                 .add("pageBufferClientStatuses", pageBufferClientStatuses)
                 .toString();
     }
@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.tuple.TupleInfo;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import it.unimi.dsi.fastutil.HashCommon;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static io.airlift.slice.SizeOf.sizeOf;
+
+/**
+ * Group by hash for a key tuple with only fixed width fields, such as a composite key of
+ * several BIGINT columns.  The keys are stored back to back in a single slice, indexed by
+ * group id, and the hash code of each key is kept to avoid comparing keys that can not match.
+ */
+public class FixedWidthGroupByHash
+        implements GroupByHash
+{
+    private static final float FILL_RATIO = 0.75f;
+
+    private final TupleInfo tupleInfo;
+    private final int keySize;
+
+    private int mask;
+    private int maxFill;
+    private int[] groupIds;
+
+    private Slice keys;
+    private int[] groupHashCodes;
+    private int groupCount;
+
+    public static boolean isSupportedType(TupleInfo tupleInfo)
+    {
+        return tupleInfo.getFixedSize() > 0;
+    }
+
+    public FixedWidthGroupByHash(TupleInfo tupleInfo, int expectedGroups)
+    {
+        this.tupleInfo = checkNotNull(tupleInfo, "tupleInfo is null");
+        checkArgument(isSupportedType(tupleInfo), "Unsupported key type %s", tupleInfo);
+        this.keySize = tupleInfo.getFixedSize();
+
+        int hashSize = HashCommon.arraySize(Math.max(expectedGroups, 1), FILL_RATIO);
+        mask = hashSize - 1;
+        maxFill = HashCommon.maxFill(hashSize, FILL_RATIO);
+        groupIds = new int[hashSize];
+        Arrays.fill(groupIds, -1);
+
+        keys = Slices.allocate(maxFill * keySize);
+        groupHashCodes = new int[maxFill];
+    }
+
+    @Override
+    public TupleInfo getTupleInfo()
+    {
+        return tupleInfo;
+    }
+
+    @Override
+    public long getEstimatedSize()
+    {
+        return sizeOf(groupIds) + keys.length() + sizeOf(groupHashCodes);
+    }
+
+    @Override
+    public int getGroupCount()
+    {
+        return groupCount;
+    }
+
+    @Override
+    public int putIfAbsent(Slice slice, int offset)
+    {
+        return putIfAbsent(slice, offset, slice.hashCode(offset, keySize));
+    }
+
+    @Override
+    public int putIfAbsent(Slice slice, int offset, int hashCode)
+    {
+        int hashPosition = getHashPosition(hashCode);
+        while (groupIds[hashPosition] != -1) {
+            int groupId = groupIds[hashPosition];
+            if (groupHashCodes[groupId] == hashCode && slice.equals(offset, keySize, keys, groupId * keySize, keySize)) {
+                return groupId;
+            }
+            hashPosition = (hashPosition + 1) & mask;
+        }
+
+        int groupId = groupCount++;
+        if (groupId == groupHashCodes.length) {
+            Slice newKeys = Slices.allocate(keys.length() * 2);
+            newKeys.setBytes(0, keys);
+            keys = newKeys;
+            groupHashCodes = Arrays.copyOf(groupHashCodes, groupHashCodes.length * 2);
+        }
+        keys.setBytes(groupId * keySize, slice, offset, keySize);
+        groupHashCodes[groupId] = hashCode;
+        groupIds[hashPosition] = groupId;
+
+        if (groupCount >= maxFill) {
+            rehash();
+        }
+        return groupId;
+    }
+
+    private void rehash()
+    {
+        int hashSize = (mask + 1) * 2;
+        mask = hashSize - 1;
+        maxFill = HashCommon.maxFill(hashSize, FILL_RATIO);
+        groupIds = new int[hashSize];
+        Arrays.fill(groupIds, -1);
+
+        for (int groupId = 0; groupId < groupCount; groupId++) {
+            int hashPosition = getHashPosition(groupHashCodes[groupId]);
+            while (groupIds[hashPosition] != -1) {
+                hashPosition = (hashPosition + 1) & mask;
+            }
+            groupIds[hashPosition] = groupId;
+        }
+    }
+
+    private int getHashPosition(int hashCode)
+    {
+        return HashCommon.murmurHash3(hashCode) & mask;
+    }
+
+    @Override
+    public void appendGroupKeyTo(int groupId, BlockBuilder output)
+    {
+        output.appendTuple(keys, groupId * keySize, keySize);
+    }
+}
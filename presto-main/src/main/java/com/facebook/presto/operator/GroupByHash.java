@@ -0,0 +1,48 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.tuple.TupleInfo;
+import io.airlift.slice.Slice;
+
+/**
+ * Assigns a dense id, starting at zero, to each distinct group key tuple.
+ * Implementations are specialized for the layout of the key tuple, and are
+ * created with {@link GroupByHashes#createGroupByHash}.
+ */
+public interface GroupByHash
+{
+    TupleInfo getTupleInfo();
+
+    long getEstimatedSize();
+
+    int getGroupCount();
+
+    /**
+     * Returns the id of the group of the key tuple at the offset in the slice. If the key
+     * is new, a group is added with the next id, which is equal to the previous group count.
+     */
+    int putIfAbsent(Slice slice, int offset);
+
+    /**
+     * Same as {@link #putIfAbsent(Slice, int)}, but uses the specified hash code of the key, which was
+     * computed before the key reached this hash.  A hash must either always be given the hash code of
+     * the keys, or never be given it.  Implementations that can hash the key more cheaply than they
+     * can use the hash code are free to ignore it.
+     */
+    int putIfAbsent(Slice slice, int offset, int hashCode);
+
+    void appendGroupKeyTo(int groupId, BlockBuilder output);
+}
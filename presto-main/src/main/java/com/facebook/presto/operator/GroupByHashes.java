@@ -0,0 +1,42 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.tuple.TupleInfo;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+public final class GroupByHashes
+{
+    private GroupByHashes()
+    {
+    }
+
+    /**
+     * Creates the most specialized hash for the key tuple: keys with a single BIGINT or DOUBLE
+     * field are stored as primitive longs, keys with only fixed width fields are stored inline
+     * in one slice, and all other keys are stored as tuples in blocks.
+     */
+    public static GroupByHash createGroupByHash(TupleInfo tupleInfo, int expectedGroups)
+    {
+        checkNotNull(tupleInfo, "tupleInfo is null");
+        if (LongGroupByHash.isSupportedType(tupleInfo)) {
+            return new LongGroupByHash(tupleInfo, expectedGroups);
+        }
+        if (FixedWidthGroupByHash.isSupportedType(tupleInfo)) {
+            return new FixedWidthGroupByHash(tupleInfo, expectedGroups);
+        }
+        return new SliceGroupByHash(tupleInfo, expectedGroups);
+    }
+}
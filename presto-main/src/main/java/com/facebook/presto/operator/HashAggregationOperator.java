@@ -23,8 +23,11 @@ import com.facebook.presto.operator.aggregation.VariableWidthAggregationFunction
 import com.facebook.presto.sql.planner.plan.AggregationNode.Step;
 import com.facebook.presto.sql.tree.Input;
 import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
@@ -32,22 +35,26 @@ import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.slice.SizeOf;
 import io.airlift.slice.Slice;
 import io.airlift.slice.Slices;
-import it.unimi.dsi.fastutil.longs.Long2IntOpenCustomHashMap;
-import it.unimi.dsi.fastutil.longs.LongHash.Strategy;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
+import java.io.Closeable;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import static com.facebook.presto.operator.SyntheticAddress.decodeSliceIndex;
 import static com.facebook.presto.operator.SyntheticAddress.decodeSliceOffset;
 import static com.facebook.presto.operator.SyntheticAddress.encodeSyntheticAddress;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 public class HashAggregationOperator
-        implements Operator
+        implements Operator, Closeable
 {
     public static class HashAggregationOperatorFactory
             implements OperatorFactory
@@ -55,9 +62,11 @@ public class HashAggregationOperator
         private final int operatorId;
         private final TupleInfo groupByTupleInfo;
         private final int groupByChannel;
+        private final Optional<Integer> precomputedHashChannel;
         private final Step step;
         private final List<AggregationFunctionDefinition> functionDefinitions;
         private final int expectedGroups;
+        private final Optional<File> spillPath;
         private final List<TupleInfo> tupleInfos;
         private boolean closed;
 
@@ -68,15 +77,42 @@ public class HashAggregationOperator
                 Step step,
                 List<AggregationFunctionDefinition> functionDefinitions,
                 int expectedGroups)
+        {
+            this(operatorId, groupByTupleInfo, groupByChannel, step, functionDefinitions, expectedGroups, Optional.<File>absent());
+        }
+
+        public HashAggregationOperatorFactory(
+                int operatorId,
+                TupleInfo groupByTupleInfo,
+                int groupByChannel,
+                Step step,
+                List<AggregationFunctionDefinition> functionDefinitions,
+                int expectedGroups,
+                Optional<File> spillPath)
+        {
+            this(operatorId, groupByTupleInfo, groupByChannel, Optional.<Integer>absent(), step, functionDefinitions, expectedGroups, spillPath);
+        }
+
+        public HashAggregationOperatorFactory(
+                int operatorId,
+                TupleInfo groupByTupleInfo,
+                int groupByChannel,
+                Optional<Integer> precomputedHashChannel,
+                Step step,
+                List<AggregationFunctionDefinition> functionDefinitions,
+                int expectedGroups,
+                Optional<File> spillPath)
         {
             this.operatorId = operatorId;
             this.groupByTupleInfo = groupByTupleInfo;
             this.groupByChannel = groupByChannel;
+            this.precomputedHashChannel = checkNotNull(precomputedHashChannel, "precomputedHashChannel is null");
             this.step = step;
             this.functionDefinitions = functionDefinitions;
             this.expectedGroups = expectedGroups;
+            this.spillPath = checkNotNull(spillPath, "spillPath is null");
 
-            this.tupleInfos = toTupleInfos(groupByTupleInfo, step, functionDefinitions);
+            this.tupleInfos = toTupleInfos(groupByTupleInfo, step, functionDefinitions, precomputedHashChannel.isPresent());
         }
 
         @Override
@@ -95,9 +131,11 @@ public class HashAggregationOperator
                     operatorContext,
                     groupByTupleInfo,
                     groupByChannel,
+                    precomputedHashChannel,
                     step,
                     functionDefinitions,
-                    expectedGroups
+                    expectedGroups,
+                    spillPath
             );
         }
 
@@ -108,19 +146,22 @@ public class HashAggregationOperator
         }
     }
 
-    private static final int LOOKUP_SLICE_INDEX = 0xFF_FF_FF_FF;
-
     private final OperatorContext operatorContext;
     private final TupleInfo groupByTupleInfo;
     private final int groupByChannel;
+    private final Optional<Integer> precomputedHashChannel;
     private final Step step;
     private final List<AggregationFunctionDefinition> functionDefinitions;
     private final int expectedGroups;
+    private final Optional<File> spillPath;
 
     private final List<TupleInfo> tupleInfos;
     private final HashMemoryManager memoryManager;
 
     private GroupByHashAggregationBuilder aggregationBuilder;
+    private final List<SpillFile> spills = new ArrayList<>();
+    private SpillMerger spillMerger;
+    private int spillCount;
     private Iterator<Page> outputIterator;
     private boolean finishing;
 
@@ -131,9 +172,41 @@ public class HashAggregationOperator
             Step step,
             List<AggregationFunctionDefinition> functionDefinitions,
             int expectedGroups)
+    {
+        this(operatorContext, groupByTupleInfo, groupByChannel, step, functionDefinitions, expectedGroups, Optional.<File>absent());
+    }
+
+    public HashAggregationOperator(
+            OperatorContext operatorContext,
+            TupleInfo groupByTupleInfo,
+            int groupByChannel,
+            Step step,
+            List<AggregationFunctionDefinition> functionDefinitions,
+            int expectedGroups,
+            Optional<File> spillPath)
+    {
+        this(operatorContext, groupByTupleInfo, groupByChannel, Optional.<Integer>absent(), step, functionDefinitions, expectedGroups, spillPath);
+    }
+
+    /**
+     * @param precomputedHashChannel if present, a BIGINT channel with the hash code of the group key of each row,
+     * which is used instead of hashing the key; the hash code of each group is output after the aggregates
+     * @param spillPath if present, a FINAL or SINGLE aggregation that runs out of memory writes its
+     * groups to this directory instead of failing, and merges the spilled groups when the input is finished
+     */
+    public HashAggregationOperator(
+            OperatorContext operatorContext,
+            TupleInfo groupByTupleInfo,
+            int groupByChannel,
+            Optional<Integer> precomputedHashChannel,
+            Step step,
+            List<AggregationFunctionDefinition> functionDefinitions,
+            int expectedGroups,
+            Optional<File> spillPath)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
         Preconditions.checkArgument(groupByChannel >= 0, "groupByChannel is negative");
+        this.precomputedHashChannel = checkNotNull(precomputedHashChannel, "precomputedHashChannel is null");
         Preconditions.checkNotNull(step, "step is null");
         Preconditions.checkNotNull(functionDefinitions, "functionDefinitions is null");
         Preconditions.checkNotNull(operatorContext, "operatorContext is null");
@@ -143,9 +216,10 @@ public class HashAggregationOperator
         this.functionDefinitions = ImmutableList.copyOf(functionDefinitions);
         this.step = step;
         this.expectedGroups = expectedGroups;
+        this.spillPath = checkNotNull(spillPath, "spillPath is null");
         this.memoryManager = new HashMemoryManager(operatorContext);
 
-        this.tupleInfos = toTupleInfos(groupByTupleInfo, step, functionDefinitions);
+        this.tupleInfos = toTupleInfos(groupByTupleInfo, step, functionDefinitions, precomputedHashChannel.isPresent());
     }
 
     @Override
@@ -169,12 +243,26 @@ public class HashAggregationOperator
     @Override
     public boolean isFinished()
     {
-        return finishing && aggregationBuilder == null && (outputIterator == null || !outputIterator.hasNext());
+        return finishing && aggregationBuilder == null && spills.isEmpty() && (outputIterator == null || !outputIterator.hasNext());
     }
 
     @Override
     public ListenableFuture<?> isBlocked()
     {
+        // partial groups can be flushed and final groups can be spilled, but otherwise
+        // a full hash table must wait for memory, or the query fails in getOutput
+        if (step == Step.PARTIAL || spillPath.isPresent()) {
+            return NOT_BLOCKED;
+        }
+        while (aggregationBuilder != null && aggregationBuilder.isFull()) {
+            ListenableFuture<?> memoryFuture = operatorContext.getMemoryFuture();
+            if (memoryFuture == null) {
+                break;
+            }
+            if (!memoryFuture.isDone()) {
+                return memoryFuture;
+            }
+        }
         return NOT_BLOCKED;
     }
 
@@ -195,6 +283,7 @@ public class HashAggregationOperator
                     step,
                     expectedGroups,
                     groupByChannel,
+                    precomputedHashChannel,
                     groupByTupleInfo,
                     memoryManager);
 
@@ -211,19 +300,38 @@ public class HashAggregationOperator
     {
         if (outputIterator == null || !outputIterator.hasNext()) {
             // no data
-            if (aggregationBuilder == null) {
+            if (aggregationBuilder == null && spills.isEmpty()) {
                 return null;
             }
 
-            // only flush if we are finishing or the aggregation builder is full
-            if (!finishing && !aggregationBuilder.isFull()) {
-                return null;
+            if (!finishing) {
+                // only flush if we are finishing or the aggregation builder is full
+                if (aggregationBuilder == null || !aggregationBuilder.isFull()) {
+                    return null;
+                }
+
+                // final groups can not be flushed early, but they can be moved to disk
+                if (step != Step.PARTIAL && spillPath.isPresent()) {
+                    spill();
+                    return null;
+                }
             }
 
             // Only partial aggregation can flush early. Also, check that we are not flushing tiny bits at a time
             checkState(finishing || step == Step.PARTIAL, "Task exceeded max memory size of %s", memoryManager.getMaxMemorySize());
 
-            outputIterator = aggregationBuilder.build();
+            if (spills.isEmpty()) {
+                outputIterator = aggregationBuilder.build();
+            }
+            else {
+                // the merge needs the memory, so spill the remaining groups also
+                if (aggregationBuilder != null) {
+                    spill();
+                }
+                spillMerger = new SpillMerger(spills);
+                spills.clear();
+                outputIterator = spillMerger;
+            }
             aggregationBuilder = null;
 
             if (!outputIterator.hasNext()) {
@@ -234,7 +342,203 @@ public class HashAggregationOperator
         return outputIterator.next();
     }
 
-    private static List<TupleInfo> toTupleInfos(TupleInfo groupByTupleInfo, Step step, List<AggregationFunctionDefinition> functionDefinitions)
+    private void spill()
+    {
+        spills.add(SpillFile.writePages(spillPath.get(), aggregationBuilder.buildSortedIntermediate()));
+        spillCount++;
+        aggregationBuilder = null;
+    }
+
+    /**
+     * Returns the number of runs of groups written to disk.
+     */
+    @VisibleForTesting
+    int getSpillCount()
+    {
+        return spillCount;
+    }
+
+    /**
+     * Releases the spill files, which stay open when the operator is dropped before it finishes.
+     */
+    @Override
+    public void close()
+    {
+        for (SpillFile spill : spills) {
+            spill.close();
+        }
+        spills.clear();
+        if (spillMerger != null) {
+            spillMerger.close();
+            spillMerger = null;
+        }
+    }
+
+    private static int hashGroupKey(TupleInfo groupByTupleInfo, Slice slice, int offset)
+    {
+        return slice.hashCode(offset, groupByTupleInfo.size(slice, offset));
+    }
+
+    /**
+     * Merges spilled runs of intermediate values sorted by the hash of the group key.
+     * Since the runs are sorted, once the merge moves past a hash value, no more rows can arrive
+     * for the groups seen so far, so the groups can be output whenever the hash table is full.
+     */
+    private class SpillMerger
+            extends AbstractIterator<Page>
+    {
+        private final PriorityQueue<SpilledRun> runs = new PriorityQueue<>();
+        private final List<AggregationFunctionDefinition> mergeFunctions;
+        private final Optional<Integer> spilledHashChannel;
+        private Iterator<Page> currentOutput = Iterators.emptyIterator();
+
+        private SpillMerger(List<SpillFile> spills)
+        {
+            // the hash code of each group, if any, follows the intermediate values
+            spilledHashChannel = precomputedHashChannel.isPresent() ? Optional.of(functionDefinitions.size() + 1) : Optional.<Integer>absent();
+
+            for (SpillFile spill : spills) {
+                SpilledRun run = new SpilledRun(spill, groupByTupleInfo, spilledHashChannel);
+                if (run.advance()) {
+                    runs.add(run);
+                }
+            }
+
+            // spilled pages contain the group key followed by one intermediate value per function
+            ImmutableList.Builder<AggregationFunctionDefinition> mergeFunctions = ImmutableList.builder();
+            for (int i = 0; i < functionDefinitions.size(); i++) {
+                mergeFunctions.add(AggregationFunctionDefinition.aggregation(functionDefinitions.get(i).getFunction(), new Input(i + 1, 0)));
+            }
+            this.mergeFunctions = mergeFunctions.build();
+        }
+
+        @Override
+        protected Page computeNext()
+        {
+            while (!currentOutput.hasNext()) {
+                if (runs.isEmpty()) {
+                    return endOfData();
+                }
+                currentOutput = mergeNextGroups();
+            }
+            return currentOutput.next();
+        }
+
+        private Iterator<Page> mergeNextGroups()
+        {
+            GroupByHashAggregationBuilder builder = new GroupByHashAggregationBuilder(
+                    mergeFunctions,
+                    Step.FINAL,
+                    expectedGroups,
+                    0,
+                    spilledHashChannel,
+                    groupByTupleInfo,
+                    memoryManager);
+
+            boolean first = true;
+            int lastHash = 0;
+            while (!runs.isEmpty()) {
+                SpilledRun run = runs.poll();
+                int hash = run.getHash();
+                if (!first && hash != lastHash && builder.isFull()) {
+                    runs.add(run);
+                    break;
+                }
+
+                builder.addRow(run.getCursors());
+                first = false;
+                lastHash = hash;
+
+                if (run.advance()) {
+                    runs.add(run);
+                }
+                else {
+                    run.close();
+                }
+            }
+            return builder.build();
+        }
+
+        public void close()
+        {
+            for (SpilledRun run : runs) {
+                run.close();
+            }
+            runs.clear();
+        }
+    }
+
+    private static class SpilledRun
+            implements Comparable<SpilledRun>
+    {
+        private final SpillFile spillFile;
+        private final Iterator<Page> pages;
+        private final TupleInfo groupByTupleInfo;
+        private final Optional<Integer> hashChannel;
+        private BlockCursor[] cursors;
+        private int hash;
+
+        private SpilledRun(SpillFile spillFile, TupleInfo groupByTupleInfo, Optional<Integer> hashChannel)
+        {
+            this.spillFile = spillFile;
+            this.pages = spillFile.readPages();
+            this.groupByTupleInfo = groupByTupleInfo;
+            this.hashChannel = hashChannel;
+        }
+
+        public BlockCursor[] getCursors()
+        {
+            return cursors;
+        }
+
+        public int getHash()
+        {
+            return hash;
+        }
+
+        public boolean advance()
+        {
+            while (cursors == null || !advanceCursors()) {
+                if (!pages.hasNext()) {
+                    return false;
+                }
+                Block[] blocks = pages.next().getBlocks();
+                cursors = new BlockCursor[blocks.length];
+                for (int i = 0; i < blocks.length; i++) {
+                    cursors[i] = blocks[i].cursor();
+                }
+            }
+            if (hashChannel.isPresent()) {
+                hash = (int) cursors[hashChannel.get()].getLong(0);
+            }
+            else {
+                hash = hashGroupKey(groupByTupleInfo, cursors[0].getRawSlice(), cursors[0].getRawOffset());
+            }
+            return true;
+        }
+
+        private boolean advanceCursors()
+        {
+            boolean advanced = cursors[0].advanceNextPosition();
+            for (int i = 1; i < cursors.length; i++) {
+                checkState(cursors[i].advanceNextPosition() == advanced, "Spilled page channels have different position counts");
+            }
+            return advanced;
+        }
+
+        public void close()
+        {
+            spillFile.close();
+        }
+
+        @Override
+        public int compareTo(SpilledRun other)
+        {
+            return Integer.compare(hash, other.hash);
+        }
+    }
+
+    private static List<TupleInfo> toTupleInfos(TupleInfo groupByTupleInfo, Step step, List<AggregationFunctionDefinition> functionDefinitions, boolean outputHash)
     {
         ImmutableList.Builder<TupleInfo> tupleInfos = ImmutableList.builder();
         tupleInfos.add(groupByTupleInfo);
@@ -246,31 +550,34 @@ public class HashAggregationOperator
                 tupleInfos.add(functionDefinition.getFunction().getIntermediateTupleInfo());
             }
         }
+        if (outputHash) {
+            tupleInfos.add(SINGLE_LONG);
+        }
         return tupleInfos.build();
     }
 
     private static class GroupByHashAggregationBuilder
     {
         private final List<Aggregator> aggregates;
-        private final SliceHashStrategy hashStrategy;
-        private final Long2IntOpenCustomHashMap addressToGroupId;
-        private final List<UncompressedBlock> groupByBlocks = new ArrayList<>();
+        private final GroupByHash groupByHash;
         private final int groupByChannel;
+        private final Optional<Integer> precomputedHashChannel;
+        private final IntArrayList groupHashCodes;
         private final TupleInfo groupByTupleInfo;
         private final HashMemoryManager memoryManager;
 
-        private BlockBuilder blockBuilder;
-        private int nextGroupId;
-
         private GroupByHashAggregationBuilder(
                 List<AggregationFunctionDefinition> functionDefinitions,
                 Step step,
                 int expectedGroups,
                 int groupByChannel,
+                Optional<Integer> precomputedHashChannel,
                 TupleInfo groupByTupleInfo,
                 HashMemoryManager memoryManager)
         {
             this.groupByChannel = groupByChannel;
+            this.precomputedHashChannel = precomputedHashChannel;
+            this.groupHashCodes = precomputedHashChannel.isPresent() ? new IntArrayList(expectedGroups) : null;
             this.groupByTupleInfo = groupByTupleInfo;
             this.memoryManager = memoryManager;
 
@@ -282,16 +589,7 @@ public class HashAggregationOperator
             aggregates = builder.build();
 
             // create hash table
-            hashStrategy = new SliceHashStrategy(groupByTupleInfo);
-            addressToGroupId = new Long2IntOpenCustomHashMap(expectedGroups, hashStrategy);
-
-            // initialize hash table
-            addressToGroupId.defaultReturnValue(-1);
-            Slice slice = Slices.allocate((int) BlockBuilder.DEFAULT_MAX_BLOCK_SIZE.toBytes());
-            hashStrategy.addSlice(slice);
-
-            // Group by keys are packed into new blocks
-            blockBuilder = new BlockBuilder(groupByTupleInfo, slice.length(), slice.getOutput());
+            groupByHash = GroupByHashes.createGroupByHash(groupByTupleInfo, expectedGroups);
         }
 
         private void processPage(Page page)
@@ -304,7 +602,6 @@ public class HashAggregationOperator
             }
 
             Slice groupBySlice = ((UncompressedBlock) blocks[groupByChannel]).getSlice();
-            hashStrategy.setLookupSlice(groupBySlice);
 
             // process row at a time
             int rows = page.getPositionCount();
@@ -325,38 +622,35 @@ public class HashAggregationOperator
             }
         }
 
-        private int putIfAbsent(Slice groupBySlice, BlockCursor[] cursors)
+        /**
+         * Adds the current row of the cursors, which may come from different pages for each call.
+         */
+        private void addRow(BlockCursor[] cursors)
         {
-            // lookup the group id (row number of the key)
-            int rawOffset = cursors[groupByChannel].getRawOffset();
-            int groupId = addressToGroupId.get(encodeSyntheticAddress(LOOKUP_SLICE_INDEX, rawOffset));
-            if (groupId < 0) {
-                groupId = addNewGroup(groupBySlice, rawOffset);
-            }
-            return groupId;
+            Slice groupBySlice = cursors[groupByChannel].getRawSlice();
+            int groupId = putIfAbsent(groupBySlice, cursors);
+            processRow(cursors, groupId);
         }
 
-        private int addNewGroup(Slice groupBySlice, int rawOffset)
+        private int putIfAbsent(Slice groupBySlice, BlockCursor[] cursors)
         {
-            // copy group by tuple (key) to hash
-            int length = groupByTupleInfo.size(groupBySlice, rawOffset);
-            if (blockBuilder.writableBytes() < length) {
-                UncompressedBlock block = blockBuilder.build();
-                groupByBlocks.add(block);
-                Slice slice = Slices.allocate(Math.max((int) BlockBuilder.DEFAULT_MAX_BLOCK_SIZE.toBytes(), length));
-                blockBuilder = new BlockBuilder(groupByTupleInfo, slice.length(), slice.getOutput());
-                hashStrategy.addSlice(slice);
+            // lookup the group id (row number of the key)
+            int groupCount = groupByHash.getGroupCount();
+            int groupId;
+            if (precomputedHashChannel.isPresent()) {
+                int hashCode = (int) cursors[precomputedHashChannel.get()].getLong(0);
+                groupId = groupByHash.putIfAbsent(groupBySlice, cursors[groupByChannel].getRawOffset(), hashCode);
+                if (groupId == groupCount) {
+                    groupHashCodes.add(hashCode);
+                }
+            }
+            else {
+                groupId = groupByHash.putIfAbsent(groupBySlice, cursors[groupByChannel].getRawOffset());
+            }
+            if (groupId == groupCount) {
+                // initialize the aggregates of the new group
+                initializeRow(groupId);
             }
-            int groupByValueRawOffset = blockBuilder.size();
-            blockBuilder.appendTuple(groupBySlice, rawOffset, length);
-
-            // record group id in hash
-            int groupId = nextGroupId++;
-            addressToGroupId.put(encodeSyntheticAddress(groupByBlocks.size(), groupByValueRawOffset), groupId);
-
-            // initialize the aggregates
-            initializeRow(groupId);
-
             return groupId;
         }
 
@@ -376,20 +670,110 @@ public class HashAggregationOperator
 
         public boolean isFull()
         {
-            long memorySize = hashStrategy.getEstimatedSize();
+            long memorySize = groupByHash.getEstimatedSize();
+            if (groupHashCodes != null) {
+                memorySize += SizeOf.sizeOf(groupHashCodes.elements());
+            }
             for (Aggregator aggregate : aggregates) {
                 memorySize += aggregate.getEstimatedSize();
             }
             return memoryManager.canUse(memorySize);
         }
 
-        public Iterator<Page> build()
+        /**
+         * Builds blocks with the group keys in group id order.
+         */
+        private List<UncompressedBlock> buildGroupByBlocks()
         {
-            // add the last block if it is not empty
+            ImmutableList.Builder<UncompressedBlock> groupByBlocks = ImmutableList.builder();
+            BlockBuilder blockBuilder = new BlockBuilder(groupByTupleInfo);
+            for (int groupId = 0; groupId < groupByHash.getGroupCount(); groupId++) {
+                groupByHash.appendGroupKeyTo(groupId, blockBuilder);
+                if (blockBuilder.isFull()) {
+                    groupByBlocks.add(blockBuilder.build());
+                    blockBuilder = new BlockBuilder(groupByTupleInfo);
+                }
+            }
             if (!blockBuilder.isEmpty()) {
-                UncompressedBlock block = blockBuilder.build();
-                groupByBlocks.add(block);
+                groupByBlocks.add(blockBuilder.build());
+            }
+            return groupByBlocks.build();
+        }
+
+        /**
+         * Builds pages with the group key followed by the intermediate value of each aggregate,
+         * and the hash code of the group if the hash codes are precomputed, ordered by the hash of the group key.
+         */
+        public Iterator<Page> buildSortedIntermediate()
+        {
+            final List<UncompressedBlock> groupByBlocks = buildGroupByBlocks();
+
+            // group ids are assigned in the order the keys are added to the blocks
+            final long[] groupAddresses = new long[groupByHash.getGroupCount()];
+            final long[] hashAndGroupIds = new long[groupByHash.getGroupCount()];
+            int groupId = 0;
+            for (int blockIndex = 0; blockIndex < groupByBlocks.size(); blockIndex++) {
+                BlockCursor cursor = groupByBlocks.get(blockIndex).cursor();
+                while (cursor.advanceNextPosition()) {
+                    int hash;
+                    if (groupHashCodes != null) {
+                        hash = groupHashCodes.getInt(groupId);
+                    }
+                    else {
+                        hash = hashGroupKey(groupByTupleInfo, cursor.getRawSlice(), cursor.getRawOffset());
+                    }
+                    groupAddresses[groupId] = encodeSyntheticAddress(blockIndex, cursor.getRawOffset());
+                    hashAndGroupIds[groupId] = (((long) hash) << 32) | groupId;
+                    groupId++;
+                }
             }
+            Arrays.sort(hashAndGroupIds);
+
+            ImmutableList.Builder<TupleInfo> tupleInfos = ImmutableList.builder();
+            tupleInfos.add(groupByTupleInfo);
+            for (Aggregator aggregate : aggregates) {
+                tupleInfos.add(aggregate.getIntermediateTupleInfo());
+            }
+            if (groupHashCodes != null) {
+                tupleInfos.add(SINGLE_LONG);
+            }
+            final PageBuilder pageBuilder = new PageBuilder(tupleInfos.build());
+
+            return new AbstractIterator<Page>()
+            {
+                private int position;
+
+                @Override
+                protected Page computeNext()
+                {
+                    if (position >= hashAndGroupIds.length) {
+                        return endOfData();
+                    }
+
+                    pageBuilder.reset();
+                    while (position < hashAndGroupIds.length && !pageBuilder.isFull()) {
+                        int groupId = (int) hashAndGroupIds[position];
+                        long address = groupAddresses[groupId];
+                        Slice slice = groupByBlocks.get(decodeSliceIndex(address)).getSlice();
+                        int offset = decodeSliceOffset(address);
+                        pageBuilder.getBlockBuilder(0).appendTuple(slice, offset, groupByTupleInfo.size(slice, offset));
+
+                        for (int channel = 1; channel < aggregates.size() + 1; channel++) {
+                            aggregates.get(channel - 1).evaluateIntermediate(groupId, pageBuilder.getBlockBuilder(channel));
+                        }
+                        if (groupHashCodes != null) {
+                            pageBuilder.getBlockBuilder(aggregates.size() + 1).append((long) groupHashCodes.getInt(groupId));
+                        }
+                        position++;
+                    }
+                    return pageBuilder.build();
+                }
+            };
+        }
+
+        public Iterator<Page> build()
+        {
+            List<UncompressedBlock> groupByBlocks = buildGroupByBlocks();
 
             return Iterators.transform(groupByBlocks.iterator(), new Function<UncompressedBlock, Page>()
             {
@@ -399,7 +783,7 @@ public class HashAggregationOperator
                 public Page apply(UncompressedBlock groupByBlock)
                 {
                     // build  the page channel at at time
-                    Block[] blocks = new Block[aggregates.size() + 1];
+                    Block[] blocks = new Block[aggregates.size() + (groupHashCodes != null ? 2 : 1)];
                     blocks[0] = groupByBlock;
                     int pagePositionCount = groupByBlock.getPositionCount();
                     for (int channel = 1; channel < aggregates.size() + 1; channel++) {
@@ -411,6 +795,13 @@ public class HashAggregationOperator
                         }
                         blocks[channel] = blockBuilder.build();
                     }
+                    if (groupHashCodes != null) {
+                        BlockBuilder blockBuilder = new BlockBuilder(SINGLE_LONG);
+                        for (int position = 0; position < pagePositionCount; position++) {
+                            blockBuilder.append((long) groupHashCodes.getInt(currentPosition + position));
+                        }
+                        blocks[aggregates.size() + 1] = blockBuilder.build();
+                    }
 
                     Page page = new Page(blocks);
                     currentPosition += pagePositionCount;
@@ -478,11 +869,15 @@ public class HashAggregationOperator
 
         TupleInfo getTupleInfo();
 
+        TupleInfo getIntermediateTupleInfo();
+
         void initialize(int position);
 
         void addValue(BlockCursor[] cursors, int position);
 
         void evaluate(int position, BlockBuilder output);
+
+        void evaluateIntermediate(int position, BlockBuilder output);
     }
 
     private static class FixedWidthAggregator
@@ -572,6 +967,24 @@ public class HashAggregationOperator
             }
         }
 
+        @Override
+        public TupleInfo getIntermediateTupleInfo()
+        {
+            return function.getIntermediateTupleInfo();
+        }
+
+        @Override
+        public void evaluateIntermediate(int position, BlockBuilder output)
+        {
+            int offset = position * fixedWidthSize;
+
+            int sliceIndex = offset / sliceSize;
+            Slice slice = slices.get(sliceIndex);
+            int sliceOffset = offset - (sliceIndex * sliceSize);
+
+            function.evaluateIntermediate(slice, sliceOffset, output);
+        }
+
         @Override
         public void evaluate(int position, BlockBuilder output)
         {
@@ -674,84 +1087,28 @@ public class HashAggregationOperator
         }
 
         @Override
-        public void evaluate(int position, BlockBuilder output)
-        {
-            T value = intermediateValues.get(position);
-            // if this is a partial, the output is an intermediate value
-            if (step == Step.PARTIAL) {
-                function.evaluateIntermediate(value, output);
-            }
-            else {
-                function.evaluateFinal(value, output);
-            }
-        }
-    }
-
-    public static class SliceHashStrategy
-            implements Strategy
-    {
-        private final TupleInfo tupleInfo;
-        private final List<Slice> slices;
-        private Slice lookupSlice;
-        private long memorySize;
-
-        public SliceHashStrategy(TupleInfo tupleInfo)
-        {
-            this.tupleInfo = tupleInfo;
-            this.slices = ObjectArrayList.wrap(new Slice[1024], 0);
-        }
-
-        public long getEstimatedSize()
-        {
-            return memorySize;
-        }
-
-        public void setLookupSlice(Slice lookupSlice)
+        public TupleInfo getIntermediateTupleInfo()
         {
-            this.lookupSlice = lookupSlice;
-        }
-
-        public void addSlice(Slice slice)
-        {
-            memorySize += slice.length();
-            slices.add(slice);
+            return function.getIntermediateTupleInfo();
         }
 
         @Override
-        public int hashCode(long sliceAddress)
+        public void evaluateIntermediate(int position, BlockBuilder output)
         {
-            Slice slice = getSliceForSyntheticAddress(sliceAddress);
-            int offset = (int) sliceAddress;
-            int length = tupleInfo.size(slice, offset);
-            int hashCode = slice.hashCode(offset, length);
-            return hashCode;
+            function.evaluateIntermediate(intermediateValues.get(position), output);
         }
 
         @Override
-        public boolean equals(long leftSliceAddress, long rightSliceAddress)
-        {
-            Slice leftSlice = getSliceForSyntheticAddress(leftSliceAddress);
-            int leftOffset = decodeSliceOffset(leftSliceAddress);
-            int leftLength = tupleInfo.size(leftSlice, leftOffset);
-
-            Slice rightSlice = getSliceForSyntheticAddress(rightSliceAddress);
-            int rightOffset = decodeSliceOffset(rightSliceAddress);
-            int rightLength = tupleInfo.size(rightSlice, rightOffset);
-
-            return leftSlice.equals(leftOffset, leftLength, rightSlice, rightOffset, rightLength);
-        }
-
-        private Slice getSliceForSyntheticAddress(long sliceAddress)
+        public void evaluate(int position, BlockBuilder output)
         {
-            int sliceIndex = decodeSliceIndex(sliceAddress);
-            Slice slice;
-            if (sliceIndex == LOOKUP_SLICE_INDEX) {
-                slice = lookupSlice;
+            T value = intermediateValues.get(position);
+            // if this is a partial, the output is an intermediate value
+            if (step == Step.PARTIAL) {
+                function.evaluateIntermediate(value, output);
             }
             else {
-                slice = slices.get(sliceIndex);
+                function.evaluateFinal(value, output);
             }
-            return slice;
         }
     }
 }
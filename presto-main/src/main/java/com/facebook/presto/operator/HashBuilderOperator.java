@@ -13,33 +13,103 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.BlockCursor;
 import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.facebook.presto.operator.Operator.NOT_BLOCKED;
+import static com.facebook.presto.operator.PartitionedSpillWriter.PARTITION_COUNT;
+import static com.facebook.presto.operator.PartitionedSpillWriter.getPartition;
+
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 @ThreadSafe
 public class HashBuilderOperator
-        implements Operator
+        implements Operator, Closeable
 {
+    /**
+     * Collects the indexes of the build operators and builds a single hash over all of them,
+     * which is shared by all probe operators.  When the build is split across several drivers,
+     * each driver hashes the keys of its own partition, and the last driver to finish links
+     * the partitions into one hash.
+     * <p/>
+     * A build that is not partitioned can spill: the rows of the partitions of the key hash codes
+     * that do not fit in memory are written to disk, and are joined by each probe operator after
+     * it has joined all of its input with the in memory hash.
+     */
+    @ThreadSafe
     public static class HashSupplier
     {
         private final List<TupleInfo> tupleInfos;
+        private final int hashChannel;
+        private final Optional<Integer> precomputedHashChannel;
+        private final int partitionCount;
+        private final Optional<SettableFuture<DynamicFilter>> dynamicFilter;
+        private final Optional<File> spillPath;
         private final SettableFuture<HashData> hashFuture = SettableFuture.create();
 
-        public HashSupplier(List<TupleInfo> tupleInfos)
+        @GuardedBy("this")
+        private final List<HashPartition> partitions = new ArrayList<>();
+
+        @GuardedBy("this")
+        private final Map<Integer, SpilledPartitionHash> spilledPartitionHashes = new HashMap<>();
+        @GuardedBy("this")
+        private long spilledPartitionMemory;
+        @GuardedBy("this")
+        private SettableFuture<?> spilledPartitionFuture;
+        private final AtomicInteger spilledPartitionLoads = new AtomicInteger();
+
+        @GuardedBy("this")
+        private int probeOperatorCount;
+        @GuardedBy("this")
+        private boolean noMoreProbeOperators;
+        @GuardedBy("this")
+        private boolean spillFilesClosed;
+
+        public HashSupplier(List<TupleInfo> tupleInfos, int hashChannel, int partitionCount, Optional<SettableFuture<DynamicFilter>> dynamicFilter)
+        {
+            this(tupleInfos, hashChannel, Optional.<Integer>absent(), partitionCount, dynamicFilter, Optional.<File>absent());
+        }
+
+        public HashSupplier(
+                List<TupleInfo> tupleInfos,
+                int hashChannel,
+                Optional<Integer> precomputedHashChannel,
+                int partitionCount,
+                Optional<SettableFuture<DynamicFilter>> dynamicFilter,
+                Optional<File> spillPath)
         {
             this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
+            checkArgument(hashChannel >= 0, "hashChannel is negative");
+            this.hashChannel = hashChannel;
+            this.precomputedHashChannel = checkNotNull(precomputedHashChannel, "precomputedHashChannel is null");
+            checkArgument(partitionCount > 0, "partitionCount must be at least 1");
+            this.partitionCount = partitionCount;
+            this.dynamicFilter = checkNotNull(dynamicFilter, "dynamicFilter is null");
+            this.spillPath = checkNotNull(spillPath, "spillPath is null");
+            checkArgument(!spillPath.isPresent() || partitionCount == 1, "A partitioned build can not spill");
         }
 
         public List<TupleInfo> getTupleInfos()
@@ -47,6 +117,11 @@ public class HashBuilderOperator
             return tupleInfos;
         }
 
+        public int getPartitionCount()
+        {
+            return partitionCount;
+        }
+
         public ListenableFuture<SourceHash> getSourceHash()
         {
             return Futures.transform(hashFuture, new Function<HashData, SourceHash>()
@@ -54,30 +129,432 @@ public class HashBuilderOperator
                 @Override
                 public SourceHash apply(HashData hashData)
                 {
-                    return new SourceHash(new ChannelHash(hashData.channelHash), hashData.pagesIndex);
+                    return new SourceHash(hashData.channelHash, hashData.partitions, hashData.spilledPartitions, spillPath);
                 }
             });
         }
 
-        void setHash(ChannelHash channelHash, PagesIndex pagesIndex)
+        /**
+         * Registers a probe operator of the hash.  The spill files of the build side are closed when the factory
+         * of the probe operators is closed and all probe operators are closed.
+         */
+        synchronized void addProbeOperator()
+        {
+            checkState(!noMoreProbeOperators, "No more probe operators can be added");
+            probeOperatorCount++;
+        }
+
+        void probeOperatorClosed()
+        {
+            synchronized (this) {
+                checkState(probeOperatorCount > 0, "All probe operators are already closed");
+                probeOperatorCount--;
+            }
+            closeSpillFilesIfUnused();
+        }
+
+        void noMoreProbeOperators()
+        {
+            synchronized (this) {
+                noMoreProbeOperators = true;
+            }
+            closeSpillFilesIfUnused();
+        }
+
+        /**
+         * Registers a probe operator that has spilled probe rows of the partition.  The spilled build rows
+         * of the partition are loaded once, and the loaded hash is shared by the registered probe operators
+         * until the last of them releases the partition.  The loaded hash is only dropped earlier when its
+         * memory is needed to load another partition while no probe operator is joining it.
+         */
+        synchronized void reserveSpilledPartition(int partition)
+        {
+            checkState(hashFuture.isDone(), "Hash is not built");
+            checkState(!spillFilesClosed, "Spill files are closed");
+            SpilledPartitionHash partitionHash = spilledPartitionHashes.get(partition);
+            if (partitionHash == null) {
+                SpillFile spillFile = Futures.getUnchecked(hashFuture).spilledPartitions.get(partition);
+                checkArgument(spillFile != null, "Partition %s was not spilled", partition);
+                partitionHash = new SpilledPartitionHash(spillFile);
+                spilledPartitionHashes.put(partition, partitionHash);
+            }
+            partitionHash.referenceCount++;
+        }
+
+        /**
+         * Marks the start of the join of the spilled probe rows of a reserved partition, which ends with
+         * {@link #finishSpilledPartition}.  The partition is not dropped while it is joined.
+         */
+        synchronized void acquireSpilledPartition(int partition)
+        {
+            getReservedSpilledPartition(partition).activeCount++;
+        }
+
+        /**
+         * Loads the spilled build rows of an acquired partition.  The memory of the loaded partition is reserved
+         * from the task of the specified (probe) operator, and is freed when the partition is dropped.
+         *
+         * @return a future that is done when the partition is loaded; otherwise, the task does not have
+         * enough memory left, and the load must be retried when the future completes
+         */
+        ListenableFuture<?> loadSpilledPartition(int partition, OperatorContext operatorContext)
+        {
+            checkNotNull(operatorContext, "operatorContext is null");
+            return getReservedSpilledPartition(partition).load(operatorContext);
+        }
+
+        /**
+         * Returns a view of the hash of a loaded spilled partition for a single probe operator.
+         */
+        SourceHash getSpilledPartition(int partition)
+        {
+            return getReservedSpilledPartition(partition).getSourceHash();
+        }
+
+        /**
+         * Ends the join of an acquired partition, and releases it.
+         */
+        void finishSpilledPartition(int partition)
+        {
+            SettableFuture<?> future;
+            synchronized (this) {
+                SpilledPartitionHash partitionHash = getReservedSpilledPartition(partition);
+                checkState(partitionHash.activeCount > 0, "Partition %s is not acquired", partition);
+                partitionHash.activeCount--;
+
+                // the partition can be dropped for a partition that is waiting for memory
+                future = spilledPartitionFuture;
+                spilledPartitionFuture = null;
+            }
+            releaseSpilledPartition(partition);
+
+            if (future != null) {
+                future.set(null);
+            }
+        }
+
+        /**
+         * Releases a reserved partition.  The loaded hash is dropped when the last probe operator releases it.
+         */
+        void releaseSpilledPartition(int partition)
+        {
+            SpilledPartitionHash partitionHash;
+            synchronized (this) {
+                partitionHash = getReservedSpilledPartition(partition);
+                partitionHash.referenceCount--;
+                if (partitionHash.referenceCount > 0) {
+                    return;
+                }
+                spilledPartitionHashes.remove(partition);
+            }
+            partitionHash.unload();
+        }
+
+        private synchronized SpilledPartitionHash getReservedSpilledPartition(int partition)
+        {
+            SpilledPartitionHash partitionHash = spilledPartitionHashes.get(partition);
+            checkState(partitionHash != null, "Partition %s is not reserved", partition);
+            return partitionHash;
+        }
+
+        /**
+         * Reserves task memory for a loaded spilled partition, dropping loaded partitions that are not joined
+         * to make room.  Returns null if the memory is reserved, or a future that completes when memory may be
+         * available.  While other loaded partitions are joined, the future completes when the join of one of
+         * them finishes.  Otherwise, the task can only wait for the node memory pool, and fails if the partition
+         * does not fit in the task memory.
+         */
+        private ListenableFuture<?> reserveSpilledPartitionMemory(TaskContext taskContext, long bytes)
+        {
+            while (true) {
+                List<SpilledPartitionHash> unusedPartitions = new ArrayList<>();
+                synchronized (this) {
+                    if (taskContext.reserveMemory(bytes)) {
+                        spilledPartitionMemory += bytes;
+                        return null;
+                    }
+                    for (SpilledPartitionHash partitionHash : spilledPartitionHashes.values()) {
+                        if (partitionHash.activeCount == 0) {
+                            unusedPartitions.add(partitionHash);
+                        }
+                    }
+                }
+
+                boolean dropped = false;
+                for (SpilledPartitionHash partitionHash : unusedPartitions) {
+                    dropped |= partitionHash.unloadIfUnused();
+                }
+                if (dropped) {
+                    continue;
+                }
+
+                synchronized (this) {
+                    if (spilledPartitionMemory > 0) {
+                        if (spilledPartitionFuture == null) {
+                            spilledPartitionFuture = SettableFuture.create();
+                        }
+                        return spilledPartitionFuture;
+                    }
+                }
+                ListenableFuture<?> future = taskContext.getMemoryPoolFuture(bytes);
+                checkState(future != null, "Task exceeded max memory size of %s", taskContext.getMaxMemorySize());
+                return future;
+            }
+        }
+
+        private void freeSpilledPartitionMemory(TaskContext taskContext, long bytes)
+        {
+            SettableFuture<?> future;
+            synchronized (this) {
+                taskContext.releaseMemory(bytes);
+                spilledPartitionMemory -= bytes;
+                future = spilledPartitionFuture;
+                spilledPartitionFuture = null;
+            }
+
+            // complete the future outside of the lock, since listeners may load a partition
+            if (future != null) {
+                future.set(null);
+            }
+        }
+
+        private void closeSpillFilesIfUnused()
+        {
+            List<SpilledPartitionHash> partitionHashes;
+            Map<Integer, SpillFile> spillFiles;
+            synchronized (this) {
+                if (!noMoreProbeOperators || probeOperatorCount > 0 || !hashFuture.isDone() || spillFilesClosed) {
+                    return;
+                }
+                spillFilesClosed = true;
+                partitionHashes = ImmutableList.copyOf(spilledPartitionHashes.values());
+                spilledPartitionHashes.clear();
+                spillFiles = Futures.getUnchecked(hashFuture).spilledPartitions;
+            }
+
+            for (SpilledPartitionHash partitionHash : partitionHashes) {
+                partitionHash.unload();
+            }
+            for (SpillFile spillFile : spillFiles.values()) {
+                spillFile.close();
+            }
+        }
+
+        @VisibleForTesting
+        int getSpilledPartitionLoads()
+        {
+            return spilledPartitionLoads.get();
+        }
+
+        @VisibleForTesting
+        synchronized boolean isSpillFilesClosed()
+        {
+            return spillFilesClosed;
+        }
+
+        void addPartition(PagesIndex pagesIndex, int[] positionHashCodes, OperatorContext operatorContext)
+        {
+            addPartition(pagesIndex, positionHashCodes, ImmutableMap.<Integer, SpillFile>of(), operatorContext);
+        }
+
+        /**
+         * @param spilledPartitions the spill file of each spilled partition that has any rows
+         */
+        void addPartition(PagesIndex pagesIndex, int[] positionHashCodes, Map<Integer, SpillFile> spilledPartitions, OperatorContext operatorContext)
+        {
+            checkNotNull(pagesIndex, "pagesIndex is null");
+            checkNotNull(positionHashCodes, "positionHashCodes is null");
+            checkNotNull(spilledPartitions, "spilledPartitions is null");
+            checkNotNull(operatorContext, "operatorContext is null");
+            checkArgument(spilledPartitions.isEmpty() || spillPath.isPresent(), "Build can not spill");
+
+            List<HashPartition> partitions;
+            synchronized (this) {
+                checkState(this.partitions.size() < partitionCount, "Hash already set");
+                this.partitions.add(new HashPartition(pagesIndex, positionHashCodes));
+                if (this.partitions.size() < partitionCount) {
+                    return;
+                }
+                partitions = ImmutableList.copyOf(this.partitions);
+            }
+
+            // the last partition to finish builds the hash
+            ChannelIndex index;
+            int[] hashCodes;
+            if (partitions.size() == 1) {
+                index = pagesIndex.getIndex(hashChannel);
+                hashCodes = positionHashCodes;
+            }
+            else {
+                index = new ChannelIndex(0, pagesIndex.getTupleInfo(hashChannel));
+                int positionCount = 0;
+                for (HashPartition partition : partitions) {
+                    index.addIndex(partition.pagesIndex.getIndex(hashChannel));
+                    positionCount += partition.positionHashCodes.length;
+                }
+                hashCodes = new int[positionCount];
+                int offset = 0;
+                for (HashPartition partition : partitions) {
+                    System.arraycopy(partition.positionHashCodes, 0, hashCodes, offset, partition.positionHashCodes.length);
+                    offset += partition.positionHashCodes.length;
+                }
+                checkState(operatorContext.reserveMemory(index.getEstimatedSize().toBytes()), "Task exceeded max memory size of %s", operatorContext.getMaxMemorySize());
+            }
+
+            // publish the filter first, so the probe side scans can start as soon as the hash is ready
+            if (dynamicFilter.isPresent()) {
+                if (spilledPartitions.isEmpty()) {
+                    dynamicFilter.get().set(DynamicFilter.create(index));
+                }
+                else {
+                    // the index does not contain the keys of the spilled rows
+                    dynamicFilter.get().set(null);
+                }
+            }
+
+            ChannelHash channelHash = new ChannelHash(index, hashCodes);
+            if (partitions.size() == 1) {
+                long memorySize = pagesIndex.getEstimatedSize().toBytes() + channelHash.getEstimatedSize().toBytes();
+                checkState(operatorContext.trySetMemoryReservation(memorySize), "Task exceeded max memory size of %s", operatorContext.getMaxMemorySize());
+            }
+            else {
+                checkState(operatorContext.reserveMemory(channelHash.getEstimatedSize().toBytes()), "Task exceeded max memory size of %s", operatorContext.getMaxMemorySize());
+            }
+
+            ImmutableList.Builder<PagesIndex> pagesIndexes = ImmutableList.builder();
+            for (HashPartition partition : partitions) {
+                pagesIndexes.add(partition.pagesIndex);
+            }
+            hashFuture.set(new HashData(channelHash, pagesIndexes.build(), spilledPartitions));
+
+            // the probe operators may have been closed before the hash was built
+            closeSpillFilesIfUnused();
+        }
+
+        @ThreadSafe
+        private class SpilledPartitionHash
+        {
+            private final SpillFile spillFile;
+
+            // the number of probe operators that will join the partition
+            @GuardedBy("HashSupplier.this")
+            private int referenceCount;
+            // the number of probe operators that are joining the partition
+            @GuardedBy("HashSupplier.this")
+            private int activeCount;
+
+            @GuardedBy("this")
+            private ChannelHash channelHash;
+            @GuardedBy("this")
+            private PagesIndex pagesIndex;
+            @GuardedBy("this")
+            private TaskContext taskContext;
+            @GuardedBy("this")
+            private long memorySize;
+
+            private SpilledPartitionHash(SpillFile spillFile)
+            {
+                this.spillFile = spillFile;
+            }
+
+            private synchronized ListenableFuture<?> load(OperatorContext operatorContext)
+            {
+                TaskContext taskContext = operatorContext.getTaskContext();
+                if (channelHash != null) {
+                    return NOT_BLOCKED;
+                }
+
+                // reserve the size of the spilled pages, or the actual size of a previous attempt, before reading them
+                long reservedSize = Math.max(memorySize, spillFile.getSize());
+                ListenableFuture<?> blocked = reserveSpilledPartitionMemory(taskContext, reservedSize);
+                if (blocked != null) {
+                    return blocked;
+                }
+
+                PagesIndex pagesIndex = new PagesIndex(tupleInfos, 10_000, operatorContext);
+                Iterator<Page> pages = spillFile.readPages();
+                while (pages.hasNext()) {
+                    pagesIndex.addPageWithoutReservation(pages.next());
+                }
+                ChannelHash channelHash = new ChannelHash(pagesIndex.getIndex(hashChannel), hashPositions(pagesIndex, hashChannel, precomputedHashChannel));
+                spilledPartitionLoads.incrementAndGet();
+
+                memorySize = pagesIndex.getEstimatedSize().toBytes() + channelHash.getEstimatedSize().toBytes();
+                if (memorySize > reservedSize) {
+                    freeSpilledPartitionMemory(taskContext, reservedSize);
+                    blocked = reserveSpilledPartitionMemory(taskContext, memorySize);
+                    if (blocked != null) {
+                        return blocked;
+                    }
+                }
+                else {
+                    freeSpilledPartitionMemory(taskContext, reservedSize - memorySize);
+                }
+
+                this.pagesIndex = pagesIndex;
+                this.channelHash = channelHash;
+                this.taskContext = taskContext;
+                return NOT_BLOCKED;
+            }
+
+            private synchronized SourceHash getSourceHash()
+            {
+                checkState(channelHash != null, "Partition is not loaded");
+                // each probe operator gets its own view of the shared hash
+                return new SourceHash(channelHash, pagesIndex);
+            }
+
+            private synchronized boolean unloadIfUnused()
+            {
+                synchronized (HashSupplier.this) {
+                    if (activeCount > 0) {
+                        return false;
+                    }
+                }
+                if (channelHash == null) {
+                    return false;
+                }
+                unload();
+                return true;
+            }
+
+            private synchronized void unload()
+            {
+                if (channelHash == null) {
+                    return;
+                }
+                freeSpilledPartitionMemory(taskContext, memorySize);
+                channelHash = null;
+                pagesIndex = null;
+                taskContext = null;
+            }
+        }
+
+        private static class HashPartition
         {
-            HashData hashData = new HashData(
-                    checkNotNull(channelHash, "channelHash is null"),
-                    checkNotNull(pagesIndex, "pagesIndex is null"));
+            private final PagesIndex pagesIndex;
+            private final int[] positionHashCodes;
 
-            boolean wasSet = hashFuture.set(hashData);
-            checkState(wasSet, "Hash already set");
+            private HashPartition(PagesIndex pagesIndex, int[] positionHashCodes)
+            {
+                this.pagesIndex = pagesIndex;
+                this.positionHashCodes = positionHashCodes;
+            }
         }
 
         private static class HashData
         {
             private final ChannelHash channelHash;
-            private final PagesIndex pagesIndex;
+            private final List<PagesIndex> partitions;
+            // the spill files are shared by all probe operators, so like the in memory
+            // partitions, they are released when the hash is no longer referenced
+            private final Map<Integer, SpillFile> spilledPartitions;
 
-            private HashData(ChannelHash channelHash, PagesIndex pagesIndex)
+            private HashData(ChannelHash channelHash, List<PagesIndex> partitions, Map<Integer, SpillFile> spilledPartitions)
             {
                 this.channelHash = channelHash;
-                this.pagesIndex = pagesIndex;
+                this.partitions = partitions;
+                this.spilledPartitions = ImmutableMap.copyOf(spilledPartitions);
             }
         }
     }
@@ -88,7 +565,10 @@ public class HashBuilderOperator
         private final int operatorId;
         private final HashSupplier hashSupplier;
         private final int hashChannel;
+        private final Optional<Integer> precomputedHashChannel;
         private final int expectedPositions;
+        private final Optional<File> spillPath;
+        private int createdOperators;
         private boolean closed;
 
         public HashBuilderOperatorFactory(
@@ -96,12 +576,80 @@ public class HashBuilderOperator
                 List<TupleInfo> tupleInfos,
                 int hashChannel,
                 int expectedPositions)
+        {
+            this(operatorId, tupleInfos, hashChannel, expectedPositions, Optional.<SettableFuture<DynamicFilter>>absent());
+        }
+
+        /**
+         * @param dynamicFilter if present, is set to a {@link DynamicFilter} over the hash channel (or null if
+         * the build side is too large to summarize) when the hash has been built
+         */
+        public HashBuilderOperatorFactory(
+                int operatorId,
+                List<TupleInfo> tupleInfos,
+                int hashChannel,
+                int expectedPositions,
+                Optional<SettableFuture<DynamicFilter>> dynamicFilter)
+        {
+            this(operatorId, tupleInfos, hashChannel, expectedPositions, 1, dynamicFilter);
+        }
+
+        /**
+         * @param partitionCount the number of operators that will be created by this factory, each
+         * of which indexes part of the build side; the hash is built when all of them have finished
+         */
+        public HashBuilderOperatorFactory(
+                int operatorId,
+                List<TupleInfo> tupleInfos,
+                int hashChannel,
+                int expectedPositions,
+                int partitionCount,
+                Optional<SettableFuture<DynamicFilter>> dynamicFilter)
+        {
+            this(operatorId, tupleInfos, hashChannel, Optional.<Integer>absent(), expectedPositions, partitionCount, dynamicFilter);
+        }
+
+        /**
+         * @param precomputedHashChannel if present, a BIGINT channel with the hash code of the key of each row,
+         * which is used instead of hashing the keys; the probe operators must then also use precomputed hash codes
+         */
+        public HashBuilderOperatorFactory(
+                int operatorId,
+                List<TupleInfo> tupleInfos,
+                int hashChannel,
+                Optional<Integer> precomputedHashChannel,
+                int expectedPositions,
+                int partitionCount,
+                Optional<SettableFuture<DynamicFilter>> dynamicFilter)
+        {
+            this(operatorId, tupleInfos, hashChannel, precomputedHashChannel, expectedPositions, partitionCount, dynamicFilter, Optional.<File>absent());
+        }
+
+        /**
+         * @param spillPath if present, when the build side does not fit in memory, the rows of some partitions
+         * of the key hash codes are written to this directory instead of failing, and the probe operators join
+         * these partitions after their input is finished; a partitioned build can not spill
+         */
+        public HashBuilderOperatorFactory(
+                int operatorId,
+                List<TupleInfo> tupleInfos,
+                int hashChannel,
+                Optional<Integer> precomputedHashChannel,
+                int expectedPositions,
+                int partitionCount,
+                Optional<SettableFuture<DynamicFilter>> dynamicFilter,
+                Optional<File> spillPath)
         {
             this.operatorId = operatorId;
-            this.hashSupplier = new HashSupplier(checkNotNull(tupleInfos, "tupleInfos is null"));
+            checkNotNull(tupleInfos, "tupleInfos is null");
             Preconditions.checkArgument(hashChannel >= 0, "hashChannel is negative");
             this.hashChannel = hashChannel;
+            this.precomputedHashChannel = checkNotNull(precomputedHashChannel, "precomputedHashChannel is null");
             this.expectedPositions = checkNotNull(expectedPositions, "expectedPositions is null");
+            checkNotNull(dynamicFilter, "dynamicFilter is null");
+            Preconditions.checkArgument(!dynamicFilter.isPresent() || DynamicFilter.isSupportedType(tupleInfos.get(hashChannel)), "dynamic filter is not supported for hash channel");
+            this.spillPath = checkNotNull(spillPath, "spillPath is null");
+            this.hashSupplier = new HashSupplier(tupleInfos, hashChannel, precomputedHashChannel, partitionCount, dynamicFilter, spillPath);
         }
 
         public HashSupplier getHashSupplier()
@@ -116,15 +664,20 @@ public class HashBuilderOperator
         }
 
         @Override
-        public Operator createOperator(DriverContext driverContext)
+        public synchronized Operator createOperator(DriverContext driverContext)
         {
             checkState(!closed, "Factory is already closed");
+            checkState(createdOperators < hashSupplier.getPartitionCount(), "Factory has already created %s operators", createdOperators);
+            createdOperators++;
+
             OperatorContext operatorContext = driverContext.addOperatorContext(operatorId, HashBuilderOperator.class.getSimpleName());
             return new HashBuilderOperator(
                     operatorContext,
                     hashSupplier,
                     hashChannel,
-                    expectedPositions);
+                    precomputedHashChannel,
+                    expectedPositions,
+                    spillPath);
         }
 
         @Override
@@ -137,8 +690,16 @@ public class HashBuilderOperator
     private final OperatorContext operatorContext;
     private final HashSupplier hashSupplier;
     private final int hashChannel;
+    private final Optional<Integer> precomputedHashChannel;
+    private final int expectedPositions;
+    private final Optional<File> spillPath;
+    private final long maxInMemorySize;
+
+    private PagesIndex pagesIndex;
 
-    private final PagesIndex pagesIndex;
+    private final boolean[] spilledPartitions = new boolean[PARTITION_COUNT];
+    private int spilledPartitionCount;
+    private PartitionedSpillWriter spillWriter;
 
     private boolean finished;
 
@@ -147,11 +708,39 @@ public class HashBuilderOperator
             HashSupplier hashSupplier,
             int hashChannel,
             int expectedPositions)
+    {
+        this(operatorContext, hashSupplier, hashChannel, Optional.<Integer>absent(), expectedPositions);
+    }
+
+    public HashBuilderOperator(
+            OperatorContext operatorContext,
+            HashSupplier hashSupplier,
+            int hashChannel,
+            Optional<Integer> precomputedHashChannel,
+            int expectedPositions)
+    {
+        this(operatorContext, hashSupplier, hashChannel, precomputedHashChannel, expectedPositions, Optional.<File>absent());
+    }
+
+    public HashBuilderOperator(
+            OperatorContext operatorContext,
+            HashSupplier hashSupplier,
+            int hashChannel,
+            Optional<Integer> precomputedHashChannel,
+            int expectedPositions,
+            Optional<File> spillPath)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
         this.hashSupplier = checkNotNull(hashSupplier, "hashSupplier is null");
         this.hashChannel = hashChannel;
+        this.precomputedHashChannel = checkNotNull(precomputedHashChannel, "precomputedHashChannel is null");
+        this.expectedPositions = expectedPositions;
+        this.spillPath = checkNotNull(spillPath, "spillPath is null");
         this.pagesIndex = new PagesIndex(hashSupplier.getTupleInfos(), expectedPositions, operatorContext);
+
+        // when spilling, keep at most half of the task memory, so the probe operators
+        // have memory left to join the spilled partitions one at a time
+        this.maxInMemorySize = operatorContext.getMaxMemorySize().toBytes() / 2;
     }
 
     @Override
@@ -173,11 +762,30 @@ public class HashBuilderOperator
             return;
         }
 
-        ChannelHash channelHash = new ChannelHash(pagesIndex.getIndex(hashChannel), operatorContext);
-        hashSupplier.setHash(channelHash, pagesIndex);
+        Map<Integer, SpillFile> spilledPartitionFiles = ImmutableMap.of();
+        if (spillPath.isPresent()) {
+            // the hash must fit in memory along with the index
+            while (spilledPartitionCount < PARTITION_COUNT && !reserveHash()) {
+                spill();
+            }
+            if (spillWriter != null) {
+                spilledPartitionFiles = spillWriter.finish();
+                spillWriter = null;
+            }
+        }
+
+        // hash the keys of this partition here, so a partitioned build hashes in parallel
+        int[] positionHashCodes = hashPositions(pagesIndex, hashChannel, precomputedHashChannel);
+        hashSupplier.addPartition(pagesIndex, positionHashCodes, spilledPartitionFiles, operatorContext);
         finished = true;
     }
 
+    private boolean reserveHash()
+    {
+        long hashSize = pagesIndex.getEstimatedSize().toBytes() + ChannelHash.estimateSize(pagesIndex.getPositionCount()).toBytes();
+        return hashSize <= maxInMemorySize && operatorContext.trySetMemoryReservation(hashSize);
+    }
+
     @Override
     public boolean isFinished()
     {
@@ -187,7 +795,7 @@ public class HashBuilderOperator
     @Override
     public ListenableFuture<?> isBlocked()
     {
-        return NOT_BLOCKED;
+        return pagesIndex.isBlocked();
     }
 
     @Override
@@ -202,10 +810,128 @@ public class HashBuilderOperator
         checkNotNull(page, "page is null");
         checkState(!isFinished(), "Operator is already finished");
 
-        pagesIndex.addPage(page);
+        if (!spillPath.isPresent()) {
+            pagesIndex.addPage(page);
+        }
+        else if (spillWriter == null) {
+            if (!pagesIndex.tryAddPage(page) || !reserveHash()) {
+                spill();
+            }
+        }
+        else {
+            addPartitionedPage(page);
+        }
         operatorContext.recordGeneratedOutput(page.getDataSize(), page.getPositionCount());
     }
 
+    /**
+     * Writes the rows of the spilled partitions to disk, and adds the other rows to the index.
+     */
+    private void addPartitionedPage(Page page)
+    {
+        BlockCursor[] cursors = new BlockCursor[page.getChannelCount()];
+        for (int channel = 0; channel < cursors.length; channel++) {
+            cursors[channel] = page.getBlock(channel).cursor();
+        }
+
+        PageBuilder pageBuilder = new PageBuilder(getTupleInfos());
+        while (advanceNextPosition(cursors)) {
+            int partition = getPartition(hashCurrentPosition(cursors));
+            if (spilledPartitions[partition]) {
+                spillWriter.appendRow(partition, cursors);
+            }
+            else {
+                for (int channel = 0; channel < cursors.length; channel++) {
+                    cursors[channel].appendTupleTo(pageBuilder.getBlockBuilder(channel));
+                }
+            }
+        }
+
+        if (!pageBuilder.isEmpty() && (!pagesIndex.tryAddPage(pageBuilder.build()) || !reserveHash())) {
+            spill();
+        }
+    }
+
+    /**
+     * Writes the rows of one or more partitions to disk, starting from the last partition,
+     * until the remaining rows and their hash fit in memory.
+     */
+    private void spill()
+    {
+        if (spillWriter == null) {
+            spillWriter = new PartitionedSpillWriter(spillPath.get(), getTupleInfos());
+        }
+
+        boolean reserved = false;
+        while (!reserved && spilledPartitionCount < PARTITION_COUNT) {
+            spilledPartitions[PARTITION_COUNT - 1 - spilledPartitionCount] = true;
+            spilledPartitionCount++;
+
+            // move the rows that are not spilled to a new index
+            int[] positionHashCodes = hashPositions(pagesIndex, hashChannel, precomputedHashChannel);
+            PagesIndex remaining = new PagesIndex(getTupleInfos(), expectedPositions, operatorContext);
+            PageBuilder pageBuilder = new PageBuilder(getTupleInfos());
+            reserved = true;
+            for (int position = 0; position < positionHashCodes.length; position++) {
+                int partition = getPartition(positionHashCodes[position]);
+                if (spilledPartitions[partition]) {
+                    spillWriter.appendRow(partition, pagesIndex, position);
+                    continue;
+                }
+                for (int channel = 0; channel < getTupleInfos().size(); channel++) {
+                    pagesIndex.appendTupleTo(channel, position, pageBuilder.getBlockBuilder(channel));
+                }
+                if (pageBuilder.isFull()) {
+                    reserved = remaining.tryAddPage(pageBuilder.build());
+                    pageBuilder.reset();
+                }
+            }
+            if (!pageBuilder.isEmpty()) {
+                reserved = remaining.tryAddPage(pageBuilder.build());
+            }
+            pagesIndex = remaining;
+            reserved = reserved && reserveHash();
+        }
+    }
+
+    /**
+     * Releases the spill files of the build rows, which are still open when the operator is dropped
+     * before it finishes.
+     */
+    @Override
+    public void close()
+    {
+        if (spillWriter != null) {
+            spillWriter.close();
+            spillWriter = null;
+        }
+    }
+
+    private int hashCurrentPosition(BlockCursor[] cursors)
+    {
+        if (precomputedHashChannel.isPresent()) {
+            return (int) cursors[precomputedHashChannel.get()].getLong(0);
+        }
+        return ChannelHash.hashCurrentPosition(cursors[hashChannel]);
+    }
+
+    private static boolean advanceNextPosition(BlockCursor[] cursors)
+    {
+        boolean advanced = cursors[0].advanceNextPosition();
+        for (int i = 1; i < cursors.length; i++) {
+            checkState(advanced == cursors[i].advanceNextPosition(), "Page channels have different position counts");
+        }
+        return advanced;
+    }
+
+    private static int[] hashPositions(PagesIndex pagesIndex, int hashChannel, Optional<Integer> precomputedHashChannel)
+    {
+        if (precomputedHashChannel.isPresent()) {
+            return ChannelHash.readPrecomputedHashCodes(pagesIndex.getIndex(precomputedHashChannel.get()));
+        }
+        return ChannelHash.hashPositions(pagesIndex.getIndex(hashChannel));
+    }
+
     @Override
     public Page getOutput()
     {
@@ -17,27 +17,41 @@ import com.facebook.presto.block.BlockCursor;
 import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import com.facebook.presto.operator.HashBuilderOperator.HashSupplier;
 import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.io.Closeable;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import static com.facebook.presto.util.MoreFutures.tryGetUnchecked;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 public class HashJoinOperator
-        implements Operator
+        implements Operator, Closeable
 {
     public static HashJoinOperatorFactory innerJoin(int operatorId, HashSupplier hashSupplier, List<TupleInfo> probeTupleInfos, int probeJoinChannel)
     {
-        return new HashJoinOperatorFactory(operatorId, hashSupplier, probeTupleInfos, probeJoinChannel, false);
+        return innerJoin(operatorId, hashSupplier, probeTupleInfos, probeJoinChannel, Optional.<Integer>absent());
+    }
+
+    public static HashJoinOperatorFactory innerJoin(int operatorId, HashSupplier hashSupplier, List<TupleInfo> probeTupleInfos, int probeJoinChannel, Optional<Integer> probeHashChannel)
+    {
+        return new HashJoinOperatorFactory(operatorId, hashSupplier, probeTupleInfos, probeJoinChannel, probeHashChannel, false);
     }
 
     public static HashJoinOperatorFactory outerJoin(int operatorId, HashSupplier hashSupplier, List<TupleInfo> probeTupleInfos, int probeJoinChannel)
     {
-        return new HashJoinOperatorFactory(operatorId, hashSupplier, probeTupleInfos, probeJoinChannel, true);
+        return outerJoin(operatorId, hashSupplier, probeTupleInfos, probeJoinChannel, Optional.<Integer>absent());
+    }
+
+    public static HashJoinOperatorFactory outerJoin(int operatorId, HashSupplier hashSupplier, List<TupleInfo> probeTupleInfos, int probeJoinChannel, Optional<Integer> probeHashChannel)
+    {
+        return new HashJoinOperatorFactory(operatorId, hashSupplier, probeTupleInfos, probeJoinChannel, probeHashChannel, true);
     }
 
     public static class HashJoinOperatorFactory
@@ -47,16 +61,23 @@ public class HashJoinOperator
         private final HashSupplier hashSupplier;
         private final List<TupleInfo> probeTupleInfos;
         private final int probeJoinChannel;
+        private final Optional<Integer> probeHashChannel;
         private final boolean enableOuterJoin;
         private final List<TupleInfo> tupleInfos;
         private boolean closed;
 
         public HashJoinOperatorFactory(int operatorId, HashSupplier hashSupplier, List<TupleInfo> probeTupleInfos, int probeJoinChannel, boolean enableOuterJoin)
+        {
+            this(operatorId, hashSupplier, probeTupleInfos, probeJoinChannel, Optional.<Integer>absent(), enableOuterJoin);
+        }
+
+        public HashJoinOperatorFactory(int operatorId, HashSupplier hashSupplier, List<TupleInfo> probeTupleInfos, int probeJoinChannel, Optional<Integer> probeHashChannel, boolean enableOuterJoin)
         {
             this.operatorId = operatorId;
             this.hashSupplier = hashSupplier;
             this.probeTupleInfos = probeTupleInfos;
             this.probeJoinChannel = probeJoinChannel;
+            this.probeHashChannel = checkNotNull(probeHashChannel, "probeHashChannel is null");
             this.enableOuterJoin = enableOuterJoin;
 
             this.tupleInfos = ImmutableList.<TupleInfo>builder()
@@ -76,21 +97,28 @@ public class HashJoinOperator
         {
             checkState(!closed, "Factory is already closed");
             OperatorContext operatorContext = driverContext.addOperatorContext(operatorId, HashJoinOperator.class.getSimpleName());
-            return new HashJoinOperator(operatorContext, hashSupplier, probeTupleInfos, probeJoinChannel, enableOuterJoin);
+            return new HashJoinOperator(operatorContext, hashSupplier, probeTupleInfos, probeJoinChannel, probeHashChannel, enableOuterJoin);
         }
 
         @Override
         public void close()
         {
+            if (closed) {
+                return;
+            }
             closed = true;
+            hashSupplier.noMoreProbeOperators();
         }
     }
 
     private final ListenableFuture<SourceHash> sourceHashFuture;
+    private final HashSupplier hashSupplier;
 
     private final OperatorContext operatorContext;
+    private final List<TupleInfo> probeTupleInfos;
     private final int probeJoinChannel;
     private final int probeJoinChannelFieldCount;
+    private final Optional<Integer> probeHashChannel;
     private final boolean enableOuterJoin;
     private final List<TupleInfo> tupleInfos;
 
@@ -102,7 +130,28 @@ public class HashJoinOperator
     private boolean finishing;
     private int joinPosition = -1;
 
+    // probe rows of the partitions the build side spilled are joined after all input has been joined
+    private final boolean[] reservedSpilledPartitions = new boolean[PartitionedSpillWriter.PARTITION_COUNT];
+    private PartitionedSpillWriter probeSpillWriter;
+    private boolean currentPositionSpilled;
+    private Iterator<Map.Entry<Integer, SpillFile>> spilledProbePartitions;
+    private int spilledProbePartitionId;
+    private SpillFile spilledProbePartition;
+    private Iterator<Page> spilledProbePages;
+    private ListenableFuture<?> spilledPartitionLoaded;
+
+    private boolean closed;
+
     public HashJoinOperator(OperatorContext operatorContext, HashSupplier hashSupplier, List<TupleInfo> probeTupleInfos, int probeJoinChannel, boolean enableOuterJoin)
+    {
+        this(operatorContext, hashSupplier, probeTupleInfos, probeJoinChannel, Optional.<Integer>absent(), enableOuterJoin);
+    }
+
+    /**
+     * @param probeHashChannel if present, a BIGINT channel with the hash code of the join key of each probe row,
+     * which is used instead of hashing the key; the hash must then be built with precomputed hash codes also
+     */
+    public HashJoinOperator(OperatorContext operatorContext, HashSupplier hashSupplier, List<TupleInfo> probeTupleInfos, int probeJoinChannel, Optional<Integer> probeHashChannel, boolean enableOuterJoin)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
 
@@ -112,8 +161,11 @@ public class HashJoinOperator
         Preconditions.checkArgument(probeJoinChannel >= 0, "probeJoinChannel is negative");
 
         this.sourceHashFuture = hashSupplier.getSourceHash();
+        this.hashSupplier = hashSupplier;
+        this.probeTupleInfos = ImmutableList.copyOf(probeTupleInfos);
         this.probeJoinChannel = probeJoinChannel;
         this.probeJoinChannelFieldCount = probeTupleInfos.get(probeJoinChannel).getFieldCount();
+        this.probeHashChannel = checkNotNull(probeHashChannel, "probeHashChannel is null");
         this.enableOuterJoin = enableOuterJoin;
 
         this.tupleInfos = ImmutableList.<TupleInfo>builder()
@@ -123,6 +175,8 @@ public class HashJoinOperator
         this.pageBuilder = new PageBuilder(tupleInfos);
 
         this.cursors = new BlockCursor[probeTupleInfos.size()];
+
+        hashSupplier.addProbeOperator();
     }
 
     @Override
@@ -146,7 +200,7 @@ public class HashJoinOperator
     @Override
     public boolean isFinished()
     {
-        boolean finished = finishing && cursors[0] == null && pageBuilder.isEmpty();
+        boolean finished = finishing && cursors[0] == null && pageBuilder.isEmpty() && !hasSpilledProbeRows();
 
         // if finished drop references so memory is freed early
         if (finished) {
@@ -163,6 +217,9 @@ public class HashJoinOperator
     @Override
     public ListenableFuture<?> isBlocked()
     {
+        if (isWaitingForSpilledPartition()) {
+            return spilledPartitionLoaded;
+        }
         return sourceHashFuture;
     }
 
@@ -187,6 +244,11 @@ public class HashJoinOperator
         checkState(hash != null, "Hash has not been built yet");
         checkState(cursors[0] == null, "Current page has not been completely processed yet");
 
+        openProbePage(page);
+    }
+
+    private void openProbePage(Page page)
+    {
         // open cursors
         for (int i = 0; i < page.getChannelCount(); i++) {
             cursors[i] = page.getBlock(i).cursor();
@@ -203,24 +265,32 @@ public class HashJoinOperator
     @Override
     public Page getOutput()
     {
-        // join probe page with the hash
-        if (cursors[0] != null) {
-            while (joinCurrentPosition()) {
-                if (!advanceProbePosition()) {
-                    break;
-                }
-                if (!outerJoinCurrentPosition()) {
-                    break;
+        do {
+            // after all input has been joined, join the spilled probe rows
+            if (finishing && cursors[0] == null) {
+                openSpilledProbePage();
+            }
+
+            // join probe page with the hash
+            if (cursors[0] != null) {
+                while (joinCurrentPosition()) {
+                    if (!advanceProbePosition()) {
+                        break;
+                    }
+                    if (!outerJoinCurrentPosition()) {
+                        break;
+                    }
                 }
             }
-        }
 
-        // only flush full pages unless we are done
-        if (pageBuilder.isFull() || (finishing && !pageBuilder.isEmpty() && cursors[0] == null)) {
-            Page page = pageBuilder.build();
-            pageBuilder.reset();
-            return page;
+            // only flush full pages unless we are done
+            if (pageBuilder.isFull() || (finishing && !pageBuilder.isEmpty() && cursors[0] == null && !hasSpilledProbeRows())) {
+                Page page = pageBuilder.build();
+                pageBuilder.reset();
+                return page;
+            }
         }
+        while (finishing && cursors[0] == null && hasSpilledProbeRows() && !isWaitingForSpilledPartition());
 
         return null;
     }
@@ -259,10 +329,25 @@ public class HashJoinOperator
         }
 
         // update join position
+        currentPositionSpilled = false;
         if (tupleContainsNull(cursors[probeJoinChannel])) {
             // Null values will never match in an equijoin, so just omit them from the probe side
             joinPosition = -1;
         }
+        else if (hash.hasSpilledPartitions()) {
+            int hashCode = hashCurrentPosition();
+            int partition = PartitionedSpillWriter.getPartition(hashCode);
+            if (hash.getSpilledPartitions().containsKey(partition)) {
+                spillCurrentPosition(partition);
+                joinPosition = -1;
+            }
+            else {
+                joinPosition = hash.getJoinPosition(cursors[probeJoinChannel], hashCode);
+            }
+        }
+        else if (probeHashChannel.isPresent()) {
+            joinPosition = hash.getJoinPosition(cursors[probeJoinChannel], (int) cursors[probeHashChannel.get()].getLong(0));
+        }
         else {
             joinPosition = hash.getJoinPosition(cursors[probeJoinChannel]);
         }
@@ -272,7 +357,7 @@ public class HashJoinOperator
 
     private boolean outerJoinCurrentPosition()
     {
-        if (enableOuterJoin && joinPosition < 0) {
+        if (enableOuterJoin && joinPosition < 0 && !currentPositionSpilled) {
             // write probe columns
             int outputIndex = 0;
             for (BlockCursor cursor : cursors) {
@@ -294,6 +379,134 @@ public class HashJoinOperator
         return true;
     }
 
+    private boolean hasSpilledProbeRows()
+    {
+        return probeSpillWriter != null || spilledProbePartitions != null;
+    }
+
+    private int hashCurrentPosition()
+    {
+        if (probeHashChannel.isPresent()) {
+            return (int) cursors[probeHashChannel.get()].getLong(0);
+        }
+        return ChannelHash.hashCurrentPosition(cursors[probeJoinChannel]);
+    }
+
+    private void spillCurrentPosition(int partition)
+    {
+        if (probeSpillWriter == null) {
+            probeSpillWriter = new PartitionedSpillWriter(hash.getSpillPath(), probeTupleInfos);
+        }
+        if (!reservedSpilledPartitions[partition]) {
+            // the spilled build rows of the partition are loaded once for all probe operators that need them
+            hashSupplier.reserveSpilledPartition(partition);
+            reservedSpilledPartitions[partition] = true;
+        }
+        probeSpillWriter.appendRow(partition, cursors);
+        currentPositionSpilled = true;
+    }
+
+    /**
+     * After all input has been joined with the hash, joins the spilled probe rows of each partition with the
+     * spilled build rows of the partition, one partition at a time.  The partitions are joined in the same order
+     * by all probe operators, so the probe operators share each loaded partition.
+     */
+    private void openSpilledProbePage()
+    {
+        if (probeSpillWriter != null) {
+            spilledProbePartitions = probeSpillWriter.finish().entrySet().iterator();
+            probeSpillWriter = null;
+        }
+
+        while (spilledProbePartitions != null) {
+            if (spilledProbePartition != null) {
+                if (hash == null && !loadSpilledPartition()) {
+                    // wait for memory to load the build rows of the partition
+                    return;
+                }
+                if (spilledProbePages.hasNext()) {
+                    openProbePage(spilledProbePages.next());
+                    return;
+                }
+                closeSpilledProbePartition();
+            }
+
+            if (!spilledProbePartitions.hasNext()) {
+                spilledProbePartitions = null;
+                return;
+            }
+
+            Map.Entry<Integer, SpillFile> partition = spilledProbePartitions.next();
+            spilledProbePartitionId = partition.getKey();
+            spilledProbePartition = partition.getValue();
+            spilledProbePages = spilledProbePartition.readPages();
+            hash = null;
+            hashSupplier.acquireSpilledPartition(spilledProbePartitionId);
+        }
+    }
+
+    private boolean loadSpilledPartition()
+    {
+        spilledPartitionLoaded = hashSupplier.loadSpilledPartition(spilledProbePartitionId, operatorContext);
+        if (!spilledPartitionLoaded.isDone()) {
+            return false;
+        }
+        hash = hashSupplier.getSpilledPartition(spilledProbePartitionId);
+        return true;
+    }
+
+    private boolean isWaitingForSpilledPartition()
+    {
+        return spilledPartitionLoaded != null && !spilledPartitionLoaded.isDone();
+    }
+
+    private void closeSpilledProbePartition()
+    {
+        spilledProbePartition.close();
+        spilledProbePartition = null;
+        spilledProbePages = null;
+        spilledPartitionLoaded = null;
+        hash = null;
+        reservedSpilledPartitions[spilledProbePartitionId] = false;
+        hashSupplier.finishSpilledPartition(spilledProbePartitionId);
+    }
+
+    /**
+     * Releases the spill files and the spilled build partitions, which are still held when the operator is
+     * dropped before it finishes.
+     */
+    @Override
+    public void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (probeSpillWriter != null) {
+            probeSpillWriter.close();
+            probeSpillWriter = null;
+        }
+        if (spilledProbePartition != null) {
+            closeSpilledProbePartition();
+        }
+        if (spilledProbePartitions != null) {
+            while (spilledProbePartitions.hasNext()) {
+                spilledProbePartitions.next().getValue().close();
+            }
+            spilledProbePartitions = null;
+        }
+        hash = null;
+
+        for (int partition = 0; partition < reservedSpilledPartitions.length; partition++) {
+            if (reservedSpilledPartitions[partition]) {
+                reservedSpilledPartitions[partition] = false;
+                hashSupplier.releaseSpilledPartition(partition);
+            }
+        }
+        hashSupplier.probeOperatorClosed();
+    }
+
     public boolean advanceNextCursorPosition()
     {
         // advance all cursors
@@ -14,9 +14,11 @@
 package com.facebook.presto.operator;
 
 import com.facebook.presto.serde.PagesSerde;
+import com.facebook.presto.util.CpuTimer;
 import com.google.common.base.Objects;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.CountingInputStream;
 import com.google.common.net.MediaType;
 import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.FutureCallback;
@@ -43,15 +45,21 @@ import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.facebook.presto.PrestoMediaTypes.PRESTO_PAGES;
+import static com.facebook.presto.PrestoMediaTypes.PRESTO_PAGES_SNAPPY;
+import static com.facebook.presto.PrestoMediaTypes.PRESTO_PAGES_SNAPPY_TYPE;
 import static com.facebook.presto.PrestoMediaTypes.PRESTO_PAGES_TYPE;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_MAX_SIZE;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_SEQUENCE_ID;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.net.HttpHeaders.ACCEPT;
 import static com.google.common.net.HttpHeaders.CONTENT_TYPE;
 import static io.airlift.http.client.Request.Builder.prepareDelete;
 import static io.airlift.http.client.Request.Builder.prepareGet;
 import static io.airlift.http.client.StatusResponseHandler.createStatusResponseHandler;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 @ThreadSafe
 public class HttpPageBufferClient
@@ -81,6 +89,7 @@ public class HttpPageBufferClient
     private final DataSize maxResponseSize;
     private final URI location;
     private final ClientCallback clientCallback;
+    private final boolean compressionEnabled;
     @GuardedBy("this")
     private boolean closed;
     @GuardedBy("this")
@@ -95,12 +104,27 @@ public class HttpPageBufferClient
     private final AtomicInteger requestsScheduled = new AtomicInteger();
     private final AtomicInteger requestsCompleted = new AtomicInteger();
 
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong uncompressedBytesReceived = new AtomicLong();
+    private final AtomicLong decodeCpuNanos = new AtomicLong();
+
     public HttpPageBufferClient(AsyncHttpClient httpClient, DataSize maxResponseSize, URI location, ClientCallback clientCallback, Executor executor)
+    {
+        this(httpClient, maxResponseSize, location, clientCallback, false, executor);
+    }
+
+    public HttpPageBufferClient(AsyncHttpClient httpClient,
+            DataSize maxResponseSize,
+            URI location,
+            ClientCallback clientCallback,
+            boolean compressionEnabled,
+            Executor executor)
     {
         this.httpClient = checkNotNull(httpClient, "httpClient is null");
         this.maxResponseSize = checkNotNull(maxResponseSize, "maxResponseSize is null");
         this.location = checkNotNull(location, "location is null");
         this.clientCallback = checkNotNull(clientCallback, "clientCallback is null");
+        this.compressionEnabled = compressionEnabled;
         this.executor = checkNotNull(executor, "executor is null");
     }
 
@@ -123,6 +147,27 @@ public class HttpPageBufferClient
         return new PageBufferClientStatus(location, state, lastUpdate, pagesReceived.get(), requestsScheduled.get(), requestsCompleted.get(), httpRequestState);
     }
 
+    /**
+     * Bytes of page data received over the network, which are compressed if the server supports compression.
+     */
+    public long getBytesReceived()
+    {
+        return bytesReceived.get();
+    }
+
+    public long getUncompressedBytesReceived()
+    {
+        return uncompressedBytesReceived.get();
+    }
+
+    /**
+     * CPU time spent decompressing and deserializing the received pages.
+     */
+    public long getDecodeCpuNanos()
+    {
+        return decodeCpuNanos.get();
+    }
+
     public synchronized boolean isRunning()
     {
         return future != null;
@@ -170,9 +215,14 @@ public class HttpPageBufferClient
         }
 
         final URI uri = HttpUriBuilder.uriBuilderFrom(location).appendPath(String.valueOf(sequenceId)).build();
-        future = httpClient.executeAsync(prepareGet()
+        Request.Builder request = prepareGet()
                 .setHeader(PRESTO_MAX_SIZE, maxResponseSize.toString())
-                .setUri(uri).build(), new PageResponseHandler());
+                .setUri(uri);
+        if (compressionEnabled) {
+            // servers that do not support compression fall back to uncompressed pages
+            request.setHeader(ACCEPT, PRESTO_PAGES_SNAPPY + ", " + PRESTO_PAGES + "; q=0.5");
+        }
+        future = httpClient.executeAsync(request.build(), new PageResponseHandler());
 
         Futures.addCallback(future, new FutureCallback<PagesResponse>()
         {
@@ -184,6 +234,9 @@ public class HttpPageBufferClient
                 }
 
                 requestsCompleted.incrementAndGet();
+                bytesReceived.addAndGet(result.getResponseBytes());
+                uncompressedBytesReceived.addAndGet(result.getUncompressedBytes());
+                decodeCpuNanos.addAndGet(result.getDecodeCpuNanos());
 
                 List<Page> pages;
                 synchronized (HttpPageBufferClient.this) {
@@ -318,15 +371,31 @@ public class HttpPageBufferClient
             }
 
             String contentType = response.getHeader(CONTENT_TYPE);
-            if (contentType == null || !MediaType.parse(contentType).is(PRESTO_PAGES_TYPE)) {
+            MediaType mediaType = contentType == null ? null : MediaType.parse(contentType);
+            if (mediaType == null || !(mediaType.is(PRESTO_PAGES_TYPE) || mediaType.is(PRESTO_PAGES_SNAPPY_TYPE))) {
                 // this can happen when an error page is returned, but is unlikely given the above 200
                 log.debug("Expected %s response from server but got %s: uri=%s, response=%s", PRESTO_PAGES_TYPE, contentType, request.getUri(), response);
                 return PagesResponse.createEmptyPagesResponse(startingSequenceId);
             }
 
             try {
-                InputStreamSliceInput sliceInput = new InputStreamSliceInput(response.getInputStream());
-                return PagesResponse.createPagesResponse(startingSequenceId, ImmutableList.copyOf(PagesSerde.readPages(sliceInput)));
+                CpuTimer cpuTimer = new CpuTimer();
+                CountingInputStream input = new CountingInputStream(response.getInputStream());
+                InputStreamSliceInput sliceInput = new InputStreamSliceInput(input);
+                List<Page> pages;
+                if (mediaType.is(PRESTO_PAGES_SNAPPY_TYPE)) {
+                    pages = ImmutableList.copyOf(PagesSerde.readCompressedPages(sliceInput));
+                }
+                else {
+                    pages = ImmutableList.copyOf(PagesSerde.readPages(sliceInput));
+                }
+                long decodeCpuNanos = cpuTimer.elapsedTime().getCpu().roundTo(NANOSECONDS);
+
+                long uncompressedBytes = 0;
+                for (Page page : pages) {
+                    uncompressedBytes += page.getDataSize().toBytes();
+                }
+                return PagesResponse.createPagesResponse(startingSequenceId, pages, input.getCount(), uncompressedBytes, decodeCpuNanos);
             }
             catch (IOException e) {
                 throw Throwables.propagate(e);
@@ -341,6 +410,11 @@ public class HttpPageBufferClient
             return new PagesResponse(startingSequenceId, pages, false);
         }
 
+        public static PagesResponse createPagesResponse(long startingSequenceId, Iterable<Page> pages, long responseBytes, long uncompressedBytes, long decodeCpuNanos)
+        {
+            return new PagesResponse(startingSequenceId, pages, false, responseBytes, uncompressedBytes, decodeCpuNanos);
+        }
+
         public static PagesResponse createEmptyPagesResponse(long startingSequenceId)
         {
             return new PagesResponse(startingSequenceId, ImmutableList.<Page>of(), false);
@@ -354,12 +428,23 @@ public class HttpPageBufferClient
         private final long startingSequenceId;
         private final List<Page> pages;
         private final boolean clientClosed;
+        private final long responseBytes;
+        private final long uncompressedBytes;
+        private final long decodeCpuNanos;
 
         public PagesResponse(long startingSequenceId, Iterable<Page> pages, boolean clientClosed)
+        {
+            this(startingSequenceId, pages, clientClosed, 0, 0, 0);
+        }
+
+        public PagesResponse(long startingSequenceId, Iterable<Page> pages, boolean clientClosed, long responseBytes, long uncompressedBytes, long decodeCpuNanos)
         {
             this.startingSequenceId = startingSequenceId;
             this.pages = ImmutableList.copyOf(pages);
             this.clientClosed = clientClosed;
+            this.responseBytes = responseBytes;
+            this.uncompressedBytes = uncompressedBytes;
+            this.decodeCpuNanos = decodeCpuNanos;
         }
 
         public List<Page> getPages(long sequenceId)
@@ -387,6 +472,21 @@ public class HttpPageBufferClient
             return clientClosed;
         }
 
+        public long getResponseBytes()
+        {
+            return responseBytes;
+        }
+
+        public long getUncompressedBytes()
+        {
+            return uncompressedBytes;
+        }
+
+        public long getDecodeCpuNanos()
+        {
+            return decodeCpuNanos;
+        }
+
         @Override
         public String toString()
         {
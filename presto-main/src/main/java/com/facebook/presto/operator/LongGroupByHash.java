@@ -0,0 +1,187 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.tuple.TupleInfo;
+import com.facebook.presto.tuple.TupleInfo.Type;
+import io.airlift.slice.Slice;
+import it.unimi.dsi.fastutil.HashCommon;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static io.airlift.slice.SizeOf.sizeOf;
+
+/**
+ * Group by hash for a key tuple with a single BIGINT or DOUBLE field.  The key values are
+ * stored inline in an open addressing table, so a lookup does not touch the key slices.
+ * Doubles are compared by their canonical bits, and the null key is a group of its own.
+ */
+public class LongGroupByHash
+        implements GroupByHash
+{
+    private static final float FILL_RATIO = 0.75f;
+
+    private final TupleInfo tupleInfo;
+    private final boolean isDouble;
+
+    private int mask;
+    private int maxFill;
+    private long[] values;
+    private int[] groupIds;
+
+    private long[] groupValues;
+    private int groupCount;
+    private int nullGroupId = -1;
+
+    public static boolean isSupportedType(TupleInfo tupleInfo)
+    {
+        if (tupleInfo.getFieldCount() != 1) {
+            return false;
+        }
+        Type type = tupleInfo.getTypes().get(0);
+        return type == Type.FIXED_INT_64 || type == Type.DOUBLE;
+    }
+
+    public LongGroupByHash(TupleInfo tupleInfo, int expectedGroups)
+    {
+        this.tupleInfo = checkNotNull(tupleInfo, "tupleInfo is null");
+        checkArgument(isSupportedType(tupleInfo), "Unsupported key type %s", tupleInfo);
+        this.isDouble = tupleInfo.getTypes().get(0) == Type.DOUBLE;
+
+        int hashSize = HashCommon.arraySize(Math.max(expectedGroups, 1), FILL_RATIO);
+        mask = hashSize - 1;
+        maxFill = HashCommon.maxFill(hashSize, FILL_RATIO);
+        values = new long[hashSize];
+        groupIds = new int[hashSize];
+        Arrays.fill(groupIds, -1);
+
+        groupValues = new long[maxFill];
+    }
+
+    @Override
+    public TupleInfo getTupleInfo()
+    {
+        return tupleInfo;
+    }
+
+    @Override
+    public long getEstimatedSize()
+    {
+        return sizeOf(values) + sizeOf(groupIds) + sizeOf(groupValues);
+    }
+
+    @Override
+    public int getGroupCount()
+    {
+        return groupCount;
+    }
+
+    @Override
+    public int putIfAbsent(Slice slice, int offset, int hashCode)
+    {
+        // hashing the long value is cheaper than using the hash code
+        return putIfAbsent(slice, offset);
+    }
+
+    @Override
+    public int putIfAbsent(Slice slice, int offset)
+    {
+        if (tupleInfo.isNull(slice, offset, 0)) {
+            if (nullGroupId < 0) {
+                nullGroupId = addGroup(0);
+            }
+            return nullGroupId;
+        }
+
+        long value;
+        if (isDouble) {
+            value = Double.doubleToLongBits(tupleInfo.getDouble(slice, offset, 0));
+        }
+        else {
+            value = tupleInfo.getLong(slice, offset, 0);
+        }
+
+        int hashPosition = getHashPosition(value);
+        while (groupIds[hashPosition] != -1) {
+            if (values[hashPosition] == value) {
+                return groupIds[hashPosition];
+            }
+            hashPosition = (hashPosition + 1) & mask;
+        }
+
+        int groupId = addGroup(value);
+        values[hashPosition] = value;
+        groupIds[hashPosition] = groupId;
+
+        if (groupCount >= maxFill) {
+            rehash();
+        }
+        return groupId;
+    }
+
+    private int addGroup(long value)
+    {
+        int groupId = groupCount++;
+        if (groupId == groupValues.length) {
+            groupValues = Arrays.copyOf(groupValues, groupValues.length * 2);
+        }
+        groupValues[groupId] = value;
+        return groupId;
+    }
+
+    private void rehash()
+    {
+        int hashSize = (mask + 1) * 2;
+        mask = hashSize - 1;
+        maxFill = HashCommon.maxFill(hashSize, FILL_RATIO);
+        values = new long[hashSize];
+        groupIds = new int[hashSize];
+        Arrays.fill(groupIds, -1);
+
+        for (int groupId = 0; groupId < groupCount; groupId++) {
+            if (groupId == nullGroupId) {
+                continue;
+            }
+            long value = groupValues[groupId];
+            int hashPosition = getHashPosition(value);
+            while (groupIds[hashPosition] != -1) {
+                hashPosition = (hashPosition + 1) & mask;
+            }
+            values[hashPosition] = value;
+            groupIds[hashPosition] = groupId;
+        }
+    }
+
+    private int getHashPosition(long value)
+    {
+        return (int) HashCommon.murmurHash3(value) & mask;
+    }
+
+    @Override
+    public void appendGroupKeyTo(int groupId, BlockBuilder output)
+    {
+        if (groupId == nullGroupId) {
+            output.appendNull();
+        }
+        else if (isDouble) {
+            output.append(Double.longBitsToDouble(groupValues[groupId]));
+        }
+        else {
+            output.append(groupValues[groupId]);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.spi.Split;
+import com.facebook.presto.split.RemoteSplit;
+import com.facebook.presto.sql.planner.plan.PlanNodeId;
+import com.facebook.presto.sql.tree.SortItem;
+import com.facebook.presto.tuple.FieldOrderedTupleComparator;
+import com.facebook.presto.tuple.TupleInfo;
+import com.facebook.presto.tuple.TupleReadable;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Exchange that merges sources which are each already sorted, producing a single sorted stream.
+ * Every source location is read with a separate {@link ExchangeClient}, so the next row of each
+ * source is known, and a row is only output once every unfinished source has a current row.
+ * The clients are created when all sources are known, and share the buffer size of a single client.
+ */
+public class MergingExchangeOperator
+        implements SourceOperator
+{
+    public static class MergingExchangeOperatorFactory
+            implements SourceOperatorFactory
+    {
+        private final int operatorId;
+        private final PlanNodeId sourceId;
+        private final Supplier<ExchangeClient> exchangeClientSupplier;
+        private final List<TupleInfo> tupleInfos;
+        private final List<Integer> sortChannels;
+        private final List<Integer> sortFields;
+        private final List<SortItem.Ordering> sortOrders;
+        private boolean closed;
+
+        public MergingExchangeOperatorFactory(
+                int operatorId,
+                PlanNodeId sourceId,
+                Supplier<ExchangeClient> exchangeClientSupplier,
+                List<TupleInfo> tupleInfos,
+                List<Integer> sortChannels,
+                List<Integer> sortFields,
+                List<SortItem.Ordering> sortOrders)
+        {
+            this.operatorId = operatorId;
+            this.sourceId = checkNotNull(sourceId, "sourceId is null");
+            this.exchangeClientSupplier = checkNotNull(exchangeClientSupplier, "exchangeClientSupplier is null");
+            this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
+            this.sortChannels = ImmutableList.copyOf(checkNotNull(sortChannels, "sortChannels is null"));
+            this.sortFields = ImmutableList.copyOf(checkNotNull(sortFields, "sortFields is null"));
+            this.sortOrders = ImmutableList.copyOf(checkNotNull(sortOrders, "sortOrders is null"));
+            checkArgument(sortChannels.size() == sortFields.size() && sortChannels.size() == sortOrders.size(), "sortChannels, sortFields and sortOrders sizes don't match");
+        }
+
+        @Override
+        public PlanNodeId getSourceId()
+        {
+            return sourceId;
+        }
+
+        @Override
+        public List<TupleInfo> getTupleInfos()
+        {
+            return tupleInfos;
+        }
+
+        @Override
+        public SourceOperator createOperator(DriverContext driverContext)
+        {
+            checkState(!closed, "Factory is already closed");
+
+            OperatorContext operatorContext = driverContext.addOperatorContext(operatorId, MergingExchangeOperator.class.getSimpleName());
+            return new MergingExchangeOperator(
+                    operatorContext,
+                    tupleInfos,
+                    sourceId,
+                    exchangeClientSupplier,
+                    sortChannels,
+                    sortFields,
+                    sortOrders);
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+    }
+
+    private final OperatorContext operatorContext;
+    private final PlanNodeId sourceId;
+    private final Supplier<ExchangeClient> exchangeClientSupplier;
+    private final List<TupleInfo> tupleInfos;
+    private final PageBuilder pageBuilder;
+
+    private final Set<URI> locations = new LinkedHashSet<>();
+    private final List<MergeSource> sources = new ArrayList<>();
+    private final PriorityQueue<MergeSource> queue;
+
+    // sources that are not in the queue because they do not have a current row
+    private final List<MergeSource> pendingSources = new ArrayList<>();
+
+    private final SettableFuture<?> noMoreSplitsFuture = SettableFuture.create();
+    private boolean noMoreSplits;
+    private boolean finished;
+
+    public MergingExchangeOperator(
+            OperatorContext operatorContext,
+            List<TupleInfo> tupleInfos,
+            PlanNodeId sourceId,
+            Supplier<ExchangeClient> exchangeClientSupplier,
+            List<Integer> sortChannels,
+            List<Integer> sortFields,
+            List<SortItem.Ordering> sortOrders)
+    {
+        this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
+        this.sourceId = checkNotNull(sourceId, "sourceId is null");
+        this.exchangeClientSupplier = checkNotNull(exchangeClientSupplier, "exchangeClientSupplier is null");
+        this.tupleInfos = checkNotNull(tupleInfos, "tupleInfos is null");
+        this.pageBuilder = new PageBuilder(tupleInfos);
+        this.queue = new PriorityQueue<>(11, new MergeSourceComparator(sortChannels, sortFields, sortOrders));
+
+        operatorContext.setInfoSupplier(new Supplier<Object>()
+        {
+            @Override
+            public Object get()
+            {
+                ImmutableList.Builder<ExchangeClientStatus> statuses = ImmutableList.builder();
+                synchronized (sources) {
+                    for (MergeSource source : sources) {
+                        statuses.add(source.getExchangeClient().getStatus());
+                    }
+                }
+                return statuses.build();
+            }
+        });
+    }
+
+    @Override
+    public PlanNodeId getSourceId()
+    {
+        return sourceId;
+    }
+
+    @Override
+    public void addSplit(Split split)
+    {
+        checkNotNull(split, "split is null");
+        checkArgument(split instanceof RemoteSplit, "split is not a remote split");
+        checkState(!noMoreSplits, "No more splits already set");
+
+        locations.add(((RemoteSplit) split).getLocation());
+    }
+
+    @Override
+    public void noMoreSplits()
+    {
+        if (noMoreSplits) {
+            return;
+        }
+        noMoreSplits = true;
+
+        if (!finished) {
+            for (URI location : locations) {
+                ExchangeClient exchangeClient = exchangeClientSupplier.get();
+                exchangeClient.shareBuffer(locations.size());
+                exchangeClient.addLocation(location);
+                exchangeClient.noMoreLocations();
+
+                MergeSource source = new MergeSource(exchangeClient);
+                synchronized (sources) {
+                    sources.add(source);
+                }
+                pendingSources.add(source);
+            }
+        }
+        noMoreSplitsFuture.set(null);
+    }
+
+    @Override
+    public OperatorContext getOperatorContext()
+    {
+        return operatorContext;
+    }
+
+    @Override
+    public List<TupleInfo> getTupleInfos()
+    {
+        return tupleInfos;
+    }
+
+    @Override
+    public void finish()
+    {
+        finished = true;
+        synchronized (sources) {
+            for (MergeSource source : sources) {
+                source.getExchangeClient().close();
+            }
+        }
+        queue.clear();
+        pendingSources.clear();
+    }
+
+    @Override
+    public boolean isFinished()
+    {
+        return finished || (noMoreSplits && pendingSources.isEmpty() && queue.isEmpty());
+    }
+
+    @Override
+    public ListenableFuture<?> isBlocked()
+    {
+        // the merge can not start until all sources are known
+        if (!noMoreSplits) {
+            return noMoreSplitsFuture;
+        }
+
+        for (MergeSource source : pendingSources) {
+            ListenableFuture<?> blocked = source.getExchangeClient().isBlocked();
+            if (!blocked.isDone()) {
+                return blocked;
+            }
+        }
+        return NOT_BLOCKED;
+    }
+
+    @Override
+    public boolean needsInput()
+    {
+        return false;
+    }
+
+    @Override
+    public void addInput(Page page)
+    {
+        throw new UnsupportedOperationException(getClass().getName() + " can not take input");
+    }
+
+    @Override
+    public Page getOutput()
+    {
+        if (finished || !noMoreSplits) {
+            return null;
+        }
+
+        pageBuilder.reset();
+        while (!pageBuilder.isFull() && fillPendingSources() && !queue.isEmpty()) {
+            MergeSource source = queue.poll();
+            BlockCursor[] cursors = source.getCursors();
+            for (int channel = 0; channel < cursors.length; channel++) {
+                cursors[channel].appendTupleTo(pageBuilder.getBlockBuilder(channel));
+            }
+            pendingSources.add(source);
+        }
+
+        if (pageBuilder.isEmpty()) {
+            return null;
+        }
+        return pageBuilder.build();
+    }
+
+    /**
+     * Moves pending sources to the queue once they have a current row, and drops finished sources.
+     *
+     * @return true if every unfinished source has a current row
+     */
+    private boolean fillPendingSources()
+    {
+        for (Iterator<MergeSource> iterator = pendingSources.iterator(); iterator.hasNext(); ) {
+            MergeSource source = iterator.next();
+            if (source.advance()) {
+                queue.add(source);
+                iterator.remove();
+            }
+            else if (source.getExchangeClient().isClosed()) {
+                iterator.remove();
+            }
+        }
+        return pendingSources.isEmpty();
+    }
+
+    private class MergeSource
+    {
+        private final ExchangeClient exchangeClient;
+        private BlockCursor[] cursors;
+
+        private MergeSource(ExchangeClient exchangeClient)
+        {
+            this.exchangeClient = exchangeClient;
+        }
+
+        public ExchangeClient getExchangeClient()
+        {
+            return exchangeClient;
+        }
+
+        public BlockCursor[] getCursors()
+        {
+            return cursors;
+        }
+
+        /**
+         * Advances to the next row, and returns false if no row is available yet or the source is finished.
+         */
+        public boolean advance()
+        {
+            while (cursors == null || !advanceCursors()) {
+                Page page = exchangeClient.pollPage();
+                if (page == null) {
+                    cursors = null;
+                    return false;
+                }
+                operatorContext.recordGeneratedInput(page.getDataSize(), page.getPositionCount());
+
+                Block[] blocks = page.getBlocks();
+                cursors = new BlockCursor[blocks.length];
+                for (int i = 0; i < blocks.length; i++) {
+                    cursors[i] = blocks[i].cursor();
+                }
+            }
+            return true;
+        }
+
+        private boolean advanceCursors()
+        {
+            boolean advanced = cursors[0].advanceNextPosition();
+            for (int i = 1; i < cursors.length; i++) {
+                checkState(cursors[i].advanceNextPosition() == advanced, "Page channels have different position counts");
+            }
+            return advanced;
+        }
+    }
+
+    private static class MergeSourceComparator
+            implements Comparator<MergeSource>
+    {
+        private final int[] sortChannels;
+        private final List<Comparator<TupleReadable>> comparators;
+
+        private MergeSourceComparator(List<Integer> sortChannels, List<Integer> sortFields, List<SortItem.Ordering> sortOrders)
+        {
+            this.sortChannels = new int[sortChannels.size()];
+            ImmutableList.Builder<Comparator<TupleReadable>> comparators = ImmutableList.builder();
+            for (int i = 0; i < sortChannels.size(); i++) {
+                this.sortChannels[i] = sortChannels.get(i);
+                comparators.add(new FieldOrderedTupleComparator(ImmutableList.of(sortFields.get(i)), ImmutableList.of(sortOrders.get(i))));
+            }
+            this.comparators = comparators.build();
+        }
+
+        @Override
+        public int compare(MergeSource left, MergeSource right)
+        {
+            for (int i = 0; i < sortChannels.length; i++) {
+                int channel = sortChannels[i];
+                int comparison = comparators.get(i).compare(left.getCursors()[channel], right.getCursors()[channel]);
+                if (comparison != 0) {
+                    return comparison;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import io.airlift.stats.CounterStat;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 import java.lang.management.ManagementFactory;
@@ -73,6 +74,7 @@ public class OperatorContext
     private final AtomicLong finishUserNanos = new AtomicLong();
 
     private final AtomicLong memoryReservation = new AtomicLong();
+    private final AtomicReference<ListenableFuture<?>> memoryFuture = new AtomicReference<>();
 
     private final AtomicReference<Supplier<Object>> infoSupplier = new AtomicReference<>();
 
@@ -95,6 +97,11 @@ public class OperatorContext
         return operatorType;
     }
 
+    public TaskContext getTaskContext()
+    {
+        return driverContext.getTaskContext();
+    }
+
     public Session getSession()
     {
         return driverContext.getSession();
@@ -188,11 +195,35 @@ public class OperatorContext
         boolean result = driverContext.reserveMemory(bytes);
         if (result) {
             memoryReservation.getAndAdd(bytes);
+            memoryFuture.set(null);
+        }
+        else {
+            memoryFuture.set(driverContext.getMemoryPoolFuture(bytes));
         }
         return result;
     }
 
+    /**
+     * Returns a future that completes when the last rejected reservation of this operator should be
+     * retried, or null if the reservation was rejected for a reason waiting will not fix.  Operators
+     * return this future from isBlocked() to wait for an exhausted node memory pool instead of failing.
+     */
+    @Nullable
+    public ListenableFuture<?> getMemoryFuture()
+    {
+        return memoryFuture.get();
+    }
+
     public synchronized long setMemoryReservation(long newMemoryReservation)
+    {
+        checkState(trySetMemoryReservation(newMemoryReservation), "Task exceeded max memory size of %s", getMaxMemorySize());
+        return newMemoryReservation;
+    }
+
+    /**
+     * Same as {@link #setMemoryReservation} but returns false instead of failing when the memory can not be reserved.
+     */
+    public synchronized boolean trySetMemoryReservation(long newMemoryReservation)
     {
         checkArgument(newMemoryReservation >= 0, "newMemoryReservation is negative");
 
@@ -200,10 +231,9 @@ public class OperatorContext
 
         // currently, operator memory is not be released
         if (delta > 0) {
-            checkState(reserveMemory(delta), "Task exceeded max memory size of %s", getMaxMemorySize());
+            return reserveMemory(delta);
         }
-
-        return newMemoryReservation;
+        return true;
     }
 
     public void setInfoSupplier(Supplier<Object> infoSupplier)
@@ -13,19 +13,35 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.operator.PagesIndex.MultiSliceFieldOrderedTupleComparator;
 import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.slice.Slice;
 import it.unimi.dsi.fastutil.booleans.BooleanArrays;
+import it.unimi.dsi.fastutil.ints.IntHeapPriorityQueue;
 
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 public class OrderByOperator
-        implements Operator
+        implements Operator, Closeable
 {
+    // each run being merged holds a page in memory, so the merge of more runs takes several passes
+    private static final int MAX_MERGE_RUNS = 16;
+
     public static class InMemoryOrderByOperatorFactory
             implements OperatorFactory
     {
@@ -36,6 +52,7 @@ public class OrderByOperator
         private final int expectedPositions;
         private final int[] sortFields;
         private final boolean[] sortOrder;
+        private final Optional<File> spillPath;
         private final List<TupleInfo> tupleInfos;
         private boolean closed;
 
@@ -64,6 +81,19 @@ public class OrderByOperator
                 int expectedPositions,
                 int[] sortFields,
                 boolean[] sortOrder)
+        {
+            this(operatorId, sourceTupleInfos, orderByChannel, outputChannels, expectedPositions, sortFields, sortOrder, Optional.<File>absent());
+        }
+
+        public InMemoryOrderByOperatorFactory(
+                int operatorId,
+                List<TupleInfo> sourceTupleInfos,
+                int orderByChannel,
+                int[] outputChannels,
+                int expectedPositions,
+                int[] sortFields,
+                boolean[] sortOrder,
+                Optional<File> spillPath)
         {
             this.operatorId = operatorId;
             this.sourceTupleInfos = ImmutableList.copyOf(checkNotNull(sourceTupleInfos, "sourceTupleInfos is null"));
@@ -72,6 +102,7 @@ public class OrderByOperator
             this.expectedPositions = expectedPositions;
             this.sortFields = checkNotNull(sortFields, "sortFields is null");
             this.sortOrder = checkNotNull(sortOrder, "sortOrder is null");
+            this.spillPath = checkNotNull(spillPath, "spillPath is null");
 
             this.tupleInfos = toTupleInfos(sourceTupleInfos, outputChannels);
         }
@@ -95,7 +126,8 @@ public class OrderByOperator
                     outputChannels,
                     expectedPositions,
                     sortFields,
-                    sortOrder);
+                    sortOrder,
+                    spillPath);
         }
 
         @Override
@@ -113,13 +145,20 @@ public class OrderByOperator
     }
 
     private final OperatorContext operatorContext;
+    private final List<TupleInfo> sourceTupleInfos;
     private final int orderByChannel;
     private final int[] sortFields;
     private final boolean[] sortOrder;
     private final int[] outputChannels;
+    private final int expectedPositions;
+    private final Optional<File> spillPath;
+    private final int maxMergeRuns;
     private final List<TupleInfo> tupleInfos;
 
-    private final PagesIndex pageIndex;
+    private PagesIndex pageIndex;
+    private final List<SpillFile> spills = new ArrayList<>();
+    private SortedRunMerger merger;
+    private int spillCount;
 
     private final PageBuilder pageBuilder;
     private int currentPosition;
@@ -135,12 +174,49 @@ public class OrderByOperator
             int[] sortFields,
             boolean[] sortOrder)
     {
+        this(operatorContext, sourceTupleInfos, orderByChannel, outputChannels, expectedPositions, sortFields, sortOrder, Optional.<File>absent());
+    }
+
+    /**
+     * @param spillPath if present, when the index runs out of memory it is sorted and written to this
+     * directory instead of failing, and the sorted runs are merged when the input is finished
+     */
+    public OrderByOperator(
+            OperatorContext operatorContext,
+            List<TupleInfo> sourceTupleInfos,
+            int orderByChannel,
+            int[] outputChannels,
+            int expectedPositions,
+            int[] sortFields,
+            boolean[] sortOrder,
+            Optional<File> spillPath)
+    {
+        this(operatorContext, sourceTupleInfos, orderByChannel, outputChannels, expectedPositions, sortFields, sortOrder, spillPath, MAX_MERGE_RUNS);
+    }
+
+    @VisibleForTesting
+    OrderByOperator(
+            OperatorContext operatorContext,
+            List<TupleInfo> sourceTupleInfos,
+            int orderByChannel,
+            int[] outputChannels,
+            int expectedPositions,
+            int[] sortFields,
+            boolean[] sortOrder,
+            Optional<File> spillPath,
+            int maxMergeRuns)
+    {
+        checkArgument(maxMergeRuns >= 2, "maxMergeRuns must be at least 2");
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
+        this.sourceTupleInfos = ImmutableList.copyOf(checkNotNull(sourceTupleInfos, "sourceTupleInfos is null"));
         this.orderByChannel = orderByChannel;
         this.outputChannels = checkNotNull(outputChannels, "outputChannels is null");
         this.tupleInfos = toTupleInfos(sourceTupleInfos, outputChannels);
         this.sortFields = checkNotNull(sortFields, "sortFields is null");
         this.sortOrder = checkNotNull(sortOrder, "sortOrder is null");
+        this.expectedPositions = expectedPositions;
+        this.spillPath = checkNotNull(spillPath, "spillPath is null");
+        this.maxMergeRuns = maxMergeRuns;
 
         this.pageIndex = new PagesIndex(sourceTupleInfos, expectedPositions, operatorContext);
 
@@ -167,6 +243,24 @@ public class OrderByOperator
 
             // sort the index
             pageIndex.sort(orderByChannel, sortFields, sortOrder);
+
+            // if any runs were spilled, the in memory run is spilled also and the runs are merged
+            if (!spills.isEmpty()) {
+                spill();
+
+                // merge the oldest runs into a new run until the rest can be merged at once
+                while (spills.size() > maxMergeRuns) {
+                    List<SpillFile> mergedRuns = spills.subList(0, maxMergeRuns);
+                    merger = new SortedRunMerger(mergedRuns, allChannels(sourceTupleInfos));
+                    mergedRuns.clear();
+                    spills.add(SpillFile.writePages(spillPath.get(), merger));
+                    spillCount++;
+                    merger = null;
+                }
+
+                merger = new SortedRunMerger(spills, outputChannels);
+                spills.clear();
+            }
         }
     }
 
@@ -179,7 +273,7 @@ public class OrderByOperator
     @Override
     public ListenableFuture<?> isBlocked()
     {
-        return NOT_BLOCKED;
+        return pageIndex.isBlocked();
     }
 
     @Override
@@ -194,7 +288,50 @@ public class OrderByOperator
         checkState(state == State.NEEDS_INPUT, "Operator is already finishing");
         checkNotNull(page, "page is null");
 
-        pageIndex.addPage(page);
+        if (!spillPath.isPresent()) {
+            pageIndex.addPage(page);
+            return;
+        }
+
+        if (!pageIndex.tryAddPage(page)) {
+            // the index is out of memory, so write it to disk as a sorted run
+            pageIndex.sort(orderByChannel, sortFields, sortOrder);
+            spill();
+        }
+    }
+
+    private void spill()
+    {
+        if (pageIndex.getPositionCount() > 0) {
+            spills.add(SpillFile.writePages(spillPath.get(), new PagesIndexIterator(pageIndex)));
+            spillCount++;
+        }
+        pageIndex = new PagesIndex(sourceTupleInfos, expectedPositions, operatorContext);
+    }
+
+    /**
+     * Returns the number of sorted runs written to disk, including the runs written by merge passes.
+     */
+    @VisibleForTesting
+    int getSpillCount()
+    {
+        return spillCount;
+    }
+
+    /**
+     * Releases the spill files, which stay open when the operator is dropped before it finishes.
+     */
+    @Override
+    public void close()
+    {
+        for (SpillFile spill : spills) {
+            spill.close();
+        }
+        spills.clear();
+        if (merger != null) {
+            merger.close();
+            merger = null;
+        }
     }
 
     @Override
@@ -204,6 +341,14 @@ public class OrderByOperator
             return null;
         }
 
+        if (merger != null) {
+            if (!merger.hasNext()) {
+                state = State.FINISHED;
+                return null;
+            }
+            return merger.next();
+        }
+
         if (currentPosition >= pageIndex.getPositionCount()) {
             state = State.FINISHED;
             return null;
@@ -228,6 +373,166 @@ public class OrderByOperator
         return page;
     }
 
+    /**
+     * Pages with every channel of the index in index position order.
+     */
+    private static class PagesIndexIterator
+            extends AbstractIterator<Page>
+    {
+        private final PagesIndex pagesIndex;
+        private final PageBuilder pageBuilder;
+        private int position;
+
+        private PagesIndexIterator(PagesIndex pagesIndex)
+        {
+            this.pagesIndex = pagesIndex;
+            this.pageBuilder = new PageBuilder(pagesIndex.getTupleInfos());
+        }
+
+        @Override
+        protected Page computeNext()
+        {
+            if (position >= pagesIndex.getPositionCount()) {
+                return endOfData();
+            }
+
+            pageBuilder.reset();
+            while (!pageBuilder.isFull() && position < pagesIndex.getPositionCount()) {
+                for (int channel = 0; channel < pagesIndex.getTupleInfos().size(); channel++) {
+                    pagesIndex.appendTupleTo(channel, position, pageBuilder.getBlockBuilder(channel));
+                }
+                position++;
+            }
+            return pageBuilder.build();
+        }
+    }
+
+    /**
+     * Merges spilled sorted runs into pages of the specified channels. The current row of run <code>i</code>
+     * is recorded in slot <code>i</code> of the slice and address arrays, so the runs can be ordered by the
+     * index comparator.  The merge holds the current page of each run in memory.
+     */
+    private class SortedRunMerger
+            extends AbstractIterator<Page>
+    {
+        private final List<SortedRun> runs = new ArrayList<>();
+        private final int[] channels;
+        private final PageBuilder pageBuilder;
+        private final Slice[] slices;
+        private final long[] sliceAddresses;
+        private final IntHeapPriorityQueue queue;
+
+        private SortedRunMerger(List<SpillFile> spills, int[] channels)
+        {
+            this.channels = channels;
+            this.pageBuilder = new PageBuilder(toTupleInfos(sourceTupleInfos, channels));
+
+            slices = new Slice[spills.size()];
+            sliceAddresses = new long[spills.size()];
+            MultiSliceFieldOrderedTupleComparator comparator = new MultiSliceFieldOrderedTupleComparator(
+                    sortFields,
+                    sortOrder,
+                    sourceTupleInfos.get(orderByChannel),
+                    sliceAddresses,
+                    slices);
+            queue = new IntHeapPriorityQueue(spills.size(), comparator);
+
+            for (SpillFile spill : spills) {
+                runs.add(new SortedRun(spill));
+            }
+            for (int run = 0; run < runs.size(); run++) {
+                advance(run);
+            }
+        }
+
+        private void advance(int run)
+        {
+            SortedRun sortedRun = runs.get(run);
+            if (!sortedRun.advance()) {
+                sortedRun.close();
+                return;
+            }
+
+            BlockCursor cursor = sortedRun.getCursors()[orderByChannel];
+            slices[run] = cursor.getRawSlice();
+            sliceAddresses[run] = (((long) run) << 32) | cursor.getRawOffset();
+            queue.enqueue(run);
+        }
+
+        @Override
+        protected Page computeNext()
+        {
+            pageBuilder.reset();
+            while (!pageBuilder.isFull() && !queue.isEmpty()) {
+                int run = queue.dequeueInt();
+                BlockCursor[] cursors = runs.get(run).getCursors();
+                for (int i = 0; i < channels.length; i++) {
+                    cursors[channels[i]].appendTupleTo(pageBuilder.getBlockBuilder(i));
+                }
+                advance(run);
+            }
+
+            if (pageBuilder.isEmpty()) {
+                return endOfData();
+            }
+            return pageBuilder.build();
+        }
+
+        public void close()
+        {
+            for (SortedRun run : runs) {
+                run.close();
+            }
+        }
+    }
+
+    private static class SortedRun
+    {
+        private final SpillFile spillFile;
+        private final Iterator<Page> pages;
+        private BlockCursor[] cursors;
+
+        private SortedRun(SpillFile spillFile)
+        {
+            this.spillFile = spillFile;
+            this.pages = spillFile.readPages();
+        }
+
+        public BlockCursor[] getCursors()
+        {
+            return cursors;
+        }
+
+        public boolean advance()
+        {
+            while (cursors == null || !advanceCursors()) {
+                if (!pages.hasNext()) {
+                    return false;
+                }
+                Block[] blocks = pages.next().getBlocks();
+                cursors = new BlockCursor[blocks.length];
+                for (int i = 0; i < blocks.length; i++) {
+                    cursors[i] = blocks[i].cursor();
+                }
+            }
+            return true;
+        }
+
+        private boolean advanceCursors()
+        {
+            boolean advanced = cursors[0].advanceNextPosition();
+            for (int i = 1; i < cursors.length; i++) {
+                checkState(cursors[i].advanceNextPosition() == advanced, "Spilled page channels have different position counts");
+            }
+            return advanced;
+        }
+
+        public void close()
+        {
+            spillFile.close();
+        }
+    }
+
     private static boolean[] defaultSortOrder(List<TupleInfo> sourceTupleInfos, int orderByChannel)
     {
         TupleInfo orderByTupleInfo = sourceTupleInfos.get(orderByChannel);
@@ -246,6 +551,15 @@ public class OrderByOperator
         return sortFields;
     }
 
+    private static int[] allChannels(List<TupleInfo> tupleInfos)
+    {
+        int[] channels = new int[tupleInfos.size()];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = i;
+        }
+        return channels;
+    }
+
     private static List<TupleInfo> toTupleInfos(List<TupleInfo> sourceTupleInfos, int[] outputChannels)
     {
         ImmutableList.Builder<TupleInfo> tupleInfos = ImmutableList.builder();
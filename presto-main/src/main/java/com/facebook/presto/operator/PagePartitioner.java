@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import io.airlift.slice.Slice;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Splits pages into partitions using a hash of the partitioning channels.
+ * Every task producing a hash partitioned output must use the same
+ * partitioning channels so a given key is always routed to the same partition.
+ */
+@ThreadSafe
+public class PagePartitioner
+{
+    private final List<TupleInfo> tupleInfos;
+    private final int[] partitionChannels;
+
+    public PagePartitioner(List<TupleInfo> tupleInfos, List<Integer> partitionChannels)
+    {
+        this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
+        checkNotNull(partitionChannels, "partitionChannels is null");
+        checkArgument(!partitionChannels.isEmpty(), "partitionChannels is empty");
+        for (int channel : partitionChannels) {
+            checkElementIndex(channel, tupleInfos.size(), "partition channel");
+        }
+        this.partitionChannels = Ints.toArray(partitionChannels);
+    }
+
+    public List<TupleInfo> getTupleInfos()
+    {
+        return tupleInfos;
+    }
+
+    /**
+     * Returns one entry per partition.  Partitions that did not receive any rows are absent.
+     */
+    public List<Optional<Page>> partitionPage(Page page, int partitionCount)
+    {
+        checkNotNull(page, "page is null");
+        checkArgument(partitionCount > 0, "partitionCount must be at least 1");
+        checkArgument(page.getChannelCount() == tupleInfos.size(), "Expected page with %s channels, but got %s", tupleInfos.size(), page.getChannelCount());
+
+        if (partitionCount == 1) {
+            return ImmutableList.of(Optional.of(page));
+        }
+
+        BlockCursor[] cursors = new BlockCursor[page.getChannelCount()];
+        for (int channel = 0; channel < cursors.length; channel++) {
+            cursors[channel] = page.getBlock(channel).cursor();
+        }
+
+        PageBuilder[] pageBuilders = new PageBuilder[partitionCount];
+        for (int position = 0; position < page.getPositionCount(); position++) {
+            for (BlockCursor cursor : cursors) {
+                checkState(cursor.advanceNextPosition());
+            }
+
+            int partition = getPartition(cursors, partitionCount);
+            PageBuilder pageBuilder = pageBuilders[partition];
+            if (pageBuilder == null) {
+                pageBuilder = new PageBuilder(tupleInfos);
+                pageBuilders[partition] = pageBuilder;
+            }
+
+            for (int channel = 0; channel < cursors.length; channel++) {
+                cursors[channel].appendTupleTo(pageBuilder.getBlockBuilder(channel));
+            }
+        }
+
+        ImmutableList.Builder<Optional<Page>> partitions = ImmutableList.builder();
+        for (PageBuilder pageBuilder : pageBuilders) {
+            if (pageBuilder == null || pageBuilder.isEmpty()) {
+                partitions.add(Optional.<Page>absent());
+            }
+            else {
+                partitions.add(Optional.of(pageBuilder.build()));
+            }
+        }
+        return partitions.build();
+    }
+
+    private int getPartition(BlockCursor[] cursors, int partitionCount)
+    {
+        int hashCode = 0;
+        for (int channel : partitionChannels) {
+            BlockCursor cursor = cursors[channel];
+            Slice slice = cursor.getRawSlice();
+            int offset = cursor.getRawOffset();
+            hashCode = 31 * hashCode + slice.hashCode(offset, tupleInfos.get(channel).size(slice, offset));
+        }
+
+        // the downstream hash tables use the low bits of the same hash code, so
+        // mix the bits or every partition would only fill a fraction of its buckets
+        hashCode = mix(hashCode);
+
+        return (hashCode & Integer.MAX_VALUE) % partitionCount;
+    }
+
+    // murmur3 finalizer
+    private static int mix(int hashCode)
+    {
+        hashCode ^= hashCode >>> 16;
+        hashCode *= 0x85ebca6b;
+        hashCode ^= hashCode >>> 13;
+        hashCode *= 0xc2b2ae35;
+        hashCode ^= hashCode >>> 16;
+        return hashCode;
+    }
+}
@@ -18,6 +18,7 @@ import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.tuple.TupleInfo.Type;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.slice.Slice;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
@@ -27,6 +28,9 @@ import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
 
 import java.util.List;
 
+import static com.facebook.presto.operator.Operator.NOT_BLOCKED;
+import static com.google.common.base.Preconditions.checkState;
+
 /**
  * PagesIndex a low-level data structure which contains the address of every value position of every channel.
  * This data structure is not general purpose and is designed for a few specific uses:
@@ -46,6 +50,9 @@ public class PagesIndex
     private int positionCount;
     private long estimatedSize;
 
+    private ListenableFuture<?> memoryFuture = NOT_BLOCKED;
+    private boolean reservationPending;
+
     public PagesIndex(List<TupleInfo> tupleInfos, int expectedPositions, OperatorContext operatorContext)
     {
         this.tupleInfos = tupleInfos;
@@ -66,15 +73,80 @@ public class PagesIndex
         return positionCount;
     }
 
+    /**
+     * Adds the page to the index.  If the node memory pool is exhausted and memory blocking is enabled,
+     * the reservation is retried from {@link #isBlocked}, and no more pages may be added until it succeeds.
+     * Otherwise, fails if the memory for the index can not be reserved.
+     */
     public void addPage(Page page)
+    {
+        checkState(!reservationPending, "Index is waiting for memory");
+        if (!tryAddPage(page)) {
+            waitForMemory();
+        }
+    }
+
+    /**
+     * Adds the page to the index, and returns false if the memory for the index can not be reserved.
+     * The page is added even when the reservation fails.
+     */
+    public boolean tryAddPage(Page page)
+    {
+        indexBlocks(page);
+        return tryReserveMemory();
+    }
+
+    /**
+     * Adds the page to the index without reserving memory, for an index whose memory is reserved by the caller.
+     */
+    void addPageWithoutReservation(Page page)
+    {
+        indexBlocks(page);
+        estimatedSize = calculateEstimatedSize();
+    }
+
+    private void indexBlocks(Page page)
     {
         positionCount += page.getPositionCount();
         Block[] blocks = page.getBlocks();
         for (int channel = 0; channel < indexes.length; channel++) {
             indexes[channel].indexBlock((UncompressedBlock) blocks[channel]);
         }
+    }
+
+    /**
+     * Returns a future that is done when the memory for all pages added with {@link #addPage} is reserved.
+     */
+    public ListenableFuture<?> isBlocked()
+    {
+        while (reservationPending && memoryFuture.isDone()) {
+            if (tryReserveMemory()) {
+                reservationPending = false;
+                memoryFuture = NOT_BLOCKED;
+            }
+            else {
+                waitForMemory();
+            }
+        }
+        return memoryFuture;
+    }
+
+    private boolean tryReserveMemory()
+    {
+        long newEstimatedSize = calculateEstimatedSize();
+        if (!operatorContext.trySetMemoryReservation(newEstimatedSize)) {
+            return false;
+        }
+        estimatedSize = newEstimatedSize;
+        return true;
+    }
 
-        estimatedSize = operatorContext.setMemoryReservation(calculateEstimatedSize());
+    private void waitForMemory()
+    {
+        ListenableFuture<?> future = operatorContext.getMemoryFuture();
+        checkState(future != null, "Task exceeded max memory size of %s", operatorContext.getMaxMemorySize());
+        reservationPending = true;
+        memoryFuture = future;
     }
 
     public DataSize getEstimatedSize()
@@ -0,0 +1,151 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
+import it.unimi.dsi.fastutil.HashCommon;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Writes rows to one spill file per partition of the hash codes of the rows.  Both inputs of
+ * a join are partitioned the same way, so a spilled partition of the build side can later be
+ * joined with the same partition of the probe side.
+ */
+@NotThreadSafe
+public class PartitionedSpillWriter
+        implements Closeable
+{
+    public static final int PARTITION_COUNT = 8;
+    private static final int PARTITION_BITS = Integer.numberOfTrailingZeros(PARTITION_COUNT);
+
+    // every partition buffers one page, so keep the pages small
+    private static final DataSize SPILL_PAGE_SIZE = new DataSize(256, Unit.KILOBYTE);
+
+    private final File spillPath;
+    private final List<TupleInfo> tupleInfos;
+    private final PageBuilder[] pageBuilders = new PageBuilder[PARTITION_COUNT];
+    private final SpillFile.Writer[] writers = new SpillFile.Writer[PARTITION_COUNT];
+    private boolean finished;
+
+    public PartitionedSpillWriter(File spillPath, List<TupleInfo> tupleInfos)
+    {
+        this.spillPath = checkNotNull(spillPath, "spillPath is null");
+        this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
+    }
+
+    /**
+     * Returns the partition of a row with the specified hash code.  The partition is taken from
+     * the high bits of the mixed hash code, since the hash tables use the low bits.
+     */
+    public static int getPartition(int hashCode)
+    {
+        return HashCommon.murmurHash3(hashCode) >>> (Integer.SIZE - PARTITION_BITS);
+    }
+
+    /**
+     * Appends the current row of the cursors, which must have one cursor per channel.
+     */
+    public void appendRow(int partition, BlockCursor[] cursors)
+    {
+        PageBuilder pageBuilder = getPageBuilder(partition);
+        for (int channel = 0; channel < cursors.length; channel++) {
+            cursors[channel].appendTupleTo(pageBuilder.getBlockBuilder(channel));
+        }
+        flushIfFull(partition);
+    }
+
+    public void appendRow(int partition, PagesIndex pagesIndex, int position)
+    {
+        PageBuilder pageBuilder = getPageBuilder(partition);
+        for (int channel = 0; channel < tupleInfos.size(); channel++) {
+            pagesIndex.appendTupleTo(channel, position, pageBuilder.getBlockBuilder(channel));
+        }
+        flushIfFull(partition);
+    }
+
+    /**
+     * Returns the spill file of each partition that received at least one row.
+     */
+    public Map<Integer, SpillFile> finish()
+    {
+        checkState(!finished, "Spill is already finished");
+        finished = true;
+
+        ImmutableMap.Builder<Integer, SpillFile> spillFiles = ImmutableMap.builder();
+        for (int partition = 0; partition < PARTITION_COUNT; partition++) {
+            if (pageBuilders[partition] == null) {
+                continue;
+            }
+            if (!pageBuilders[partition].isEmpty()) {
+                writers[partition].append(pageBuilders[partition].build());
+            }
+            pageBuilders[partition] = null;
+            spillFiles.put(partition, writers[partition].finish());
+            writers[partition] = null;
+        }
+        return spillFiles.build();
+    }
+
+    /**
+     * Abandons the partitions that have not been finished.
+     */
+    @Override
+    public void close()
+    {
+        finished = true;
+        for (int partition = 0; partition < PARTITION_COUNT; partition++) {
+            pageBuilders[partition] = null;
+            if (writers[partition] != null) {
+                writers[partition].close();
+                writers[partition] = null;
+            }
+        }
+    }
+
+    private PageBuilder getPageBuilder(int partition)
+    {
+        checkState(!finished, "Spill is already finished");
+        checkElementIndex(partition, PARTITION_COUNT, "partition");
+
+        if (pageBuilders[partition] == null) {
+            writers[partition] = SpillFile.createWriter(spillPath);
+            pageBuilders[partition] = new PageBuilder(tupleInfos, SPILL_PAGE_SIZE);
+        }
+        return pageBuilders[partition];
+    }
+
+    private void flushIfFull(int partition)
+    {
+        PageBuilder pageBuilder = pageBuilders[partition];
+        if (pageBuilder.isFull()) {
+            writers[partition].append(pageBuilder.build());
+            pageBuilder.reset();
+        }
+    }
+}
@@ -20,11 +20,13 @@ import com.google.common.base.Function;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.stats.CounterStat;
 import io.airlift.stats.Distribution;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 import java.util.ArrayList;
@@ -86,6 +88,11 @@ public class PipelineContext
         this.executor = checkNotNull(executor, "executor is null");
     }
 
+    public TaskContext getTaskContext()
+    {
+        return taskContext;
+    }
+
     public TaskId getTaskId()
     {
         return taskContext.getTaskId();
@@ -199,6 +206,12 @@ public class PipelineContext
         return result;
     }
 
+    @Nullable
+    public ListenableFuture<?> getMemoryPoolFuture(long bytes)
+    {
+        return taskContext.getMemoryPoolFuture(bytes);
+    }
+
     public boolean isCpuTimerEnabled()
     {
         return taskContext.isCpuTimerEnabled();
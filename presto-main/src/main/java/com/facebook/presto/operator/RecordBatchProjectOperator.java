@@ -0,0 +1,238 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.spi.BatchRecordSet;
+import com.facebook.presto.spi.ColumnType;
+import com.facebook.presto.spi.RecordBatchCursor;
+import com.facebook.presto.tuple.TupleInfo;
+import com.facebook.presto.tuple.TupleInfo.Type;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import io.airlift.units.DataSize;
+
+import java.io.Closeable;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static io.airlift.units.DataSize.Unit.BYTE;
+
+/**
+ * Same as {@link RecordProjectOperator} but reads the record set a batch at a time, and
+ * copies each column of a batch into its channel with a single loop.
+ */
+public class RecordBatchProjectOperator
+        implements Operator, Closeable
+{
+    private static final int ROWS_PER_REQUEST = 16384;
+    private static final int ROWS_PER_CHUNK = 1024;
+
+    private final OperatorContext operatorContext;
+    private final RecordBatchCursor cursor;
+    private final List<TupleInfo> tupleInfos;
+    private final Type[] types;
+    private final PageBuilder pageBuilder;
+    private boolean finishing;
+    private long completedBytes;
+
+    // position in the current batch of the next row to output
+    private int batchPosition;
+
+    public RecordBatchProjectOperator(OperatorContext operatorContext, BatchRecordSet recordSet)
+    {
+        this(operatorContext, recordSet.getColumnTypes(), recordSet.batchCursor());
+    }
+
+    public RecordBatchProjectOperator(OperatorContext operatorContext, List<ColumnType> columnTypes, RecordBatchCursor cursor)
+    {
+        this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
+        this.cursor = checkNotNull(cursor, "cursor is null");
+
+        // project each field into a separate channel
+        ImmutableList.Builder<TupleInfo> tupleInfos = ImmutableList.builder();
+        types = new Type[columnTypes.size()];
+        for (int i = 0; i < columnTypes.size(); i++) {
+            types[i] = Type.fromColumnType(columnTypes.get(i));
+            tupleInfos.add(new TupleInfo(types[i]));
+        }
+        this.tupleInfos = tupleInfos.build();
+
+        pageBuilder = new PageBuilder(getTupleInfos());
+    }
+
+    @Override
+    public OperatorContext getOperatorContext()
+    {
+        return operatorContext;
+    }
+
+    @Override
+    public List<TupleInfo> getTupleInfos()
+    {
+        return tupleInfos;
+    }
+
+    @Override
+    public void finish()
+    {
+        close();
+    }
+
+    @Override
+    public void close()
+    {
+        finishing = true;
+        cursor.close();
+    }
+
+    @Override
+    public boolean isFinished()
+    {
+        return finishing && pageBuilder.isEmpty();
+    }
+
+    @Override
+    public ListenableFuture<?> isBlocked()
+    {
+        return NOT_BLOCKED;
+    }
+
+    @Override
+    public boolean needsInput()
+    {
+        return false;
+    }
+
+    @Override
+    public void addInput(Page page)
+    {
+        throw new UnsupportedOperationException(getClass().getName() + " can not take input");
+    }
+
+    @Override
+    public Page getOutput()
+    {
+        if (!finishing) {
+            int positions = 0;
+            while (positions < ROWS_PER_REQUEST && !pageBuilder.isFull()) {
+                if (batchPosition >= cursor.getBatchSize()) {
+                    batchPosition = 0;
+                    if (!cursor.advanceNextBatch()) {
+                        finishing = true;
+                        break;
+                    }
+                }
+                positions += appendBatch();
+            }
+
+            long bytesProcessed = cursor.getCompletedBytes() - completedBytes;
+            operatorContext.recordGeneratedInput(new DataSize(bytesProcessed, BYTE), positions);
+            completedBytes += bytesProcessed;
+        }
+
+        // only return a full page is buffer is full or we are finishing
+        if (pageBuilder.isEmpty() || (!finishing && !pageBuilder.isFull())) {
+            return null;
+        }
+
+        Page page = pageBuilder.build();
+        pageBuilder.reset();
+
+        operatorContext.recordGeneratedInput(page.getDataSize(), page.getPositionCount());
+
+        return page;
+    }
+
+    /**
+     * Appends the rest of the current batch, or as much of it as fits in the page.
+     */
+    private int appendBatch()
+    {
+        int start = batchPosition;
+        int batchSize = cursor.getBatchSize();
+
+        // append in chunks, so a page does not grow much past the page size
+        while (batchPosition < batchSize && !pageBuilder.isFull()) {
+            int end = Math.min(batchSize, batchPosition + ROWS_PER_CHUNK);
+            for (int column = 0; column < types.length; column++) {
+                appendColumn(column, batchPosition, end);
+            }
+            batchPosition = end;
+        }
+
+        return batchPosition - start;
+    }
+
+    private void appendColumn(int column, int start, int end)
+    {
+        BlockBuilder output = pageBuilder.getBlockBuilder(column);
+        boolean[] nulls = cursor.getNulls(column);
+        switch (types[column]) {
+            case BOOLEAN: {
+                boolean[] values = cursor.getBooleans(column);
+                for (int position = start; position < end; position++) {
+                    if (nulls[position]) {
+                        output.appendNull();
+                    }
+                    else {
+                        output.append(values[position]);
+                    }
+                }
+                break;
+            }
+            case FIXED_INT_64: {
+                long[] values = cursor.getLongs(column);
+                for (int position = start; position < end; position++) {
+                    if (nulls[position]) {
+                        output.appendNull();
+                    }
+                    else {
+                        output.append(values[position]);
+                    }
+                }
+                break;
+            }
+            case DOUBLE: {
+                double[] values = cursor.getDoubles(column);
+                for (int position = start; position < end; position++) {
+                    if (nulls[position]) {
+                        output.appendNull();
+                    }
+                    else {
+                        output.append(values[position]);
+                    }
+                }
+                break;
+            }
+            case VARIABLE_BINARY: {
+                Slice bytes = Slices.wrappedBuffer(cursor.getStringBytes(column));
+                int[] offsets = cursor.getStringOffsets(column);
+                for (int position = start; position < end; position++) {
+                    if (nulls[position]) {
+                        output.appendNull();
+                    }
+                    else {
+                        output.append(bytes.slice(offsets[position], offsets[position + 1] - offsets[position]));
+                    }
+                }
+                break;
+            }
+            default:
+                throw new AssertionError("unimplemented type: " + types[column]);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.tuple.TupleInfo;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import it.unimi.dsi.fastutil.HashCommon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.facebook.presto.operator.SyntheticAddress.decodeSliceIndex;
+import static com.facebook.presto.operator.SyntheticAddress.decodeSliceOffset;
+import static com.facebook.presto.operator.SyntheticAddress.encodeSyntheticAddress;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static io.airlift.slice.SizeOf.sizeOf;
+
+/**
+ * Group by hash for any key tuple.  The keys are copied into blocks, and an open addressing
+ * table maps the hash code of each key to its group id.  The hash code of every group is kept,
+ * so the keys are only compared when the hash codes match, and are never hashed again on rehash.
+ */
+public class SliceGroupByHash
+        implements GroupByHash
+{
+    private static final float FILL_RATIO = 0.75f;
+
+    private final TupleInfo tupleInfo;
+    private final List<Slice> keySlices = new ArrayList<>();
+    private long keySlicesSize;
+
+    private int mask;
+    private int maxFill;
+    private int[] groupIds;
+
+    private long[] groupAddresses;
+    private int[] groupHashCodes;
+    private int groupCount;
+
+    private BlockBuilder blockBuilder;
+
+    public SliceGroupByHash(TupleInfo tupleInfo, int expectedGroups)
+    {
+        this.tupleInfo = checkNotNull(tupleInfo, "tupleInfo is null");
+
+        int hashSize = HashCommon.arraySize(Math.max(expectedGroups, 1), FILL_RATIO);
+        mask = hashSize - 1;
+        maxFill = HashCommon.maxFill(hashSize, FILL_RATIO);
+        groupIds = new int[hashSize];
+        Arrays.fill(groupIds, -1);
+
+        groupAddresses = new long[maxFill];
+        groupHashCodes = new int[maxFill];
+
+        addKeySlice(Slices.allocate((int) BlockBuilder.DEFAULT_MAX_BLOCK_SIZE.toBytes()));
+    }
+
+    @Override
+    public TupleInfo getTupleInfo()
+    {
+        return tupleInfo;
+    }
+
+    @Override
+    public long getEstimatedSize()
+    {
+        return keySlicesSize + sizeOf(groupIds) + sizeOf(groupAddresses) + sizeOf(groupHashCodes);
+    }
+
+    @Override
+    public int getGroupCount()
+    {
+        return groupCount;
+    }
+
+    @Override
+    public int putIfAbsent(Slice slice, int offset)
+    {
+        return putIfAbsent(slice, offset, slice.hashCode(offset, tupleInfo.size(slice, offset)));
+    }
+
+    @Override
+    public int putIfAbsent(Slice slice, int offset, int hashCode)
+    {
+        int length = tupleInfo.size(slice, offset);
+
+        int hashPosition = getHashPosition(hashCode);
+        while (groupIds[hashPosition] != -1) {
+            int groupId = groupIds[hashPosition];
+            if (groupHashCodes[groupId] == hashCode && groupKeyEquals(groupId, slice, offset, length)) {
+                return groupId;
+            }
+            hashPosition = (hashPosition + 1) & mask;
+        }
+
+        int groupId = addNewGroup(slice, offset, length, hashCode);
+        groupIds[hashPosition] = groupId;
+
+        if (groupCount >= maxFill) {
+            rehash();
+        }
+        return groupId;
+    }
+
+    private int addNewGroup(Slice slice, int offset, int length, int hashCode)
+    {
+        // copy group by tuple (key) to the key slices
+        if (blockBuilder.writableBytes() < length) {
+            addKeySlice(Slices.allocate(Math.max((int) BlockBuilder.DEFAULT_MAX_BLOCK_SIZE.toBytes(), length)));
+        }
+        long address = encodeSyntheticAddress(keySlices.size() - 1, blockBuilder.size());
+        blockBuilder.appendTuple(slice, offset, length);
+
+        int groupId = groupCount++;
+        if (groupId == groupAddresses.length) {
+            groupAddresses = Arrays.copyOf(groupAddresses, groupAddresses.length * 2);
+            groupHashCodes = Arrays.copyOf(groupHashCodes, groupHashCodes.length * 2);
+        }
+        groupAddresses[groupId] = address;
+        groupHashCodes[groupId] = hashCode;
+        return groupId;
+    }
+
+    private boolean groupKeyEquals(int groupId, Slice slice, int offset, int length)
+    {
+        long address = groupAddresses[groupId];
+        Slice groupSlice = keySlices.get(decodeSliceIndex(address));
+        int groupOffset = decodeSliceOffset(address);
+        return groupSlice.equals(groupOffset, tupleInfo.size(groupSlice, groupOffset), slice, offset, length);
+    }
+
+    private void addKeySlice(Slice slice)
+    {
+        keySlices.add(slice);
+        keySlicesSize += slice.length();
+
+        // group by keys are packed into new blocks
+        blockBuilder = new BlockBuilder(tupleInfo, slice.length(), slice.getOutput());
+    }
+
+    private void rehash()
+    {
+        int hashSize = (mask + 1) * 2;
+        mask = hashSize - 1;
+        maxFill = HashCommon.maxFill(hashSize, FILL_RATIO);
+        groupIds = new int[hashSize];
+        Arrays.fill(groupIds, -1);
+
+        for (int groupId = 0; groupId < groupCount; groupId++) {
+            int hashPosition = getHashPosition(groupHashCodes[groupId]);
+            while (groupIds[hashPosition] != -1) {
+                hashPosition = (hashPosition + 1) & mask;
+            }
+            groupIds[hashPosition] = groupId;
+        }
+    }
+
+    private int getHashPosition(int hashCode)
+    {
+        return HashCommon.murmurHash3(hashCode) & mask;
+    }
+
+    @Override
+    public void appendGroupKeyTo(int groupId, BlockBuilder output)
+    {
+        long address = groupAddresses[groupId];
+        Slice slice = keySlices.get(decodeSliceIndex(address));
+        int offset = decodeSliceOffset(address);
+        output.appendTuple(slice, offset, tupleInfo.size(slice, offset));
+    }
+}
@@ -15,19 +15,73 @@ package com.facebook.presto.operator;
 
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import io.airlift.slice.Slice;
 
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * View of the shared build side hash for a single probe operator.  The hash may be built
+ * from several partitions, in which case the positions of each partition follow the
+ * positions of the previous partitions.
+ * <p/>
+ * If the build side did not fit in memory, the rows of some partitions of the key hash codes
+ * (see {@link PartitionedSpillWriter}) were written to disk instead of the hash.  The probe rows
+ * of these partitions must be spilled also, and joined with the spilled build rows afterwards.
+ */
+@NotThreadSafe
 public class SourceHash
 {
     private final ChannelHash channelHash;
-    private final PagesIndex pagesIndex;
+    private final PagesIndex[] partitions;
+    private final int[] partitionOffsets;
     private final int channelCount;
+    private final Map<Integer, SpillFile> spilledPartitions;
+    private final Optional<File> spillPath;
+
+    private Slice probeSlice;
 
     public SourceHash(ChannelHash channelHash, PagesIndex pagesIndex)
     {
-        this.channelHash = channelHash;
-        this.pagesIndex = pagesIndex;
-        this.channelCount = pagesIndex.getTupleInfos().size();
+        this(channelHash, ImmutableList.of(pagesIndex));
+    }
+
+    public SourceHash(ChannelHash channelHash, List<PagesIndex> partitions)
+    {
+        this(channelHash, partitions, ImmutableMap.<Integer, SpillFile>of(), Optional.<File>absent());
+    }
+
+    /**
+     * @param spilledPartitions the spilled build rows of each spilled partition that has any rows
+     * @param spillPath the directory to spill the probe rows of the spilled partitions to
+     */
+    public SourceHash(ChannelHash channelHash, List<PagesIndex> partitions, Map<Integer, SpillFile> spilledPartitions, Optional<File> spillPath)
+    {
+        this.channelHash = checkNotNull(channelHash, "channelHash is null");
+        checkNotNull(partitions, "partitions is null");
+        checkArgument(!partitions.isEmpty(), "partitions is empty");
+
+        this.partitions = partitions.toArray(new PagesIndex[partitions.size()]);
+        this.partitionOffsets = new int[partitions.size()];
+        int offset = 0;
+        for (int partition = 0; partition < this.partitions.length; partition++) {
+            partitionOffsets[partition] = offset;
+            offset += this.partitions[partition].getPositionCount();
+        }
+        this.channelCount = this.partitions[0].getTupleInfos().size();
+        this.spilledPartitions = ImmutableMap.copyOf(checkNotNull(spilledPartitions, "spilledPartitions is null"));
+        this.spillPath = checkNotNull(spillPath, "spillPath is null");
+        checkArgument(spilledPartitions.isEmpty() || spillPath.isPresent(), "spillPath is required for spilled partitions");
     }
 
     public int getChannelCount()
@@ -35,14 +89,34 @@ public class SourceHash
         return channelCount;
     }
 
+    public boolean hasSpilledPartitions()
+    {
+        return !spilledPartitions.isEmpty();
+    }
+
+    public Map<Integer, SpillFile> getSpilledPartitions()
+    {
+        return spilledPartitions;
+    }
+
+    public File getSpillPath()
+    {
+        return spillPath.get();
+    }
+
     public void setProbeSlice(Slice slice)
     {
-        channelHash.setLookupSlice(slice);
+        this.probeSlice = slice;
     }
 
     public int getJoinPosition(BlockCursor cursor)
     {
-        return channelHash.get(cursor);
+        return channelHash.get(probeSlice, cursor);
+    }
+
+    public int getJoinPosition(BlockCursor cursor, int hashCode)
+    {
+        return channelHash.get(probeSlice, cursor, hashCode);
     }
 
     public int getNextJoinPosition(int joinPosition)
@@ -52,6 +126,22 @@ public class SourceHash
 
     public void appendTupleTo(int channel, int position, BlockBuilder blockBuilder)
     {
-        pagesIndex.appendTupleTo(channel, position, blockBuilder);
+        if (partitions.length == 1) {
+            partitions[0].appendTupleTo(channel, position, blockBuilder);
+            return;
+        }
+
+        int partition = Arrays.binarySearch(partitionOffsets, position);
+        if (partition < 0) {
+            // position is within the partition before the insertion point
+            partition = -partition - 2;
+        }
+        else {
+            // skip empty partitions that start at the same offset
+            while (partition + 1 < partitionOffsets.length && partitionOffsets[partition + 1] == position) {
+                partition++;
+            }
+        }
+        partitions[partition].appendTupleTo(channel, position - partitionOffsets[partition], blockBuilder);
     }
 }
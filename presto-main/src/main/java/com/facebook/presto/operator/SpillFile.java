@@ -0,0 +1,233 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.serde.PagesSerde;
+import com.facebook.presto.serde.PagesWriter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterators;
+import io.airlift.slice.InputStreamSliceInput;
+import io.airlift.slice.OutputStreamSliceOutput;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A run of pages written to local disk in the {@link PagesSerde} format.
+ * <p/>
+ * The file is unlinked as soon as it has been created and opened for reading,
+ * so the disk space is released when the file is closed, even if the operator
+ * that spilled it is abandoned.  The pages can be read any number of times,
+ * also concurrently, until the file is closed.
+ */
+public class SpillFile
+        implements Closeable
+{
+    private final FileInputStream inputStream;
+    private final long size;
+
+    private SpillFile(FileInputStream inputStream, long size)
+    {
+        this.inputStream = inputStream;
+        this.size = size;
+    }
+
+    public static SpillFile writePages(File spillPath, Iterator<Page> pages)
+    {
+        checkNotNull(pages, "pages is null");
+
+        Writer writer = createWriter(spillPath);
+        try {
+            while (pages.hasNext()) {
+                writer.append(pages.next());
+            }
+            return writer.finish();
+        }
+        catch (RuntimeException e) {
+            writer.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a writer for a spill file that is written one page at a time.
+     */
+    public static Writer createWriter(File spillPath)
+    {
+        checkNotNull(spillPath, "spillPath is null");
+
+        File file = null;
+        FileInputStream inputStream = null;
+        try {
+            if (!spillPath.isDirectory() && !spillPath.mkdirs() && !spillPath.isDirectory()) {
+                throw new IOException("Could not create spill directory " + spillPath);
+            }
+            file = File.createTempFile("spill-", ".pages", spillPath);
+
+            inputStream = new FileInputStream(file);
+            OutputStreamSliceOutput sliceOutput = new OutputStreamSliceOutput(new FileOutputStream(file));
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+            return new Writer(sliceOutput, inputStream);
+        }
+        catch (IOException e) {
+            if (inputStream != null) {
+                closeQuietly(inputStream);
+            }
+            if (file != null) {
+                file.delete();
+            }
+            throw Throwables.propagate(e);
+        }
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the spilled pages.
+     */
+    public Iterator<Page> readPages()
+    {
+        if (size == 0) {
+            return Iterators.emptyIterator();
+        }
+        InputStream pagesInput = new BufferedInputStream(new PositionalInputStream(inputStream.getChannel()));
+        return PagesSerde.readPages(new InputStreamSliceInput(pagesInput));
+    }
+
+    @Override
+    public void close()
+    {
+        try {
+            inputStream.close();
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable)
+    {
+        try {
+            closeable.close();
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    public static class Writer
+            implements Closeable
+    {
+        private final OutputStreamSliceOutput sliceOutput;
+        private final FileInputStream inputStream;
+        private final PagesWriter pagesWriter;
+        private boolean finished;
+
+        private Writer(OutputStreamSliceOutput sliceOutput, FileInputStream inputStream)
+        {
+            this.sliceOutput = sliceOutput;
+            this.inputStream = inputStream;
+            this.pagesWriter = PagesSerde.createPagesWriter(sliceOutput);
+        }
+
+        public void append(Page page)
+        {
+            checkState(!finished, "Spill file is already finished");
+            pagesWriter.append(page);
+        }
+
+        /**
+         * Completes the file and returns it for reading.
+         */
+        public SpillFile finish()
+        {
+            checkState(!finished, "Spill file is already finished");
+            finished = true;
+            try {
+                sliceOutput.close();
+                return new SpillFile(inputStream, inputStream.getChannel().size());
+            }
+            catch (IOException e) {
+                closeQuietly(inputStream);
+                throw Throwables.propagate(e);
+            }
+        }
+
+        /**
+         * Abandons the file, if it has not been finished.
+         */
+        @Override
+        public void close()
+        {
+            if (!finished) {
+                finished = true;
+                closeQuietly(sliceOutput);
+                closeQuietly(inputStream);
+            }
+        }
+    }
+
+    /**
+     * Reads the file from the start, independent of any other reader of the same file.
+     */
+    private static class PositionalInputStream
+            extends InputStream
+    {
+        private final FileChannel channel;
+        private long position;
+
+        private PositionalInputStream(FileChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read()
+                throws IOException
+        {
+            byte[] buffer = new byte[1];
+            int read = read(buffer, 0, 1);
+            if (read <= 0) {
+                return -1;
+            }
+            return buffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length)
+                throws IOException
+        {
+            int read = channel.read(ByteBuffer.wrap(buffer, offset, length), position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.operator.PagesIndex.MultiSliceFieldOrderedTupleComparator;
+import com.facebook.presto.operator.window.WindowFunction;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.util.concurrent.ListenableFuture;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.facebook.presto.operator.WindowOperator.toTupleInfos;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Evaluates window functions over input that already arrives grouped by the partition fields
+ * and sorted by the sort fields within each partition, such as the output of another window
+ * over the same partitions. Only the rows of the current partition are buffered, and each
+ * partition is output as soon as the first row of the next partition arrives.
+ */
+public class StreamingWindowOperator
+        implements Operator
+{
+    public static class StreamingWindowOperatorFactory
+            implements OperatorFactory
+    {
+        private final int operatorId;
+        private final List<TupleInfo> sourceTupleInfos;
+        private final int orderingChannel;
+        private final int[] outputChannels;
+        private final List<WindowFunction> windowFunctions;
+        private final int[] partitionFields;
+        private final int[] sortFields;
+        private final boolean[] sortOrder;
+        private final int expectedPositions;
+        private final List<TupleInfo> tupleInfos;
+        private boolean closed;
+
+        public StreamingWindowOperatorFactory(
+                int operatorId,
+                List<TupleInfo> sourceTupleInfos,
+                int orderingChannel,
+                int[] outputChannels,
+                List<WindowFunction> windowFunctions,
+                int[] partitionFields,
+                int[] sortFields,
+                boolean[] sortOrder,
+                int expectedPositions)
+        {
+            this.operatorId = operatorId;
+            this.sourceTupleInfos = sourceTupleInfos;
+            this.orderingChannel = orderingChannel;
+            this.outputChannels = outputChannels;
+            this.windowFunctions = windowFunctions;
+            this.partitionFields = partitionFields;
+            this.sortFields = sortFields;
+            this.sortOrder = sortOrder;
+            this.expectedPositions = expectedPositions;
+
+            this.tupleInfos = toTupleInfos(sourceTupleInfos, outputChannels, windowFunctions);
+        }
+
+        @Override
+        public List<TupleInfo> getTupleInfos()
+        {
+            return tupleInfos;
+        }
+
+        @Override
+        public Operator createOperator(DriverContext driverContext)
+        {
+            checkState(!closed, "Factory is already closed");
+
+            OperatorContext operatorContext = driverContext.addOperatorContext(operatorId, StreamingWindowOperator.class.getSimpleName());
+            return new StreamingWindowOperator(
+                    operatorContext,
+                    sourceTupleInfos,
+                    orderingChannel,
+                    outputChannels,
+                    windowFunctions,
+                    partitionFields,
+                    sortFields,
+                    sortOrder,
+                    expectedPositions);
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+    }
+
+    private final OperatorContext operatorContext;
+    private final List<TupleInfo> sourceTupleInfos;
+    private final int orderingChannel;
+    private final int[] outputChannels;
+    private final List<WindowFunction> windowFunctions;
+    private final int[] partitionFields;
+    private final boolean[] partitionOrder;
+    private final int[] sortFields;
+    private final boolean[] sortOrder;
+    private final int expectedPositions;
+    private final List<TupleInfo> tupleInfos;
+
+    private final PageBuilder pageBuilder;
+
+    private PagesIndex pageIndex;
+    private IntComparator partitionComparator;
+    private IntComparator orderComparator;
+
+    private boolean finishing;
+
+    // positions before this one belong to partitions that are known to be complete
+    private int completePartitionsEnd;
+
+    private int currentPosition;
+    private int partitionEnd;
+    private int peerGroupEnd;
+    private int peerGroupCount;
+
+    public StreamingWindowOperator(
+            OperatorContext operatorContext,
+            List<TupleInfo> sourceTupleInfos,
+            int orderingChannel,
+            int[] outputChannels,
+            List<WindowFunction> windowFunctions,
+            int[] partitionFields,
+            int[] sortFields,
+            boolean[] sortOrder,
+            int expectedPositions)
+    {
+        this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
+        this.sourceTupleInfos = checkNotNull(sourceTupleInfos, "sourceTupleInfos is null");
+        this.orderingChannel = orderingChannel;
+        this.outputChannels = checkNotNull(outputChannels, "outputChannels is null").clone();
+        this.windowFunctions = checkNotNull(windowFunctions, "windowFunctions is null");
+        this.partitionFields = checkNotNull(partitionFields, "partitionFields is null").clone();
+        this.sortFields = checkNotNull(sortFields, "sortFields is null").clone();
+        this.sortOrder = checkNotNull(sortOrder, "sortOrder is null").clone();
+        this.expectedPositions = expectedPositions;
+
+        this.partitionOrder = new boolean[partitionFields.length];
+        Arrays.fill(partitionOrder, true);
+
+        this.tupleInfos = toTupleInfos(sourceTupleInfos, outputChannels, windowFunctions);
+
+        this.pageIndex = new PagesIndex(sourceTupleInfos, expectedPositions, operatorContext);
+        this.pageBuilder = new PageBuilder(this.tupleInfos);
+    }
+
+    @Override
+    public OperatorContext getOperatorContext()
+    {
+        return operatorContext;
+    }
+
+    @Override
+    public List<TupleInfo> getTupleInfos()
+    {
+        return tupleInfos;
+    }
+
+    @Override
+    public void finish()
+    {
+        if (finishing) {
+            return;
+        }
+        finishing = true;
+
+        // the last partition is complete
+        completePartitionsEnd = pageIndex.getPositionCount();
+    }
+
+    @Override
+    public boolean isFinished()
+    {
+        return finishing && currentPosition >= pageIndex.getPositionCount();
+    }
+
+    @Override
+    public ListenableFuture<?> isBlocked()
+    {
+        return pageIndex.isBlocked();
+    }
+
+    @Override
+    public boolean needsInput()
+    {
+        // complete partitions are output before more input is buffered
+        return !finishing && currentPosition >= completePartitionsEnd;
+    }
+
+    @Override
+    public void addInput(Page page)
+    {
+        checkState(!finishing, "Operator is already finishing");
+        checkNotNull(page, "page is null");
+        checkState(currentPosition >= completePartitionsEnd, "Complete partitions have not been output yet");
+
+        int firstNewPosition = pageIndex.getPositionCount();
+        pageIndex.addPage(page);
+        updateComparators();
+
+        // a partition is complete once a row of a later partition arrives
+        for (int position = Math.max(firstNewPosition, 1); position < pageIndex.getPositionCount(); position++) {
+            if (partitionComparator.compare(position - 1, position) != 0) {
+                completePartitionsEnd = position;
+            }
+        }
+    }
+
+    @Override
+    public Page getOutput()
+    {
+        if (currentPosition >= completePartitionsEnd || !pageIndex.isBlocked().isDone()) {
+            return null;
+        }
+
+        // iterate through the positions of the complete partitions until we have one full page
+        pageBuilder.reset();
+        while (!pageBuilder.isFull() && currentPosition < completePartitionsEnd) {
+            // check for new partition
+            boolean newPartition = (currentPosition == 0) || (currentPosition == partitionEnd);
+            if (newPartition) {
+                // find end of partition
+                partitionEnd++;
+                while ((partitionEnd < completePartitionsEnd) &&
+                        (partitionComparator.compare(partitionEnd - 1, partitionEnd) == 0)) {
+                    partitionEnd++;
+                }
+
+                // reset functions for new partition
+                for (WindowFunction function : windowFunctions) {
+                    function.reset(partitionEnd - currentPosition);
+                }
+            }
+
+            // copy output channels
+            int channel = 0;
+            while (channel < outputChannels.length) {
+                pageIndex.appendTupleTo(outputChannels[channel], currentPosition, pageBuilder.getBlockBuilder(channel));
+                channel++;
+            }
+
+            // check for new peer group
+            boolean newPeerGroup = newPartition || (currentPosition == peerGroupEnd);
+            if (newPeerGroup) {
+                // find end of peer group
+                peerGroupEnd++;
+                while ((peerGroupEnd < partitionEnd) &&
+                        (orderComparator.compare(peerGroupEnd - 1, peerGroupEnd) == 0)) {
+                    peerGroupEnd++;
+                }
+                peerGroupCount = peerGroupEnd - currentPosition;
+            }
+
+            // process window functions
+            for (WindowFunction function : windowFunctions) {
+                function.processRow(pageBuilder.getBlockBuilder(channel), newPeerGroup, peerGroupCount);
+                channel++;
+            }
+
+            currentPosition++;
+        }
+
+        Page page = pageBuilder.build();
+
+        if (!finishing && currentPosition == completePartitionsEnd) {
+            compactIndex();
+        }
+
+        return page;
+    }
+
+    /**
+     * Drops the rows of the partitions that have been output, keeping only the rows of the incomplete
+     * last partition. Those rows arrived with the last page, so at most one page of rows is copied.
+     */
+    private void compactIndex()
+    {
+        PagesIndex remaining = new PagesIndex(sourceTupleInfos, expectedPositions, operatorContext);
+        PageBuilder remainingBuilder = new PageBuilder(sourceTupleInfos);
+        for (int position = completePartitionsEnd; position < pageIndex.getPositionCount(); position++) {
+            for (int channel = 0; channel < sourceTupleInfos.size(); channel++) {
+                pageIndex.appendTupleTo(channel, position, remainingBuilder.getBlockBuilder(channel));
+            }
+            if (remainingBuilder.isFull()) {
+                remaining.addPage(remainingBuilder.build());
+                remainingBuilder.reset();
+            }
+        }
+        if (!remainingBuilder.isEmpty()) {
+            remaining.addPage(remainingBuilder.build());
+        }
+
+        // the remaining rows are smaller than the index that was already reserved
+        pageIndex = remaining;
+        updateComparators();
+
+        completePartitionsEnd = 0;
+        currentPosition = 0;
+        partitionEnd = 0;
+        peerGroupEnd = 0;
+    }
+
+    private void updateComparators()
+    {
+        // the comparators capture the slices of the index, so they must be recreated when pages are added
+        ChannelIndex index = pageIndex.getIndex(orderingChannel);
+        partitionComparator = new MultiSliceFieldOrderedTupleComparator(partitionFields, partitionOrder, index);
+        orderComparator = new MultiSliceFieldOrderedTupleComparator(sortFields, sortOrder, index);
+    }
+}
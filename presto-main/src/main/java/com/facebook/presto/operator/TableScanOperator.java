@@ -176,7 +176,11 @@ public class TableScanOperator
     @Override
     public ListenableFuture<?> isBlocked()
     {
-        return NOT_BLOCKED;
+        Operator delegate = getSource();
+        if (delegate == null) {
+            return NOT_BLOCKED;
+        }
+        return delegate.isBlocked();
     }
 
     @Override
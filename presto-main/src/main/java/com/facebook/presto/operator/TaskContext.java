@@ -13,6 +13,8 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.execution.MemoryPool;
+import com.facebook.presto.execution.QueryId;
 import com.facebook.presto.execution.StateMachine.StateChangeListener;
 import com.facebook.presto.execution.TaskId;
 import com.facebook.presto.execution.TaskState;
@@ -24,11 +26,14 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.SetMultimap;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.stats.CounterStat;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import org.joda.time.DateTime;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import java.util.List;
@@ -55,10 +60,13 @@ public class TaskContext
     private final Executor executor;
     private final Session session;
 
+    private final MemoryPool memoryPool;
     private final long maxMemory;
     private final DataSize operatorPreAllocatedMemory;
 
     private final AtomicLong memoryReservation = new AtomicLong();
+    @GuardedBy("this")
+    private boolean memoryFreed;
 
     private final DateTime createdTime = DateTime.now();
     private final long createNanos = System.nanoTime();
@@ -96,10 +104,28 @@ public class TaskContext
     }
 
     public TaskContext(TaskStateMachine taskStateMachine, Executor executor, Session session, DataSize maxMemory, DataSize operatorPreAllocatedMemory, boolean cpuTimerEnabled)
+    {
+        this(taskStateMachine,
+                executor,
+                session,
+                new MemoryPool(checkNotNull(maxMemory, "maxMemory is null")),
+                maxMemory,
+                operatorPreAllocatedMemory,
+                cpuTimerEnabled);
+    }
+
+    public TaskContext(TaskStateMachine taskStateMachine,
+            Executor executor,
+            Session session,
+            MemoryPool memoryPool,
+            DataSize maxMemory,
+            DataSize operatorPreAllocatedMemory,
+            boolean cpuTimerEnabled)
     {
         this.taskStateMachine = checkNotNull(taskStateMachine, "taskStateMachine is null");
         this.executor = checkNotNull(executor, "executor is null");
         this.session = session;
+        this.memoryPool = checkNotNull(memoryPool, "memoryPool is null");
         this.maxMemory = checkNotNull(maxMemory, "maxMemory is null").toBytes();
         this.operatorPreAllocatedMemory = checkNotNull(operatorPreAllocatedMemory, "operatorPreAllocatedMemory is null");
 
@@ -111,6 +137,7 @@ public class TaskContext
                 if (newValue.isDone()) {
                     executionEndTime.set(DateTime.now());
                     endNanos.set(System.nanoTime());
+                    freeMemory();
                 }
             }
         });
@@ -123,6 +150,11 @@ public class TaskContext
         return taskStateMachine.getTaskId();
     }
 
+    public QueryId getQueryId()
+    {
+        return taskStateMachine.getTaskId().getQueryId();
+    }
+
     public PipelineContext addPipelineContext(boolean inputPipeline, boolean outputPipeline)
     {
         PipelineContext pipelineContext = new PipelineContext(this, executor, inputPipeline, outputPipeline);
@@ -173,13 +205,60 @@ public class TaskContext
     {
         checkArgument(bytes >= 0, "bytes is negative");
 
-        if (memoryReservation.get() + bytes > maxMemory) {
+        if (taskStateMachine.getState().isDone()) {
+            freeMemory();
+        }
+        if (memoryFreed || memoryReservation.get() + bytes > maxMemory) {
+            return false;
+        }
+        if (!memoryPool.tryReserve(getQueryId(), bytes)) {
             return false;
         }
         memoryReservation.getAndAdd(bytes);
         return true;
     }
 
+    /**
+     * Returns memory that is no longer used to the task and the node memory pool.  Operators can not
+     * free their own reservations, so this is only for memory reserved directly from the task.
+     */
+    public synchronized void releaseMemory(long bytes)
+    {
+        checkArgument(bytes >= 0, "bytes is negative");
+        checkArgument(bytes <= memoryReservation.get(), "bytes is larger than the memory reservation");
+
+        memoryReservation.getAndAdd(-bytes);
+        if (!memoryFreed) {
+            memoryPool.free(getQueryId(), bytes);
+        }
+    }
+
+    /**
+     * Returns a future that completes when memory is returned to the node memory pool, or
+     * null if waiting for the pool would not allow a reservation of the specified size.
+     */
+    @Nullable
+    public synchronized ListenableFuture<?> getMemoryPoolFuture(long bytes)
+    {
+        if (!memoryPool.isBlockingEnabled() || memoryFreed || memoryReservation.get() + bytes > maxMemory) {
+            return null;
+        }
+        return memoryPool.getMemoryFuture();
+    }
+
+    /**
+     * Returns the memory reserved by this task to the node pool.  The reservation
+     * itself is kept for the final task stats.
+     */
+    private synchronized void freeMemory()
+    {
+        if (memoryFreed) {
+            return;
+        }
+        memoryFreed = true;
+        memoryPool.free(getQueryId(), memoryReservation.get());
+    }
+
     public boolean isCpuTimerEnabled()
     {
         return cpuTimerEnabled;
@@ -252,6 +331,7 @@ public class TaskContext
             if (executionEndTime.compareAndSet(null, DateTime.now())) {
                 endNanos.set(System.nanoTime());
             }
+            freeMemory();
         }
 
         List<PipelineStats> pipelineStats = ImmutableList.copyOf(transform(pipelineContexts, pipelineStatsGetter()));
@@ -326,6 +406,8 @@ public class TaskContext
                 runningDrivers,
                 completedDrivers,
                 new DataSize(memoryReservation.get(), BYTE).convertToMostSuccinctDataSize(),
+                new DataSize(memoryPool.getQueryMemoryReservation(getQueryId()), BYTE).convertToMostSuccinctDataSize(),
+                !taskStateMachine.getState().isDone() && memoryPool.isExhausted(),
                 new Duration(totalScheduledTime, NANOSECONDS).convertToMostSuccinctTimeUnit(),
                 new Duration(totalCpuTime, NANOSECONDS).convertToMostSuccinctTimeUnit(),
                 new Duration(totalUserTime, NANOSECONDS).convertToMostSuccinctTimeUnit(),
@@ -42,6 +42,8 @@ public class TaskStats
     private final int completedDrivers;
 
     private final DataSize memoryReservation;
+    private final DataSize queryMemoryReservation;
+    private final boolean memoryPoolExhausted;
 
     private final Duration totalScheduledTime;
     private final Duration totalCpuTime;
@@ -73,6 +75,8 @@ public class TaskStats
             @JsonProperty("completedDrivers") int completedDrivers,
 
             @JsonProperty("memoryReservation") DataSize memoryReservation,
+            @JsonProperty("queryMemoryReservation") DataSize queryMemoryReservation,
+            @JsonProperty("memoryPoolExhausted") boolean memoryPoolExhausted,
 
             @JsonProperty("totalScheduledTime") Duration totalScheduledTime,
             @JsonProperty("totalCpuTime") Duration totalCpuTime,
@@ -106,6 +110,8 @@ public class TaskStats
         this.completedDrivers = completedDrivers;
 
         this.memoryReservation = checkNotNull(memoryReservation, "memoryReservation is null");
+        this.queryMemoryReservation = checkNotNull(queryMemoryReservation, "queryMemoryReservation is null");
+        this.memoryPoolExhausted = memoryPoolExhausted;
 
         this.totalScheduledTime = checkNotNull(totalScheduledTime, "totalScheduledTime is null");
         this.totalCpuTime = checkNotNull(totalCpuTime, "totalCpuTime is null");
@@ -189,6 +195,24 @@ public class TaskStats
         return memoryReservation;
     }
 
+    /**
+     * Memory reserved by all tasks of the query on the node running this task.
+     */
+    @JsonProperty
+    public DataSize getQueryMemoryReservation()
+    {
+        return queryMemoryReservation;
+    }
+
+    /**
+     * True if the memory pool of the node running this task has rejected a reservation.
+     */
+    @JsonProperty
+    public boolean isMemoryPoolExhausted()
+    {
+        return memoryPoolExhausted;
+    }
+
     @JsonProperty
     public Duration getTotalScheduledTime()
     {
@@ -254,4 +278,35 @@ public class TaskStats
     {
         return pipelines;
     }
+
+    /**
+     * Returns these stats without the per pipeline, operator and driver details.
+     */
+    public TaskStats summarize()
+    {
+        return new TaskStats(
+                createTime,
+                startTime,
+                endTime,
+                elapsedTime,
+                queuedTime,
+                totalDrivers,
+                queuedDrivers,
+                runningDrivers,
+                completedDrivers,
+                memoryReservation,
+                queryMemoryReservation,
+                memoryPoolExhausted,
+                totalScheduledTime,
+                totalCpuTime,
+                totalUserTime,
+                totalBlockedTime,
+                rawInputDataSize,
+                rawInputPositions,
+                processedInputDataSize,
+                processedInputPositions,
+                outputDataSize,
+                outputPositions,
+                ImmutableList.<PipelineStats>of());
+    }
 }
@@ -171,6 +171,20 @@ public class TopNOperator
     @Override
     public ListenableFuture<?> isBlocked()
     {
+        // partial top n can be flushed, but otherwise a full builder must wait
+        // for memory, or the query fails in getOutput
+        if (partial) {
+            return NOT_BLOCKED;
+        }
+        while (topNBuilder != null && topNBuilder.isFull()) {
+            ListenableFuture<?> memoryFuture = operatorContext.getMemoryFuture();
+            if (memoryFuture == null) {
+                break;
+            }
+            if (!memoryFuture.isDone()) {
+                return memoryFuture;
+            }
+        }
         return NOT_BLOCKED;
     }
 
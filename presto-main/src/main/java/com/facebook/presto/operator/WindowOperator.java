@@ -204,7 +204,7 @@ public class WindowOperator
     @Override
     public ListenableFuture<?> isBlocked()
     {
-        return NOT_BLOCKED;
+        return pageIndex.isBlocked();
     }
 
     @Override
@@ -291,7 +291,7 @@ public class WindowOperator
         return page;
     }
 
-    private static List<TupleInfo> toTupleInfos(List<TupleInfo> sourceTupleInfos, int[] outputChannels, List<WindowFunction> windowFunctions)
+    static List<TupleInfo> toTupleInfos(List<TupleInfo> sourceTupleInfos, int[] outputChannels, List<WindowFunction> windowFunctions)
     {
         ImmutableList.Builder<TupleInfo> tupleInfosBuilder = ImmutableList.builder();
         for (int channel : outputChannels) {
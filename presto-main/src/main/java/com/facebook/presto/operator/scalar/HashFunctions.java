@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator.scalar;
+
+import com.facebook.presto.operator.Description;
+import com.google.common.primitives.Booleans;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Longs;
+import io.airlift.slice.Slice;
+
+/**
+ * Hash functions used by the planner to compute the hash of the group by and join keys once,
+ * so the hash can be passed to the operators that need it instead of being recomputed.
+ * All hash codes are within the range of an int.  The functions are hidden, so queries
+ * cannot depend on the hash codes.
+ */
+public final class HashFunctions
+{
+    private HashFunctions() {}
+
+    @Description("hash code of the value")
+    @ScalarFunction(hidden = true)
+    public static long hashCode(long value)
+    {
+        return Longs.hashCode(value);
+    }
+
+    @Description("hash code of the value")
+    @ScalarFunction(hidden = true)
+    public static long hashCode(double value)
+    {
+        return Doubles.hashCode(value);
+    }
+
+    @Description("hash code of the value")
+    @ScalarFunction(hidden = true)
+    public static long hashCode(boolean value)
+    {
+        return Booleans.hashCode(value);
+    }
+
+    @Description("hash code of the value")
+    @ScalarFunction(hidden = true)
+    public static long hashCode(Slice value)
+    {
+        return value.hashCode();
+    }
+
+    @Description("combine the hash code of a value with a hash code of the previous values")
+    @ScalarFunction(hidden = true)
+    public static long combineHash(long previousHashCode, long hashCode)
+    {
+        return 31 * (int) previousHashCode + (int) hashCode;
+    }
+}
@@ -31,5 +31,11 @@ public @interface ScalarFunction
 
     boolean deterministic() default true;
 
+    /**
+     * Hidden functions are only used in expressions created by the planner.
+     * They are not listed, and queries cannot call them.
+     */
+    boolean hidden() default false;
+
     Class<? extends FunctionBinder> functionBinder() default DefaultFunctionBinder.class;
 }
@@ -19,8 +19,12 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.io.InputSupplier;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Slice;
 import io.airlift.slice.SliceInput;
 import io.airlift.slice.SliceOutput;
+import io.airlift.slice.Slices;
+import org.iq80.snappy.Snappy;
 
 import java.io.IOException;
 import java.util.Iterator;
@@ -87,6 +91,55 @@ public final class PagesSerde
         }
     }
 
+    /**
+     * Creates a writer of the compressed pages format.  Each page is written in the
+     * uncompressed pages format (the first page also contains the block encodings) and
+     * is compressed with Snappy into a frame of the form
+     * {@code uncompressedLength, compressedLength, bytes}.  A page that does not compress
+     * is stored as is, which is indicated by the lengths being equal.
+     */
+    public static PagesWriter createCompressedPagesWriter(final SliceOutput sliceOutput)
+    {
+        checkNotNull(sliceOutput, "sliceOutput is null");
+        final DynamicSliceOutput buffer = new DynamicSliceOutput(1024);
+        final PagesWriter pagesWriter = createPagesWriter(buffer);
+        return new PagesWriter()
+        {
+            @Override
+            public PagesWriter append(Page page)
+            {
+                Preconditions.checkNotNull(page, "page is null");
+
+                buffer.reset();
+                pagesWriter.append(page);
+                Slice slice = buffer.slice();
+
+                byte[] compressedBytes = new byte[Snappy.maxCompressedLength(slice.length())];
+                int compressedLength = Snappy.compress(slice.getBytes(), 0, slice.length(), compressedBytes, 0);
+
+                sliceOutput.writeInt(slice.length());
+                if (compressedLength < slice.length()) {
+                    sliceOutput.writeInt(compressedLength);
+                    sliceOutput.writeBytes(compressedBytes, 0, compressedLength);
+                }
+                else {
+                    sliceOutput.writeInt(slice.length());
+                    sliceOutput.writeBytes(slice);
+                }
+
+                return this;
+            }
+        };
+    }
+
+    public static void writeCompressedPages(SliceOutput sliceOutput, Iterable<Page> pages)
+    {
+        PagesWriter pagesWriter = createCompressedPagesWriter(sliceOutput);
+        for (Page page : pages) {
+            pagesWriter.append(page);
+        }
+    }
+
     public Iterable<Page> readPages(final InputSupplier<SliceInput> sliceInputSupplier)
     {
         Preconditions.checkNotNull(sliceInputSupplier, "sliceInputSupplier is null");
@@ -112,6 +165,33 @@ public final class PagesSerde
         return new PagesReader(sliceInput);
     }
 
+    public static Iterator<Page> readCompressedPages(SliceInput sliceInput)
+    {
+        Preconditions.checkNotNull(sliceInput, "sliceInput is null");
+        return new CompressedPagesReader(sliceInput);
+    }
+
+    private static BlockEncoding[] readBlockEncodings(SliceInput sliceInput)
+    {
+        int channelCount = sliceInput.readInt();
+
+        BlockEncoding[] blockEncodings = new BlockEncoding[channelCount];
+        for (int i = 0; i < blockEncodings.length; i++) {
+            blockEncodings[i] = BlockEncodings.readBlockEncoding(sliceInput);
+        }
+        return blockEncodings;
+    }
+
+    private static Page readPage(SliceInput sliceInput, BlockEncoding[] blockEncodings)
+    {
+        int positions = sliceInput.readInt();
+        Block[] blocks = new Block[blockEncodings.length];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = blockEncodings[i].readBlock(sliceInput);
+        }
+        return new Page(positions, blocks);
+    }
+
     private static class PagesReader
             extends AbstractIterator<Page>
     {
@@ -121,13 +201,29 @@ public final class PagesSerde
         public PagesReader(SliceInput sliceInput)
         {
             this.sliceInput = sliceInput;
+            this.blockEncodings = readBlockEncodings(sliceInput);
+        }
 
-            int channelCount = sliceInput.readInt();
-
-            blockEncodings = new BlockEncoding[channelCount];
-            for (int i = 0; i < blockEncodings.length; i++) {
-                blockEncodings[i] = BlockEncodings.readBlockEncoding(sliceInput);
+        @Override
+        protected Page computeNext()
+        {
+            if (!sliceInput.isReadable()) {
+                return endOfData();
             }
+
+            return readPage(sliceInput, blockEncodings);
+        }
+    }
+
+    private static class CompressedPagesReader
+            extends AbstractIterator<Page>
+    {
+        private final SliceInput sliceInput;
+        private BlockEncoding[] blockEncodings;
+
+        public CompressedPagesReader(SliceInput sliceInput)
+        {
+            this.sliceInput = sliceInput;
         }
 
         @Override
@@ -137,13 +233,20 @@ public final class PagesSerde
                 return endOfData();
             }
 
-            int positions = sliceInput.readInt();
-            Block[] blocks = new Block[blockEncodings.length];
-            for (int i = 0; i < blocks.length; i++) {
-                blocks[i] = blockEncodings[i].readBlock(sliceInput);
+            int uncompressedLength = sliceInput.readInt();
+            int compressedLength = sliceInput.readInt();
+            Slice frame = sliceInput.readSlice(compressedLength);
+            if (compressedLength != uncompressedLength) {
+                byte[] uncompressedBytes = new byte[uncompressedLength];
+                Snappy.uncompress(frame.getBytes(), 0, compressedLength, uncompressedBytes, 0);
+                frame = Slices.wrappedBuffer(uncompressedBytes);
+            }
+
+            SliceInput pageInput = frame.getInput();
+            if (blockEncodings == null) {
+                blockEncodings = readBlockEncodings(pageInput);
             }
-            Page page = new Page(positions, blocks);
-            return page;
+            return readPage(pageInput, blockEncodings);
         }
     }
 }
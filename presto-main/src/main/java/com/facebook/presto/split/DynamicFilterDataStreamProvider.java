@@ -0,0 +1,329 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.split;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.operator.DynamicFilter;
+import com.facebook.presto.operator.FinishedOperator;
+import com.facebook.presto.operator.Operator;
+import com.facebook.presto.operator.OperatorContext;
+import com.facebook.presto.operator.Page;
+import com.facebook.presto.operator.RecordProjectOperator;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.ColumnType;
+import com.facebook.presto.spi.PartitionKey;
+import com.facebook.presto.spi.PartitionedSplit;
+import com.facebook.presto.spi.RecordCursor;
+import com.facebook.presto.spi.Split;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Applies the {@link DynamicFilter} of a join to the table scan on the probe side of the join.
+ * <p/>
+ * A data stream waits for the build side of the join to finish before it opens the split. If the
+ * filtered column is a partition key of the split and the partition value does not pass the filter,
+ * the split is never opened. Otherwise the rows that do not pass the filter are removed as early as
+ * possible: for record cursors before the remaining columns of the row are read, and for other data
+ * streams before the page reaches the rest of the pipeline.
+ */
+public class DynamicFilterDataStreamProvider
+        implements DataStreamProvider
+{
+    private final DataStreamProvider dataStreamProvider;
+    private final List<TupleInfo> tupleInfos;
+    private final int channel;
+    private final String columnName;
+    private final ListenableFuture<DynamicFilter> dynamicFilter;
+
+    public DynamicFilterDataStreamProvider(
+            DataStreamProvider dataStreamProvider,
+            List<TupleInfo> tupleInfos,
+            int channel,
+            String columnName,
+            ListenableFuture<DynamicFilter> dynamicFilter)
+    {
+        this.dataStreamProvider = checkNotNull(dataStreamProvider, "dataStreamProvider is null");
+        this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
+        checkArgument(channel >= 0 && channel < tupleInfos.size(), "invalid channel %s", channel);
+        this.channel = channel;
+        this.columnName = checkNotNull(columnName, "columnName is null");
+        this.dynamicFilter = checkNotNull(dynamicFilter, "dynamicFilter is null");
+    }
+
+    @Override
+    public Operator createNewDataStream(OperatorContext operatorContext, Split split, List<ColumnHandle> columns)
+    {
+        checkArgument(columns.size() == tupleInfos.size(), "Expected %s columns, but got %s", tupleInfos.size(), columns.size());
+        return new FilteredDataStream(operatorContext, split, columns);
+    }
+
+    private class FilteredDataStream
+            implements Operator
+    {
+        private final OperatorContext operatorContext;
+        private final Split split;
+        private final List<ColumnHandle> columns;
+
+        private Operator source;
+        private DynamicFilter filter;
+        private boolean filterPages;
+        private boolean finished;
+
+        private FilteredDataStream(OperatorContext operatorContext, Split split, List<ColumnHandle> columns)
+        {
+            this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
+            this.split = checkNotNull(split, "split is null");
+            this.columns = ImmutableList.copyOf(checkNotNull(columns, "columns is null"));
+        }
+
+        @Override
+        public OperatorContext getOperatorContext()
+        {
+            return operatorContext;
+        }
+
+        @Override
+        public List<TupleInfo> getTupleInfos()
+        {
+            return tupleInfos;
+        }
+
+        @Override
+        public void finish()
+        {
+            if (source == null) {
+                // the split was never opened
+                finished = true;
+            }
+            else {
+                source.finish();
+            }
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return finished || (source != null && source.isFinished());
+        }
+
+        @Override
+        public ListenableFuture<?> isBlocked()
+        {
+            if (!dynamicFilter.isDone()) {
+                return dynamicFilter;
+            }
+            if (source == null) {
+                return NOT_BLOCKED;
+            }
+            return source.isBlocked();
+        }
+
+        @Override
+        public boolean needsInput()
+        {
+            return false;
+        }
+
+        @Override
+        public void addInput(Page page)
+        {
+            throw new UnsupportedOperationException(getClass().getName() + " can not take input");
+        }
+
+        @Override
+        public Page getOutput()
+        {
+            if (finished || !dynamicFilter.isDone()) {
+                return null;
+            }
+            if (source == null) {
+                source = createSource();
+            }
+
+            Page page = source.getOutput();
+            if (page == null || !filterPages) {
+                return page;
+            }
+            return filterPage(page);
+        }
+
+        private Operator createSource()
+        {
+            // a null filter means the build side was too large to summarize
+            filter = Futures.getUnchecked(dynamicFilter);
+            if (filter == null) {
+                return dataStreamProvider.createNewDataStream(operatorContext, split, columns);
+            }
+
+            if (isPruned(split)) {
+                return new FinishedOperator(operatorContext, tupleInfos);
+            }
+
+            Operator dataStream = dataStreamProvider.createNewDataStream(operatorContext, split, columns);
+            if (dataStream instanceof RecordProjectOperator) {
+                // filter the cursor, so the other columns of rows that are removed are never read
+                RecordCursor cursor = ((RecordProjectOperator) dataStream).getCursor();
+                ImmutableList.Builder<ColumnType> columnTypes = ImmutableList.builder();
+                for (int i = 0; i < columns.size(); i++) {
+                    columnTypes.add(cursor.getType(i));
+                }
+                return new RecordProjectOperator(operatorContext, columnTypes.build(), new FilteredRecordCursor(cursor, channel, filter));
+            }
+
+            filterPages = true;
+            return dataStream;
+        }
+
+        private boolean isPruned(Split split)
+        {
+            if (!(split instanceof PartitionedSplit)) {
+                return false;
+            }
+            for (PartitionKey partitionKey : ((PartitionedSplit) split).getPartitionKeys()) {
+                if (partitionKey.getName().equals(columnName)) {
+                    return !filter.mightContain(partitionKey.getValue());
+                }
+            }
+            return false;
+        }
+
+        private Page filterPage(Page page)
+        {
+            int positionCount = page.getPositionCount();
+            boolean[] matches = new boolean[positionCount];
+            int matchCount = 0;
+            BlockCursor keyCursor = page.getBlock(channel).cursor();
+            for (int position = 0; position < positionCount; position++) {
+                checkState(keyCursor.advanceNextPosition());
+                if (filter.mightContain(keyCursor, 0)) {
+                    matches[position] = true;
+                    matchCount++;
+                }
+            }
+
+            if (matchCount == positionCount) {
+                return page;
+            }
+            if (matchCount == 0) {
+                return null;
+            }
+
+            Block[] blocks = new Block[page.getChannelCount()];
+            for (int blockIndex = 0; blockIndex < blocks.length; blockIndex++) {
+                Block block = page.getBlock(blockIndex);
+                BlockBuilder blockBuilder = new BlockBuilder(block.getTupleInfo());
+                BlockCursor cursor = block.cursor();
+                for (int position = 0; position < positionCount; position++) {
+                    checkState(cursor.advanceNextPosition());
+                    if (matches[position]) {
+                        cursor.appendTupleTo(blockBuilder);
+                    }
+                }
+                blocks[blockIndex] = blockBuilder.build();
+            }
+            return new Page(matchCount, blocks);
+        }
+    }
+
+    private static class FilteredRecordCursor
+            implements RecordCursor
+    {
+        private final RecordCursor cursor;
+        private final int field;
+        private final DynamicFilter filter;
+
+        private FilteredRecordCursor(RecordCursor cursor, int field, DynamicFilter filter)
+        {
+            this.cursor = cursor;
+            this.field = field;
+            this.filter = filter;
+        }
+
+        @Override
+        public long getTotalBytes()
+        {
+            return cursor.getTotalBytes();
+        }
+
+        @Override
+        public long getCompletedBytes()
+        {
+            return cursor.getCompletedBytes();
+        }
+
+        @Override
+        public ColumnType getType(int field)
+        {
+            return cursor.getType(field);
+        }
+
+        @Override
+        public boolean advanceNextPosition()
+        {
+            while (cursor.advanceNextPosition()) {
+                if (filter.mightContain(cursor, field)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean getBoolean(int field)
+        {
+            return cursor.getBoolean(field);
+        }
+
+        @Override
+        public long getLong(int field)
+        {
+            return cursor.getLong(field);
+        }
+
+        @Override
+        public double getDouble(int field)
+        {
+            return cursor.getDouble(field);
+        }
+
+        @Override
+        public byte[] getString(int field)
+        {
+            return cursor.getString(field);
+        }
+
+        @Override
+        public boolean isNull(int field)
+        {
+            return cursor.isNull(field);
+        }
+
+        @Override
+        public void close()
+        {
+            cursor.close();
+        }
+    }
+}
@@ -15,9 +15,12 @@ package com.facebook.presto.split;
 
 import com.facebook.presto.operator.Operator;
 import com.facebook.presto.operator.OperatorContext;
+import com.facebook.presto.operator.RecordBatchProjectOperator;
 import com.facebook.presto.operator.RecordProjectOperator;
+import com.facebook.presto.spi.BatchRecordSet;
 import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.ConnectorRecordSetProvider;
+import com.facebook.presto.spi.RecordSet;
 import com.facebook.presto.spi.Split;
 
 import java.util.List;
@@ -43,6 +46,10 @@ public class RecordSetDataStreamProvider
     @Override
     public Operator createNewDataStream(OperatorContext operatorContext, Split split, List<ColumnHandle> columns)
     {
-        return new RecordProjectOperator(operatorContext, recordSetProvider.getRecordSet(split, columns));
+        RecordSet recordSet = recordSetProvider.getRecordSet(split, columns);
+        if (recordSet instanceof BatchRecordSet) {
+            return new RecordBatchProjectOperator(operatorContext, (BatchRecordSet) recordSet);
+        }
+        return new RecordProjectOperator(operatorContext, recordSet);
     }
 }
@@ -74,6 +74,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Predicates.equalTo;
 import static com.google.common.base.Predicates.not;
 import static com.google.common.collect.Iterables.filter;
+import static java.lang.String.format;
 
 public class ExpressionAnalyzer
 {
@@ -478,6 +479,10 @@ public class ExpressionAnalyzer
             }
 
             FunctionInfo function = metadata.getFunction(node.getName(), argumentTypes.build());
+            if (function.isHidden()) {
+                // only the planner may call hidden functions
+                throw new IllegalArgumentException(format("Function %s not registered", node.getName()));
+            }
 
             resolvedFunctions.put(node, function);
 
@@ -38,18 +38,30 @@ public class QueryExplainer
     public final Metadata metadata;
     public final PeriodicImportManager periodicImportManager;
     public final StorageManager storageManager;
+    public final boolean distributedJoinsEnabled;
 
     public QueryExplainer(Session session,
             List<PlanOptimizer> planOptimizers,
             Metadata metadata,
             PeriodicImportManager periodicImportManager,
             StorageManager storageManager)
+    {
+        this(session, planOptimizers, metadata, periodicImportManager, storageManager, false);
+    }
+
+    public QueryExplainer(Session session,
+            List<PlanOptimizer> planOptimizers,
+            Metadata metadata,
+            PeriodicImportManager periodicImportManager,
+            StorageManager storageManager,
+            boolean distributedJoinsEnabled)
     {
         this.session = checkNotNull(session, "session is null");
         this.planOptimizers = checkNotNull(planOptimizers, "planOptimizers is null");
         this.metadata = checkNotNull(metadata, "metadata is null");
         this.periodicImportManager = checkNotNull(periodicImportManager, "periodicImportManager is null");
         this.storageManager = checkNotNull(storageManager, "storageManager is null");
+        this.distributedJoinsEnabled = distributedJoinsEnabled;
     }
 
     public String getPlan(Query query, ExplainType.Type planType)
@@ -103,6 +115,6 @@ public class QueryExplainer
         LogicalPlanner logicalPlanner = new LogicalPlanner(session, planOptimizers, idAllocator, metadata, periodicImportManager, storageManager);
         Plan plan = logicalPlanner.plan(analysis);
 
-        return new DistributedLogicalPlanner(metadata, idAllocator).createSubplans(plan, false);
+        return new DistributedLogicalPlanner(metadata, idAllocator, distributedJoinsEnabled).createSubplans(plan, false);
     }
 }
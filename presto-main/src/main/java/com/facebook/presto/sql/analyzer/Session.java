@@ -33,12 +33,22 @@ public class Session
     private final String catalog;
     private final String schema;
     private final long startTime;
+    private final boolean parallelResults;
 
     public Session(@Nullable String user, String source, String catalog, String schema, String remoteUserAddress, String userAgent)
     {
         this(user, source, catalog, schema, remoteUserAddress, userAgent, System.currentTimeMillis());
     }
 
+    public Session(@Nullable String user, String source, String catalog, String schema, String remoteUserAddress, String userAgent, long startTime)
+    {
+        this(user, source, catalog, schema, remoteUserAddress, userAgent, startTime, false);
+    }
+
+    /**
+     * @param parallelResults if true, the output of the query stays partitioned and the client
+     * reads the results directly from the output buffers of the workers
+     */
     @JsonCreator
     public Session(
             @JsonProperty("user") @Nullable String user,
@@ -47,7 +57,8 @@ public class Session
             @JsonProperty("schema") String schema,
             @JsonProperty("remoteUserAddress") String remoteUserAddress,
             @JsonProperty("userAgent") String userAgent,
-            @JsonProperty("startTime") long startTime)
+            @JsonProperty("startTime") long startTime,
+            @JsonProperty("parallelResults") boolean parallelResults)
     {
         this.user = user;
         this.source = source;
@@ -56,6 +67,7 @@ public class Session
         this.remoteUserAddress = remoteUserAddress;
         this.userAgent = userAgent;
         this.startTime = startTime;
+        this.parallelResults = parallelResults;
     }
 
     @JsonProperty
@@ -101,6 +113,12 @@ public class Session
         return startTime;
     }
 
+    @JsonProperty
+    public boolean isParallelResults()
+    {
+        return parallelResults;
+    }
+
     @Override
     public String toString()
     {
@@ -112,6 +130,7 @@ public class Session
                 .add("catalog", catalog)
                 .add("schema", schema)
                 .add("startTime", startTime)
+                .add("parallelResults", parallelResults)
                 .toString();
     }
 }
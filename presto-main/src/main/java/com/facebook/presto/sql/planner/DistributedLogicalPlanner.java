@@ -17,6 +17,7 @@ import com.facebook.presto.metadata.FunctionHandle;
 import com.facebook.presto.metadata.FunctionInfo;
 import com.facebook.presto.metadata.Metadata;
 import com.facebook.presto.sql.analyzer.Type;
+import com.facebook.presto.sql.planner.PlanFragment.PlanDistribution;
 import com.facebook.presto.sql.planner.plan.AggregationNode;
 import com.facebook.presto.sql.planner.plan.ExchangeNode;
 import com.facebook.presto.sql.planner.plan.FilterNode;
@@ -40,9 +41,11 @@ import com.facebook.presto.sql.tree.Expression;
 import com.facebook.presto.sql.tree.FunctionCall;
 import com.facebook.presto.sql.tree.QualifiedName;
 import com.facebook.presto.sql.tree.QualifiedNameReference;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
 import java.util.HashMap;
 import java.util.List;
@@ -59,11 +62,31 @@ public class DistributedLogicalPlanner
 {
     private final Metadata metadata;
     private final PlanNodeIdAllocator idAllocator;
+    private final boolean distributedJoins;
+    private final boolean partitionedOutput;
 
     public DistributedLogicalPlanner(Metadata metadata, PlanNodeIdAllocator idAllocator)
+    {
+        this(metadata, idAllocator, false);
+    }
+
+    public DistributedLogicalPlanner(Metadata metadata, PlanNodeIdAllocator idAllocator, boolean distributedJoins)
+    {
+        this(metadata, idAllocator, distributedJoins, false);
+    }
+
+    /**
+     * @param distributedJoins if true, equi-joins over partitioned inputs hash partition both inputs
+     * on the join keys instead of replicating the build side to every node
+     * @param partitionedOutput if true, the output of a partitioned plan is not gathered on a single
+     * node, so the output fragment runs on every node of the last partitioned fragment
+     */
+    public DistributedLogicalPlanner(Metadata metadata, PlanNodeIdAllocator idAllocator, boolean distributedJoins, boolean partitionedOutput)
     {
         this.metadata = metadata;
         this.idAllocator = idAllocator;
+        this.distributedJoins = distributedJoins;
+        this.partitionedOutput = partitionedOutput;
     }
 
     public SubPlan createSubplans(Plan plan, boolean createSingleNodePlan)
@@ -98,7 +121,7 @@ public class DistributedLogicalPlanner
 
             if (!current.isPartitioned()) {
                 // add the aggregation node as the root of the current fragment
-                current.setRoot(new AggregationNode(node.getId(), current.getRoot(), node.getGroupBy(), node.getAggregations(), node.getFunctions(), SINGLE));
+                current.setRoot(new AggregationNode(node.getId(), current.getRoot(), node.getGroupBy(), node.getAggregations(), node.getFunctions(), SINGLE, node.getHashSymbol()));
                 return current;
             }
 
@@ -106,11 +129,11 @@ public class DistributedLogicalPlanner
             Map<Symbol, FunctionHandle> functions = node.getFunctions();
             List<Symbol> groupBy = node.getGroupBy();
 
-            // else, we need to "close" the current fragment and create an unpartitioned fragment for the final aggregation
-            return addDistributedAggregation(current, aggregations, functions, groupBy);
+            // else, we need to "close" the current fragment and create a new fragment for the final aggregation
+            return addDistributedAggregation(current, aggregations, functions, groupBy, node.getHashSymbol());
         }
 
-        private SubPlanBuilder addDistributedAggregation(SubPlanBuilder plan, Map<Symbol, FunctionCall> aggregations, Map<Symbol, FunctionHandle> functions, List<Symbol> groupBy)
+        private SubPlanBuilder addDistributedAggregation(SubPlanBuilder plan, Map<Symbol, FunctionCall> aggregations, Map<Symbol, FunctionHandle> functions, List<Symbol> groupBy, Optional<Symbol> hashSymbol)
         {
             Map<Symbol, FunctionCall> finalCalls = new HashMap<>();
             Map<Symbol, FunctionCall> intermediateCalls = new HashMap<>();
@@ -127,14 +150,32 @@ public class DistributedLogicalPlanner
                 finalCalls.put(entry.getKey(), new FunctionCall(function.getName(), ImmutableList.<Expression>of(new QualifiedNameReference(intermediateSymbol.toQualifiedName()))));
             }
 
-            AggregationNode aggregation = new AggregationNode(idAllocator.getNextId(), plan.getRoot(), groupBy, intermediateCalls, intermediateFunctions, PARTIAL);
+            AggregationNode aggregation = new AggregationNode(idAllocator.getNextId(), plan.getRoot(), groupBy, intermediateCalls, intermediateFunctions, PARTIAL, hashSymbol);
             plan.setRoot(new SinkNode(idAllocator.getNextId(), aggregation, aggregation.getOutputSymbols()));
 
             // create merge + aggregation plan
             ExchangeNode source = new ExchangeNode(idAllocator.getNextId(), plan.getId(), plan.getRoot().getOutputSymbols());
-            AggregationNode merged = new AggregationNode(idAllocator.getNextId(), source, groupBy, finalCalls, functions, FINAL);
+            AggregationNode merged = new AggregationNode(idAllocator.getNextId(), source, groupBy, finalCalls, functions, FINAL, hashSymbol);
+
+            if (groupBy.isEmpty()) {
+                // a global aggregation produces a single row, so merge on a single node
+                return newSubPlan(merged)
+                        .setUnpartitionedSource()
+                        .addChild(plan.build());
+            }
+
+            // hash partition the intermediate results on the group by keys, so
+            // the final aggregation for each group runs on exactly one node
+            if (hashSymbol.isPresent()) {
+                // the precomputed hash is a function of the keys, so partitioning on it is equivalent and cheaper
+                plan.setHashOutputPartitioning(ImmutableList.of(hashSymbol.get()));
+            }
+            else {
+                plan.setHashOutputPartitioning(groupBy);
+            }
 
             return newSubPlan(merged)
+                    .setFixedDistribution()
                     .addChild(plan.build());
         }
 
@@ -143,13 +184,28 @@ public class DistributedLogicalPlanner
         {
             SubPlanBuilder current = node.getSource().accept(this, context);
 
+            if (current.getDistribution() == PlanDistribution.FIXED && WindowSourceProperties.isPrePartitioned(current.getRoot(), node.getPartitionBy())) {
+                // the window below already brought the rows of each partition together
+                current.setRoot(new WindowNode(node.getId(), current.getRoot(), node.getPartitionBy(), node.getOrderBy(), node.getOrderings(), node.getWindowFunctions(), node.getFunctionHandles()));
+                return current;
+            }
+
             if (current.isPartitioned()) {
                 current.setRoot(new SinkNode(idAllocator.getNextId(), current.getRoot(), current.getRoot().getOutputSymbols()));
 
-                // create a new non-partitioned fragment
-                current = newSubPlan(new ExchangeNode(idAllocator.getNextId(), current.getId(), current.getRoot().getOutputSymbols()))
-                        .setUnpartitionedSource()
-                        .addChild(current.build());
+                if (!node.getPartitionBy().isEmpty()) {
+                    // hash partition the rows on the partition keys, so each window partition is computed by exactly one task
+                    current.setHashOutputPartitioning(node.getPartitionBy());
+                    current = newSubPlan(new ExchangeNode(idAllocator.getNextId(), current.getId(), current.getRoot().getOutputSymbols()))
+                            .setFixedDistribution()
+                            .addChild(current.build());
+                }
+                else {
+                    // create a new non-partitioned fragment
+                    current = newSubPlan(new ExchangeNode(idAllocator.getNextId(), current.getId(), current.getRoot().getOutputSymbols()))
+                            .setUnpartitionedSource()
+                            .addChild(current.build());
+                }
             }
 
             current.setRoot(new WindowNode(node.getId(), current.getRoot(), node.getPartitionBy(), node.getOrderBy(), node.getOrderings(), node.getWindowFunctions(), node.getFunctionHandles()));
@@ -207,17 +263,18 @@ public class DistributedLogicalPlanner
         {
             SubPlanBuilder current = node.getSource().accept(this, context);
 
+            current.setRoot(new SortNode(node.getId(), current.getRoot(), node.getOrderBy(), node.getOrderings()));
+
             if (current.isPartitioned()) {
+                // each task sorts its own data, so the final step only needs to merge the sorted streams
                 current.setRoot(new SinkNode(idAllocator.getNextId(), current.getRoot(), current.getRoot().getOutputSymbols()));
 
                 // create a new non-partitioned fragment
-                current = newSubPlan(new ExchangeNode(idAllocator.getNextId(), current.getId(), current.getRoot().getOutputSymbols()))
+                current = newSubPlan(new ExchangeNode(idAllocator.getNextId(), current.getId(), current.getRoot().getOutputSymbols(), node.getOrderBy(), node.getOrderings()))
                         .setUnpartitionedSource()
                         .addChild(current.build());
             }
 
-            current.setRoot(new SortNode(node.getId(), current.getRoot(), node.getOrderBy(), node.getOrderings()));
-
             return current;
         }
 
@@ -226,7 +283,7 @@ public class DistributedLogicalPlanner
         {
             SubPlanBuilder current = node.getSource().accept(this, context);
 
-            if (current.isPartitioned()) {
+            if (current.isPartitioned() && !partitionedOutput) {
                 current.setRoot(new SinkNode(idAllocator.getNextId(), current.getRoot(), current.getRoot().getOutputSymbols()));
 
                 // create a new non-partitioned fragment
@@ -304,7 +361,8 @@ public class DistributedLogicalPlanner
                 return addDistributedAggregation(subPlanBuilder,
                         ImmutableMap.of(node.getOutput(), aggregate),
                         ImmutableMap.of(node.getOutput(), sum.getHandle()),
-                        ImmutableList.<Symbol>of());
+                        ImmutableList.<Symbol>of(),
+                        Optional.<Symbol>absent());
             }
 
             return subPlanBuilder;
@@ -317,6 +375,10 @@ public class DistributedLogicalPlanner
             SubPlanBuilder right = node.getRight().accept(this, context);
 
             if (left.isPartitioned() || right.isPartitioned()) {
+                if (distributedJoins && !node.getCriteria().isEmpty()) {
+                    return addDistributedJoin(node, left, right);
+                }
+
                 switch (node.getType()) {
                     case INNER:
                     case LEFT:
@@ -325,7 +387,9 @@ public class DistributedLogicalPlanner
                                 node.getType(),
                                 left.getRoot(),
                                 new ExchangeNode(idAllocator.getNextId(), right.getId(), right.getRoot().getOutputSymbols()),
-                                node.getCriteria()));
+                                node.getCriteria(),
+                                node.getLeftHashSymbol(),
+                                node.getRightHashSymbol()));
                         left.addChild(right.build());
 
                         return left;
@@ -335,7 +399,9 @@ public class DistributedLogicalPlanner
                                 node.getType(),
                                 new ExchangeNode(idAllocator.getNextId(), left.getId(), left.getRoot().getOutputSymbols()),
                                 right.getRoot(),
-                                node.getCriteria()));
+                                node.getCriteria(),
+                                node.getLeftHashSymbol(),
+                                node.getRightHashSymbol()));
                         right.addChild(left.build());
 
                         return right;
@@ -344,13 +410,42 @@ public class DistributedLogicalPlanner
                 }
             }
             else {
-                JoinNode join = new JoinNode(node.getId(), node.getType(), left.getRoot(), right.getRoot(), node.getCriteria());
+                JoinNode join = new JoinNode(node.getId(), node.getType(), left.getRoot(), right.getRoot(), node.getCriteria(), node.getLeftHashSymbol(), node.getRightHashSymbol());
                 return newSubPlan(join)
                         .setUnpartitionedSource()
                         .setChildren(Iterables.concat(left.getChildren(), right.getChildren()));
             }
         }
 
+        private SubPlanBuilder addDistributedJoin(JoinNode node, SubPlanBuilder left, SubPlanBuilder right)
+        {
+            // hash partition both inputs on the join keys, so matching rows meet in the same task
+            List<Symbol> leftPartitioning = Lists.transform(node.getCriteria(), JoinNode.EquiJoinClause.leftGetter());
+            List<Symbol> rightPartitioning = Lists.transform(node.getCriteria(), JoinNode.EquiJoinClause.rightGetter());
+            if (node.getLeftHashSymbol().isPresent()) {
+                // both sides compute the same hash for equal keys, so partitioning on it is equivalent and cheaper
+                leftPartitioning = ImmutableList.of(node.getLeftHashSymbol().get());
+                rightPartitioning = ImmutableList.of(node.getRightHashSymbol().get());
+            }
+            left.setRoot(new SinkNode(idAllocator.getNextId(), left.getRoot(), left.getRoot().getOutputSymbols()))
+                    .setHashOutputPartitioning(leftPartitioning);
+            right.setRoot(new SinkNode(idAllocator.getNextId(), right.getRoot(), right.getRoot().getOutputSymbols()))
+                    .setHashOutputPartitioning(rightPartitioning);
+
+            JoinNode join = new JoinNode(node.getId(),
+                    node.getType(),
+                    new ExchangeNode(idAllocator.getNextId(), left.getId(), left.getRoot().getOutputSymbols()),
+                    new ExchangeNode(idAllocator.getNextId(), right.getId(), right.getRoot().getOutputSymbols()),
+                    node.getCriteria(),
+                    node.getLeftHashSymbol(),
+                    node.getRightHashSymbol());
+
+            return newSubPlan(join)
+                    .setFixedDistribution()
+                    .addChild(left.build())
+                    .addChild(right.build());
+        }
+
         @Override
         public SubPlanBuilder visitSemiJoin(SemiJoinNode node, Void context)
         {
@@ -13,12 +13,14 @@
  */
 package com.facebook.presto.sql.planner;
 
+import com.facebook.presto.execution.TaskManagerConfig;
 import com.facebook.presto.metadata.FunctionHandle;
 import com.facebook.presto.metadata.LocalStorageManager;
 import com.facebook.presto.metadata.Metadata;
 import com.facebook.presto.operator.AggregationFunctionDefinition;
 import com.facebook.presto.operator.AggregationOperator.AggregationOperatorFactory;
 import com.facebook.presto.operator.DriverFactory;
+import com.facebook.presto.operator.DynamicFilter;
 import com.facebook.presto.operator.ExchangeClient;
 import com.facebook.presto.operator.ExchangeOperator.ExchangeOperatorFactory;
 import com.facebook.presto.operator.FilterAndProjectOperator.FilterAndProjectOperatorFactory;
@@ -33,6 +35,7 @@ import com.facebook.presto.operator.HashSemiJoinOperator.HashSemiJoinOperatorFac
 import com.facebook.presto.operator.InMemoryExchange;
 import com.facebook.presto.operator.InMemoryExchangeSourceOperator.InMemoryExchangeSourceOperatorFactory;
 import com.facebook.presto.operator.LimitOperator.LimitOperatorFactory;
+import com.facebook.presto.operator.MergingExchangeOperator.MergingExchangeOperatorFactory;
 import com.facebook.presto.operator.OperatorFactory;
 import com.facebook.presto.operator.OrderByOperator.InMemoryOrderByOperatorFactory;
 import com.facebook.presto.operator.OutputFactory;
@@ -42,6 +45,7 @@ import com.facebook.presto.operator.ScanFilterAndProjectOperator.ScanFilterAndPr
 import com.facebook.presto.operator.SetBuilderOperator.SetBuilderOperatorFactory;
 import com.facebook.presto.operator.SetBuilderOperator.SetSupplier;
 import com.facebook.presto.operator.SourceOperatorFactory;
+import com.facebook.presto.operator.StreamingWindowOperator.StreamingWindowOperatorFactory;
 import com.facebook.presto.operator.TableScanOperator.TableScanOperatorFactory;
 import com.facebook.presto.operator.TableWriterOperator.TableWriterOperatorFactory;
 import com.facebook.presto.operator.TopNOperator.TopNOperatorFactory;
@@ -49,6 +53,7 @@ import com.facebook.presto.operator.WindowOperator.InMemoryWindowOperatorFactory
 import com.facebook.presto.operator.window.WindowFunction;
 import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.split.DataStreamProvider;
+import com.facebook.presto.split.DynamicFilterDataStreamProvider;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.analyzer.Type;
 import com.facebook.presto.sql.gen.ExpressionCompiler;
@@ -59,6 +64,7 @@ import com.facebook.presto.sql.planner.plan.JoinNode;
 import com.facebook.presto.sql.planner.plan.LimitNode;
 import com.facebook.presto.sql.planner.plan.OutputNode;
 import com.facebook.presto.sql.planner.plan.PlanNode;
+import com.facebook.presto.sql.planner.plan.PlanNodeId;
 import com.facebook.presto.sql.planner.plan.PlanVisitor;
 import com.facebook.presto.sql.planner.plan.ProjectNode;
 import com.facebook.presto.sql.planner.plan.SampleNode;
@@ -84,6 +90,7 @@ import com.facebook.presto.util.IterableTransformer;
 import com.facebook.presto.util.MoreFunctions;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
+import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableList;
@@ -93,17 +100,23 @@ import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import io.airlift.log.Logger;
 import io.airlift.node.NodeInfo;
 
 import javax.inject.Inject;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -114,6 +127,7 @@ import static com.facebook.presto.sql.planner.plan.JoinNode.EquiJoinClause.right
 import static com.facebook.presto.sql.tree.Input.fieldGetter;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Predicates.equalTo;
 import static com.google.common.base.Predicates.not;
 
@@ -128,6 +142,8 @@ public class LocalExecutionPlanner
     private final LocalStorageManager storageManager;
     private final Supplier<ExchangeClient> exchangeClientSupplier;
     private final ExpressionCompiler compiler;
+    private final Optional<File> spillPath;
+    private final boolean dynamicFilteringEnabled;
 
     @Inject
     public LocalExecutionPlanner(NodeInfo nodeInfo,
@@ -135,7 +151,8 @@ public class LocalExecutionPlanner
             DataStreamProvider dataStreamProvider,
             LocalStorageManager storageManager,
             Supplier<ExchangeClient> exchangeClientSupplier,
-            ExpressionCompiler compiler)
+            ExpressionCompiler compiler,
+            TaskManagerConfig taskManagerConfig)
     {
         this.nodeInfo = checkNotNull(nodeInfo, "nodeInfo is null");
         this.dataStreamProvider = dataStreamProvider;
@@ -143,6 +160,10 @@ public class LocalExecutionPlanner
         this.metadata = checkNotNull(metadata, "metadata is null");
         this.storageManager = checkNotNull(storageManager, "storageManager is null");
         this.compiler = checkNotNull(compiler, "compiler is null");
+
+        checkNotNull(taskManagerConfig, "taskManagerConfig is null");
+        this.spillPath = taskManagerConfig.isSpillEnabled() ? Optional.of(taskManagerConfig.getSpillPath()) : Optional.<File>absent();
+        this.dynamicFilteringEnabled = taskManagerConfig.isDynamicFilteringEnabled();
     }
 
     public LocalExecutionPlan plan(Session session,
@@ -171,6 +192,8 @@ public class LocalExecutionPlanner
         private final Map<Symbol, Type> types;
 
         private final List<DriverFactory> driverFactories;
+        private final Map<PlanNodeId, ProbeDynamicFilter> dynamicFilters = new HashMap<>();
+        private final Set<PlanNodeId> tableScanIds = new HashSet<>();
 
         private int nextOperatorId;
         private boolean inputDriver = true;
@@ -226,6 +249,52 @@ public class LocalExecutionPlanner
         {
             return new LocalExecutionPlanContext(session, types, driverFactories);
         }
+
+        private void addDynamicFilter(PlanNodeId tableScanId, Symbol symbol, ListenableFuture<DynamicFilter> dynamicFilter)
+        {
+            checkState(!dynamicFilters.containsKey(tableScanId), "Table scan %s already has a dynamic filter", tableScanId);
+            dynamicFilters.put(tableScanId, new ProbeDynamicFilter(symbol, dynamicFilter));
+        }
+
+        private Optional<ProbeDynamicFilter> getDynamicFilter(PlanNodeId tableScanId)
+        {
+            return Optional.fromNullable(dynamicFilters.get(tableScanId));
+        }
+
+        private void addTableScan(PlanNodeId tableScanId)
+        {
+            tableScanIds.add(tableScanId);
+        }
+
+        /**
+         * Returns true if the operator is the source of a pipeline that runs one driver for each split.
+         */
+        private boolean isSplitSource(OperatorFactory operatorFactory)
+        {
+            return operatorFactory instanceof SourceOperatorFactory && tableScanIds.contains(((SourceOperatorFactory) operatorFactory).getSourceId());
+        }
+    }
+
+    private static class ProbeDynamicFilter
+    {
+        private final Symbol symbol;
+        private final ListenableFuture<DynamicFilter> dynamicFilter;
+
+        private ProbeDynamicFilter(Symbol symbol, ListenableFuture<DynamicFilter> dynamicFilter)
+        {
+            this.symbol = checkNotNull(symbol, "symbol is null");
+            this.dynamicFilter = checkNotNull(dynamicFilter, "dynamicFilter is null");
+        }
+
+        public Symbol getSymbol()
+        {
+            return symbol;
+        }
+
+        public ListenableFuture<DynamicFilter> getDynamicFilter()
+        {
+            return dynamicFilter;
+        }
     }
 
     public static class LocalExecutionPlan
@@ -251,8 +320,6 @@ public class LocalExecutionPlanner
         {
             List<TupleInfo> tupleInfos = getSourceOperatorTupleInfos(node, context.getTypes());
 
-            OperatorFactory operatorFactory = new ExchangeOperatorFactory(context.getNextOperatorId(), node.getId(), exchangeClientSupplier, tupleInfos);
-
             // Fow now, we assume that remote plans always produce one symbol per channel. TODO: remove this assumption
             ImmutableMultimap.Builder<Symbol, Input> outputMappings = ImmutableMultimap.builder();
             int channel = 0;
@@ -261,6 +328,22 @@ public class LocalExecutionPlanner
                 channel++;
             }
 
+            OperatorFactory operatorFactory;
+            if (node.isMerging()) {
+                List<Integer> sortChannels = new ArrayList<>();
+                List<Integer> sortFields = new ArrayList<>();
+                List<SortItem.Ordering> sortOrders = new ArrayList<>();
+                for (Symbol symbol : node.getOrderBy()) {
+                    sortChannels.add(node.getOutputSymbols().indexOf(symbol));
+                    sortFields.add(0);
+                    sortOrders.add(node.getOrderings().get(symbol));
+                }
+                operatorFactory = new MergingExchangeOperatorFactory(context.getNextOperatorId(), node.getId(), exchangeClientSupplier, tupleInfos, sortChannels, sortFields, sortOrders);
+            }
+            else {
+                operatorFactory = new ExchangeOperatorFactory(context.getNextOperatorId(), node.getId(), exchangeClientSupplier, tupleInfos);
+            }
+
             return new PhysicalOperation(operatorFactory, outputMappings.build());
         }
 
@@ -355,16 +438,32 @@ public class LocalExecutionPlanner
                 channel++;
             }
 
-            OperatorFactory operatorFactory = new InMemoryWindowOperatorFactory(
-                    context.getNextOperatorId(),
-                    source.getTupleInfos(),
-                    orderByChannel,
-                    outputChannels,
-                    windowFunctions.build(),
-                    partitionFields,
-                    sortFields,
-                    sortOrder,
-                    1_000_000);
+            OperatorFactory operatorFactory;
+            if (WindowSourceProperties.isPreSorted(node)) {
+                // the input is already grouped and sorted, so only the current partition needs to be buffered
+                operatorFactory = new StreamingWindowOperatorFactory(
+                        context.getNextOperatorId(),
+                        source.getTupleInfos(),
+                        orderByChannel,
+                        outputChannels,
+                        windowFunctions.build(),
+                        partitionFields,
+                        sortFields,
+                        sortOrder,
+                        10_000);
+            }
+            else {
+                operatorFactory = new InMemoryWindowOperatorFactory(
+                        context.getNextOperatorId(),
+                        source.getTupleInfos(),
+                        orderByChannel,
+                        outputChannels,
+                        windowFunctions.build(),
+                        partitionFields,
+                        sortFields,
+                        sortOrder,
+                        1_000_000);
+            }
 
             return new PhysicalOperation(operatorFactory, outputMappings.build(), source);
         }
@@ -413,6 +512,12 @@ public class LocalExecutionPlanner
             // insert a projection to put all the sort fields in a single channel if necessary
             source = packIfNecessary(orderBySymbols, source, context.getTypes(), context);
 
+            // a table scan pipeline runs a driver for each split, even when the scan is fused with a filter
+            // or projection, so gather the splits to produce one sorted stream per task
+            if (context.isSplitSource(source.getOperatorFactories().get(0))) {
+                source = gatherSource(source, context);
+            }
+
             int orderByChannel = Iterables.getOnlyElement(getChannelSetForSymbols(orderBySymbols, source.getLayout()));
 
             int[] sortFields = new int[orderBySymbols.size()];
@@ -436,11 +541,27 @@ public class LocalExecutionPlanner
                     outputChannels,
                     10_000,
                     sortFields,
-                    sortOrder);
+                    sortOrder,
+                    spillPath);
 
             return new PhysicalOperation(operator, source.getLayout(), source);
         }
 
+        private PhysicalOperation gatherSource(PhysicalOperation source, LocalExecutionPlanContext context)
+        {
+            InMemoryExchange inMemoryExchange = new InMemoryExchange(source.getTupleInfos());
+
+            List<OperatorFactory> operatorFactories = new ArrayList<>(source.getOperatorFactories());
+            operatorFactories.add(inMemoryExchange.createSinkFactory(context.getNextOperatorId()));
+            context.addDriverFactory(new DriverFactory(context.isInputDriver(), false, operatorFactories));
+            inMemoryExchange.noMoreSinkFactories();
+
+            // the source driver is the input for the plan
+            context.setInputDriver(false);
+
+            return new PhysicalOperation(new InMemoryExchangeSourceOperatorFactory(context.getNextOperatorId(), inMemoryExchange), source.getLayout());
+        }
+
         @Override
         public PhysicalOperation visitLimit(LimitNode node, LocalExecutionPlanContext context)
         {
@@ -573,7 +694,7 @@ public class LocalExecutionPlanner
                     SourceOperatorFactory operatorFactory = compiler.compileScanFilterAndProjectOperator(
                             context.getNextOperatorId(),
                             sourceNode.getId(),
-                            dataStreamProvider,
+                            getDataStreamProvider((TableScanNode) sourceNode, context),
                             columns,
                             rewrittenFilter,
                             rewrittenProjections,
@@ -626,7 +747,7 @@ public class LocalExecutionPlanner
                 OperatorFactory operatorFactory = new ScanFilterAndProjectOperatorFactory(
                         context.getNextOperatorId(),
                         sourceNode.getId(),
-                        dataStreamProvider,
+                        getDataStreamProvider((TableScanNode) sourceNode, context),
                         columns,
                         filterFunction,
                         projectionFunctions);
@@ -679,10 +800,32 @@ public class LocalExecutionPlanner
             }
 
             List<TupleInfo> tupleInfos = getSourceOperatorTupleInfos(node, context.getTypes());
-            OperatorFactory operatorFactory = new TableScanOperatorFactory(context.getNextOperatorId(), node.getId(), dataStreamProvider, tupleInfos, columns);
+            OperatorFactory operatorFactory = new TableScanOperatorFactory(context.getNextOperatorId(), node.getId(), getDataStreamProvider(node, context), tupleInfos, columns);
             return new PhysicalOperation(operatorFactory, outputMappings.build());
         }
 
+        private DataStreamProvider getDataStreamProvider(TableScanNode node, LocalExecutionPlanContext context)
+        {
+            // every scan operator gets its provider here
+            context.addTableScan(node.getId());
+
+            Optional<ProbeDynamicFilter> dynamicFilter = context.getDynamicFilter(node.getId());
+            if (!dynamicFilter.isPresent()) {
+                return dataStreamProvider;
+            }
+
+            // scan operators produce one channel per output symbol
+            Symbol symbol = dynamicFilter.get().getSymbol();
+            int channel = node.getOutputSymbols().indexOf(symbol);
+            String columnName = metadata.getColumnMetadata(node.getTable(), node.getAssignments().get(symbol)).getName();
+            return new DynamicFilterDataStreamProvider(
+                    dataStreamProvider,
+                    getSourceOperatorTupleInfos(node, context.getTypes()),
+                    channel,
+                    columnName,
+                    dynamicFilter.get().getDynamicFilter());
+        }
+
         @Override
         public PhysicalOperation visitJoin(JoinNode node, LocalExecutionPlanContext context)
         {
@@ -694,9 +837,9 @@ public class LocalExecutionPlanner
             switch (node.getType()) {
                 case INNER:
                 case LEFT:
-                    return createJoinOperator(node, node.getLeft(), leftSymbols, node.getRight(), rightSymbols, context);
+                    return createJoinOperator(node, node.getLeft(), leftSymbols, node.getLeftHashSymbol(), node.getRight(), rightSymbols, node.getRightHashSymbol(), context);
                 case RIGHT:
-                    return createJoinOperator(node, node.getRight(), rightSymbols, node.getLeft(), leftSymbols, context);
+                    return createJoinOperator(node, node.getRight(), rightSymbols, node.getRightHashSymbol(), node.getLeft(), leftSymbols, node.getLeftHashSymbol(), context);
                 default:
                     throw new UnsupportedOperationException("Unsupported join type: " + node.getType());
             }
@@ -705,10 +848,23 @@ public class LocalExecutionPlanner
         private PhysicalOperation createJoinOperator(JoinNode node,
                 PlanNode probeNode,
                 List<Symbol> probeSymbols,
+                Optional<Symbol> probeHashSymbol,
                 PlanNode buildNode,
                 List<Symbol> buildSymbols,
+                Optional<Symbol> buildHashSymbol,
                 LocalExecutionPlanContext context)
         {
+            // Inner joins can filter the table scan on the probe side with the keys from the build side
+            Optional<SettableFuture<DynamicFilter>> dynamicFilter = Optional.absent();
+            if (dynamicFilteringEnabled && node.getType() == JoinNode.Type.INNER && probeSymbols.size() == 1) {
+                Symbol probeSymbol = Iterables.getOnlyElement(probeSymbols);
+                Optional<Map.Entry<TableScanNode, Symbol>> probeScan = findProbeTableScan(probeNode, probeSymbol);
+                if (probeScan.isPresent() && DynamicFilter.isSupportedType(new TupleInfo(context.getTypes().get(probeSymbol).getRawType()))) {
+                    dynamicFilter = Optional.of(SettableFuture.<DynamicFilter>create());
+                    context.addDynamicFilter(probeScan.get().getKey().getId(), probeScan.get().getValue(), dynamicFilter.get());
+                }
+            }
+
             // Plan probe and introduce a projection to put all fields from the probe side into a single channel if necessary
             PhysicalOperation probeSource = probeNode.accept(this, context);
             probeSource = packIfNecessary(probeSymbols, probeSource, context.getTypes(), context);
@@ -720,12 +876,24 @@ public class LocalExecutionPlanner
 
             int probeChannel = Iterables.getOnlyElement(getChannelSetForSymbols(probeSymbols, probeSource.getLayout()));
             int buildChannel = Iterables.getOnlyElement(getChannelSetForSymbols(buildSymbols, buildSource.getLayout()));
+            Optional<Integer> probeHashChannel = getHashChannel(probeHashSymbol, probeSource);
+            Optional<Integer> buildHashChannel = getHashChannel(buildHashSymbol, buildSource);
+
+            if (dynamicFilter.isPresent() && !buildSource.getTupleInfos().get(buildChannel).equals(new TupleInfo(context.getTypes().get(probeSymbols.get(0)).getRawType()))) {
+                // the keys are not stored the same way on both sides, so scan the probe side without a filter
+                dynamicFilter.get().set(null);
+                dynamicFilter = Optional.absent();
+            }
 
             HashBuilderOperatorFactory hashBuilderOperatorFactory = new HashBuilderOperatorFactory(
                     buildContext.getNextOperatorId(),
                     buildSource.getTupleInfos(),
                     buildChannel,
-                    100_000);
+                    buildHashChannel,
+                    100_000,
+                    1,
+                    dynamicFilter,
+                    spillPath);
             HashSupplier hashSupplier = hashBuilderOperatorFactory.getHashSupplier();
             DriverFactory buildDriverFactory = new DriverFactory(
                     buildContext.isInputDriver(),
@@ -747,23 +915,47 @@ public class LocalExecutionPlanner
                 outputMappings.put(entry.getKey(), new Input(offset + input.getChannel(), input.getField()));
             }
 
-            OperatorFactory operator = createJoinOperator(node.getType(), hashSupplier, probeSource.getTupleInfos(), probeChannel, context);
+            OperatorFactory operator = createJoinOperator(node.getType(), hashSupplier, probeSource.getTupleInfos(), probeChannel, probeHashChannel, context);
             return new PhysicalOperation(operator, outputMappings.build(), probeSource);
         }
 
+        /**
+         * Finds the table scan that produces the specified symbol, if the symbol is passed through
+         * unchanged by all nodes between the table scan and the specified node.
+         */
+        private Optional<Map.Entry<TableScanNode, Symbol>> findProbeTableScan(PlanNode node, Symbol symbol)
+        {
+            if (node instanceof TableScanNode) {
+                if (node.getOutputSymbols().contains(symbol)) {
+                    return Optional.<Map.Entry<TableScanNode, Symbol>>of(Maps.immutableEntry((TableScanNode) node, symbol));
+                }
+            }
+            else if (node instanceof FilterNode) {
+                return findProbeTableScan(((FilterNode) node).getSource(), symbol);
+            }
+            else if (node instanceof ProjectNode) {
+                Expression expression = ((ProjectNode) node).getOutputMap().get(symbol);
+                if (expression instanceof QualifiedNameReference) {
+                    return findProbeTableScan(((ProjectNode) node).getSource(), Symbol.fromQualifiedName(((QualifiedNameReference) expression).getName()));
+                }
+            }
+            return Optional.absent();
+        }
+
         private HashJoinOperatorFactory createJoinOperator(
                 JoinNode.Type type,
                 HashSupplier hashSupplier,
                 List<TupleInfo> probeTupleInfos,
                 int probeJoinChannel,
+                Optional<Integer> probeHashChannel,
                 LocalExecutionPlanContext context)
         {
             switch (type) {
                 case INNER:
-                    return HashJoinOperator.innerJoin(context.getNextOperatorId(), hashSupplier, probeTupleInfos, probeJoinChannel);
+                    return HashJoinOperator.innerJoin(context.getNextOperatorId(), hashSupplier, probeTupleInfos, probeJoinChannel, probeHashChannel);
                 case LEFT:
                 case RIGHT:
-                    return HashJoinOperator.outerJoin(context.getNextOperatorId(), hashSupplier, probeTupleInfos, probeJoinChannel);
+                    return HashJoinOperator.outerJoin(context.getNextOperatorId(), hashSupplier, probeTupleInfos, probeJoinChannel, probeHashChannel);
                 default:
                     throw new UnsupportedOperationException("Unsupported join type: " + type);
             }
@@ -988,14 +1180,22 @@ public class LocalExecutionPlanner
                 channel++;
             }
 
+            // the precomputed hash, if any, is passed through in the last channel
+            Optional<Integer> hashChannel = getHashChannel(node.getHashSymbol(), source);
+            if (hashChannel.isPresent()) {
+                outputMappings.put(node.getHashSymbol().get(), new Input(channel, 0));
+            }
+
             Integer groupByChannel = Iterables.getOnlyElement(getChannelSetForSymbols(groupBySymbols, source.getLayout()));
             OperatorFactory operatorFactory = new HashAggregationOperatorFactory(
                     context.getNextOperatorId(),
                     source.getTupleInfos().get(groupByChannel),
                     groupByChannel,
+                    hashChannel,
                     node.getStep(),
                     functionDefinitions,
-                    10_000);
+                    10_000,
+                    spillPath);
 
             return new PhysicalOperation(operatorFactory, outputMappings.build(), source);
         }
@@ -1017,6 +1217,19 @@ public class LocalExecutionPlanner
         return new IdentityProjectionInfo(outputMappings.build(), projections);
     }
 
+    /**
+     * Returns the channel of the precomputed hash symbol, which is always in a channel by itself
+     */
+    private static Optional<Integer> getHashChannel(Optional<Symbol> hashSymbol, PhysicalOperation source)
+    {
+        if (!hashSymbol.isPresent()) {
+            return Optional.absent();
+        }
+        Input input = getFirst(source.getLayout().get(hashSymbol.get()));
+        checkState(input.getField() == 0 && source.getTupleInfos().get(input.getChannel()).getFieldCount() == 1, "hash symbol %s is not in a channel by itself", hashSymbol.get());
+        return Optional.of(input.getChannel());
+    }
+
     /**
      * Inserts a projection if the provided symbols are not in a single channel by themselves
      */
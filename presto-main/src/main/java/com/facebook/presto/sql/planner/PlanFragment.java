@@ -35,22 +35,79 @@ import java.util.Map;
 @Immutable
 public class PlanFragment
 {
+    public enum PlanDistribution
+    {
+        /**
+         * Fragment is executed by a single task.
+         */
+        NONE,
+        /**
+         * Fragment is executed by one task on every node, each task consuming one hash partition of its inputs.
+         */
+        FIXED,
+        /**
+         * Fragment is executed by tasks on the nodes selected for the splits of the partitioned source.
+         */
+        SOURCE
+    }
+
+    public enum OutputPartitioning
+    {
+        /**
+         * Every consumer receives all of the output.
+         */
+        NONE,
+        /**
+         * Output rows are routed to a single consumer based on a hash of the partitioning symbols.
+         */
+        HASH
+    }
+
     private final PlanFragmentId id;
     private final PlanNode root;
     private final PlanNodeId partitionedSource;
     private final Map<Symbol, Type> symbols;
+    private final PlanDistribution distribution;
+    private final OutputPartitioning outputPartitioning;
+    private final List<Symbol> partitionBy;
+
+    public PlanFragment(PlanFragmentId id, PlanNodeId partitionedSource, Map<Symbol, Type> symbols, PlanNode root)
+    {
+        this(id,
+                partitionedSource,
+                symbols,
+                root,
+                partitionedSource != null ? PlanDistribution.SOURCE : PlanDistribution.NONE,
+                OutputPartitioning.NONE,
+                ImmutableList.<Symbol>of());
+    }
 
     @JsonCreator
-    public PlanFragment(@JsonProperty("id") PlanFragmentId id, @JsonProperty("partitionedSource") PlanNodeId partitionedSource, @JsonProperty("symbols") Map<Symbol, Type> symbols, @JsonProperty("root") PlanNode root)
+    public PlanFragment(@JsonProperty("id") PlanFragmentId id,
+            @JsonProperty("partitionedSource") PlanNodeId partitionedSource,
+            @JsonProperty("symbols") Map<Symbol, Type> symbols,
+            @JsonProperty("root") PlanNode root,
+            @JsonProperty("distribution") PlanDistribution distribution,
+            @JsonProperty("outputPartitioning") OutputPartitioning outputPartitioning,
+            @JsonProperty("partitionBy") List<Symbol> partitionBy)
     {
         Preconditions.checkNotNull(id, "id is null");
         Preconditions.checkNotNull(symbols, "symbols is null");
         Preconditions.checkNotNull(root, "root is null");
+        Preconditions.checkNotNull(distribution, "distribution is null");
+        Preconditions.checkNotNull(outputPartitioning, "outputPartitioning is null");
+        Preconditions.checkNotNull(partitionBy, "partitionBy is null");
+        Preconditions.checkArgument((distribution == PlanDistribution.SOURCE) == (partitionedSource != null), "partitionedSource must be set only for SOURCE distribution");
+        Preconditions.checkArgument((outputPartitioning == OutputPartitioning.HASH) == !partitionBy.isEmpty(), "partitionBy must be set only for HASH output partitioning");
+        Preconditions.checkArgument(root.getOutputSymbols().containsAll(partitionBy), "partitionBy symbols must be output by the fragment");
 
         this.id = id;
         this.root = root;
         this.partitionedSource = partitionedSource;
         this.symbols = symbols;
+        this.distribution = distribution;
+        this.outputPartitioning = outputPartitioning;
+        this.partitionBy = ImmutableList.copyOf(partitionBy);
     }
 
     @JsonProperty
@@ -70,6 +127,24 @@ public class PlanFragment
         return partitionedSource;
     }
 
+    @JsonProperty
+    public PlanDistribution getDistribution()
+    {
+        return distribution;
+    }
+
+    @JsonProperty
+    public OutputPartitioning getOutputPartitioning()
+    {
+        return outputPartitioning;
+    }
+
+    @JsonProperty
+    public List<Symbol> getPartitionBy()
+    {
+        return partitionBy;
+    }
+
     @JsonProperty
     public PlanNode getRoot()
     {
@@ -122,6 +197,9 @@ public class PlanFragment
         return Objects.toStringHelper(this)
                 .add("id", id)
                 .add("partitionedSource", partitionedSource)
+                .add("distribution", distribution)
+                .add("outputPartitioning", outputPartitioning)
+                .add("partitionBy", partitionBy)
                 .toString();
     }
 
@@ -13,10 +13,12 @@
  */
 package com.facebook.presto.sql.planner;
 
+import com.facebook.presto.execution.QueryManagerConfig;
 import com.facebook.presto.metadata.AliasDao;
 import com.facebook.presto.metadata.Metadata;
 import com.facebook.presto.metadata.NodeManager;
 import com.facebook.presto.metadata.ShardManager;
+import com.facebook.presto.sql.planner.optimizations.HashGenerationOptimizer;
 import com.facebook.presto.sql.planner.optimizations.ImplementSampleAsFilter;
 import com.facebook.presto.sql.planner.optimizations.LimitPushDown;
 import com.facebook.presto.sql.planner.optimizations.MergeProjections;
@@ -83,6 +85,20 @@ public class PlanOptimizersFactory
         this.optimizers = builder.build();
     }
 
+    @Inject(optional = true)
+    public synchronized void injectQueryManagerConfig(QueryManagerConfig queryManagerConfig)
+    {
+        checkNotNull(queryManagerConfig, "queryManagerConfig is null");
+
+        if (queryManagerConfig.isOptimizeHashGeneration()) {
+            ImmutableList.Builder<PlanOptimizer> builder = ImmutableList.builder();
+            builder.addAll(optimizers);
+            builder.add(new HashGenerationOptimizer()); // Run last so the hash is added after the projections are pruned and merged
+
+            this.optimizers = builder.build();
+        }
+    }
+
     @Override
     public synchronized List<PlanOptimizer> get()
     {
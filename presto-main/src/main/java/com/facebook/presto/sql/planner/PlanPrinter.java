@@ -301,9 +301,22 @@ public class PlanPrinter
         }
 
         @Override
-        public Void visitExchange(ExchangeNode node, Integer indent)
+        public Void visitExchange(final ExchangeNode node, Integer indent)
         {
-            print(indent, "- Exchange[%s] => [%s]", node.getSourceFragmentIds(), formatOutputs(node.getOutputSymbols()));
+            if (node.isMerging()) {
+                Iterable<String> keys = Iterables.transform(node.getOrderBy(), new Function<Symbol, String>()
+                {
+                    @Override
+                    public String apply(Symbol input)
+                    {
+                        return input + " " + node.getOrderings().get(input);
+                    }
+                });
+                print(indent, "- MergeExchange[%s] order by [%s] => [%s]", node.getSourceFragmentIds(), Joiner.on(", ").join(keys), formatOutputs(node.getOutputSymbols()));
+            }
+            else {
+                print(indent, "- Exchange[%s] => [%s]", node.getSourceFragmentIds(), formatOutputs(node.getOutputSymbols()));
+            }
 
             return processExchange(node, indent + 1);
         }
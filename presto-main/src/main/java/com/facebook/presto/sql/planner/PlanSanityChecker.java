@@ -243,6 +243,8 @@ public class PlanSanityChecker
         {
             verifyUniqueId(node);
 
+            Preconditions.checkArgument(node.getOutputSymbols().containsAll(node.getOrderBy()), "Invalid node. Order by symbols (%s) not in exchange output (%s)", node.getOrderBy(), node.getOutputSymbols());
+
             return null;
         }
 
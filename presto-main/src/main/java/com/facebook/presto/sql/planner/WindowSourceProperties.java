@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.sql.planner;
+
+import com.facebook.presto.sql.planner.plan.FilterNode;
+import com.facebook.presto.sql.planner.plan.PlanNode;
+import com.facebook.presto.sql.planner.plan.ProjectNode;
+import com.facebook.presto.sql.planner.plan.WindowNode;
+import com.facebook.presto.sql.tree.Expression;
+import com.facebook.presto.sql.tree.QualifiedNameReference;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Determines how the input of a window is already laid out by a window computed below it.
+ * <p/>
+ * The planner creates one window node per window function, so a query with several functions
+ * over the same window stacks window nodes, and each one receives the rows in the order and
+ * distribution produced by the one below.
+ */
+public class WindowSourceProperties
+{
+    private WindowSourceProperties()
+    {
+    }
+
+    /**
+     * Returns true if the source of the window produces its rows grouped by the partition
+     * keys of the window and sorted by the ordering of the window within each partition.
+     */
+    public static boolean isPreSorted(WindowNode node)
+    {
+        checkNotNull(node, "node is null");
+
+        Optional<WindowNode> sourceWindow = findSourceWindow(node.getSource(), Iterables.concat(node.getPartitionBy(), node.getOrderBy()));
+        if (!sourceWindow.isPresent()) {
+            return false;
+        }
+        WindowNode source = sourceWindow.get();
+
+        // the source is sorted by its partition keys, so rows with equal partition keys are adjacent
+        if (!ImmutableSet.copyOf(source.getPartitionBy()).equals(ImmutableSet.copyOf(node.getPartitionBy()))) {
+            return false;
+        }
+
+        // within a partition, the source is sorted by its ordering, which must start with the ordering of the window
+        List<Symbol> orderBy = node.getOrderBy();
+        if (orderBy.size() > source.getOrderBy().size()) {
+            return false;
+        }
+        for (int i = 0; i < orderBy.size(); i++) {
+            Symbol symbol = orderBy.get(i);
+            if (!symbol.equals(source.getOrderBy().get(i)) || node.getOrderings().get(symbol) != source.getOrderings().get(symbol)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the source is a window that was hash distributed on a non-empty subset of
+     * the given partition keys, so all rows with equal partition keys are already in the same task.
+     */
+    public static boolean isPrePartitioned(PlanNode source, List<Symbol> partitionBy)
+    {
+        checkNotNull(source, "source is null");
+        checkNotNull(partitionBy, "partitionBy is null");
+
+        Optional<WindowNode> sourceWindow = findSourceWindow(source, partitionBy);
+        return sourceWindow.isPresent() &&
+                !sourceWindow.get().getPartitionBy().isEmpty() &&
+                partitionBy.containsAll(sourceWindow.get().getPartitionBy());
+    }
+
+    /**
+     * Finds the window below the node whose rows reach the node in the same order, looking through
+     * filters and through projections that pass the given symbols through unchanged.
+     */
+    private static Optional<WindowNode> findSourceWindow(PlanNode node, Iterable<Symbol> symbols)
+    {
+        List<Symbol> requiredSymbols = ImmutableList.copyOf(symbols);
+        while (true) {
+            if (node instanceof WindowNode) {
+                return Optional.of((WindowNode) node);
+            }
+            else if (node instanceof FilterNode) {
+                node = ((FilterNode) node).getSource();
+            }
+            else if (node instanceof ProjectNode) {
+                ProjectNode project = (ProjectNode) node;
+                for (Symbol symbol : requiredSymbols) {
+                    Expression expression = project.getOutputMap().get(symbol);
+                    if (!new QualifiedNameReference(symbol.toQualifiedName()).equals(expression)) {
+                        return Optional.absent();
+                    }
+                }
+                node = project.getSource();
+            }
+            else {
+                return Optional.absent();
+            }
+        }
+    }
+}
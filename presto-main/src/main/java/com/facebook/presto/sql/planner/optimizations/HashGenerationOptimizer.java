@@ -0,0 +1,198 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.sql.planner.optimizations;
+
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.sql.analyzer.Type;
+import com.facebook.presto.sql.planner.ExpressionSymbolInliner;
+import com.facebook.presto.sql.planner.PlanNodeIdAllocator;
+import com.facebook.presto.sql.planner.Symbol;
+import com.facebook.presto.sql.planner.SymbolAllocator;
+import com.facebook.presto.sql.planner.plan.AggregationNode;
+import com.facebook.presto.sql.planner.plan.JoinNode;
+import com.facebook.presto.sql.planner.plan.PlanNode;
+import com.facebook.presto.sql.planner.plan.PlanNodeRewriter;
+import com.facebook.presto.sql.planner.plan.PlanRewriter;
+import com.facebook.presto.sql.planner.plan.ProjectNode;
+import com.facebook.presto.sql.tree.CoalesceExpression;
+import com.facebook.presto.sql.tree.Expression;
+import com.facebook.presto.sql.tree.ExpressionTreeRewriter;
+import com.facebook.presto.sql.tree.FunctionCall;
+import com.facebook.presto.sql.tree.LongLiteral;
+import com.facebook.presto.sql.tree.QualifiedName;
+import com.facebook.presto.sql.tree.QualifiedNameReference;
+import com.google.common.base.Functions;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.facebook.presto.sql.planner.plan.JoinNode.EquiJoinClause.leftGetter;
+import static com.facebook.presto.sql.planner.plan.JoinNode.EquiJoinClause.rightGetter;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Computes the hash code of the group by keys and the join keys once, in a projection below
+ * the aggregation or join, so the hash is not recomputed by every operator that needs it.
+ * The hash symbol is output by aggregations and passed through exchanges, so a partial aggregation
+ * and the final aggregation, and the hash partitioned output of the fragments in between, all use
+ * the same hash.  When the source is a projection, the hash is computed by that projection, which
+ * is usually the one that is combined with the table scan.
+ */
+public class HashGenerationOptimizer
+        extends PlanOptimizer
+{
+    private static final QualifiedName HASH_CODE = new QualifiedName("hash_code");
+    private static final QualifiedName COMBINE_HASH = new QualifiedName("combine_hash");
+
+    @Override
+    public PlanNode optimize(PlanNode plan, Session session, Map<Symbol, Type> types, SymbolAllocator symbolAllocator, PlanNodeIdAllocator idAllocator)
+    {
+        checkNotNull(plan, "plan is null");
+        checkNotNull(session, "session is null");
+        checkNotNull(types, "types is null");
+        checkNotNull(symbolAllocator, "symbolAllocator is null");
+        checkNotNull(idAllocator, "idAllocator is null");
+
+        return PlanRewriter.rewriteWith(new Rewriter(types, symbolAllocator, idAllocator), plan);
+    }
+
+    private static class Rewriter
+            extends PlanNodeRewriter<Void>
+    {
+        private final Map<Symbol, Type> types;
+        private final SymbolAllocator symbolAllocator;
+        private final PlanNodeIdAllocator idAllocator;
+
+        private Rewriter(Map<Symbol, Type> types, SymbolAllocator symbolAllocator, PlanNodeIdAllocator idAllocator)
+        {
+            this.types = types;
+            this.symbolAllocator = symbolAllocator;
+            this.idAllocator = idAllocator;
+        }
+
+        @Override
+        public PlanNode rewriteAggregation(AggregationNode node, Void context, PlanRewriter<Void> planRewriter)
+        {
+            PlanNode source = planRewriter.rewrite(node.getSource(), context);
+
+            if (node.getHashSymbol().isPresent() || node.getGroupBy().isEmpty() || !canHash(node.getGroupBy())) {
+                if (source == node.getSource()) {
+                    return node;
+                }
+                return new AggregationNode(node.getId(), source, node.getGroupBy(), node.getAggregations(), node.getFunctions(), node.getStep(), node.getHashSymbol());
+            }
+
+            Symbol hashSymbol = symbolAllocator.newSymbol("hash", Type.BIGINT);
+            return new AggregationNode(node.getId(),
+                    addHashSymbol(source, node.getGroupBy(), hashSymbol),
+                    node.getGroupBy(),
+                    node.getAggregations(),
+                    node.getFunctions(),
+                    node.getStep(),
+                    Optional.of(hashSymbol));
+        }
+
+        @Override
+        public PlanNode rewriteJoin(JoinNode node, Void context, PlanRewriter<Void> planRewriter)
+        {
+            PlanNode left = planRewriter.rewrite(node.getLeft(), context);
+            PlanNode right = planRewriter.rewrite(node.getRight(), context);
+
+            List<Symbol> leftSymbols = Lists.transform(node.getCriteria(), leftGetter());
+            List<Symbol> rightSymbols = Lists.transform(node.getCriteria(), rightGetter());
+
+            // both sides must compute the same hash for equal keys
+            boolean sameTypes = Lists.transform(leftSymbols, Functions.forMap(types)).equals(Lists.transform(rightSymbols, Functions.forMap(types)));
+
+            if (node.getLeftHashSymbol().isPresent() || node.getCriteria().isEmpty() || !sameTypes || !canHash(leftSymbols)) {
+                if (left == node.getLeft() && right == node.getRight()) {
+                    return node;
+                }
+                return new JoinNode(node.getId(), node.getType(), left, right, node.getCriteria(), node.getLeftHashSymbol(), node.getRightHashSymbol());
+            }
+
+            Symbol leftHashSymbol = symbolAllocator.newSymbol("hash", Type.BIGINT);
+            Symbol rightHashSymbol = symbolAllocator.newSymbol("hash", Type.BIGINT);
+            return new JoinNode(node.getId(),
+                    node.getType(),
+                    addHashSymbol(left, leftSymbols, leftHashSymbol),
+                    addHashSymbol(right, rightSymbols, rightHashSymbol),
+                    node.getCriteria(),
+                    Optional.of(leftHashSymbol),
+                    Optional.of(rightHashSymbol));
+        }
+
+        private boolean canHash(List<Symbol> symbols)
+        {
+            for (Symbol symbol : symbols) {
+                if (types.get(symbol) == Type.NULL) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private PlanNode addHashSymbol(PlanNode source, List<Symbol> keys, Symbol hashSymbol)
+        {
+            Expression hashExpression = getHashExpression(keys);
+
+            // compute the hash in the source projection, unless the keys are computed by the projection also
+            if (source instanceof ProjectNode && projectsSymbolReferences((ProjectNode) source, keys)) {
+                ProjectNode projectNode = (ProjectNode) source;
+                Expression inlined = ExpressionTreeRewriter.rewriteWith(new ExpressionSymbolInliner(projectNode.getOutputMap()), hashExpression);
+                return new ProjectNode(projectNode.getId(), projectNode.getSource(), ImmutableMap.<Symbol, Expression>builder()
+                        .putAll(projectNode.getOutputMap())
+                        .put(hashSymbol, inlined)
+                        .build());
+            }
+
+            ImmutableMap.Builder<Symbol, Expression> outputs = ImmutableMap.builder();
+            for (Symbol symbol : source.getOutputSymbols()) {
+                outputs.put(symbol, new QualifiedNameReference(symbol.toQualifiedName()));
+            }
+            outputs.put(hashSymbol, hashExpression);
+            return new ProjectNode(idAllocator.getNextId(), source, outputs.build());
+        }
+
+        private static boolean projectsSymbolReferences(ProjectNode projectNode, List<Symbol> symbols)
+        {
+            for (Symbol symbol : symbols) {
+                if (!(projectNode.getOutputMap().get(symbol) instanceof QualifiedNameReference)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns combine_hash(...combine_hash(combine_hash(0, hash(key1)), hash(key2))..., hash(keyN)), where
+         * the hash of a null key is zero.
+         */
+        private static Expression getHashExpression(List<Symbol> keys)
+        {
+            Expression hashExpression = new LongLiteral("0");
+            for (Symbol key : keys) {
+                Expression keyHash = new CoalesceExpression(
+                        new FunctionCall(HASH_CODE, ImmutableList.<Expression>of(new QualifiedNameReference(key.toQualifiedName()))),
+                        new LongLiteral("0"));
+                hashExpression = new FunctionCall(COMBINE_HASH, ImmutableList.of(hashExpression, keyHash));
+            }
+            return hashExpression;
+        }
+    }
+}
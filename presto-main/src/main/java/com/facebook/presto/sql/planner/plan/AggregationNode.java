@@ -18,6 +18,7 @@ import com.facebook.presto.sql.planner.Symbol;
 import com.facebook.presto.sql.tree.FunctionCall;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 
 import javax.annotation.concurrent.Immutable;
@@ -25,6 +26,7 @@ import javax.annotation.concurrent.Immutable;
 import java.util.List;
 import java.util.Map;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.Iterables.concat;
 
 @Immutable
@@ -36,6 +38,7 @@ public class AggregationNode
     private final Map<Symbol, FunctionCall> aggregations;
     private final Map<Symbol, FunctionHandle> functions;
     private final Step step;
+    private final Optional<Symbol> hashSymbol;
 
     public enum Step
     {
@@ -49,13 +52,23 @@ public class AggregationNode
         this(id, source, groupByKeys, aggregations, functions, Step.SINGLE);
     }
 
+    public AggregationNode(PlanNodeId id, PlanNode source, List<Symbol> groupByKeys, Map<Symbol, FunctionCall> aggregations, Map<Symbol, FunctionHandle> functions, Step step)
+    {
+        this(id, source, groupByKeys, aggregations, functions, step, Optional.<Symbol>absent());
+    }
+
+    /**
+     * @param hashSymbol if present, a BIGINT symbol of the source with the hash code of the group by keys,
+     * which is also output by the aggregation, so the next aggregation step can use it
+     */
     @JsonCreator
     public AggregationNode(@JsonProperty("id") PlanNodeId id,
             @JsonProperty("source") PlanNode source,
             @JsonProperty("groupBy") List<Symbol> groupByKeys,
             @JsonProperty("aggregations") Map<Symbol, FunctionCall> aggregations,
             @JsonProperty("functions") Map<Symbol, FunctionHandle> functions,
-            @JsonProperty("step") Step step)
+            @JsonProperty("step") Step step,
+            @JsonProperty("hashSymbol") Optional<Symbol> hashSymbol)
     {
         super(id);
 
@@ -64,6 +77,7 @@ public class AggregationNode
         this.aggregations = aggregations;
         this.functions = functions;
         this.step = step;
+        this.hashSymbol = checkNotNull(hashSymbol, "hashSymbol is null");
     }
 
     @Override
@@ -75,7 +89,7 @@ public class AggregationNode
     @Override
     public List<Symbol> getOutputSymbols()
     {
-        return ImmutableList.copyOf(concat(groupByKeys, aggregations.keySet()));
+        return ImmutableList.copyOf(concat(groupByKeys, aggregations.keySet(), hashSymbol.asSet()));
     }
 
     @JsonProperty("aggregations")
@@ -108,6 +122,12 @@ public class AggregationNode
         return step;
     }
 
+    @JsonProperty("hashSymbol")
+    public Optional<Symbol> getHashSymbol()
+    {
+        return hashSymbol;
+    }
+
     public <C, R> R accept(PlanVisitor<C, R> visitor, C context)
     {
         return visitor.visitAggregation(this, context);
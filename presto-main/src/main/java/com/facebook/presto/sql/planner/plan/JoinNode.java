@@ -18,6 +18,7 @@ import com.facebook.presto.sql.tree.Join;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
@@ -35,13 +36,27 @@ public class JoinNode
     private final PlanNode left;
     private final PlanNode right;
     private final List<EquiJoinClause> criteria;
+    private final Optional<Symbol> leftHashSymbol;
+    private final Optional<Symbol> rightHashSymbol;
 
+    public JoinNode(PlanNodeId id, Type type, PlanNode left, PlanNode right, List<EquiJoinClause> criteria)
+    {
+        this(id, type, left, right, criteria, Optional.<Symbol>absent(), Optional.<Symbol>absent());
+    }
+
+    /**
+     * @param leftHashSymbol if present, a BIGINT symbol of the left source with the hash code of the left join keys
+     * @param rightHashSymbol if present, a BIGINT symbol of the right source with the hash code of the right join keys;
+     * the hash symbols are either both present or both absent
+     */
     @JsonCreator
     public JoinNode(@JsonProperty("id") PlanNodeId id,
             @JsonProperty("type") Type type,
             @JsonProperty("left") PlanNode left,
             @JsonProperty("right") PlanNode right,
-            @JsonProperty("criteria") List<EquiJoinClause> criteria)
+            @JsonProperty("criteria") List<EquiJoinClause> criteria,
+            @JsonProperty("leftHashSymbol") Optional<Symbol> leftHashSymbol,
+            @JsonProperty("rightHashSymbol") Optional<Symbol> rightHashSymbol)
     {
         super(id);
 
@@ -49,11 +64,16 @@ public class JoinNode
         Preconditions.checkNotNull(left, "left is null");
         Preconditions.checkNotNull(right, "right is null");
         Preconditions.checkNotNull(criteria, "criteria is null");
+        Preconditions.checkNotNull(leftHashSymbol, "leftHashSymbol is null");
+        Preconditions.checkNotNull(rightHashSymbol, "rightHashSymbol is null");
+        Preconditions.checkArgument(leftHashSymbol.isPresent() == rightHashSymbol.isPresent(), "leftHashSymbol and rightHashSymbol must both be present or absent");
 
         this.type = type;
         this.left = left;
         this.right = right;
         this.criteria = ImmutableList.copyOf(criteria);
+        this.leftHashSymbol = leftHashSymbol;
+        this.rightHashSymbol = rightHashSymbol;
     }
 
     public enum Type
@@ -114,6 +134,18 @@ public class JoinNode
         return criteria;
     }
 
+    @JsonProperty("leftHashSymbol")
+    public Optional<Symbol> getLeftHashSymbol()
+    {
+        return leftHashSymbol;
+    }
+
+    @JsonProperty("rightHashSymbol")
+    public Optional<Symbol> getRightHashSymbol()
+    {
+        return rightHashSymbol;
+    }
+
     @Override
     public List<PlanNode> getSources()
     {
@@ -55,7 +55,11 @@ public class TpchConnectorFactory
     {
         ImmutableClassToInstanceMap.Builder<Object> builder = ImmutableClassToInstanceMap.builder();
         builder.put(ConnectorMetadata.class, new TpchMetadata());
-        builder.put(ConnectorSplitManager.class, new TpchSplitManager(connectorId, nodeManager));
+        int splitsPerNode = 1;
+        if (properties.containsKey("tpch.splits-per-node")) {
+            splitsPerNode = Integer.parseInt(properties.get("tpch.splits-per-node"));
+        }
+        builder.put(ConnectorSplitManager.class, new TpchSplitManager(connectorId, nodeManager, splitsPerNode));
         builder.put(ConnectorDataStreamProvider.class, new TpchDataStreamProvider(tpchBlocksProvider));
         builder.put(ConnectorHandleResolver.class, HANDLE_RESOLVER);
 
@@ -39,12 +39,20 @@ public class TpchSplitManager
 {
     private final String connectorId;
     private final NodeManager nodeManager;
+    private final int splitsPerNode;
 
     @Inject
     public TpchSplitManager(String connectorId, NodeManager nodeManager)
     {
+        this(connectorId, nodeManager, 1);
+    }
+
+    public TpchSplitManager(String connectorId, NodeManager nodeManager, int splitsPerNode)
+    {
+        checkArgument(splitsPerNode > 0, "splitsPerNode must be at least 1");
         this.connectorId = connectorId;
         this.nodeManager = nodeManager;
+        this.splitsPerNode = splitsPerNode;
     }
 
     @Override
@@ -79,14 +87,16 @@ public class TpchSplitManager
 
         Set<Node> nodes = nodeManager.getAllNodes().getActiveNodes();
 
-        int totalParts = nodes.size();
+        int totalParts = nodes.size() * splitsPerNode;
         int partNumber = 0;
 
         // Split the data using split and skew by the number of nodes available.
         ImmutableList.Builder<Split> splits = ImmutableList.builder();
         for (Node node : nodes) {
-            TpchSplit tpchSplit = new TpchSplit(tableHandle, partNumber++, totalParts, ImmutableList.of(node.getHostAndPort()));
-            splits.add(tpchSplit);
+            for (int i = 0; i < splitsPerNode; i++) {
+                TpchSplit tpchSplit = new TpchSplit(tableHandle, partNumber++, totalParts, ImmutableList.of(node.getHostAndPort()));
+                splits.add(tpchSplit);
+            }
         }
         return splits.build();
     }
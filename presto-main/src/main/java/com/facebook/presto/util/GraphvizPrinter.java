@@ -158,7 +158,21 @@ public final class GraphvizPrinter
                 .append(" {")
                 .append('\n');
 
-        output.append(format("label = \"%s\"", fragment.isPartitioned() ? "Partitioned" : "Unpartitioned"))
+        String label;
+        switch (fragment.getDistribution()) {
+            case SOURCE:
+                label = "Partitioned";
+                break;
+            case FIXED:
+                label = "Fixed";
+                break;
+            default:
+                label = "Unpartitioned";
+        }
+        if (fragment.getOutputPartitioning() == PlanFragment.OutputPartitioning.HASH) {
+            label += format(" (output hashed on %s)", Joiner.on(", ").join(fragment.getPartitionBy()));
+        }
+        output.append(format("label = \"%s\"", label))
                 .append('\n');
 
         PlanNode plan = fragment.getRoot();
@@ -230,7 +244,12 @@ public final class GraphvizPrinter
         @Override
         public Void visitExchange(ExchangeNode node, Void context)
         {
-            printNode(node, "Exchange 1:N", NODE_COLORS.get(NodeType.EXCHANGE));
+            if (node.isMerging()) {
+                printNode(node, format("Merge Exchange 1:N[%s]", Joiner.on(", ").join(node.getOrderBy())), NODE_COLORS.get(NodeType.EXCHANGE));
+            }
+            else {
+                printNode(node, "Exchange 1:N", NODE_COLORS.get(NodeType.EXCHANGE));
+            }
             return null;
         }
 
@@ -86,6 +86,7 @@ import static com.google.common.collect.Iterables.transform;
 import static java.lang.String.format;
 import static java.util.Collections.nCopies;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
@@ -943,6 +944,30 @@ public abstract class AbstractTestQueries
         assertQuery("SELECT COUNT(*) FROM lineitem JOIN orders ON orders.custkey = 1 AND lineitem.orderkey = 1");
     }
 
+    @Test
+    public void testJoinWithEmptyBuildSide()
+            throws Exception
+    {
+        assertQuery("SELECT COUNT(*) FROM lineitem JOIN (SELECT * FROM orders WHERE orderkey < 0) orders ON lineitem.orderkey = orders.orderkey");
+    }
+
+    @Test
+    public void testJoinWithFilteredAndProjectedProbeSide()
+            throws Exception
+    {
+        assertQuery("SELECT lineitem.key, lineitem.partkey, orders.custkey\n" +
+                "FROM (SELECT orderkey + 1 key, partkey * 2 partkey FROM lineitem WHERE partkey % 3 = 0) lineitem\n" +
+                "JOIN (SELECT * FROM orders WHERE orderkey % 5 = 0) orders ON lineitem.key = orders.orderkey + 1");
+    }
+
+    @Test
+    public void testJoinOnDoubleAndVarcharKeys()
+            throws Exception
+    {
+        assertQuery("SELECT COUNT(*) FROM orders a JOIN (SELECT totalprice FROM orders WHERE orderkey % 7 = 0) b ON a.totalprice = b.totalprice");
+        assertQuery("SELECT COUNT(*) FROM orders a JOIN (SELECT clerk FROM orders WHERE orderkey % 7 = 0) b ON a.clerk = b.clerk");
+    }
+
     @Test
     public void testJoinPredicateMoveAround()
             throws Exception
@@ -2064,6 +2089,9 @@ public abstract class AbstractTestQueries
         assertEquals(functions.get("split_part").asList().get(0).getField(1), "varchar");
         assertEquals(functions.get("split_part").asList().get(0).getField(2), "varchar, varchar, bigint");
         assertEquals(functions.get("split_part").asList().get(0).getField(3), "scalar");
+
+        assertFalse(functions.containsKey("hash_code"), "Expected function names " + functions + " not to contain hidden function 'hash_code'");
+        assertFalse(functions.containsKey("combine_hash"), "Expected function names " + functions + " not to contain hidden function 'combine_hash'");
     }
 
     @Test
@@ -2686,7 +2714,7 @@ public abstract class AbstractTestQueries
         assertQuery(sql, sql, false);
     }
 
-    private void assertQueryOrdered(@Language("SQL") String sql)
+    protected void assertQueryOrdered(@Language("SQL") String sql)
             throws Exception
     {
         assertQuery(sql, sql, true);
@@ -57,6 +57,7 @@ public class BenchmarkSuite
                 new SqlDoubleSumAggregationBenchmark(executor, tpchBlocksProvider),
                 new CountWithFilterSqlBenchmark(executor, tpchBlocksProvider),
                 new GroupByAggregationSqlBenchmark(executor, tpchBlocksProvider),
+                new GroupByMultipleLongsSqlBenchmark(executor, tpchBlocksProvider),
                 new PredicateFilterSqlBenchmark(executor, tpchBlocksProvider),
                 new RawStreamingSqlBenchmark(executor, tpchBlocksProvider),
                 new Top100SqlBenchmark(executor, tpchBlocksProvider),
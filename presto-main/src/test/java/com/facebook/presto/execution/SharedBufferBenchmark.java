@@ -0,0 +1,159 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.execution;
+
+import com.facebook.presto.block.BlockAssertions;
+import com.facebook.presto.operator.Page;
+import com.facebook.presto.operator.PagePartitioner;
+import com.google.common.collect.ImmutableList;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.util.Threads.threadsNamed;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Measures the page throughput of a {@link SharedBuffer} with many concurrent producers
+ * (drivers) and consumers (downstream tasks), in broadcast and partitioned mode.
+ */
+public class SharedBufferBenchmark
+        implements Closeable
+{
+    private static final int PAGES_PER_PRODUCER = 20_000;
+    private static final int ROWS_PER_PAGE = 64;
+    private static final DataSize MAX_BUFFER_SIZE = new DataSize(32, MEGABYTE);
+    private static final DataSize MAX_RESPONSE_SIZE = new DataSize(1, MEGABYTE);
+    private static final Duration MAX_WAIT = new Duration(1, SECONDS);
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        try (SharedBufferBenchmark benchmark = new SharedBufferBenchmark()) {
+            // warm up
+            for (int i = 0; i < 3; i++) {
+                benchmark.run(8, 8, false);
+                benchmark.run(8, 8, true);
+            }
+
+            for (boolean partitioned : new boolean[] {false, true}) {
+                for (int producers : new int[] {1, 4, 16, 32}) {
+                    for (int consumers : new int[] {1, 4, 16, 64}) {
+                        benchmark.run(producers, consumers, partitioned);
+                    }
+                }
+            }
+        }
+    }
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(threadsNamed(getClass().getSimpleName() + "-%d"));
+    private final Page page;
+
+    public SharedBufferBenchmark()
+    {
+        int[] values = new int[ROWS_PER_PAGE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        page = new Page(BlockAssertions.createLongsBlock(values));
+    }
+
+    @Override
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+
+    public void run(int producers, int consumers, boolean partitioned)
+            throws Exception
+    {
+        PagePartitioner partitioner = null;
+        if (partitioned) {
+            partitioner = new PagePartitioner(ImmutableList.of(SINGLE_LONG), ImmutableList.of(0));
+        }
+        final SharedBuffer sharedBuffer = new SharedBuffer(MAX_BUFFER_SIZE, partitioner);
+
+        List<Future<Long>> consumerFutures = new ArrayList<>();
+        for (int consumer = 0; consumer < consumers; consumer++) {
+            final String queueId = String.valueOf(consumer);
+            sharedBuffer.addQueue(queueId);
+            consumerFutures.add(executor.submit(new Callable<Long>()
+            {
+                @Override
+                public Long call()
+                        throws Exception
+                {
+                    long pages = 0;
+                    long sequenceId = 0;
+                    while (true) {
+                        BufferResult result = sharedBuffer.get(queueId, sequenceId, MAX_RESPONSE_SIZE, MAX_WAIT);
+                        if (result.isBufferClosed()) {
+                            return pages;
+                        }
+                        pages += result.size();
+                        sequenceId = result.getStartingSequenceId() + result.size();
+                    }
+                }
+            }));
+        }
+        sharedBuffer.noMoreQueues();
+
+        long start = System.nanoTime();
+
+        List<Future<?>> producerFutures = new ArrayList<>();
+        for (int producer = 0; producer < producers; producer++) {
+            producerFutures.add(executor.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                        throws Exception
+                {
+                    for (int i = 0; i < PAGES_PER_PRODUCER; i++) {
+                        sharedBuffer.enqueue(page).get();
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : producerFutures) {
+            future.get();
+        }
+        sharedBuffer.finish();
+
+        long pagesRead = 0;
+        for (Future<Long> future : consumerFutures) {
+            pagesRead += future.get();
+        }
+
+        Duration elapsed = new Duration(System.nanoTime() - start, NANOSECONDS);
+        long pagesWritten = (long) producers * PAGES_PER_PRODUCER;
+        System.out.printf("%-11s :: %2d producers :: %2d consumers :: %7d ms :: %,10.0f pages/s in :: %,11.0f pages/s out%n",
+                partitioned ? "partitioned" : "broadcast",
+                producers,
+                consumers,
+                elapsed.toMillis(),
+                pagesWritten / elapsed.getValue(SECONDS),
+                pagesRead / elapsed.getValue(SECONDS));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.execution;
+
+import com.facebook.presto.execution.TaskExecutor.TaskHandle;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.units.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Measures how many split quanta the executor can dispatch per second when
+ * the splits do no work, so the time is spent in the executor itself.
+ */
+public class TaskExecutorBenchmark
+{
+    private static final int[] RUNNER_THREADS = {1, 2, 4, 8, 16, 32, 64};
+    private static final int TASKS_PER_THREAD = 4;
+    private static final int SPLITS_PER_TASK = 50;
+    private static final int QUANTA_PER_SPLIT = 1_000;
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        // warm up
+        runBenchmark(8);
+
+        for (int runnerThreads : RUNNER_THREADS) {
+            long quanta = (long) runnerThreads * TASKS_PER_THREAD * SPLITS_PER_TASK * QUANTA_PER_SPLIT;
+            long nanos = runBenchmark(runnerThreads);
+            System.out.printf("%3d threads: %,12.0f quanta/s (%s)%n",
+                    runnerThreads,
+                    quanta * 1.0e9 / nanos,
+                    new Duration(nanos, NANOSECONDS).convertToMostSuccinctTimeUnit());
+        }
+    }
+
+    private static long runBenchmark(int runnerThreads)
+            throws Exception
+    {
+        TaskExecutor taskExecutor = new TaskExecutor(runnerThreads);
+        taskExecutor.start();
+        try {
+            List<TaskHandle> taskHandles = new ArrayList<>();
+            List<ListenableFuture<?>> finishedFutures = new ArrayList<>();
+
+            long start = System.nanoTime();
+            for (int task = 0; task < runnerThreads * TASKS_PER_THREAD; task++) {
+                TaskHandle taskHandle = taskExecutor.addTask(new TaskId("query" + task, "0", "0"), "user" + (task % 4));
+                taskHandles.add(taskHandle);
+                for (int split = 0; split < SPLITS_PER_TASK; split++) {
+                    finishedFutures.add(taskExecutor.enqueueSplit(taskHandle, new NoWorkSplit(QUANTA_PER_SPLIT)));
+                }
+            }
+            Futures.allAsList(finishedFutures).get();
+            long nanos = System.nanoTime() - start;
+
+            for (TaskHandle taskHandle : taskHandles) {
+                taskExecutor.removeTask(taskHandle);
+            }
+            return nanos;
+        }
+        finally {
+            taskExecutor.stop();
+        }
+    }
+
+    private static class NoWorkSplit
+            implements SplitRunner
+    {
+        private int remainingQuanta;
+
+        private NoWorkSplit(int quanta)
+        {
+            this.remainingQuanta = quanta;
+        }
+
+        @Override
+        public void initialize()
+        {
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return remainingQuanta <= 0;
+        }
+
+        @Override
+        public ListenableFuture<?> processFor(Duration duration)
+        {
+            remainingQuanta--;
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
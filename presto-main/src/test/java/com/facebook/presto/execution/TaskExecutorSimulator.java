@@ -214,7 +214,7 @@ public class TaskExecutorSimulator
             {
                 long taskId = 0;
                 while (!done.get()) {
-                    SimulationTask task = new SimulationTask(taskExecutor, new TaskId(userId, "0", String.valueOf(taskId++)));
+                    SimulationTask task = new SimulationTask(taskExecutor, userId, new TaskId(userId, "0", String.valueOf(taskId++)));
                     task.schedule(splitsPerTask, executor, new Duration(0, MILLISECONDS)).get();
                     task.destroy();
 
@@ -276,11 +276,11 @@ public class TaskExecutorSimulator
         private final List<ListenableFuture<?>> splitFutures = new ArrayList<>();
         private final TaskHandle taskHandle;
 
-        private SimulationTask(TaskExecutor taskExecutor, TaskId taskId)
+        private SimulationTask(TaskExecutor taskExecutor, String userId, TaskId taskId)
         {
             this.taskExecutor = taskExecutor;
             this.taskId = taskId;
-            taskHandle = taskExecutor.addTask(taskId);
+            taskHandle = taskExecutor.addTask(taskId, userId);
         }
 
         public void destroy()
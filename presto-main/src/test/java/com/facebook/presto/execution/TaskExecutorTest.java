@@ -14,6 +14,7 @@
 package com.facebook.presto.execution;
 
 import com.facebook.presto.execution.TaskExecutor.TaskHandle;
+import com.google.common.base.Ticker;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.units.Duration;
@@ -23,6 +24,8 @@ import java.util.concurrent.Phaser;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.testng.Assert.assertEquals;
 
 public class TaskExecutorTest
@@ -111,6 +114,28 @@ public class TaskExecutorTest
         }
     }
 
+    @Test
+    public void testSplitRunQuanta()
+    {
+        TaskExecutor taskExecutor = new TaskExecutor(4, new Duration(100, MILLISECONDS), new Duration(2, SECONDS), Ticker.systemTicker());
+        try {
+            // an idle executor gives the longest quanta
+            assertEquals(taskExecutor.computeSplitRunQuantaNanos(0, 0), SECONDS.toNanos(2));
+
+            // the quanta shrinks with the queued splits per runner thread, but not below the minimum
+            assertEquals(taskExecutor.computeSplitRunQuantaNanos(0, 4), SECONDS.toNanos(1));
+            assertEquals(taskExecutor.computeSplitRunQuantaNanos(0, 76), MILLISECONDS.toNanos(100));
+            assertEquals(taskExecutor.computeSplitRunQuantaNanos(0, 1000), MILLISECONDS.toNanos(100));
+
+            // long running splits get longer quanta, but not above the maximum
+            assertEquals(taskExecutor.computeSplitRunQuantaNanos(2, 76), MILLISECONDS.toNanos(400));
+            assertEquals(taskExecutor.computeSplitRunQuantaNanos(4, 4), SECONDS.toNanos(2));
+        }
+        finally {
+            taskExecutor.stop();
+        }
+    }
+
     private static class TestingJob
             implements SplitRunner
     {
@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.execution;
+
+import com.facebook.presto.operator.TaskContext;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.units.DataSize;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutorService;
+
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestMemoryPool
+{
+    private static final QueryId QUERY_A = new QueryId("query_a");
+    private static final QueryId QUERY_B = new QueryId("query_b");
+
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executor = newCachedThreadPool(daemonThreadsNamed("test-%d"));
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testReserveAndFree()
+    {
+        MemoryPool pool = new MemoryPool(new DataSize(100, BYTE));
+
+        assertTrue(pool.tryReserve(QUERY_A, 60));
+        assertTrue(pool.tryReserve(QUERY_B, 30));
+        assertEquals(pool.getFreeBytes(), 10);
+        assertEquals(pool.getQueryMemoryReservations(), ImmutableMap.of(QUERY_A, 60L, QUERY_B, 30L));
+        assertFalse(pool.isExhausted());
+
+        // rejected reservations do not change the pool
+        assertFalse(pool.tryReserve(QUERY_B, 20));
+        assertTrue(pool.isExhausted());
+        assertEquals(pool.getFreeBytes(), 10);
+        assertEquals(pool.getQueryMemoryReservation(QUERY_B), 30);
+
+        pool.free(QUERY_A, 60);
+        assertFalse(pool.isExhausted());
+        assertEquals(pool.getFreeBytes(), 70);
+        assertEquals(pool.getQueryMemoryReservation(QUERY_A), 0);
+        assertEquals(pool.getQueryMemoryReservations(), ImmutableMap.of(QUERY_B, 30L));
+
+        assertTrue(pool.tryReserve(QUERY_B, 20));
+        assertEquals(pool.getQueryMemoryReservation(QUERY_B), 50);
+    }
+
+    @Test
+    public void testMemoryFuture()
+    {
+        MemoryPool pool = new MemoryPool(new DataSize(100, BYTE), true);
+        assertTrue(pool.getMemoryFuture().isDone());
+
+        assertTrue(pool.tryReserve(QUERY_A, 100));
+        assertFalse(pool.tryReserve(QUERY_B, 10));
+        ListenableFuture<?> future = pool.getMemoryFuture();
+        assertFalse(future.isDone());
+        assertSame(pool.getMemoryFuture(), future);
+
+        pool.free(QUERY_A, 50);
+        assertTrue(future.isDone());
+
+        // memory was returned since the last rejected reservation
+        assertTrue(pool.getMemoryFuture().isDone());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testFreeMoreThanReserved()
+    {
+        MemoryPool pool = new MemoryPool(new DataSize(100, BYTE));
+        pool.tryReserve(QUERY_A, 10);
+        pool.free(QUERY_A, 11);
+    }
+
+    @Test
+    public void testTasksShareNodePool()
+    {
+        MemoryPool pool = new MemoryPool(new DataSize(10, MEGABYTE));
+        TaskContext first = createTaskContext(pool, new TaskId(QUERY_A.toString(), "stage", "1"));
+        TaskContext second = createTaskContext(pool, new TaskId(QUERY_A.toString(), "stage", "2"));
+        TaskContext other = createTaskContext(pool, new TaskId(QUERY_B.toString(), "stage", "1"));
+
+        // each task is within its own limit, but the node pool is shared
+        assertTrue(first.reserveMemory(new DataSize(4, MEGABYTE).toBytes()));
+        assertTrue(second.reserveMemory(new DataSize(4, MEGABYTE).toBytes()));
+        assertFalse(other.reserveMemory(new DataSize(4, MEGABYTE).toBytes()));
+        assertTrue(other.getTaskStats().isMemoryPoolExhausted());
+        assertEquals(first.getTaskStats().getQueryMemoryReservation(), new DataSize(8, MEGABYTE));
+
+        // finishing a task returns its memory to the pool
+        first.failed(new RuntimeException("test"));
+        first.getTaskStats();
+        assertEquals(pool.getQueryMemoryReservation(QUERY_A), new DataSize(4, MEGABYTE).toBytes());
+        assertTrue(other.reserveMemory(new DataSize(4, MEGABYTE).toBytes()));
+
+        // a finished task can not reserve more memory
+        assertFalse(first.reserveMemory(1));
+    }
+
+    private TaskContext createTaskContext(MemoryPool pool, TaskId taskId)
+    {
+        return new TaskContext(new TaskStateMachine(taskId, executor),
+                executor,
+                null,
+                pool,
+                new DataSize(5, MEGABYTE),
+                new DataSize(1, MEGABYTE),
+                true);
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.execution;
+
+import com.facebook.presto.execution.TaskExecutor.PrioritizedSplitRunner;
+import com.facebook.presto.execution.TaskExecutor.TaskHandle;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.units.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestMultilevelSplitQueue
+{
+    private static final Duration QUANTA = new Duration(1, SECONDS);
+
+    private TestingTicker ticker;
+    private TaskExecutor taskExecutor;
+    private MultilevelSplitQueue queue;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        ticker = new TestingTicker();
+        // runner threads are never started, so splits only run when the test processes them
+        taskExecutor = new TaskExecutor(1, ticker);
+        queue = new MultilevelSplitQueue(2);
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        taskExecutor.stop();
+    }
+
+    @Test
+    public void testComputeLevel()
+    {
+        assertEquals(MultilevelSplitQueue.computeLevel(0), 0);
+        assertEquals(MultilevelSplitQueue.computeLevel(MILLISECONDS.toNanos(999)), 0);
+        assertEquals(MultilevelSplitQueue.computeLevel(SECONDS.toNanos(1)), 1);
+        assertEquals(MultilevelSplitQueue.computeLevel(SECONDS.toNanos(10)), 2);
+        assertEquals(MultilevelSplitQueue.computeLevel(SECONDS.toNanos(60)), 3);
+        assertEquals(MultilevelSplitQueue.computeLevel(SECONDS.toNanos(300)), 4);
+        assertEquals(MultilevelSplitQueue.computeLevel(SECONDS.toNanos(3000)), 4);
+    }
+
+    @Test
+    public void testLevelsShareThreadTime()
+            throws Exception
+    {
+        PrioritizedSplitRunner firstShortSplit = createSplit(taskExecutor.addTask(new TaskId("short", "0", "0")));
+        PrioritizedSplitRunner secondShortSplit = createSplit(taskExecutor.addTask(new TaskId("short", "0", "1")));
+        PrioritizedSplitRunner longSplit = createSplit(taskExecutor.addTask(new TaskId("long", "0", "0")), new Duration(2, SECONDS));
+        longSplit.process(QUANTA);
+        assertEquals(longSplit.getPriorityLevel(), 1);
+
+        queue.put(firstShortSplit);
+        queue.put(secondShortSplit);
+        queue.put(longSplit);
+
+        // with no time used, the lowest level runs first
+        assertSame(queue.take(), firstShortSplit);
+
+        // level 0 is entitled to twice the time of level 1, so after using 10s it yields to level 1
+        queue.addScheduledNanos(0, SECONDS.toNanos(10));
+        assertSame(queue.take(), longSplit);
+
+        // once level 1 has used more than half of the level 0 time, level 0 runs again
+        queue.addScheduledNanos(1, SECONDS.toNanos(6));
+        assertSame(queue.take(), secondShortSplit);
+
+        assertEquals(queue.getSelectedSplits(0), 2);
+        assertEquals(queue.getSelectedSplits(1), 1);
+        assertEquals(queue.size(), 0);
+    }
+
+    @Test
+    public void testQueryFairness()
+            throws Exception
+    {
+        PrioritizedSplitRunner busySplit = createSplit(taskExecutor.addTask(new TaskId("busy", "0", "0")), new Duration(500, MILLISECONDS));
+        PrioritizedSplitRunner idleSplit = createSplit(taskExecutor.addTask(new TaskId("idle", "0", "0")));
+        busySplit.process(QUANTA);
+
+        // both splits are in level 0, but the idle query has used less time
+        queue.put(busySplit);
+        queue.put(idleSplit);
+        assertSame(queue.take(), idleSplit);
+        assertSame(queue.take(), busySplit);
+    }
+
+    @Test
+    public void testGroupWeights()
+            throws Exception
+    {
+        taskExecutor.setGroupWeight("heavy", 4);
+        PrioritizedSplitRunner heavySplit = createSplit(taskExecutor.addTask(new TaskId("heavy_query", "0", "0"), "heavy"), new Duration(300, MILLISECONDS));
+        PrioritizedSplitRunner lightSplit = createSplit(taskExecutor.addTask(new TaskId("light_query", "0", "0"), "light"), new Duration(100, MILLISECONDS));
+        heavySplit.process(QUANTA);
+        lightSplit.process(QUANTA);
+
+        // the heavy group has used more time, but less than four times as much
+        queue.put(lightSplit);
+        queue.put(heavySplit);
+        assertSame(queue.take(), heavySplit);
+        assertSame(queue.take(), lightSplit);
+        assertEquals(taskExecutor.getGroups(), 2);
+        assertEquals(taskExecutor.getQueries(), 2);
+    }
+
+    @Test
+    public void testQueriesWithSameUsageTakeTurns()
+            throws Exception
+    {
+        TaskHandle firstTask = taskExecutor.addTask(new TaskId("first", "0", "0"), "group");
+        TaskHandle secondTask = taskExecutor.addTask(new TaskId("second", "0", "0"), "group");
+        PrioritizedSplitRunner firstSplit = createSplit(firstTask);
+        PrioritizedSplitRunner secondSplit = createSplit(firstTask);
+        PrioritizedSplitRunner thirdSplit = createSplit(firstTask);
+        PrioritizedSplitRunner otherSplit = createSplit(secondTask);
+
+        queue.put(firstSplit);
+        queue.put(secondSplit);
+        queue.put(thirdSplit);
+        queue.put(otherSplit);
+
+        // the splits of a query run in the order they were added
+        assertSame(queue.take(), firstSplit);
+        assertSame(queue.take(), otherSplit);
+        assertSame(queue.take(), secondSplit);
+        assertSame(queue.take(), thirdSplit);
+        assertEquals(queue.size(), 0);
+    }
+
+    @Test
+    public void testRemove()
+            throws Exception
+    {
+        PrioritizedSplitRunner removedSplit = createSplit(taskExecutor.addTask(new TaskId("query", "0", "0")));
+        PrioritizedSplitRunner split = createSplit(taskExecutor.addTask(new TaskId("query", "0", "1")));
+
+        queue.put(removedSplit);
+        assertTrue(queue.remove(removedSplit));
+        assertFalse(queue.remove(removedSplit));
+        assertEquals(queue.size(), 0);
+
+        queue.put(split);
+        assertEquals(queue.size(), 1);
+        assertSame(queue.take(), split);
+        assertEquals(queue.size(), 0);
+    }
+
+    @Test
+    public void testRemoveTaskReleasesQuery()
+    {
+        TaskHandle first = taskExecutor.addTask(new TaskId("query", "0", "0"), "group");
+        TaskHandle second = taskExecutor.addTask(new TaskId("query", "0", "1"), "group");
+        assertEquals(taskExecutor.getQueries(), 1);
+        assertEquals(taskExecutor.getGroups(), 1);
+
+        taskExecutor.removeTask(first);
+        assertEquals(taskExecutor.getQueries(), 1);
+
+        taskExecutor.removeTask(second);
+        assertEquals(taskExecutor.getQueries(), 0);
+        assertEquals(taskExecutor.getGroups(), 0);
+    }
+
+    private PrioritizedSplitRunner createSplit(TaskHandle taskHandle)
+    {
+        return createSplit(taskHandle, new Duration(0, MILLISECONDS));
+    }
+
+    private PrioritizedSplitRunner createSplit(TaskHandle taskHandle, Duration runTime)
+    {
+        return new PrioritizedSplitRunner(taskHandle, new TestingSplit(ticker, runTime), ticker);
+    }
+
+    private static class TestingTicker
+            extends Ticker
+    {
+        private long time;
+
+        @Override
+        public long read()
+        {
+            return time;
+        }
+
+        public void increment(long nanos)
+        {
+            time += nanos;
+        }
+    }
+
+    private static class TestingSplit
+            implements SplitRunner
+    {
+        private final TestingTicker ticker;
+        private final long runTimeNanos;
+
+        private TestingSplit(TestingTicker ticker, Duration runTime)
+        {
+            this.ticker = ticker;
+            this.runTimeNanos = runTime.roundTo(NANOSECONDS);
+        }
+
+        @Override
+        public void initialize()
+        {
+        }
+
+        @Override
+        public ListenableFuture<?> processFor(Duration duration)
+        {
+            ticker.increment(runTimeNanos);
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return false;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -15,6 +15,7 @@ package com.facebook.presto.execution;
 
 import com.google.common.collect.ImmutableMap;
 import io.airlift.configuration.testing.ConfigAssertions;
+import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import org.testng.annotations.Test;
 
@@ -33,7 +34,14 @@ public class TestQueryManagerConfig
                 .setMaxPendingSplitsPerNode(100)
                 .setQueryManagerExecutorPoolSize(5)
                 .setRemoteTaskMaxConsecutiveErrorCount(10)
-                .setRemoteTaskMinErrorDuration(new Duration(2, TimeUnit.MINUTES)));
+                .setRemoteTaskMinErrorDuration(new Duration(2, TimeUnit.MINUTES))
+                .setDistributedJoinsEnabled(false)
+                .setOptimizeHashGeneration(false)
+                .setMaxQueryMemory(new DataSize(20, DataSize.Unit.GIGABYTE))
+                .setMaxConcurrentQueries(1000)
+                .setMaxQueuedQueries(5000)
+                .setMaxConcurrentQueriesPerUser(null)
+                .setMaxConcurrentQueriesPerSource(null));
     }
 
     @Test
@@ -47,6 +55,13 @@ public class TestQueryManagerConfig
                 .put("query.manager-executor-pool-size", "11")
                 .put("query.remote-task.max-consecutive-error-count", "300")
                 .put("query.remote-task.min-error-duration", "30s")
+                .put("query.distributed-joins-enabled", "true")
+                .put("query.optimize-hash-generation", "true")
+                .put("query.max-memory", "1TB")
+                .put("query.max-concurrent-queries", "10")
+                .put("query.max-queued-queries", "20")
+                .put("query.max-concurrent-queries-per-user", "3")
+                .put("query.max-concurrent-queries-per-source", "4")
                 .build();
 
         QueryManagerConfig expected = new QueryManagerConfig()
@@ -56,7 +71,14 @@ public class TestQueryManagerConfig
                 .setMaxPendingSplitsPerNode(33)
                 .setQueryManagerExecutorPoolSize(11)
                 .setRemoteTaskMaxConsecutiveErrorCount(300)
-                .setRemoteTaskMinErrorDuration(new Duration(30, TimeUnit.SECONDS));
+                .setRemoteTaskMinErrorDuration(new Duration(30, TimeUnit.SECONDS))
+                .setDistributedJoinsEnabled(true)
+                .setOptimizeHashGeneration(true)
+                .setMaxQueryMemory(new DataSize(1, DataSize.Unit.TERABYTE))
+                .setMaxConcurrentQueries(10)
+                .setMaxQueuedQueries(20)
+                .setMaxConcurrentQueriesPerUser(3)
+                .setMaxConcurrentQueriesPerSource(4);
 
         ConfigAssertions.assertFullMapping(properties, expected);
     }
@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.execution;
+
+import com.facebook.presto.sql.analyzer.Session;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestQueryQueue
+{
+    private final List<QueryId> startedQueries = new ArrayList<>();
+
+    @Test
+    public void testMaxConcurrentQueries()
+    {
+        startedQueries.clear();
+        QueryQueue queue = new QueryQueue(2, 10, Optional.<Integer>absent(), Optional.<Integer>absent(), sameThreadExecutor());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(enqueue(queue, query(i), "user", "source"));
+        }
+        assertEquals(startedQueries, ImmutableList.of(query(0), query(1)));
+        assertEquals(queue.getRunningQueries(), 2);
+        assertEquals(queue.getQueuedQueries(), 2);
+        assertEquals(queue.getQueuePosition(query(0)), Optional.absent());
+        assertEquals(queue.getQueuePosition(query(2)), Optional.of(0));
+        assertEquals(queue.getQueuePosition(query(3)), Optional.of(1));
+
+        // queries start in submission order as running queries finish
+        queue.remove(query(1));
+        assertEquals(startedQueries, ImmutableList.of(query(0), query(1), query(2)));
+        assertEquals(queue.getQueuePosition(query(3)), Optional.of(0));
+
+        // a query that is done while queued gives up its place
+        queue.remove(query(3));
+        queue.remove(query(0));
+        assertEquals(startedQueries, ImmutableList.of(query(0), query(1), query(2)));
+        assertEquals(queue.getRunningQueries(), 1);
+        assertEquals(queue.getQueuedQueries(), 0);
+    }
+
+    @Test
+    public void testMaxQueuedQueries()
+    {
+        startedQueries.clear();
+        QueryQueue queue = new QueryQueue(1, 2, Optional.<Integer>absent(), Optional.<Integer>absent(), sameThreadExecutor());
+
+        assertTrue(enqueue(queue, query(0), "user", "source"));
+        assertTrue(enqueue(queue, query(1), "user", "source"));
+        assertTrue(enqueue(queue, query(2), "user", "source"));
+        assertFalse(enqueue(queue, query(3), "user", "source"));
+        assertEquals(queue.getRejectedQueries().getTotalCount(), 1);
+
+        queue.remove(query(0));
+        assertTrue(enqueue(queue, query(4), "user", "source"));
+        assertEquals(startedQueries, ImmutableList.of(query(0), query(1)));
+    }
+
+    @Test
+    public void testMaxConcurrentQueriesPerUser()
+    {
+        startedQueries.clear();
+        QueryQueue queue = new QueryQueue(10, 10, Optional.of(1), Optional.<Integer>absent(), sameThreadExecutor());
+
+        assertTrue(enqueue(queue, query(0), "alice", "source"));
+        assertTrue(enqueue(queue, query(1), "alice", "source"));
+
+        // a query of another user is not held back by the queued query of the first user
+        assertTrue(enqueue(queue, query(2), "bob", "source"));
+        assertEquals(startedQueries, ImmutableList.of(query(0), query(2)));
+        assertEquals(queue.getQueuePosition(query(1)), Optional.of(0));
+
+        queue.remove(query(2));
+        assertEquals(startedQueries, ImmutableList.of(query(0), query(2)));
+
+        queue.remove(query(0));
+        assertEquals(startedQueries, ImmutableList.of(query(0), query(2), query(1)));
+    }
+
+    @Test
+    public void testMaxConcurrentQueriesPerSource()
+    {
+        startedQueries.clear();
+        QueryQueue queue = new QueryQueue(10, 10, Optional.<Integer>absent(), Optional.of(2), sameThreadExecutor());
+
+        assertTrue(enqueue(queue, query(0), "alice", "dashboard"));
+        assertTrue(enqueue(queue, query(1), "bob", "dashboard"));
+        assertTrue(enqueue(queue, query(2), "carol", "dashboard"));
+        assertTrue(enqueue(queue, query(3), "carol", "cli"));
+        assertEquals(startedQueries, ImmutableList.of(query(0), query(1), query(3)));
+
+        queue.remove(query(1));
+        assertEquals(startedQueries, ImmutableList.of(query(0), query(1), query(3), query(2)));
+    }
+
+    private boolean enqueue(QueryQueue queue, final QueryId queryId, String user, String source)
+    {
+        Session session = new Session(user, source, "catalog", "schema", "address", "agent");
+        return queue.enqueue(queryId, session, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                startedQueries.add(queryId);
+            }
+        });
+    }
+
+    private static QueryId query(int id)
+    {
+        return new QueryId("query_" + id);
+    }
+}
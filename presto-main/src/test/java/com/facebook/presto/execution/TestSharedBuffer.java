@@ -14,7 +14,9 @@
 package com.facebook.presto.execution;
 
 import com.facebook.presto.block.BlockAssertions;
+import com.facebook.presto.block.BlockCursor;
 import com.facebook.presto.operator.Page;
+import com.facebook.presto.operator.PagePartitioner;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -24,20 +26,24 @@ import io.airlift.units.DataSize.Unit;
 import io.airlift.units.Duration;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static com.facebook.presto.block.BlockAssertions.assertBlockEquals;
 import static com.facebook.presto.execution.BufferResult.bufferResult;
 import static com.facebook.presto.execution.BufferResult.emptyResults;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
@@ -594,6 +600,152 @@ public class TestSharedBuffer
         addPagesJob.waitForFinished();
     }
 
+    @Test
+    public void testHashPartitioned()
+            throws Exception
+    {
+        PagePartitioner partitioner = new PagePartitioner(ImmutableList.of(SINGLE_LONG), ImmutableList.of(0));
+        SharedBuffer sharedBuffer = new SharedBuffer(sizeOfPages(10), partitioner);
+        sharedBuffer.addQueue("second");
+        sharedBuffer.addQueue("first");
+
+        int[] values = new int[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        Page page = new Page(BlockAssertions.createLongsBlock(values));
+
+        // pages can not be partitioned until all queues are known
+        ListenableFuture<?> future = enqueuePage(sharedBuffer, page);
+        sharedBuffer.noMoreQueues();
+        assertTrue(future.isDone());
+
+        // every row is sent to exactly one queue
+        BufferResult first = sharedBuffer.get("first", 0, sizeOfPages(10), NO_WAIT);
+        BufferResult second = sharedBuffer.get("second", 0, sizeOfPages(10), NO_WAIT);
+        assertEquals(first.getElements().size(), 1);
+        assertEquals(second.getElements().size(), 1);
+        List<Long> firstValues = getLongs(first.getElements());
+        List<Long> secondValues = getLongs(second.getElements());
+        assertEquals(firstValues.size() + secondValues.size(), values.length);
+        assertTrue(Collections.disjoint(firstValues, secondValues));
+
+        // queues are assigned partitions in queue id order, so a buffer with the same queues routes rows identically
+        SharedBuffer otherBuffer = new SharedBuffer(sizeOfPages(10), partitioner);
+        otherBuffer.addQueue("first");
+        otherBuffer.addQueue("second");
+        otherBuffer.noMoreQueues();
+        addPage(otherBuffer, page);
+        assertEquals(getLongs(otherBuffer.get("first", 0, sizeOfPages(10), NO_WAIT).getElements()), firstValues);
+        assertEquals(getLongs(otherBuffer.get("second", 0, sizeOfPages(10), NO_WAIT).getElements()), secondValues);
+
+        // each queue has its own sequence of pages
+        assertQueueState(sharedBuffer, "first", 1, 0);
+        assertBufferResultEquals(sharedBuffer.get("first", 1, sizeOfPages(10), NO_WAIT), emptyResults(1, false));
+        assertQueueState(sharedBuffer, "first", 0, 1);
+        assertQueueState(sharedBuffer, "second", 1, 0);
+
+        // finish and drain the remaining queue
+        sharedBuffer.finish();
+        assertQueueClosed(sharedBuffer, "first", 1);
+        assertBufferResultEquals(sharedBuffer.get("second", 1, sizeOfPages(10), NO_WAIT), emptyResults(1, false));
+        assertFinished(sharedBuffer);
+    }
+
+    @Test
+    public void testConcurrentProducersAndConsumers()
+            throws Exception
+    {
+        // every consumer sees every page
+        SharedBuffer sharedBuffer = new SharedBuffer(sizeOfPages(5));
+        List<Long> counts = runProducersAndConsumers(sharedBuffer, 4, 200, 3);
+        assertEquals(counts, ImmutableList.of(800L, 800L, 800L));
+        assertFinished(sharedBuffer);
+
+        // every row is sent to exactly one consumer
+        PagePartitioner partitioner = new PagePartitioner(ImmutableList.of(SINGLE_LONG), ImmutableList.of(0));
+        sharedBuffer = new SharedBuffer(sizeOfPages(5), partitioner);
+        counts = runProducersAndConsumers(sharedBuffer, 4, 200, 3);
+        assertEquals(counts.get(0) + counts.get(1) + counts.get(2), 800L);
+        assertFinished(sharedBuffer);
+    }
+
+    private static List<Long> runProducersAndConsumers(final SharedBuffer sharedBuffer, int producers, final int pagesPerProducer, int consumers)
+            throws Exception
+    {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            List<Future<Long>> consumerRows = new ArrayList<>();
+            for (int consumer = 0; consumer < consumers; consumer++) {
+                final String queueId = "queue-" + consumer;
+                sharedBuffer.addQueue(queueId);
+                consumerRows.add(executor.submit(new Callable<Long>()
+                {
+                    @Override
+                    public Long call()
+                            throws Exception
+                    {
+                        long rows = 0;
+                        long sequenceId = 0;
+                        while (true) {
+                            BufferResult result = sharedBuffer.get(queueId, sequenceId, sizeOfPages(3), MAX_WAIT);
+                            if (result.isBufferClosed()) {
+                                return rows;
+                            }
+                            for (Page page : result.getElements()) {
+                                rows += page.getPositionCount();
+                            }
+                            sequenceId = result.getStartingSequenceId() + result.size();
+                        }
+                    }
+                }));
+            }
+            sharedBuffer.noMoreQueues();
+
+            List<Future<?>> producerFutures = new ArrayList<>();
+            for (int producer = 0; producer < producers; producer++) {
+                final int base = producer * pagesPerProducer;
+                producerFutures.add(executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                            throws Exception
+                    {
+                        for (int i = 0; i < pagesPerProducer; i++) {
+                            sharedBuffer.enqueue(createPage(base + i)).get();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : producerFutures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            sharedBuffer.finish();
+
+            ImmutableList.Builder<Long> rows = ImmutableList.builder();
+            for (Future<Long> future : consumerRows) {
+                rows.add(future.get(10, TimeUnit.SECONDS));
+            }
+            return rows.build();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<Long> getLongs(List<Page> pages)
+    {
+        ImmutableList.Builder<Long> values = ImmutableList.builder();
+        for (Page page : pages) {
+            BlockCursor cursor = page.getBlock(0).cursor();
+            while (cursor.advanceNextPosition()) {
+                values.add(cursor.getLong(0));
+            }
+        }
+        return values.build();
+    }
+
     private ListenableFuture<?> enqueuePage(SharedBuffer sharedBuffer, Page page)
     {
         ListenableFuture<?> future = sharedBuffer.enqueue(page);
@@ -0,0 +1,420 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.execution;
+
+import com.facebook.presto.client.FailureInfo;
+import com.facebook.presto.client.Input;
+import com.facebook.presto.event.query.QueryMonitor;
+import com.facebook.presto.execution.QueryExecution.QueryExecutionFactory;
+import com.facebook.presto.execution.SharedBuffer.QueueState;
+import com.facebook.presto.execution.StateMachine.StateChangeListener;
+import com.facebook.presto.execution.TestSqlTaskManager.MockLocationFactory;
+import com.facebook.presto.operator.PipelineStats;
+import com.facebook.presto.operator.TaskStats;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.sql.planner.plan.PlanNodeId;
+import com.facebook.presto.sql.tree.Query;
+import com.facebook.presto.sql.tree.Statement;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.event.client.NullEventClient;
+import io.airlift.json.ObjectMapperProvider;
+import io.airlift.node.NodeInfo;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import org.joda.time.DateTime;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class TestSqlQueryManager
+{
+    private static final long MB = new DataSize(1, MEGABYTE).toBytes();
+
+    private MockQueryExecutionFactory executionFactory;
+    private SqlQueryManager queryManager;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executionFactory = new MockQueryExecutionFactory();
+        queryManager = new SqlQueryManager(
+                new QueryManagerConfig().setMaxQueryMemory(new DataSize(1000, MEGABYTE)),
+                new QueryMonitor(new ObjectMapperProvider().get(), new NullEventClient(), new NodeInfo("test")),
+                new QueryIdGenerator(),
+                new MockLocationFactory(),
+                ImmutableMap.<Class<? extends Statement>, QueryExecutionFactory<?>>of(Query.class, executionFactory));
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        queryManager.stop();
+    }
+
+    @Test
+    public void testSelectLargestQueryOnExhaustedNode()
+    {
+        MockQueryExecution small = createQuery();
+        small.addTask("node1:8080", 10 * MB, TaskState.RUNNING, true);
+
+        MockQueryExecution large = createQuery();
+        large.addTask("node1:8080", 50 * MB, TaskState.RUNNING, false);
+        large.addTask("node2:8080", 5 * MB, TaskState.RUNNING, false);
+
+        // holds more memory, but only on a node with memory to spare
+        MockQueryExecution otherNode = createQuery();
+        otherNode.addTask("node2:8080", 500 * MB, TaskState.RUNNING, false);
+
+        // the reservation of a done task is already released
+        MockQueryExecution done = createQuery();
+        done.addTask("node1:8080", 900 * MB, TaskState.FINISHED, true);
+
+        List<QueryInfo> queryInfos = ImmutableList.of(small.getQueryInfo(), large.getQueryInfo(), otherNode.getQueryInfo(), done.getQueryInfo());
+        assertEquals(SqlQueryManager.selectLowMemoryVictim(queryInfos), large.getQueryId());
+    }
+
+    @Test
+    public void testNoVictimWithoutExhaustedNode()
+    {
+        MockQueryExecution query = createQuery();
+        query.addTask("node1:8080", 500 * MB, TaskState.RUNNING, false);
+
+        // a done task that reported an exhausted pool does not count
+        MockQueryExecution done = createQuery();
+        done.addTask("node1:8080", 10 * MB, TaskState.FAILED, true);
+
+        assertNull(SqlQueryManager.selectLowMemoryVictim(ImmutableList.of(query.getQueryInfo(), done.getQueryInfo())));
+    }
+
+    @Test
+    public void testKillLowMemoryVictim()
+    {
+        MockQueryExecution small = createQuery();
+        small.addTask("node1:8080", 10 * MB, TaskState.RUNNING, true);
+        MockQueryExecution large = createQuery();
+        large.addTask("node1:8080", 50 * MB, TaskState.RUNNING, true);
+
+        queryManager.enforceMemoryLimits();
+        assertEquals(large.getState(), QueryState.FAILED);
+        assertEquals(small.getState(), QueryState.RUNNING);
+    }
+
+    @Test
+    public void testNoSecondVictimWhileTasksOfPreviousVictimAreRunning()
+    {
+        MockQueryExecution small = createQuery();
+        small.addTask("node1:8080", 10 * MB, TaskState.RUNNING, true);
+        MockQueryExecution large = createQuery();
+        large.addTask("node1:8080", 50 * MB, TaskState.RUNNING, true);
+
+        queryManager.enforceMemoryLimits();
+        assertEquals(large.getState(), QueryState.FAILED);
+
+        // the tasks of the victim have not released their memory yet
+        queryManager.enforceMemoryLimits();
+        assertEquals(small.getState(), QueryState.RUNNING);
+
+        // the node is still exhausted after the tasks of the victim are done
+        large.finishTasks();
+        queryManager.enforceMemoryLimits();
+        assertEquals(small.getState(), QueryState.FAILED);
+    }
+
+    @Test
+    public void testQueryMaxMemory()
+    {
+        MockQueryExecution underLimit = createQuery();
+        underLimit.addTask("node1:8080", 600 * MB, TaskState.RUNNING, false);
+        underLimit.addTask("node2:8080", 400 * MB, TaskState.RUNNING, false);
+
+        MockQueryExecution overLimit = createQuery();
+        overLimit.addTask("node1:8080", 600 * MB, TaskState.RUNNING, false);
+        overLimit.addTask("node2:8080", 600 * MB, TaskState.RUNNING, false);
+
+        queryManager.enforceMemoryLimits();
+        assertEquals(underLimit.getState(), QueryState.RUNNING);
+        assertEquals(overLimit.getState(), QueryState.FAILED);
+        assertEquals(overLimit.getFailureCause().getClass(), ExceededMemoryLimitException.class);
+    }
+
+    private MockQueryExecution createQuery()
+    {
+        QueryInfo queryInfo = queryManager.createQuery(new Session("user", "test", "default", "default", "test", "test"), "SELECT 1");
+        return executionFactory.getExecution(queryInfo.getQueryId());
+    }
+
+    private static class MockQueryExecutionFactory
+            implements QueryExecutionFactory<MockQueryExecution>
+    {
+        private final Map<QueryId, MockQueryExecution> executions = new ConcurrentHashMap<>();
+
+        @Override
+        public MockQueryExecution createQueryExecution(QueryId queryId, String query, Session session, Statement statement)
+        {
+            MockQueryExecution execution = new MockQueryExecution(queryId, query, session);
+            executions.put(queryId, execution);
+            return execution;
+        }
+
+        public MockQueryExecution getExecution(QueryId queryId)
+        {
+            return executions.get(queryId);
+        }
+    }
+
+    private static class MockQueryExecution
+            implements QueryExecution
+    {
+        private final QueryId queryId;
+        private final String query;
+        private final Session session;
+        private final List<MockTask> tasks = new ArrayList<>();
+        private QueryState state = QueryState.RUNNING;
+        private Throwable failureCause;
+
+        private MockQueryExecution(QueryId queryId, String query, Session session)
+        {
+            this.queryId = queryId;
+            this.query = query;
+            this.session = session;
+        }
+
+        public QueryId getQueryId()
+        {
+            return queryId;
+        }
+
+        public synchronized QueryState getState()
+        {
+            return state;
+        }
+
+        public synchronized Throwable getFailureCause()
+        {
+            return failureCause;
+        }
+
+        /**
+         * Adds a task on the node, reporting the reservation of the query on that node.
+         */
+        public synchronized void addTask(String node, long queryReservation, TaskState taskState, boolean memoryPoolExhausted)
+        {
+            tasks.add(new MockTask(node, queryReservation, taskState, memoryPoolExhausted));
+        }
+
+        public synchronized void finishTasks()
+        {
+            for (MockTask task : tasks) {
+                task.state = TaskState.FINISHED;
+            }
+        }
+
+        @Override
+        public synchronized QueryInfo getQueryInfo()
+        {
+            StageId stageId = new StageId(queryId, "0");
+            ImmutableList.Builder<TaskInfo> taskInfos = ImmutableList.builder();
+            long totalReservation = 0;
+            for (int i = 0; i < tasks.size(); i++) {
+                MockTask task = tasks.get(i);
+                TaskId taskId = new TaskId(stageId, String.valueOf(i));
+                taskInfos.add(new TaskInfo(
+                        taskId,
+                        0,
+                        task.state,
+                        URI.create("http://" + task.node + "/v1/task/" + taskId),
+                        DateTime.now(),
+                        new SharedBufferInfo(QueueState.OPEN, 0, 0, ImmutableList.<BufferInfo>of()),
+                        ImmutableSet.<PlanNodeId>of(),
+                        createTaskStats(task.queryReservation, task.memoryPoolExhausted),
+                        ImmutableList.<FailureInfo>of(),
+                        ImmutableMap.<PlanNodeId, Set<?>>of()));
+                if (!task.state.isDone()) {
+                    totalReservation += task.queryReservation;
+                }
+            }
+
+            StageInfo outputStage = new StageInfo(
+                    stageId,
+                    state.isDone() ? StageState.FAILED : StageState.RUNNING,
+                    URI.create("fake://stage/" + stageId),
+                    null,
+                    ImmutableList.<TupleInfo>of(),
+                    new StageStats(),
+                    taskInfos.build(),
+                    ImmutableList.<StageInfo>of(),
+                    ImmutableList.<FailureInfo>of());
+
+            return new QueryInfo(
+                    queryId,
+                    session,
+                    state,
+                    URI.create("fake://query/" + queryId),
+                    ImmutableList.<String>of(),
+                    query,
+                    createQueryStats(totalReservation),
+                    outputStage,
+                    null,
+                    ImmutableSet.<Input>of());
+        }
+
+        @Override
+        public Duration waitForStateChange(QueryState currentState, Duration maxWait)
+        {
+            return maxWait;
+        }
+
+        @Override
+        public void start()
+        {
+        }
+
+        @Override
+        public synchronized void cancel()
+        {
+            if (!state.isDone()) {
+                state = QueryState.CANCELED;
+            }
+        }
+
+        @Override
+        public synchronized void fail(Throwable cause)
+        {
+            // the tasks keep running until they see the query failed
+            if (!state.isDone()) {
+                state = QueryState.FAILED;
+                failureCause = cause;
+            }
+        }
+
+        @Override
+        public void cancelStage(StageId stageId)
+        {
+        }
+
+        @Override
+        public void recordHeartbeat()
+        {
+        }
+
+        @Override
+        public void addStateChangeListener(StateChangeListener<QueryState> stateChangeListener)
+        {
+        }
+    }
+
+    private static class MockTask
+    {
+        private final String node;
+        private final long queryReservation;
+        private final boolean memoryPoolExhausted;
+        private TaskState state;
+
+        private MockTask(String node, long queryReservation, TaskState state, boolean memoryPoolExhausted)
+        {
+            this.node = node;
+            this.queryReservation = queryReservation;
+            this.state = state;
+            this.memoryPoolExhausted = memoryPoolExhausted;
+        }
+    }
+
+    private static TaskStats createTaskStats(long queryReservation, boolean memoryPoolExhausted)
+    {
+        return new TaskStats(
+                DateTime.now(),
+                null,
+                null,
+                new Duration(0, MILLISECONDS),
+                new Duration(0, MILLISECONDS),
+
+                0,
+                0,
+                0,
+                0,
+
+                new DataSize(queryReservation, BYTE),
+                new DataSize(queryReservation, BYTE),
+                memoryPoolExhausted,
+                new Duration(0, MILLISECONDS),
+                new Duration(0, MILLISECONDS),
+                new Duration(0, MILLISECONDS),
+                new Duration(0, MILLISECONDS),
+
+                new DataSize(0, BYTE),
+                0,
+
+                new DataSize(0, BYTE),
+                0,
+
+                new DataSize(0, BYTE),
+                0,
+
+                ImmutableList.<PipelineStats>of());
+    }
+
+    private static QueryStats createQueryStats(long totalMemoryReservation)
+    {
+        return new QueryStats(
+                DateTime.now(),
+                null,
+                DateTime.now(),
+                null,
+                new Duration(0, MILLISECONDS),
+                new Duration(0, MILLISECONDS),
+                new Duration(0, MILLISECONDS),
+                new Duration(0, MILLISECONDS),
+
+                0,
+                0,
+                0,
+
+                0,
+                0,
+                0,
+                0,
+
+                new DataSize(totalMemoryReservation, BYTE),
+
+                new Duration(0, MILLISECONDS),
+                new Duration(0, MILLISECONDS),
+                new Duration(0, MILLISECONDS),
+                new Duration(0, MILLISECONDS),
+
+                new DataSize(0, BYTE),
+                0,
+
+                new DataSize(0, BYTE),
+                0,
+
+                new DataSize(0, BYTE),
+                0);
+    }
+}
@@ -61,8 +61,10 @@ import java.util.concurrent.TimeUnit;
 
 import static com.facebook.presto.sql.tree.BooleanLiteral.TRUE_LITERAL;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 public class TestSqlTaskManager
@@ -103,7 +105,8 @@ public class TestSqlTaskManager
                 new DataStreamManager(new DualDataStreamProvider()),
                 new MockLocalStorageManager(new File("target/temp")),
                 new MockExchangeClientSupplier(),
-                new ExpressionCompiler(metadata));
+                new ExpressionCompiler(metadata),
+                new TaskManagerConfig());
 
         taskExecutor = new TaskExecutor(8);
         taskExecutor.start();
@@ -189,6 +192,93 @@ public class TestSqlTaskManager
         assertEquals(taskInfo.getState(), TaskState.FINISHED);
     }
 
+    @Test
+    public void testTaskInfoSummary()
+            throws Exception
+    {
+        TaskInfo taskInfo = sqlTaskManager.updateTask(session,
+                taskId,
+                testFragment,
+                ImmutableList.<TaskSource>of(),
+                new OutputBuffers(ImmutableSet.<String>of(), false));
+        assertEquals(taskInfo.getState(), TaskState.RUNNING);
+        assertTrue(taskInfo.getStats().getPipelines().isEmpty());
+
+        // the pipeline details are only sent when requested while the task is running
+        taskInfo = sqlTaskManager.getTaskInfo(taskId, false);
+        assertTrue(taskInfo.getStats().getPipelines().isEmpty());
+        taskInfo = sqlTaskManager.getTaskInfo(taskId, true);
+        assertFalse(taskInfo.getStats().getPipelines().isEmpty());
+
+        // and always once it is done
+        taskInfo = sqlTaskManager.cancelTask(taskId);
+        assertEquals(taskInfo.getState(), TaskState.CANCELED);
+        assertFalse(taskInfo.getStats().getPipelines().isEmpty());
+        taskInfo = sqlTaskManager.getTaskInfo(taskId, false);
+        assertFalse(taskInfo.getStats().getPipelines().isEmpty());
+    }
+
+    @Test
+    public void testUpdateWithoutFragment()
+            throws Exception
+    {
+        try {
+            sqlTaskManager.updateTask(session, taskId, null, ImmutableList.<TaskSource>of(), new OutputBuffers(ImmutableSet.<String>of(), false));
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+
+        TaskInfo taskInfo = sqlTaskManager.updateTask(session,
+                taskId,
+                testFragment,
+                ImmutableList.<TaskSource>of(),
+                new OutputBuffers(ImmutableSet.<String>of(), false));
+        assertEquals(taskInfo.getState(), TaskState.RUNNING);
+
+        // once the task exists, updates only carry the new sources
+        taskInfo = sqlTaskManager.updateTask(session,
+                taskId,
+                null,
+                ImmutableList.<TaskSource>of(new TaskSource(tableScanNodeId, ImmutableSet.<ScheduledSplit>of(), true)),
+                new OutputBuffers(ImmutableSet.<String>of(), true));
+        assertEquals(taskInfo.getState(), TaskState.FINISHED);
+    }
+
+    @Test
+    public void testWaitForTaskInfoChange()
+            throws Exception
+    {
+        TaskInfo taskInfo = sqlTaskManager.updateTask(session,
+                taskId,
+                testFragment,
+                ImmutableList.<TaskSource>of(),
+                new OutputBuffers(ImmutableSet.<String>of(), false));
+        assertEquals(taskInfo.getState(), TaskState.RUNNING);
+
+        // nothing changed, so the wait times out
+        long start = System.nanoTime();
+        sqlTaskManager.waitForTaskInfoChange(taskId, taskInfo.getVersion(), new Duration(100, TimeUnit.MILLISECONDS));
+        assertTrue(Duration.nanosSince(start).toMillis() >= 90);
+
+        // a new output buffer wakes the wait
+        sqlTaskManager.updateTask(session,
+                taskId,
+                null,
+                ImmutableList.<TaskSource>of(),
+                new OutputBuffers(ImmutableSet.of("out"), false));
+        start = System.nanoTime();
+        sqlTaskManager.waitForTaskInfoChange(taskId, taskInfo.getVersion(), new Duration(10, TimeUnit.SECONDS));
+        assertTrue(Duration.nanosSince(start).toMillis() < 5000);
+
+        // the latest task info already reflects the change
+        taskInfo = sqlTaskManager.getTaskInfo(taskId, false);
+        assertEquals(taskInfo.getOutputBuffers().getBuffers().size(), 1);
+        start = System.nanoTime();
+        sqlTaskManager.waitForTaskInfoChange(taskId, taskInfo.getVersion(), new Duration(100, TimeUnit.MILLISECONDS));
+        assertTrue(Duration.nanosSince(start).toMillis() >= 90);
+    }
+
     @Test
     public void testCancel()
             throws Exception
@@ -18,6 +18,7 @@ import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -34,11 +35,18 @@ public class TestTaskManagerConfig
         assertRecordedDefaults(recordDefaults(TaskManagerConfig.class)
                 .setTaskCpuTimerEnabled(true)
                 .setMaxShardProcessorThreads(Runtime.getRuntime().availableProcessors() * 4)
+                .setMinSplitRunQuanta(new Duration(100, TimeUnit.MILLISECONDS))
+                .setMaxSplitRunQuanta(new Duration(2, TimeUnit.SECONDS))
                 .setInfoMaxAge(new Duration(15, TimeUnit.MINUTES))
                 .setClientTimeout(new Duration(5, TimeUnit.MINUTES))
                 .setMaxTaskMemoryUsage(new DataSize(256, Unit.MEGABYTE))
+                .setMaxNodeMemoryUsage(new DataSize(Math.round(Runtime.getRuntime().maxMemory() * 0.7), Unit.BYTE))
+                .setMemoryBlockingEnabled(false)
                 .setOperatorPreAllocatedMemory(new DataSize(16, Unit.MEGABYTE))
-                .setSinkMaxBufferSize(new DataSize(32, Unit.MEGABYTE)));
+                .setSinkMaxBufferSize(new DataSize(32, Unit.MEGABYTE))
+                .setSpillEnabled(false)
+                .setSpillPath(new File("var/spill"))
+                .setDynamicFilteringEnabled(false));
     }
 
     @Test
@@ -47,21 +55,35 @@ public class TestTaskManagerConfig
         Map<String, String> properties = new ImmutableMap.Builder<String, String>()
                 .put("task.cpu-timer-enabled", "false")
                 .put("task.max-memory", "2GB")
+                .put("task.max-node-memory", "12GB")
+                .put("task.memory-blocking-enabled", "true")
                 .put("task.operator-pre-allocated-memory", "2MB")
                 .put("task.shard.max-threads", "3")
+                .put("task.min-split-run-quanta", "10ms")
+                .put("task.max-split-run-quanta", "5s")
                 .put("task.info.max-age", "22m")
                 .put("task.client.timeout", "10s")
                 .put("sink.max-buffer-size", "42MB")
+                .put("task.spill-enabled", "true")
+                .put("task.spill-path", "/spill")
+                .put("task.dynamic-filtering-enabled", "true")
                 .build();
 
         TaskManagerConfig expected = new TaskManagerConfig()
                 .setTaskCpuTimerEnabled(false)
                 .setMaxTaskMemoryUsage(new DataSize(2, Unit.GIGABYTE))
+                .setMaxNodeMemoryUsage(new DataSize(12, Unit.GIGABYTE))
+                .setMemoryBlockingEnabled(true)
                 .setOperatorPreAllocatedMemory(new DataSize(2, Unit.MEGABYTE))
                 .setMaxShardProcessorThreads(3)
+                .setMinSplitRunQuanta(new Duration(10, TimeUnit.MILLISECONDS))
+                .setMaxSplitRunQuanta(new Duration(5, TimeUnit.SECONDS))
                 .setInfoMaxAge(new Duration(22, TimeUnit.MINUTES))
                 .setClientTimeout(new Duration(10, TimeUnit.SECONDS))
-                .setSinkMaxBufferSize(new DataSize(42, Unit.MEGABYTE));
+                .setSinkMaxBufferSize(new DataSize(42, Unit.MEGABYTE))
+                .setSpillEnabled(true)
+                .setSpillPath(new File("/spill"))
+                .setDynamicFilteringEnabled(true);
 
         assertFullMapping(properties, expected);
     }
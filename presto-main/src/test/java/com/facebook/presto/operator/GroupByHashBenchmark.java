@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.uncompressed.UncompressedBlock;
+import com.facebook.presto.tuple.TupleInfo;
+import io.airlift.slice.Slice;
+import io.airlift.units.Duration;
+
+import java.util.Random;
+
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_DOUBLE;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.tuple.TupleInfo.Type.DOUBLE;
+import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Compares the group by hash specialized for each key layout with the generic
+ * slice based hash, which was previously used for all keys.
+ */
+public class GroupByHashBenchmark
+{
+    private static final int POSITIONS = 5_000_000;
+    private static final int[] GROUP_COUNTS = {10, 10_000, 1_000_000};
+    private static final int ITERATIONS = 5;
+
+    public static void main(String[] args)
+    {
+        TupleInfo longLong = new TupleInfo(FIXED_INT_64, FIXED_INT_64);
+        TupleInfo longDouble = new TupleInfo(FIXED_INT_64, DOUBLE);
+
+        for (int groupCount : GROUP_COUNTS) {
+            benchmark(SINGLE_LONG, groupCount);
+            benchmark(SINGLE_DOUBLE, groupCount);
+            benchmark(longLong, groupCount);
+            benchmark(longDouble, groupCount);
+        }
+    }
+
+    private static void benchmark(TupleInfo tupleInfo, int groupCount)
+    {
+        UncompressedBlock keys = createKeys(tupleInfo, groupCount);
+
+        // warm up
+        run(GroupByHashes.createGroupByHash(tupleInfo, groupCount), keys);
+        run(new SliceGroupByHash(tupleInfo, groupCount), keys);
+
+        long specializedNanos = Long.MAX_VALUE;
+        long sliceNanos = Long.MAX_VALUE;
+        String specializedName = null;
+        for (int i = 0; i < ITERATIONS; i++) {
+            GroupByHash specialized = GroupByHashes.createGroupByHash(tupleInfo, groupCount);
+            specializedName = specialized.getClass().getSimpleName();
+            specializedNanos = Math.min(specializedNanos, run(specialized, keys));
+            sliceNanos = Math.min(sliceNanos, run(new SliceGroupByHash(tupleInfo, groupCount), keys));
+        }
+
+        System.out.printf("%-30s %,10d groups: %-22s %,8.1f ns/row  %-22s %,8.1f ns/row  (%s vs %s)%n",
+                tupleInfo.getTypes(),
+                groupCount,
+                specializedName,
+                specializedNanos * 1.0 / POSITIONS,
+                SliceGroupByHash.class.getSimpleName(),
+                sliceNanos * 1.0 / POSITIONS,
+                new Duration(specializedNanos, NANOSECONDS).convertToMostSuccinctTimeUnit(),
+                new Duration(sliceNanos, NANOSECONDS).convertToMostSuccinctTimeUnit());
+    }
+
+    private static long run(GroupByHash groupByHash, UncompressedBlock keys)
+    {
+        Slice slice = keys.getSlice();
+        BlockCursor cursor = keys.cursor();
+
+        long start = System.nanoTime();
+        long checksum = 0;
+        while (cursor.advanceNextPosition()) {
+            checksum += groupByHash.putIfAbsent(slice, cursor.getRawOffset());
+        }
+        long nanos = System.nanoTime() - start;
+
+        if (checksum < 0) {
+            throw new AssertionError();
+        }
+        return nanos;
+    }
+
+    private static UncompressedBlock createKeys(TupleInfo tupleInfo, int groupCount)
+    {
+        Random random = new Random(0);
+        BlockBuilder blockBuilder = new BlockBuilder(tupleInfo);
+        for (int position = 0; position < POSITIONS; position++) {
+            int group = random.nextInt(groupCount);
+            for (TupleInfo.Type type : tupleInfo.getTypes()) {
+                if (type == FIXED_INT_64) {
+                    blockBuilder.append((long) group);
+                }
+                else {
+                    blockBuilder.append(group * 0.5);
+                }
+                group /= 7;
+            }
+        }
+        return blockBuilder.build();
+    }
+}
@@ -34,8 +34,10 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import static com.facebook.presto.PrestoMediaTypes.PRESTO_PAGES;
+import static com.facebook.presto.PrestoMediaTypes.PRESTO_PAGES_SNAPPY;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_SEQUENCE_ID;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.net.HttpHeaders.ACCEPT;
 import static com.google.common.net.HttpHeaders.CONTENT_TYPE;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
@@ -129,12 +131,24 @@ public class MockExchangeRequestProcessor
         // update sequence id
         sequenceIdByLocation.put(location, sequenceId + responsePages.size());
 
+        // compress the pages if the client asked for it
+        String contentType = PRESTO_PAGES;
+        String accept = request.getHeader(ACCEPT);
+        if (accept != null && accept.contains(PRESTO_PAGES_SNAPPY)) {
+            contentType = PRESTO_PAGES_SNAPPY;
+        }
+
         DynamicSliceOutput sliceOutput = new DynamicSliceOutput(64);
-        PagesSerde.writePages(sliceOutput, responsePages);
+        if (contentType.equals(PRESTO_PAGES_SNAPPY)) {
+            PagesSerde.writeCompressedPages(sliceOutput, responsePages);
+        }
+        else {
+            PagesSerde.writePages(sliceOutput, responsePages);
+        }
         byte[] bytes = sliceOutput.slice().getBytes();
         return new TestingResponse(HttpStatus.OK,
                 ImmutableListMultimap.of(
-                        CONTENT_TYPE, PRESTO_PAGES,
+                        CONTENT_TYPE, contentType,
                         PRESTO_PAGE_SEQUENCE_ID, String.valueOf(sequenceId)
                 ),
                 bytes);
@@ -0,0 +1,171 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.uncompressed.UncompressedBlock;
+import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.operator.HashBuilderOperator.HashBuilderOperatorFactory;
+import com.facebook.presto.sql.analyzer.Session;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.SettableFuture;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutorService;
+
+import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_DOUBLE;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestDynamicFilter
+{
+    private ExecutorService executor;
+    private TaskContext taskContext;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executor = newCachedThreadPool(daemonThreadsNamed("test"));
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        taskContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session);
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testHashBuilderPublishesFilter()
+            throws Exception
+    {
+        DriverContext driverContext = taskContext.addPipelineContext(true, true).addDriverContext();
+
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, StaticOperator.class.getSimpleName());
+        Operator buildOperator = new StaticOperator(operatorContext, rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .addSequencePage(10, 20, 30)
+                .build());
+        SettableFuture<DynamicFilter> dynamicFilter = SettableFuture.create();
+        HashBuilderOperatorFactory hashBuilderOperatorFactory = new HashBuilderOperatorFactory(1, buildOperator.getTupleInfos(), 1, 100, Optional.of(dynamicFilter));
+        Operator hashBuilder = hashBuilderOperatorFactory.createOperator(driverContext);
+
+        Driver driver = new Driver(driverContext, buildOperator, hashBuilder);
+        while (!driver.isFinished()) {
+            driver.process();
+        }
+
+        assertTrue(dynamicFilter.isDone());
+        DynamicFilter filter = dynamicFilter.get();
+        assertNotNull(filter);
+
+        // build keys are 30 to 39, and keys outside of the range are never contained
+        Block probe = rowPagesBuilder(SINGLE_LONG).addSequencePage(30, 20).build().get(0).getBlock(0);
+        BlockCursor cursor = probe.cursor();
+        while (cursor.advanceNextPosition()) {
+            long value = cursor.getLong(0);
+            assertEquals(filter.mightContain(cursor, 0), value >= 30 && value < 40, "value " + value);
+        }
+    }
+
+    @Test
+    public void testLongKeys()
+    {
+        BlockBuilder blockBuilder = new BlockBuilder(SINGLE_LONG);
+        for (int i = 0; i < 1000; i++) {
+            blockBuilder.append(i * 2);
+        }
+        blockBuilder.appendNull();
+        DynamicFilter filter = createFilter(blockBuilder.build());
+
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain(String.valueOf(i * 2)));
+            if (filter.mightContain(String.valueOf(i * 2 + 1))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 100, "too many false positives: " + falsePositives);
+
+        assertFalse(filter.mightContain("-1"));
+        assertFalse(filter.mightContain("2000"));
+
+        // values that are not numbers can not be checked
+        assertTrue(filter.mightContain("abc"));
+
+        // nulls never match
+        BlockBuilder nulls = new BlockBuilder(SINGLE_LONG);
+        nulls.appendNull();
+        BlockCursor cursor = nulls.build().cursor();
+        assertTrue(cursor.advanceNextPosition());
+        assertFalse(filter.mightContain(cursor, 0));
+    }
+
+    @Test
+    public void testStringKeys()
+    {
+        BlockBuilder blockBuilder = new BlockBuilder(SINGLE_VARBINARY);
+        for (int i = 0; i < 1000; i++) {
+            blockBuilder.append("value" + i);
+        }
+        DynamicFilter filter = createFilter(blockBuilder.build());
+
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain("value" + i));
+            if (filter.mightContain("other" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 100, "too many false positives: " + falsePositives);
+    }
+
+    @Test
+    public void testDoubleKeys()
+    {
+        BlockBuilder blockBuilder = new BlockBuilder(SINGLE_DOUBLE);
+        blockBuilder.append(0.0);
+        blockBuilder.append(1.5);
+        DynamicFilter filter = createFilter(blockBuilder.build());
+
+        assertTrue(filter.mightContain("0.0"));
+        assertTrue(filter.mightContain("-0.0"));
+        assertTrue(filter.mightContain("1.5"));
+    }
+
+    @Test
+    public void testEmptyBuild()
+    {
+        DynamicFilter filter = createFilter(new BlockBuilder(SINGLE_LONG).appendNull().build());
+        assertFalse(filter.mightContain("0"));
+    }
+
+    private static DynamicFilter createFilter(UncompressedBlock block)
+    {
+        ChannelIndex index = new ChannelIndex(block.getPositionCount(), block.getTupleInfo());
+        index.indexBlock(block);
+        return DynamicFilter.create(index);
+    }
+}
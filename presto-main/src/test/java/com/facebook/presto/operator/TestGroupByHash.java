@@ -0,0 +1,144 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.uncompressed.UncompressedBlock;
+import com.facebook.presto.tuple.Tuple;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_DOUBLE;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static com.facebook.presto.tuple.TupleInfo.Type.DOUBLE;
+import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
+import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestGroupByHash
+{
+    private static final TupleInfo LONG_DOUBLE = new TupleInfo(FIXED_INT_64, DOUBLE);
+    private static final TupleInfo VARBINARY_LONG = new TupleInfo(VARIABLE_BINARY, FIXED_INT_64);
+
+    @Test
+    public void testCreateGroupByHash()
+    {
+        assertTrue(GroupByHashes.createGroupByHash(SINGLE_LONG, 10) instanceof LongGroupByHash);
+        assertTrue(GroupByHashes.createGroupByHash(SINGLE_DOUBLE, 10) instanceof LongGroupByHash);
+        assertTrue(GroupByHashes.createGroupByHash(LONG_DOUBLE, 10) instanceof FixedWidthGroupByHash);
+        assertTrue(GroupByHashes.createGroupByHash(SINGLE_VARBINARY, 10) instanceof SliceGroupByHash);
+        assertTrue(GroupByHashes.createGroupByHash(VARBINARY_LONG, 10) instanceof SliceGroupByHash);
+    }
+
+    @Test
+    public void testLongGroupByHash()
+    {
+        BlockBuilder keys = new BlockBuilder(SINGLE_LONG);
+        for (int i = 0; i < 5_000; i++) {
+            keys.append((long) i % 1_000);
+            keys.append(-i);
+            if (i % 7 == 0) {
+                keys.appendNull();
+            }
+        }
+        assertGroupByHash(new LongGroupByHash(SINGLE_LONG, 10), keys.build());
+    }
+
+    @Test
+    public void testDoubleGroupByHash()
+    {
+        BlockBuilder keys = new BlockBuilder(SINGLE_DOUBLE);
+        for (int i = 0; i < 5_000; i++) {
+            keys.append((i % 1_000) / 10.0);
+            keys.append(-i * 1.5);
+            if (i % 7 == 0) {
+                keys.appendNull();
+            }
+        }
+        assertGroupByHash(new LongGroupByHash(SINGLE_DOUBLE, 10), keys.build());
+    }
+
+    @Test
+    public void testFixedWidthGroupByHash()
+    {
+        BlockBuilder keys = new BlockBuilder(LONG_DOUBLE);
+        for (int i = 0; i < 5_000; i++) {
+            keys.append((long) i % 100).append((i % 30) / 2.0);
+            if (i % 7 == 0) {
+                keys.appendNull().append(1.0);
+                keys.append((long) i % 100).appendNull();
+            }
+        }
+        assertGroupByHash(new FixedWidthGroupByHash(LONG_DOUBLE, 10), keys.build());
+    }
+
+    @Test
+    public void testSliceGroupByHash()
+    {
+        BlockBuilder keys = new BlockBuilder(VARBINARY_LONG);
+        for (int i = 0; i < 5_000; i++) {
+            keys.append("key-" + (i % 300)).append((long) i % 7);
+            if (i % 7 == 0) {
+                keys.appendNull().append((long) i % 3);
+            }
+        }
+        assertGroupByHash(new SliceGroupByHash(VARBINARY_LONG, 10), keys.build());
+    }
+
+    private static void assertGroupByHash(GroupByHash groupByHash, UncompressedBlock keys)
+    {
+        // the group ids are dense, and assigned in the order the keys are first seen
+        Map<Tuple, Integer> expectedGroupIds = new LinkedHashMap<>();
+        BlockCursor cursor = keys.cursor();
+        while (cursor.advanceNextPosition()) {
+            Tuple key = cursor.getTuple();
+            Integer expectedGroupId = expectedGroupIds.get(key);
+            if (expectedGroupId == null) {
+                expectedGroupId = expectedGroupIds.size();
+                expectedGroupIds.put(key, expectedGroupId);
+            }
+            assertEquals(groupByHash.putIfAbsent(cursor.getRawSlice(), cursor.getRawOffset()), (int) expectedGroupId);
+            assertEquals(groupByHash.getGroupCount(), expectedGroupIds.size());
+        }
+        assertTrue(groupByHash.getEstimatedSize() > 0);
+
+        // looking up the keys again does not add groups
+        cursor = keys.cursor();
+        while (cursor.advanceNextPosition()) {
+            assertEquals(groupByHash.putIfAbsent(cursor.getRawSlice(), cursor.getRawOffset()), (int) expectedGroupIds.get(cursor.getTuple()));
+        }
+        assertEquals(groupByHash.getGroupCount(), expectedGroupIds.size());
+
+        // the keys are appended in the original tuple format
+        BlockBuilder output = new BlockBuilder(groupByHash.getTupleInfo());
+        for (int groupId = 0; groupId < groupByHash.getGroupCount(); groupId++) {
+            groupByHash.appendGroupKeyTo(groupId, output);
+        }
+        List<Tuple> actualKeys = new ArrayList<>();
+        cursor = output.build().cursor();
+        while (cursor.advanceNextPosition()) {
+            actualKeys.add(cursor.getTuple());
+        }
+        assertEquals(actualKeys, ImmutableList.copyOf(expectedGroupIds.keySet()));
+    }
+}
@@ -14,26 +14,36 @@
 package com.facebook.presto.operator;
 
 import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.execution.MemoryPool;
+import com.facebook.presto.execution.QueryId;
 import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.execution.TaskStateMachine;
 import com.facebook.presto.operator.HashAggregationOperator.HashAggregationOperatorFactory;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.planner.plan.AggregationNode.Step;
 import com.facebook.presto.sql.tree.Input;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.util.MaterializedResult;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.testing.FileUtils;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
 import static com.facebook.presto.block.BlockAssertions.COMPOSITE_SEQUENCE_TUPLE_INFO;
 import static com.facebook.presto.operator.AggregationFunctionDefinition.aggregation;
 import static com.facebook.presto.operator.OperatorAssertion.assertOperatorEquals;
+import static com.facebook.presto.operator.OperatorAssertion.toMaterializedResult;
 import static com.facebook.presto.operator.OperatorAssertion.toPages;
 import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
 import static com.facebook.presto.operator.aggregation.CountAggregation.COUNT;
@@ -51,6 +61,10 @@ import static com.facebook.presto.util.MaterializedResult.resultBuilder;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
 import static java.util.concurrent.Executors.newCachedThreadPool;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 public class TestHashAggregationOperator
 {
@@ -116,6 +130,44 @@ public class TestHashAggregationOperator
         assertOperatorEquals(operator, input, expected);
     }
 
+    @Test
+    public void testPrecomputedHash()
+            throws Exception
+    {
+        // "a" and "b" deliberately have the same hash, so the keys must still be compared
+        List<Page> input = rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG, SINGLE_LONG)
+                .row("a", 1, 7)
+                .row("b", 2, 7)
+                .row("c", 3, 8)
+                .pageBreak()
+                .row("b", 4, 7)
+                .row("a", 5, 7)
+                .row("a", 6, 7)
+                .build();
+
+        HashAggregationOperatorFactory operatorFactory = new HashAggregationOperatorFactory(
+                0,
+                SINGLE_VARBINARY,
+                0,
+                Optional.of(2),
+                Step.SINGLE,
+                ImmutableList.of(aggregation(COUNT, new Input(0, 0)),
+                        aggregation(LONG_SUM, new Input(1, 0))),
+                100_000,
+                Optional.<File>absent());
+
+        Operator operator = operatorFactory.createOperator(driverContext);
+
+        // the hash is passed through in the last channel
+        MaterializedResult expected = resultBuilder(VARIABLE_BINARY, FIXED_INT_64, FIXED_INT_64, FIXED_INT_64)
+                .row("a", 3, 12, 7)
+                .row("b", 2, 6, 7)
+                .row("c", 1, 3, 8)
+                .build();
+
+        assertOperatorEquals(operator, input, expected);
+    }
+
     @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Task exceeded max memory size of 10B")
     public void testMemoryLimit()
     {
@@ -146,6 +198,218 @@ public class TestHashAggregationOperator
         toPages(operator, input);
     }
 
+    @Test
+    public void testMemoryBlocking()
+    {
+        List<Page> input = rowPagesBuilder(SINGLE_VARBINARY, SINGLE_VARBINARY, SINGLE_VARBINARY, SINGLE_LONG)
+                .addSequencePage(10, 100, 0, 100, 0)
+                .addSequencePage(10, 100, 0, 200, 0)
+                .addSequencePage(10, 100, 0, 300, 0)
+                .build();
+
+        // another query holds all of the node memory
+        MemoryPool memoryPool = new MemoryPool(new DataSize(10, Unit.MEGABYTE), true);
+        QueryId otherQuery = new QueryId("other");
+        assertTrue(memoryPool.tryReserve(otherQuery, memoryPool.getMaxBytes()));
+
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        DriverContext driverContext = new TaskContext(
+                new TaskStateMachine(new TaskId("query", "stage", "task"), executor),
+                executor,
+                session,
+                memoryPool,
+                new DataSize(256, Unit.MEGABYTE),
+                new DataSize(0, Unit.BYTE),
+                true)
+                .addPipelineContext(true, true)
+                .addDriverContext();
+
+        HashAggregationOperatorFactory operatorFactory = new HashAggregationOperatorFactory(
+                0,
+                SINGLE_VARBINARY,
+                1,
+                Step.SINGLE,
+                ImmutableList.of(aggregation(COUNT, new Input(0, 0)),
+                        aggregation(LONG_SUM, new Input(3, 0))),
+                100_000);
+
+        Operator operator = operatorFactory.createOperator(driverContext);
+
+        // the hash table can not be reserved, so the operator waits for memory instead of failing
+        operator.addInput(input.get(0));
+        ListenableFuture<?> blocked = operator.isBlocked();
+        assertFalse(blocked.isDone());
+        assertFalse(operator.needsInput());
+
+        memoryPool.free(otherQuery, memoryPool.getMaxBytes());
+        assertTrue(blocked.isDone());
+        assertTrue(operator.isBlocked().isDone());
+
+        MaterializedResult expected = resultBuilder(VARIABLE_BINARY, FIXED_INT_64, FIXED_INT_64)
+                .row("0", 3, 0)
+                .row("1", 3, 3)
+                .row("2", 3, 6)
+                .row("3", 3, 9)
+                .row("4", 3, 12)
+                .row("5", 3, 15)
+                .row("6", 3, 18)
+                .row("7", 3, 21)
+                .row("8", 3, 24)
+                .row("9", 3, 27)
+                .build();
+
+        MaterializedResult actual = toMaterializedResult(operator.getTupleInfos(), toPages(operator, input.subList(1, input.size())));
+        assertEquals(actual.getMaterializedTuples(), expected.getMaterializedTuples());
+    }
+
+    @Test
+    public void testSpillToDisk()
+    {
+        List<Page> input = rowPagesBuilder(SINGLE_VARBINARY, SINGLE_VARBINARY, SINGLE_VARBINARY, SINGLE_LONG)
+                .addSequencePage(10, 100, 0, 100, 0)
+                .addSequencePage(10, 100, 0, 200, 0)
+                .addSequencePage(10, 100, 0, 300, 0)
+                .build();
+
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        DriverContext driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(10, Unit.BYTE))
+                .addPipelineContext(true, true)
+                .addDriverContext();
+
+        File spillPath = Files.createTempDir();
+        try {
+            HashAggregationOperatorFactory operatorFactory = new HashAggregationOperatorFactory(
+                    0,
+                    SINGLE_VARBINARY,
+                    1,
+                    Step.SINGLE,
+                    ImmutableList.of(aggregation(COUNT, new Input(0, 0)),
+                            aggregation(LONG_SUM, new Input(3, 0)),
+                            aggregation(LONG_AVERAGE, new Input(3, 0)),
+                            aggregation(VAR_BINARY_MAX, new Input(2, 0))),
+                    100_000,
+                    Optional.of(spillPath));
+
+            Operator operator = operatorFactory.createOperator(driverContext);
+
+            MaterializedResult expected = resultBuilder(VARIABLE_BINARY, FIXED_INT_64, FIXED_INT_64, DOUBLE, VARIABLE_BINARY)
+                    .row("0", 3, 0, 0.0, "300")
+                    .row("1", 3, 3, 1.0, "301")
+                    .row("2", 3, 6, 2.0, "302")
+                    .row("3", 3, 9, 3.0, "303")
+                    .row("4", 3, 12, 4.0, "304")
+                    .row("5", 3, 15, 5.0, "305")
+                    .row("6", 3, 18, 6.0, "306")
+                    .row("7", 3, 21, 7.0, "307")
+                    .row("8", 3, 24, 8.0, "308")
+                    .row("9", 3, 27, 9.0, "309")
+                    .build();
+
+            // spilled groups are output in hash order
+            MaterializedResult actual = toMaterializedResult(operator.getTupleInfos(), toPages(operator, input));
+            assertEquals(ImmutableSet.copyOf(actual.getMaterializedTuples()), ImmutableSet.copyOf(expected.getMaterializedTuples()));
+            assertEquals(actual.getMaterializedTuples().size(), expected.getMaterializedTuples().size());
+            assertTrue(((HashAggregationOperator) operator).getSpillCount() > 1);
+
+            // spill files are deleted as soon as they are written
+            assertEquals(spillPath.list().length, 0);
+        }
+        finally {
+            FileUtils.deleteRecursively(spillPath);
+        }
+    }
+
+    @Test
+    public void testSpillToDiskWithPrecomputedHash()
+    {
+        List<Page> input = rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG, SINGLE_LONG)
+                .addSequencePage(10, 0, 100, 0)
+                .addSequencePage(10, 0, 200, 0)
+                .addSequencePage(10, 0, 300, 0)
+                .build();
+
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        DriverContext driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(10, Unit.BYTE))
+                .addPipelineContext(true, true)
+                .addDriverContext();
+
+        File spillPath = Files.createTempDir();
+        try {
+            HashAggregationOperatorFactory operatorFactory = new HashAggregationOperatorFactory(
+                    0,
+                    SINGLE_VARBINARY,
+                    0,
+                    Optional.of(2),
+                    Step.SINGLE,
+                    ImmutableList.of(aggregation(COUNT, new Input(0, 0)),
+                            aggregation(LONG_SUM, new Input(1, 0))),
+                    100_000,
+                    Optional.of(spillPath));
+
+            Operator operator = operatorFactory.createOperator(driverContext);
+
+            MaterializedResult.Builder expected = resultBuilder(VARIABLE_BINARY, FIXED_INT_64, FIXED_INT_64, FIXED_INT_64);
+            for (int i = 0; i < 10; i++) {
+                expected.row(String.valueOf(i), 3, 600 + 3 * i, i);
+            }
+
+            // the spilled groups are merged by the precomputed hash, which is also output in the last channel
+            MaterializedResult actual = toMaterializedResult(operator.getTupleInfos(), toPages(operator, input));
+            assertEquals(ImmutableSet.copyOf(actual.getMaterializedTuples()), ImmutableSet.copyOf(expected.build().getMaterializedTuples()));
+            assertEquals(actual.getMaterializedTuples().size(), 10);
+            assertTrue(((HashAggregationOperator) operator).getSpillCount() > 1);
+        }
+        finally {
+            FileUtils.deleteRecursively(spillPath);
+        }
+    }
+
+    @Test
+    public void testCloseWhileMergingSpills()
+    {
+        List<Page> input = rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .addSequencePage(10, 0, 100)
+                .addSequencePage(10, 0, 200)
+                .addSequencePage(10, 0, 300)
+                .build();
+
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        DriverContext driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(10, Unit.BYTE))
+                .addPipelineContext(true, true)
+                .addDriverContext();
+
+        File spillPath = Files.createTempDir();
+        try {
+            HashAggregationOperator operator = (HashAggregationOperator) new HashAggregationOperatorFactory(
+                    0,
+                    SINGLE_VARBINARY,
+                    0,
+                    Step.SINGLE,
+                    ImmutableList.of(aggregation(COUNT, new Input(0, 0))),
+                    100_000,
+                    Optional.of(spillPath))
+                    .createOperator(driverContext);
+
+            for (Page page : input) {
+                operator.addInput(page);
+                assertNull(operator.getOutput());
+            }
+            operator.finish();
+            assertTrue(operator.getSpillCount() > 1);
+
+            // the operator is dropped in the middle of the merge
+            assertNotNull(operator.getOutput());
+            assertFalse(operator.isFinished());
+            operator.close();
+
+            // closing again is harmless
+            operator.close();
+        }
+        finally {
+            FileUtils.deleteRecursively(spillPath);
+        }
+    }
+
     @Test
     public void testMultiSliceAggregationOutput()
     {
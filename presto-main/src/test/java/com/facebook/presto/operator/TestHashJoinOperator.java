@@ -15,20 +15,32 @@ package com.facebook.presto.operator;
 
 import com.facebook.presto.execution.TaskId;
 import com.facebook.presto.operator.HashBuilderOperator.HashBuilderOperatorFactory;
+import com.facebook.presto.operator.HashBuilderOperator.HashSupplier;
 import com.facebook.presto.operator.HashJoinOperator.HashJoinOperatorFactory;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.util.MaterializedResult;
+import com.facebook.presto.util.MaterializedTuple;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.testing.FileUtils;
 import io.airlift.units.DataSize;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 
 import static com.facebook.presto.operator.OperatorAssertion.assertOperatorEquals;
+import static com.facebook.presto.operator.OperatorAssertion.toMaterializedResult;
 import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
@@ -37,7 +49,11 @@ import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
 import static com.facebook.presto.util.MaterializedResult.resultBuilder;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
 import static io.airlift.units.DataSize.Unit.BYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
 import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 public class TestHashJoinOperator
 {
@@ -106,6 +122,60 @@ public class TestHashJoinOperator
         assertOperatorEquals(joinOperator, probeInput, expected);
     }
 
+    @Test
+    public void testInnerJoinWithPrecomputedHash()
+            throws Exception
+    {
+        DriverContext driverContext = taskContext.addPipelineContext(true, true).addDriverContext();
+
+        // build: "a" and "b" deliberately have the same hash, so the keys must still be compared
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, StaticOperator.class.getSimpleName());
+        Operator buildOperator = new StaticOperator(operatorContext, rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .row("a", 7)
+                .row("b", 7)
+                .row("c", 8)
+                .build());
+        HashBuilderOperatorFactory hashBuilderOperatorFactory = new HashBuilderOperatorFactory(
+                1,
+                buildOperator.getTupleInfos(),
+                0,
+                Optional.of(1),
+                100,
+                1,
+                Optional.<SettableFuture<DynamicFilter>>absent());
+        Operator sourceHashProvider = hashBuilderOperatorFactory.createOperator(driverContext);
+
+        Driver driver = new Driver(driverContext, buildOperator, sourceHashProvider);
+        while (!driver.isFinished()) {
+            driver.process();
+        }
+
+        // probe
+        List<Page> probeInput = rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .row("b", 7)
+                .row("d", 7)
+                .row("c", 8)
+                .row("a", 7)
+                .build();
+        HashJoinOperatorFactory joinOperatorFactory = HashJoinOperator.innerJoin(
+                0,
+                hashBuilderOperatorFactory.getHashSupplier(),
+                ImmutableList.of(SINGLE_VARBINARY, SINGLE_LONG),
+                0,
+                Optional.of(1));
+
+        Operator joinOperator = joinOperatorFactory.createOperator(taskContext.addPipelineContext(true, true).addDriverContext());
+
+        // expected
+        MaterializedResult expected = resultBuilder(new TupleInfo(VARIABLE_BINARY, FIXED_INT_64, VARIABLE_BINARY, FIXED_INT_64))
+                .row("b", 7, "b", 7)
+                .row("c", 8, "c", 8)
+                .row("a", 7, "a", 7)
+                .build();
+
+        assertOperatorEquals(joinOperator, probeInput, expected);
+    }
+
     @Test
     public void testInnerJoinWithNullProbe()
             throws Exception
@@ -443,6 +513,328 @@ public class TestHashJoinOperator
         assertOperatorEquals(joinOperator, probeInput, expected);
     }
 
+    @Test
+    public void testInnerJoinWithPartitionedBuild()
+            throws Exception
+    {
+        HashBuilderOperatorFactory hashBuilderOperatorFactory = new HashBuilderOperatorFactory(
+                1,
+                ImmutableList.of(SINGLE_VARBINARY, SINGLE_LONG),
+                0,
+                100,
+                3,
+                Optional.<SettableFuture<DynamicFilter>>absent());
+        HashSupplier hashSupplier = hashBuilderOperatorFactory.getHashSupplier();
+
+        // each partition is built by its own driver
+        buildPartition(hashBuilderOperatorFactory, rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .row("a", 1)
+                .row("b", 2)
+                .build());
+        assertFalse(hashSupplier.getSourceHash().isDone());
+
+        // an empty partition
+        hashBuilderOperatorFactory.createOperator(taskContext.addPipelineContext(true, true).addDriverContext()).finish();
+        assertFalse(hashSupplier.getSourceHash().isDone());
+
+        buildPartition(hashBuilderOperatorFactory, rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .row("a", 3)
+                .row("c", 4)
+                .build());
+        assertTrue(hashSupplier.getSourceHash().isDone());
+
+        // probe with two operators sharing the hash
+        List<Page> probeInput = rowPagesBuilder(SINGLE_VARBINARY)
+                .row("a")
+                .row("b")
+                .row("c")
+                .row("d")
+                .build();
+        HashJoinOperatorFactory joinOperatorFactory = HashJoinOperator.innerJoin(0, hashSupplier, ImmutableList.of(SINGLE_VARBINARY), 0);
+
+        MaterializedResult expected = resultBuilder(new TupleInfo(VARIABLE_BINARY, VARIABLE_BINARY, FIXED_INT_64))
+                .row("a", "a", 3)
+                .row("a", "a", 1)
+                .row("b", "b", 2)
+                .row("c", "c", 4)
+                .build();
+
+        for (int i = 0; i < 2; i++) {
+            Operator joinOperator = joinOperatorFactory.createOperator(taskContext.addPipelineContext(true, true).addDriverContext());
+            assertOperatorEquals(joinOperator, probeInput, expected);
+        }
+    }
+
+    private void buildPartition(HashBuilderOperatorFactory hashBuilderOperatorFactory, List<Page> pages)
+    {
+        DriverContext driverContext = taskContext.addPipelineContext(true, false).addDriverContext();
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, StaticOperator.class.getSimpleName());
+        Operator buildOperator = new StaticOperator(operatorContext, pages);
+        Operator hashBuilderOperator = hashBuilderOperatorFactory.createOperator(driverContext);
+
+        Driver driver = new Driver(driverContext, buildOperator, hashBuilderOperator);
+        while (!driver.isFinished()) {
+            driver.process();
+        }
+    }
+
+    @Test
+    public void testInnerJoinWithSpill()
+            throws Exception
+    {
+        MaterializedResult.Builder expected = resultBuilder(new TupleInfo(VARIABLE_BINARY, FIXED_INT_64, VARIABLE_BINARY, FIXED_INT_64));
+        for (int key = 10_000; key < 20_000; key++) {
+            expected.row(String.valueOf(key), 40_000 + key, String.valueOf(key), key);
+        }
+
+        MaterializedResult actual = joinWithSpill(false, 1, new DataSize(1, MEGABYTE), true);
+        assertEquals(ImmutableSet.copyOf(actual.getMaterializedTuples()), ImmutableSet.copyOf(expected.build().getMaterializedTuples()));
+        assertEquals(actual.getMaterializedTuples().size(), 10_000);
+    }
+
+    @Test
+    public void testInnerJoinWithSpillAndMultipleProbeOperators()
+            throws Exception
+    {
+        MaterializedResult.Builder expected = resultBuilder(new TupleInfo(VARIABLE_BINARY, FIXED_INT_64, VARIABLE_BINARY, FIXED_INT_64));
+        for (int key = 10_000; key < 20_000; key++) {
+            expected.row(String.valueOf(key), 40_000 + key, String.valueOf(key), key);
+        }
+
+        // the task has room for all of the spilled partitions, so the probe operators share them
+        MaterializedResult actual = joinWithSpill(false, 2, new DataSize(2, MEGABYTE), true);
+        assertEquals(ImmutableSet.copyOf(actual.getMaterializedTuples()), ImmutableSet.copyOf(expected.build().getMaterializedTuples()));
+        assertEquals(actual.getMaterializedTuples().size(), 10_000);
+    }
+
+    @Test
+    public void testInnerJoinWithSpillAndEvictedPartitions()
+            throws Exception
+    {
+        MaterializedResult.Builder expected = resultBuilder(new TupleInfo(VARIABLE_BINARY, FIXED_INT_64, VARIABLE_BINARY, FIXED_INT_64));
+        for (int key = 10_000; key < 20_000; key++) {
+            expected.row(String.valueOf(key), 40_000 + key, String.valueOf(key), key);
+        }
+
+        // the task has no room for all of the spilled partitions, so partitions are unloaded and loaded again
+        MaterializedResult actual = joinWithSpill(false, 2, new DataSize(1, MEGABYTE), false);
+        assertEquals(ImmutableSet.copyOf(actual.getMaterializedTuples()), ImmutableSet.copyOf(expected.build().getMaterializedTuples()));
+        assertEquals(actual.getMaterializedTuples().size(), 10_000);
+    }
+
+    @Test
+    public void testOuterJoinWithSpill()
+            throws Exception
+    {
+        MaterializedResult actual = joinWithSpill(true, 1, new DataSize(1, MEGABYTE), true);
+
+        // every probe row is output once, with or without a matching build row
+        int matched = 0;
+        Set<String> probeKeys = new HashSet<>();
+        for (MaterializedTuple tuple : actual.getMaterializedTuples()) {
+            assertTrue(probeKeys.add((String) tuple.getField(0)));
+            if (tuple.getField(2) != null) {
+                assertEquals(tuple.getField(2), tuple.getField(0));
+                matched++;
+            }
+        }
+        assertEquals(probeKeys.size(), 20_000);
+        assertEquals(matched, 10_000);
+    }
+
+    /**
+     * Joins a build side of 20,000 rows that does not fit in half of the task memory with 20,000 probe
+     * rows, half of which match.  The probe rows are split between the specified number of probe operators,
+     * which load each spilled build partition only once if {@code sharedLoads} is set.
+     */
+    private MaterializedResult joinWithSpill(boolean outerJoin, int probeOperatorCount, DataSize taskMemory, boolean sharedLoads)
+            throws Exception
+    {
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        TaskContext taskContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, taskMemory);
+
+        File spillPath = Files.createTempDir();
+        try {
+            HashSupplier hashSupplier = buildWithSpill(taskContext, spillPath);
+
+            // probe
+            List<TupleInfo> probeTupleInfos = ImmutableList.of(SINGLE_VARBINARY, SINGLE_LONG);
+            HashJoinOperatorFactory joinOperatorFactory;
+            if (outerJoin) {
+                joinOperatorFactory = HashJoinOperator.outerJoin(0, hashSupplier, probeTupleInfos, 0);
+            }
+            else {
+                joinOperatorFactory = HashJoinOperator.innerJoin(0, hashSupplier, probeTupleInfos, 0);
+            }
+            List<HashJoinOperator> joinOperators = createJoinOperators(taskContext, joinOperatorFactory, probeOperatorCount);
+
+            // join all probe input, so every probe operator spills its rows of the spilled partitions
+            // before any of them joins the spilled rows
+            ImmutableList.Builder<Page> output = ImmutableList.builder();
+            joinProbeInput(joinOperators, output);
+            long memoryReservation = getMemoryReservation(taskContext);
+
+            // join the spilled rows, with the operators taking turns like concurrent drivers
+            for (Operator joinOperator : joinOperators) {
+                joinOperator.finish();
+            }
+            boolean finished = false;
+            while (!finished) {
+                finished = true;
+                for (Operator joinOperator : joinOperators) {
+                    if (!joinOperator.isFinished()) {
+                        finished = false;
+                        if (joinOperator.isBlocked().isDone()) {
+                            addOutput(joinOperator, output);
+                        }
+                    }
+                }
+            }
+            MaterializedResult result = toMaterializedResult(joinOperators.get(0).getTupleInfos(), output.build());
+
+            int spilledPartitions = hashSupplier.getSourceHash().get().getSpilledPartitions().size();
+            if (sharedLoads) {
+                assertEquals(hashSupplier.getSpilledPartitionLoads(), spilledPartitions);
+            }
+            else {
+                assertTrue(hashSupplier.getSpilledPartitionLoads() >= spilledPartitions);
+            }
+            // the memory of the loaded partitions is freed when the last probe operator is done with them
+            assertEquals(getMemoryReservation(taskContext), memoryReservation);
+
+            // the build spill files are closed when all probe operators are closed
+            for (HashJoinOperator joinOperator : joinOperators) {
+                joinOperator.close();
+            }
+            assertFalse(hashSupplier.isSpillFilesClosed());
+            joinOperatorFactory.close();
+            assertTrue(hashSupplier.isSpillFilesClosed());
+
+            // spill files are deleted as soon as they are created
+            assertEquals(spillPath.list().length, 0);
+            return result;
+        }
+        finally {
+            FileUtils.deleteRecursively(spillPath);
+        }
+    }
+
+    @Test
+    public void testCloseWithSpill()
+            throws Exception
+    {
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        TaskContext taskContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(2, MEGABYTE));
+
+        File spillPath = Files.createTempDir();
+        try {
+            HashSupplier hashSupplier = buildWithSpill(taskContext, spillPath);
+            HashJoinOperatorFactory joinOperatorFactory = HashJoinOperator.innerJoin(0, hashSupplier, ImmutableList.of(SINGLE_VARBINARY, SINGLE_LONG), 0);
+            List<HashJoinOperator> joinOperators = createJoinOperators(taskContext, joinOperatorFactory, 2);
+            joinOperatorFactory.close();
+
+            ImmutableList.Builder<Page> output = ImmutableList.builder();
+            joinProbeInput(joinOperators, output);
+            long memoryReservation = getMemoryReservation(taskContext);
+
+            // the first operator joins its spilled rows, while the second one still holds the loaded partitions
+            HashJoinOperator joinOperator = joinOperators.get(0);
+            joinOperator.finish();
+            while (!joinOperator.isFinished()) {
+                assertTrue(joinOperator.isBlocked().isDone());
+                addOutput(joinOperator, output);
+            }
+            joinOperator.close();
+            assertEquals(hashSupplier.getSpilledPartitionLoads(), hashSupplier.getSourceHash().get().getSpilledPartitions().size());
+            assertTrue(getMemoryReservation(taskContext) > memoryReservation);
+            assertFalse(hashSupplier.isSpillFilesClosed());
+
+            // dropping the second operator releases the partitions and closes the spill files
+            joinOperators.get(1).close();
+            assertEquals(getMemoryReservation(taskContext), memoryReservation);
+            assertTrue(hashSupplier.isSpillFilesClosed());
+            assertEquals(spillPath.list().length, 0);
+        }
+        finally {
+            FileUtils.deleteRecursively(spillPath);
+        }
+    }
+
+    /**
+     * Builds a hash of 20,000 rows that does not fit in half of the task memory.
+     */
+    private HashSupplier buildWithSpill(TaskContext taskContext, File spillPath)
+            throws Exception
+    {
+        DriverContext driverContext = taskContext.addPipelineContext(true, true).addDriverContext();
+        RowPagesBuilder buildPages = rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG);
+        for (int i = 0; i < 20; i++) {
+            buildPages.addSequencePage(1000, i * 1000, i * 1000);
+        }
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, StaticOperator.class.getSimpleName());
+        Operator buildOperator = new StaticOperator(operatorContext, buildPages.build());
+        HashBuilderOperatorFactory hashBuilderOperatorFactory = new HashBuilderOperatorFactory(
+                1,
+                buildOperator.getTupleInfos(),
+                0,
+                Optional.<Integer>absent(),
+                100,
+                1,
+                Optional.<SettableFuture<DynamicFilter>>absent(),
+                Optional.of(spillPath));
+        Operator sourceHashProvider = hashBuilderOperatorFactory.createOperator(driverContext);
+
+        Driver driver = new Driver(driverContext, buildOperator, sourceHashProvider);
+        while (!driver.isFinished()) {
+            driver.process();
+        }
+        assertTrue(hashBuilderOperatorFactory.getHashSupplier().getSourceHash().get().hasSpilledPartitions());
+        return hashBuilderOperatorFactory.getHashSupplier();
+    }
+
+    private static List<HashJoinOperator> createJoinOperators(TaskContext taskContext, HashJoinOperatorFactory joinOperatorFactory, int probeOperatorCount)
+    {
+        List<HashJoinOperator> joinOperators = new ArrayList<>();
+        PipelineContext probePipelineContext = taskContext.addPipelineContext(true, true);
+        for (int i = 0; i < probeOperatorCount; i++) {
+            joinOperators.add((HashJoinOperator) joinOperatorFactory.createOperator(probePipelineContext.addDriverContext()));
+        }
+        return joinOperators;
+    }
+
+    /**
+     * Splits 20,000 probe rows, half of which match the build rows, between the join operators.
+     */
+    private static void joinProbeInput(List<HashJoinOperator> joinOperators, ImmutableList.Builder<Page> output)
+    {
+        RowPagesBuilder probePages = rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG);
+        for (int i = 0; i < 20; i++) {
+            probePages.addSequencePage(1000, 10_000 + i * 1000, 50_000 + i * 1000);
+        }
+        List<Page> probeInput = probePages.build();
+        for (int page = 0; page < probeInput.size(); page++) {
+            Operator joinOperator = joinOperators.get(page % joinOperators.size());
+            while (!joinOperator.needsInput()) {
+                addOutput(joinOperator, output);
+            }
+            joinOperator.addInput(probeInput.get(page));
+            addOutput(joinOperator, output);
+        }
+    }
+
+    private static long getMemoryReservation(TaskContext taskContext)
+    {
+        return taskContext.getTaskStats().getMemoryReservation().toBytes();
+    }
+
+    private static void addOutput(Operator operator, ImmutableList.Builder<Page> output)
+    {
+        Page page = operator.getOutput();
+        if (page != null) {
+            output.add(page);
+        }
+    }
+
     @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Task exceeded max memory size.*")
     public void testMemoryLimit()
             throws Exception
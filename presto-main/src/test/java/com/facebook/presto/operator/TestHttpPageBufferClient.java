@@ -13,6 +13,7 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.operator.HttpPageBufferClient.ClientCallback;
 import com.google.common.base.Function;
 import com.google.common.base.Throwables;
@@ -43,10 +44,12 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static com.facebook.presto.PrestoMediaTypes.PRESTO_PAGES;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
 import static com.google.common.net.HttpHeaders.CONTENT_TYPE;
 import static java.util.concurrent.Executors.newCachedThreadPool;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 public class TestHttpPageBufferClient
 {
@@ -138,6 +141,43 @@ public class TestHttpPageBufferClient
         assertStatus(client, location, "closed", 3, 4, 4, "queued");
     }
 
+    @Test
+    public void testCompressedPages()
+            throws Exception
+    {
+        BlockBuilder blockBuilder = new BlockBuilder(SINGLE_VARBINARY);
+        for (int i = 0; i < 1000; i++) {
+            blockBuilder.append("repeated value");
+        }
+        Page expectedPage = new Page(blockBuilder.build());
+
+        DataSize expectedMaxSize = new DataSize(11, Unit.MEGABYTE);
+        MockExchangeRequestProcessor processor = new MockExchangeRequestProcessor(expectedMaxSize);
+
+        CyclicBarrier requestComplete = new CyclicBarrier(2);
+
+        TestingClientCallback callback = new TestingClientCallback(requestComplete);
+
+        URI location = URI.create("http://localhost:8080");
+        HttpPageBufferClient client = new HttpPageBufferClient(new TestingHttpClient(processor, executor),
+                expectedMaxSize,
+                location,
+                callback,
+                true,
+                executor);
+
+        processor.addPage(location, expectedPage);
+        callback.resetStats();
+        client.scheduleRequest();
+        requestComplete.await(1, TimeUnit.SECONDS);
+
+        assertEquals(callback.getPages().size(), 1);
+        assertPageEquals(expectedPage, callback.getPages().get(0));
+        assertEquals(client.getUncompressedBytesReceived(), expectedPage.getDataSize().toBytes());
+        assertTrue(client.getBytesReceived() > 0);
+        assertTrue(client.getBytesReceived() < client.getUncompressedBytesReceived());
+    }
+
     @Test
     public void testLifecycle()
             throws Exception
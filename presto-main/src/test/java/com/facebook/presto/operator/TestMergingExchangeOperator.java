@@ -0,0 +1,379 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.operator.MergingExchangeOperator.MergingExchangeOperatorFactory;
+import com.facebook.presto.serde.PagesSerde;
+import com.facebook.presto.split.RemoteSplit;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.sql.planner.plan.PlanNodeId;
+import com.facebook.presto.sql.tree.SortItem;
+import com.facebook.presto.tuple.TupleInfo;
+import com.facebook.presto.util.MaterializedResult;
+import com.google.common.base.Function;
+import com.google.common.base.Splitter;
+import com.google.common.base.Supplier;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableListMultimap.Builder;
+import com.google.common.collect.Iterables;
+import io.airlift.http.client.AsyncHttpClient;
+import io.airlift.http.client.HttpStatus;
+import io.airlift.http.client.Request;
+import io.airlift.http.client.Response;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.airlift.http.client.testing.TestingResponse;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.units.DataSize;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.facebook.presto.PrestoMediaTypes.PRESTO_PAGES;
+import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_SEQUENCE_ID;
+import static com.facebook.presto.operator.OperatorAssertion.toMaterializedResult;
+import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
+import static com.facebook.presto.util.MaterializedResult.resultBuilder;
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static javax.ws.rs.core.HttpHeaders.CONTENT_TYPE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestMergingExchangeOperator
+{
+    private static final List<TupleInfo> TUPLE_INFOS = ImmutableList.of(SINGLE_LONG, SINGLE_LONG);
+
+    private static final String TASK_1_ID = "task1";
+    private static final String TASK_2_ID = "task2";
+    private static final String TASK_3_ID = "task3";
+
+    private LoadingCache<String, TaskBuffer> taskBuffers;
+    private ExecutorService executor;
+    private AsyncHttpClient httpClient;
+
+    private DriverContext driverContext;
+    private Supplier<ExchangeClient> exchangeClientSupplier;
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception
+    {
+        taskBuffers = CacheBuilder.newBuilder().build(new CacheLoader<String, TaskBuffer>()
+        {
+            @Override
+            public TaskBuffer load(String key)
+                    throws Exception
+            {
+                return new TaskBuffer();
+            }
+        });
+        executor = newCachedThreadPool(daemonThreadsNamed("test-%s"));
+
+        httpClient = new TestingHttpClient(new HttpClientHandler(), executor);
+
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session)
+                .addPipelineContext(true, true)
+                .addDriverContext();
+
+        exchangeClientSupplier = new Supplier<ExchangeClient>()
+        {
+            @Override
+            public ExchangeClient get()
+            {
+                return new ExchangeClient(new DataSize(32, MEGABYTE), new DataSize(10, MEGABYTE), 3, httpClient, executor);
+            }
+        };
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws Exception
+    {
+        taskBuffers = null;
+
+        httpClient.close();
+        httpClient = null;
+
+        executor.shutdownNow();
+        executor = null;
+    }
+
+    @Test
+    public void testMerge()
+            throws Exception
+    {
+        SourceOperator operator = createOperator(SortItem.Ordering.ASCENDING);
+
+        operator.addSplit(new RemoteSplit(URI.create("http://localhost/" + TASK_1_ID), TUPLE_INFOS));
+        operator.addSplit(new RemoteSplit(URI.create("http://localhost/" + TASK_2_ID), TUPLE_INFOS));
+        operator.addSplit(new RemoteSplit(URI.create("http://localhost/" + TASK_3_ID), TUPLE_INFOS));
+        operator.noMoreSplits();
+
+        taskBuffers.getUnchecked(TASK_1_ID).addPages(rowPagesBuilder(TUPLE_INFOS)
+                .row(0, 1)
+                .row(3, 1)
+                .pageBreak()
+                .row(6, 1)
+                .row(9, 1)
+                .build());
+        taskBuffers.getUnchecked(TASK_2_ID).addPages(rowPagesBuilder(TUPLE_INFOS)
+                .row(1, 2)
+                .row(4, 2)
+                .row(7, 2)
+                .build());
+        taskBuffers.getUnchecked(TASK_3_ID).addPages(rowPagesBuilder(TUPLE_INFOS)
+                .row(2, 3)
+                .pageBreak()
+                .row(5, 3)
+                .pageBreak()
+                .row(8, 3)
+                .build());
+        taskBuffers.getUnchecked(TASK_1_ID).close();
+        taskBuffers.getUnchecked(TASK_2_ID).close();
+        taskBuffers.getUnchecked(TASK_3_ID).close();
+
+        MaterializedResult expected = resultBuilder(FIXED_INT_64, FIXED_INT_64)
+                .row(0, 1)
+                .row(1, 2)
+                .row(2, 3)
+                .row(3, 1)
+                .row(4, 2)
+                .row(5, 3)
+                .row(6, 1)
+                .row(7, 2)
+                .row(8, 3)
+                .row(9, 1)
+                .build();
+
+        assertEquals(readAll(operator), expected);
+    }
+
+    @Test
+    public void testMergeDescending()
+            throws Exception
+    {
+        SourceOperator operator = createOperator(SortItem.Ordering.DESCENDING);
+
+        operator.addSplit(new RemoteSplit(URI.create("http://localhost/" + TASK_1_ID), TUPLE_INFOS));
+        operator.addSplit(new RemoteSplit(URI.create("http://localhost/" + TASK_2_ID), TUPLE_INFOS));
+        operator.noMoreSplits();
+
+        taskBuffers.getUnchecked(TASK_1_ID).addPages(rowPagesBuilder(TUPLE_INFOS)
+                .row(5, 1)
+                .row(2, 1)
+                .build());
+        taskBuffers.getUnchecked(TASK_2_ID).addPages(rowPagesBuilder(TUPLE_INFOS)
+                .row(4, 2)
+                .row(3, 2)
+                .row(1, 2)
+                .build());
+        taskBuffers.getUnchecked(TASK_1_ID).close();
+        taskBuffers.getUnchecked(TASK_2_ID).close();
+
+        MaterializedResult expected = resultBuilder(FIXED_INT_64, FIXED_INT_64)
+                .row(5, 1)
+                .row(4, 2)
+                .row(3, 2)
+                .row(2, 1)
+                .row(1, 2)
+                .build();
+
+        assertEquals(readAll(operator), expected);
+    }
+
+    @Test
+    public void testWaitForAllSources()
+            throws Exception
+    {
+        SourceOperator operator = createOperator(SortItem.Ordering.ASCENDING);
+
+        operator.addSplit(new RemoteSplit(URI.create("http://localhost/" + TASK_1_ID), TUPLE_INFOS));
+        operator.addSplit(new RemoteSplit(URI.create("http://localhost/" + TASK_2_ID), TUPLE_INFOS));
+
+        taskBuffers.getUnchecked(TASK_1_ID).addPages(rowPagesBuilder(TUPLE_INFOS)
+                .row(0, 1)
+                .build());
+        taskBuffers.getUnchecked(TASK_1_ID).close();
+
+        // no output until all sources are known
+        Thread.sleep(100);
+        assertEquals(operator.isBlocked().isDone(), false);
+        assertNull(operator.getOutput());
+
+        // no output until every source has a row
+        operator.noMoreSplits();
+        Thread.sleep(100);
+        assertNull(operator.getOutput());
+        assertEquals(operator.isFinished(), false);
+
+        taskBuffers.getUnchecked(TASK_2_ID).addPages(rowPagesBuilder(TUPLE_INFOS)
+                .row(1, 2)
+                .build());
+        taskBuffers.getUnchecked(TASK_2_ID).close();
+
+        MaterializedResult expected = resultBuilder(FIXED_INT_64, FIXED_INT_64)
+                .row(0, 1)
+                .row(1, 2)
+                .build();
+
+        assertEquals(readAll(operator), expected);
+    }
+
+    @Test
+    public void testSourcesShareBuffer()
+            throws Exception
+    {
+        final List<ExchangeClient> exchangeClients = new ArrayList<>();
+        exchangeClientSupplier = new Supplier<ExchangeClient>()
+        {
+            @Override
+            public ExchangeClient get()
+            {
+                ExchangeClient exchangeClient = new ExchangeClient(new DataSize(30, MEGABYTE), new DataSize(10, MEGABYTE), 3, httpClient, executor);
+                exchangeClients.add(exchangeClient);
+                return exchangeClient;
+            }
+        };
+        SourceOperator operator = createOperator(SortItem.Ordering.ASCENDING);
+
+        operator.addSplit(new RemoteSplit(URI.create("http://localhost/" + TASK_1_ID), TUPLE_INFOS));
+        operator.addSplit(new RemoteSplit(URI.create("http://localhost/" + TASK_2_ID), TUPLE_INFOS));
+        operator.addSplit(new RemoteSplit(URI.create("http://localhost/" + TASK_3_ID), TUPLE_INFOS));
+
+        // the clients are created when all sources are known
+        assertTrue(exchangeClients.isEmpty());
+        operator.noMoreSplits();
+
+        assertEquals(exchangeClients.size(), 3);
+        for (ExchangeClient exchangeClient : exchangeClients) {
+            assertEquals(exchangeClient.getMaxBufferedBytes(), new DataSize(10, MEGABYTE).toBytes());
+        }
+        operator.finish();
+    }
+
+    private SourceOperator createOperator(SortItem.Ordering ordering)
+    {
+        MergingExchangeOperatorFactory operatorFactory = new MergingExchangeOperatorFactory(
+                0,
+                new PlanNodeId("test"),
+                exchangeClientSupplier,
+                TUPLE_INFOS,
+                ImmutableList.of(0),
+                ImmutableList.of(0),
+                ImmutableList.of(ordering));
+        return operatorFactory.createOperator(driverContext);
+    }
+
+    private MaterializedResult readAll(Operator operator)
+            throws InterruptedException
+    {
+        // read until finished or until 10 seconds has passed
+        long endTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        List<Page> outputPages = new ArrayList<>();
+        while (!operator.isFinished() && System.nanoTime() < endTime) {
+            assertEquals(operator.needsInput(), false);
+
+            Page outputPage = operator.getOutput();
+            if (outputPage != null) {
+                outputPages.add(outputPage);
+            }
+            else {
+                Thread.sleep(10);
+            }
+        }
+
+        // verify final state
+        assertEquals(operator.isFinished(), true);
+        assertEquals(operator.needsInput(), false);
+        assertNull(operator.getOutput());
+
+        return toMaterializedResult(operator.getTupleInfos(), outputPages);
+    }
+
+    private class HttpClientHandler
+            implements Function<Request, Response>
+    {
+        @Override
+        public Response apply(Request request)
+        {
+            ImmutableList<String> parts = ImmutableList.copyOf(Splitter.on("/").omitEmptyStrings().split(request.getUri().getPath()));
+            assertEquals(parts.size(), 2);
+            String taskId = parts.get(0);
+            int pageSequenceId = Integer.parseInt(parts.get(1));
+
+            Builder<String, String> headers = ImmutableListMultimap.builder();
+            headers.put(PRESTO_PAGE_SEQUENCE_ID, String.valueOf(pageSequenceId));
+
+            TaskBuffer taskBuffer = taskBuffers.getUnchecked(taskId);
+            Page page = taskBuffer.getPage(pageSequenceId);
+            if (page != null) {
+                headers.put(CONTENT_TYPE, PRESTO_PAGES);
+                DynamicSliceOutput output = new DynamicSliceOutput(256);
+                PagesSerde.writePages(output, page);
+                return new TestingResponse(HttpStatus.OK, headers.build(), output.slice().getInput());
+            }
+            else if (taskBuffer.isClosed()) {
+                return new TestingResponse(HttpStatus.GONE, headers.build(), new byte[0]);
+            }
+            else {
+                return new TestingResponse(HttpStatus.NO_CONTENT, headers.build(), new byte[0]);
+            }
+        }
+    }
+
+    private static class TaskBuffer
+    {
+        private final List<Page> buffer = new ArrayList<>();
+        private volatile boolean closed;
+
+        public synchronized void addPages(Iterable<Page> pages)
+        {
+            Iterables.addAll(buffer, pages);
+        }
+
+        public synchronized Page getPage(int pageSequenceId)
+        {
+            if (pageSequenceId >= buffer.size()) {
+                return null;
+            }
+            return buffer.get(pageSequenceId);
+        }
+
+        private boolean isClosed()
+        {
+            return closed;
+        }
+
+        public void close()
+        {
+            closed = true;
+        }
+    }
+}
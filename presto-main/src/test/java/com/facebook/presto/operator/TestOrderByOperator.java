@@ -18,13 +18,17 @@ import com.facebook.presto.operator.OrderByOperator.InMemoryOrderByOperatorFacto
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.util.MaterializedResult;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import io.airlift.testing.FileUtils;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
@@ -39,6 +43,11 @@ import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
 import static com.facebook.presto.util.MaterializedResult.resultBuilder;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
 import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 public class TestOrderByOperator
 {
@@ -157,6 +166,162 @@ public class TestOrderByOperator
         assertOperatorEquals(operator, input, expected);
     }
 
+    @Test
+    public void testSpillToDisk()
+            throws Exception
+    {
+        List<Page> input = rowPagesBuilder(SINGLE_LONG, SINGLE_DOUBLE)
+                .row(1, 0.1)
+                .row(5, 0.5)
+                .row(2, 0.2)
+                .pageBreak()
+                .row(-1, -0.1)
+                .row(4, 0.4)
+                .pageBreak()
+                .row(3, 0.3)
+                .row(0, 0.0)
+                .build();
+
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        DriverContext driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(10, Unit.BYTE))
+                .addPipelineContext(true, true)
+                .addDriverContext();
+
+        File spillPath = Files.createTempDir();
+        try {
+            InMemoryOrderByOperatorFactory operatorFactory = new InMemoryOrderByOperatorFactory(
+                    0,
+                    ImmutableList.of(SINGLE_LONG, SINGLE_DOUBLE),
+                    0,
+                    new int[] {1},
+                    10,
+                    new int[] {0},
+                    new boolean[] {true},
+                    Optional.of(spillPath));
+
+            Operator operator = operatorFactory.createOperator(driverContext);
+
+            MaterializedResult expected = resultBuilder(DOUBLE)
+                    .row(-0.1)
+                    .row(0.0)
+                    .row(0.1)
+                    .row(0.2)
+                    .row(0.3)
+                    .row(0.4)
+                    .row(0.5)
+                    .build();
+
+            assertOperatorEquals(operator, input, expected);
+        }
+        finally {
+            FileUtils.deleteRecursively(spillPath);
+        }
+    }
+
+    @Test
+    public void testSpillToDiskWithMultipleMergePasses()
+            throws Exception
+    {
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        DriverContext driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(10, Unit.BYTE))
+                .addPipelineContext(true, true)
+                .addDriverContext();
+
+        File spillPath = Files.createTempDir();
+        try {
+            // every page is spilled as a run, and the five runs are merged two at a time
+            OrderByOperator operator = createSpillingOperator(driverContext, spillPath, 2);
+
+            MaterializedResult expected = resultBuilder(DOUBLE)
+                    .row(-0.1)
+                    .row(0.0)
+                    .row(0.1)
+                    .row(0.2)
+                    .row(0.3)
+                    .row(0.4)
+                    .row(0.5)
+                    .row(0.6)
+                    .row(0.7)
+                    .row(0.8)
+                    .build();
+
+            assertOperatorEquals(operator, createSpillInput(), expected);
+            assertEquals(operator.getSpillCount(), 5 + 3);
+
+            // spill files are deleted as soon as they are created
+            assertEquals(spillPath.list().length, 0);
+        }
+        finally {
+            FileUtils.deleteRecursively(spillPath);
+        }
+    }
+
+    @Test
+    public void testCloseWhileMergingSpills()
+            throws Exception
+    {
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        DriverContext driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(10, Unit.BYTE))
+                .addPipelineContext(true, true)
+                .addDriverContext();
+
+        File spillPath = Files.createTempDir();
+        try {
+            OrderByOperator operator = createSpillingOperator(driverContext, spillPath, 2);
+            for (Page page : createSpillInput()) {
+                operator.addInput(page);
+                assertNull(operator.getOutput());
+            }
+            operator.finish();
+            assertTrue(operator.getSpillCount() > 1);
+
+            // the operator is dropped in the middle of the merge
+            assertNotNull(operator.getOutput());
+            assertFalse(operator.isFinished());
+            operator.close();
+
+            // closing again is harmless
+            operator.close();
+        }
+        finally {
+            FileUtils.deleteRecursively(spillPath);
+        }
+    }
+
+    private static OrderByOperator createSpillingOperator(DriverContext driverContext, File spillPath, int maxMergeRuns)
+    {
+        return new OrderByOperator(
+                driverContext.addOperatorContext(0, OrderByOperator.class.getSimpleName()),
+                ImmutableList.of(SINGLE_LONG, SINGLE_DOUBLE),
+                0,
+                new int[] {1},
+                10,
+                new int[] {0},
+                new boolean[] {true},
+                Optional.of(spillPath),
+                maxMergeRuns);
+    }
+
+    private static List<Page> createSpillInput()
+    {
+        return rowPagesBuilder(SINGLE_LONG, SINGLE_DOUBLE)
+                .row(1, 0.1)
+                .row(5, 0.5)
+                .pageBreak()
+                .row(-1, -0.1)
+                .row(8, 0.8)
+                .pageBreak()
+                .row(3, 0.3)
+                .row(0, 0.0)
+                .pageBreak()
+                .row(7, 0.7)
+                .row(2, 0.2)
+                .pageBreak()
+                .row(6, 0.6)
+                .row(4, 0.4)
+                .build();
+    }
+
     @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Task exceeded max memory size of 10B")
     public void testMemoryLimit()
             throws Exception
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.spi.ColumnType;
+import com.facebook.presto.spi.InMemoryRecordSet;
+import com.facebook.presto.spi.RecordCursorBatchAdapter;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.tuple.TupleInfo;
+import com.facebook.presto.util.MaterializedResult;
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import static com.facebook.presto.spi.ColumnType.BOOLEAN;
+import static com.facebook.presto.spi.ColumnType.DOUBLE;
+import static com.facebook.presto.spi.ColumnType.LONG;
+import static com.facebook.presto.spi.ColumnType.STRING;
+import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
+import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
+import static com.facebook.presto.util.MaterializedResult.resultBuilder;
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+
+public class TestRecordBatchProjectOperator
+{
+    private ExecutorService executor;
+    private DriverContext driverContext;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executor = newCachedThreadPool(daemonThreadsNamed("test"));
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session)
+                .addPipelineContext(true, true)
+                .addDriverContext();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testMultiColumn()
+            throws Exception
+    {
+        List<ColumnType> types = ImmutableList.of(STRING, LONG);
+        InMemoryRecordSet records = new InMemoryRecordSet(types, ImmutableList.copyOf(new List<?>[] {ImmutableList.of("abc", 1L),
+                                                                                                     ImmutableList.of("def", 2L),
+                                                                                                     ImmutableList.of("g", 0L)}));
+
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, RecordBatchProjectOperator.class.getSimpleName());
+        Operator operator = new RecordBatchProjectOperator(operatorContext, types, new RecordCursorBatchAdapter(records.cursor(), types, 1024));
+
+        MaterializedResult expected = resultBuilder(VARIABLE_BINARY, FIXED_INT_64)
+                .row("abc", 1)
+                .row("def", 2)
+                .row("g", 0)
+                .build();
+
+        OperatorAssertion.assertOperatorEquals(operator, expected);
+    }
+
+    @Test
+    public void testNullsAcrossBatches()
+            throws Exception
+    {
+        List<ColumnType> types = ImmutableList.of(STRING, LONG, DOUBLE, BOOLEAN);
+        InMemoryRecordSet records = new InMemoryRecordSet(types, ImmutableList.copyOf(new List<?>[] {Arrays.asList("abc", 1L, 1.5, true),
+                                                                                                     Arrays.asList(null, 2L, null, false),
+                                                                                                     Arrays.asList("ghij", null, 3.5, null),
+                                                                                                     Arrays.asList("", 4L, 4.5, true),
+                                                                                                     Arrays.asList("k", 5L, 5.5, false)}));
+
+        // a batch size of two makes the string offsets restart in the middle of the data
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, RecordBatchProjectOperator.class.getSimpleName());
+        Operator operator = new RecordBatchProjectOperator(operatorContext, types, new RecordCursorBatchAdapter(records.cursor(), types, 2));
+
+        MaterializedResult expected = resultBuilder(VARIABLE_BINARY, FIXED_INT_64, TupleInfo.Type.DOUBLE, TupleInfo.Type.BOOLEAN)
+                .row("abc", 1, 1.5, true)
+                .row(null, 2, null, false)
+                .row("ghij", null, 3.5, null)
+                .row("", 4, 4.5, true)
+                .row("k", 5, 5.5, false)
+                .build();
+
+        OperatorAssertion.assertOperatorEquals(operator, expected);
+    }
+}
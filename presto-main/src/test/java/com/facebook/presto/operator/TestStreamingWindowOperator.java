@@ -0,0 +1,219 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.operator.StreamingWindowOperator.StreamingWindowOperatorFactory;
+import com.facebook.presto.operator.window.RankFunction;
+import com.facebook.presto.operator.window.RowNumberFunction;
+import com.facebook.presto.operator.window.WindowFunction;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.tuple.TupleInfo;
+import com.facebook.presto.util.MaterializedResult;
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import static com.facebook.presto.operator.OperatorAssertion.assertOperatorEquals;
+import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.tuple.TupleInfo.Type.DOUBLE;
+import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
+import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
+import static com.facebook.presto.util.MaterializedResult.resultBuilder;
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestStreamingWindowOperator
+{
+    private static final List<WindowFunction> ROW_NUMBER = ImmutableList.<WindowFunction>of(new RowNumberFunction());
+
+    private ExecutorService executor;
+    private DriverContext driverContext;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executor = newCachedThreadPool(daemonThreadsNamed("test"));
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session)
+                .addPipelineContext(true, true)
+                .addDriverContext();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRowNumberPartition()
+            throws Exception
+    {
+        TupleInfo sourceTupleInfo = new TupleInfo(VARIABLE_BINARY, FIXED_INT_64, DOUBLE);
+
+        // partitions span page boundaries
+        List<Page> input = rowPagesBuilder(sourceTupleInfo)
+                .row("a", 2, 0.3)
+                .row("a", 4, 0.2)
+                .pageBreak()
+                .row("a", 6, 0.1)
+                .row("b", -1, -0.1)
+                .pageBreak()
+                .row("b", 5, 0.4)
+                .pageBreak()
+                .row("c", 1, 0.5)
+                .row("d", 3, 0.6)
+                .row("d", 7, 0.7)
+                .build();
+
+        StreamingWindowOperatorFactory operatorFactory = new StreamingWindowOperatorFactory(
+                0,
+                ImmutableList.of(sourceTupleInfo),
+                0,
+                ints(0),
+                ROW_NUMBER,
+                ints(0),
+                ints(1),
+                bools(true),
+                10);
+
+        Operator operator = operatorFactory.createOperator(driverContext);
+
+        MaterializedResult expected = resultBuilder(VARIABLE_BINARY, FIXED_INT_64, DOUBLE, FIXED_INT_64)
+                .row("a", 2, 0.3, 1)
+                .row("a", 4, 0.2, 2)
+                .row("a", 6, 0.1, 3)
+                .row("b", -1, -0.1, 1)
+                .row("b", 5, 0.4, 2)
+                .row("c", 1, 0.5, 1)
+                .row("d", 3, 0.6, 1)
+                .row("d", 7, 0.7, 2)
+                .build();
+
+        assertOperatorEquals(operator, input, expected);
+    }
+
+    @Test
+    public void testRankPeerGroups()
+            throws Exception
+    {
+        // the partition and sort fields are packed into a single channel
+        TupleInfo sourceTupleInfo = new TupleInfo(FIXED_INT_64, FIXED_INT_64);
+
+        List<Page> input = rowPagesBuilder(sourceTupleInfo)
+                .row(1, 10)
+                .row(1, 10)
+                .pageBreak()
+                .row(1, 20)
+                .row(2, 10)
+                .pageBreak()
+                .row(2, 20)
+                .row(2, 20)
+                .row(2, 30)
+                .build();
+
+        StreamingWindowOperatorFactory operatorFactory = new StreamingWindowOperatorFactory(
+                0,
+                ImmutableList.of(sourceTupleInfo),
+                0,
+                ints(0),
+                ImmutableList.<WindowFunction>of(new RankFunction()),
+                ints(0),
+                ints(1),
+                bools(true),
+                10);
+
+        Operator operator = operatorFactory.createOperator(driverContext);
+
+        MaterializedResult expected = resultBuilder(FIXED_INT_64, FIXED_INT_64, FIXED_INT_64)
+                .row(1, 10, 1)
+                .row(1, 10, 1)
+                .row(1, 20, 3)
+                .row(2, 10, 1)
+                .row(2, 20, 2)
+                .row(2, 20, 2)
+                .row(2, 30, 4)
+                .build();
+
+        assertOperatorEquals(operator, input, expected);
+    }
+
+    @Test
+    public void testOutputsCompletePartitions()
+            throws Exception
+    {
+        List<Page> input = rowPagesBuilder(SINGLE_LONG)
+                .row(1)
+                .row(1)
+                .pageBreak()
+                .row(1)
+                .row(2)
+                .pageBreak()
+                .row(3)
+                .build();
+
+        StreamingWindowOperatorFactory operatorFactory = new StreamingWindowOperatorFactory(
+                0,
+                ImmutableList.of(SINGLE_LONG),
+                0,
+                ints(0),
+                ROW_NUMBER,
+                ints(0),
+                ints(),
+                bools(),
+                10);
+
+        Operator operator = operatorFactory.createOperator(driverContext);
+
+        // the partition may continue in the next page
+        operator.addInput(input.get(0));
+        assertNull(operator.getOutput());
+        assertTrue(operator.needsInput());
+
+        // the first partition is complete, the second may continue
+        operator.addInput(input.get(1));
+        assertFalse(operator.needsInput());
+        assertEquals(operator.getOutput().getPositionCount(), 3);
+        assertTrue(operator.needsInput());
+
+        operator.addInput(input.get(2));
+        assertEquals(operator.getOutput().getPositionCount(), 1);
+
+        // the last partition is output when the input ends
+        operator.finish();
+        assertFalse(operator.isFinished());
+        assertEquals(operator.getOutput().getPositionCount(), 1);
+        assertTrue(operator.isFinished());
+    }
+
+    private static int[] ints(int... array)
+    {
+        return array;
+    }
+
+    private static boolean[] bools(boolean... array)
+    {
+        return array;
+    }
+}
@@ -41,6 +41,8 @@ public class TestTaskStats
             10,
 
             new DataSize(11, BYTE),
+            new DataSize(22, BYTE),
+            true,
             new Duration(12, NANOSECONDS),
             new Duration(13, NANOSECONDS),
             new Duration(14, NANOSECONDS),
@@ -82,6 +84,8 @@ public class TestTaskStats
         assertEquals(actual.getCompletedDrivers(), 10);
 
         assertEquals(actual.getMemoryReservation(), new DataSize(11, BYTE));
+        assertEquals(actual.getQueryMemoryReservation(), new DataSize(22, BYTE));
+        assertEquals(actual.isMemoryPoolExhausted(), true);
 
         assertEquals(actual.getTotalScheduledTime(), new Duration(12, NANOSECONDS));
         assertEquals(actual.getTotalCpuTime(), new Duration(13, NANOSECONDS));
@@ -0,0 +1,48 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator.scalar;
+
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Longs;
+import io.airlift.slice.Slices;
+import org.testng.annotations.Test;
+
+import static com.facebook.presto.operator.scalar.FunctionAssertions.assertFunction;
+import static com.google.common.base.Charsets.UTF_8;
+
+public class TestHashFunctions
+{
+    @Test
+    public void testHashCode()
+    {
+        assertFunction("hash_code(123)", (long) Longs.hashCode(123));
+        assertFunction("hash_code(-123)", (long) Longs.hashCode(-123));
+        assertFunction("hash_code(123.45)", (long) Doubles.hashCode(123.45));
+        assertFunction("hash_code(true)", 1231L);
+        assertFunction("hash_code(false)", 1237L);
+        assertFunction("hash_code('hello')", (long) Slices.copiedBuffer("hello", UTF_8).hashCode());
+        assertFunction("hash_code('')", (long) Slices.EMPTY_SLICE.hashCode());
+    }
+
+    @Test
+    public void testCombineHash()
+    {
+        assertFunction("combine_hash(0, 5)", 5L);
+        assertFunction("combine_hash(1, 5)", 36L);
+        assertFunction("combine_hash(combine_hash(0, hash_code(1)), hash_code('a'))", (long) (31 * Longs.hashCode(1) + Slices.copiedBuffer("a", UTF_8).hashCode()));
+
+        // the result stays within the range of an int
+        assertFunction("combine_hash(" + Integer.MAX_VALUE + ", " + Integer.MAX_VALUE + ")", (long) (31 * Integer.MAX_VALUE + Integer.MAX_VALUE));
+    }
+}
@@ -17,15 +17,19 @@ import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import com.facebook.presto.operator.Page;
 import io.airlift.slice.DynamicSliceOutput;
+import com.google.common.collect.ImmutableList;
 import org.testng.annotations.Test;
 
 import java.util.Iterator;
 
 import static com.facebook.presto.operator.PageAssertions.assertPageEquals;
+import static com.facebook.presto.serde.PagesSerde.readCompressedPages;
 import static com.facebook.presto.serde.PagesSerde.readPages;
+import static com.facebook.presto.serde.PagesSerde.writeCompressedPages;
 import static com.facebook.presto.serde.PagesSerde.writePages;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 public class TestPagesSerde
 {
@@ -48,4 +52,27 @@ public class TestPagesSerde
         assertPageEquals(pageIterator.next(), expectedPage);
         assertFalse(pageIterator.hasNext());
     }
+
+    @Test
+    public void testCompressedRoundTrip()
+    {
+        BlockBuilder blockBuilder = new BlockBuilder(SINGLE_VARBINARY);
+        for (int i = 0; i < 1000; i++) {
+            blockBuilder.append("repeated value");
+        }
+        Page repetitivePage = new Page(blockBuilder.build());
+
+        // a page too small to compress is stored as is
+        Page smallPage = new Page(new BlockBuilder(SINGLE_VARBINARY).append("a").build());
+
+        DynamicSliceOutput sliceOutput = new DynamicSliceOutput(1024);
+        writeCompressedPages(sliceOutput, ImmutableList.of(repetitivePage, smallPage, repetitivePage));
+        assertTrue(sliceOutput.size() < repetitivePage.getDataSize().toBytes());
+
+        Iterator<Page> pageIterator = readCompressedPages(sliceOutput.slice().getInput());
+        assertPageEquals(pageIterator.next(), repetitivePage);
+        assertPageEquals(pageIterator.next(), smallPage);
+        assertPageEquals(pageIterator.next(), repetitivePage);
+        assertFalse(pageIterator.hasNext());
+    }
 }
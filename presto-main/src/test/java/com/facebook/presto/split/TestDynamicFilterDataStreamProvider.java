@@ -0,0 +1,265 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.split;
+
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.operator.ChannelIndex;
+import com.facebook.presto.operator.DynamicFilter;
+import com.facebook.presto.operator.Operator;
+import com.facebook.presto.operator.OperatorContext;
+import com.facebook.presto.operator.Page;
+import com.facebook.presto.operator.PipelineContext;
+import com.facebook.presto.operator.RecordProjectOperator;
+import com.facebook.presto.operator.TaskContext;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.ColumnType;
+import com.facebook.presto.spi.HostAddress;
+import com.facebook.presto.spi.InMemoryRecordSet;
+import com.facebook.presto.spi.PartitionKey;
+import com.facebook.presto.spi.PartitionedSplit;
+import com.facebook.presto.spi.Split;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.tuple.TupleInfo;
+import com.facebook.presto.util.MaterializedResult;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.SettableFuture;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.facebook.presto.operator.OperatorAssertion.toMaterializedResult;
+import static com.facebook.presto.operator.OperatorAssertion.toPages;
+import static com.facebook.presto.spi.ColumnType.LONG;
+import static com.facebook.presto.spi.ColumnType.STRING;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
+import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
+import static com.facebook.presto.util.MaterializedResult.resultBuilder;
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestDynamicFilterDataStreamProvider
+{
+    private static final List<TupleInfo> TUPLE_INFOS = ImmutableList.of(SINGLE_LONG, SINGLE_VARBINARY);
+    private static final List<ColumnHandle> COLUMNS = ImmutableList.<ColumnHandle>of(new TestingColumnHandle(), new TestingColumnHandle());
+
+    private ExecutorService executor;
+    private PipelineContext pipelineContext;
+    private CountingDataStreamProvider delegate;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executor = newCachedThreadPool(daemonThreadsNamed("test"));
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        pipelineContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session)
+                .addPipelineContext(true, true);
+        delegate = new CountingDataStreamProvider();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFilterRows()
+    {
+        SettableFuture<DynamicFilter> dynamicFilter = SettableFuture.create();
+        Operator operator = createDataStream(dynamicFilter, new TestingSplit(ImmutableList.<PartitionKey>of()));
+
+        // the split is not opened until the build side is done
+        assertFalse(operator.isBlocked().isDone());
+        assertEquals(operator.getOutput(), null);
+        assertEquals(delegate.getOpenCount(), 0);
+
+        dynamicFilter.set(createFilter(2, 4));
+        assertTrue(operator.isBlocked().isDone());
+
+        List<Page> pages = toPages(operator);
+        MaterializedResult expected = resultBuilder(FIXED_INT_64, VARIABLE_BINARY)
+                .row(2, "two")
+                .row(4, "four")
+                .build();
+        assertEquals(toMaterializedResult(TUPLE_INFOS, pages), expected);
+        assertEquals(delegate.getOpenCount(), 1);
+    }
+
+    @Test
+    public void testPrunePartition()
+    {
+        SettableFuture<DynamicFilter> dynamicFilter = SettableFuture.create();
+        dynamicFilter.set(createFilter(2, 4));
+
+        Operator pruned = createDataStream(dynamicFilter, new TestingSplit(ImmutableList.<PartitionKey>of(new TestingPartitionKey("id", "5"))));
+        assertTrue(toPages(pruned).isEmpty());
+        assertEquals(delegate.getOpenCount(), 0);
+
+        // a partition with a matching value is read and filtered
+        Operator matching = createDataStream(dynamicFilter, new TestingSplit(ImmutableList.<PartitionKey>of(new TestingPartitionKey("id", "4"))));
+        assertEquals(toMaterializedResult(TUPLE_INFOS, toPages(matching)).getMaterializedTuples().size(), 2);
+        assertEquals(delegate.getOpenCount(), 1);
+
+        // partition keys for other columns are ignored
+        Operator otherColumn = createDataStream(dynamicFilter, new TestingSplit(ImmutableList.<PartitionKey>of(new TestingPartitionKey("name", "5"))));
+        assertEquals(toMaterializedResult(TUPLE_INFOS, toPages(otherColumn)).getMaterializedTuples().size(), 2);
+        assertEquals(delegate.getOpenCount(), 2);
+    }
+
+    @Test
+    public void testNoFilter()
+    {
+        // the build side was too large to summarize
+        SettableFuture<DynamicFilter> dynamicFilter = SettableFuture.create();
+        dynamicFilter.set(null);
+
+        Operator operator = createDataStream(dynamicFilter, new TestingSplit(ImmutableList.<PartitionKey>of(new TestingPartitionKey("id", "5"))));
+        assertEquals(toMaterializedResult(TUPLE_INFOS, toPages(operator)).getMaterializedTuples().size(), 5);
+    }
+
+    private Operator createDataStream(SettableFuture<DynamicFilter> dynamicFilter, Split split)
+    {
+        DynamicFilterDataStreamProvider provider = new DynamicFilterDataStreamProvider(delegate, TUPLE_INFOS, 0, "id", dynamicFilter);
+        OperatorContext operatorContext = pipelineContext.addDriverContext().addOperatorContext(0, "scan");
+        return provider.createNewDataStream(operatorContext, split, COLUMNS);
+    }
+
+    private static DynamicFilter createFilter(long... values)
+    {
+        BlockBuilder blockBuilder = new BlockBuilder(SINGLE_LONG);
+        for (long value : values) {
+            blockBuilder.append(value);
+        }
+        ChannelIndex index = new ChannelIndex(values.length, SINGLE_LONG);
+        index.indexBlock(blockBuilder.build());
+        return DynamicFilter.create(index);
+    }
+
+    private static class CountingDataStreamProvider
+            implements DataStreamProvider
+    {
+        private final AtomicInteger openCount = new AtomicInteger();
+
+        @Override
+        public Operator createNewDataStream(OperatorContext operatorContext, Split split, List<ColumnHandle> columns)
+        {
+            openCount.incrementAndGet();
+            InMemoryRecordSet records = new InMemoryRecordSet(ImmutableList.of(LONG, STRING), ImmutableList.<List<?>>of(
+                    ImmutableList.of(1L, "one"),
+                    ImmutableList.of(2L, "two"),
+                    ImmutableList.of(3L, "three"),
+                    ImmutableList.of(4L, "four"),
+                    ImmutableList.of(5L, "five")));
+            return new RecordProjectOperator(operatorContext, records);
+        }
+
+        public int getOpenCount()
+        {
+            return openCount.get();
+        }
+    }
+
+    private static class TestingColumnHandle
+            implements ColumnHandle
+    {
+    }
+
+    private static class TestingSplit
+            implements PartitionedSplit
+    {
+        private final List<PartitionKey> partitionKeys;
+
+        private TestingSplit(List<PartitionKey> partitionKeys)
+        {
+            this.partitionKeys = partitionKeys;
+        }
+
+        @Override
+        public String getPartitionId()
+        {
+            return "partition";
+        }
+
+        @Override
+        public boolean isLastSplit()
+        {
+            return true;
+        }
+
+        @Override
+        public List<? extends PartitionKey> getPartitionKeys()
+        {
+            return partitionKeys;
+        }
+
+        @Override
+        public boolean isRemotelyAccessible()
+        {
+            return false;
+        }
+
+        @Override
+        public List<HostAddress> getAddresses()
+        {
+            return ImmutableList.of();
+        }
+
+        @Override
+        public Object getInfo()
+        {
+            return null;
+        }
+    }
+
+    private static class TestingPartitionKey
+            implements PartitionKey
+    {
+        private final String name;
+        private final String value;
+
+        private TestingPartitionKey(String name, String value)
+        {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public String getName()
+        {
+            return name;
+        }
+
+        @Override
+        public ColumnType getType()
+        {
+            return LONG;
+        }
+
+        @Override
+        public String getValue()
+        {
+            return value;
+        }
+    }
+}
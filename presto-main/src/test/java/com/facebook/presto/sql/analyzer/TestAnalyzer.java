@@ -280,6 +280,14 @@ public class TestAnalyzer
         assertFails(NOT_SUPPORTED, "SELECT count(*) over (ORDER BY a ROWS UNBOUNDED FOLLOWING) FROM t1");
     }
 
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Function hash_code not registered")
+    public void testHiddenFunction()
+            throws Exception
+    {
+        // the hash functions are only for the planner
+        analyze("SELECT hash_code(a) FROM t1");
+    }
+
     @Test
     public void testGroupByOrdinalsWithWildcard()
             throws Exception
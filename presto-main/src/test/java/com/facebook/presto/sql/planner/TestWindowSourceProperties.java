@@ -0,0 +1,153 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.sql.planner;
+
+import com.facebook.presto.connector.dual.DualColumnHandle;
+import com.facebook.presto.connector.dual.DualTableHandle;
+import com.facebook.presto.metadata.FunctionHandle;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.sql.planner.plan.PlanNode;
+import com.facebook.presto.sql.planner.plan.PlanNodeId;
+import com.facebook.presto.sql.planner.plan.ProjectNode;
+import com.facebook.presto.sql.planner.plan.TableScanNode;
+import com.facebook.presto.sql.planner.plan.WindowNode;
+import com.facebook.presto.sql.tree.BooleanLiteral;
+import com.facebook.presto.sql.tree.Expression;
+import com.facebook.presto.sql.tree.FunctionCall;
+import com.facebook.presto.sql.tree.QualifiedNameReference;
+import com.facebook.presto.sql.tree.SortItem.Ordering;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.facebook.presto.sql.planner.WindowSourceProperties.isPrePartitioned;
+import static com.facebook.presto.sql.planner.WindowSourceProperties.isPreSorted;
+import static com.facebook.presto.sql.tree.SortItem.Ordering.ASCENDING;
+import static com.facebook.presto.sql.tree.SortItem.Ordering.DESCENDING;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestWindowSourceProperties
+{
+    private static final Symbol A = new Symbol("a");
+    private static final Symbol B = new Symbol("b");
+    private static final Symbol C = new Symbol("c");
+    private static final Symbol D = new Symbol("d");
+
+    private static final TableScanNode TABLE_SCAN = new TableScanNode(
+            newId(),
+            new DualTableHandle("default"),
+            ImmutableList.of(A, B, C),
+            ImmutableMap.<Symbol, ColumnHandle>of(A, new DualColumnHandle("a"), B, new DualColumnHandle("b"), C, new DualColumnHandle("c")),
+            BooleanLiteral.TRUE_LITERAL,
+            BooleanLiteral.TRUE_LITERAL);
+
+    @Test
+    public void testWindowOverScan()
+    {
+        WindowNode window = window(TABLE_SCAN, ImmutableList.of(A), ImmutableMap.of(B, ASCENDING));
+
+        assertFalse(isPreSorted(window));
+        assertFalse(isPrePartitioned(window.getSource(), window.getPartitionBy()));
+    }
+
+    @Test
+    public void testSameWindow()
+    {
+        WindowNode source = window(TABLE_SCAN, ImmutableList.of(A), ImmutableMap.of(B, ASCENDING));
+        WindowNode window = window(source, ImmutableList.of(A), ImmutableMap.of(B, ASCENDING));
+
+        assertTrue(isPreSorted(window));
+        assertTrue(isPrePartitioned(window.getSource(), window.getPartitionBy()));
+    }
+
+    @Test
+    public void testPartitionKeys()
+    {
+        WindowNode source = window(TABLE_SCAN, ImmutableList.of(A, B), ImmutableMap.<Symbol, Ordering>of());
+
+        // same keys in a different order still group the rows
+        assertTrue(isPreSorted(window(source, ImmutableList.of(B, A), ImmutableMap.<Symbol, Ordering>of())));
+
+        // coarser partitions are colocated but not grouped
+        WindowNode window = window(source, ImmutableList.of(A), ImmutableMap.<Symbol, Ordering>of());
+        assertFalse(isPreSorted(window));
+        assertFalse(isPrePartitioned(window.getSource(), window.getPartitionBy()));
+
+        // finer partitions are colocated
+        window = window(source, ImmutableList.of(A, B, C), ImmutableMap.<Symbol, Ordering>of());
+        assertFalse(isPreSorted(window));
+        assertTrue(isPrePartitioned(window.getSource(), window.getPartitionBy()));
+
+        // an unpartitioned source window is not distributed
+        source = window(TABLE_SCAN, ImmutableList.<Symbol>of(), ImmutableMap.of(A, ASCENDING));
+        assertFalse(isPrePartitioned(source, ImmutableList.of(A)));
+    }
+
+    @Test
+    public void testOrdering()
+    {
+        WindowNode source = window(TABLE_SCAN, ImmutableList.of(A), ImmutableMap.of(B, ASCENDING, C, DESCENDING));
+
+        assertTrue(isPreSorted(window(source, ImmutableList.of(A), ImmutableMap.<Symbol, Ordering>of())));
+        assertTrue(isPreSorted(window(source, ImmutableList.of(A), ImmutableMap.of(B, ASCENDING))));
+        assertTrue(isPreSorted(window(source, ImmutableList.of(A), ImmutableMap.of(B, ASCENDING, C, DESCENDING))));
+
+        assertFalse(isPreSorted(window(source, ImmutableList.of(A), ImmutableMap.of(B, DESCENDING))));
+        assertFalse(isPreSorted(window(source, ImmutableList.of(A), ImmutableMap.of(C, DESCENDING))));
+        assertFalse(isPreSorted(window(source, ImmutableList.of(A), ImmutableMap.of(B, ASCENDING, C, DESCENDING, D, ASCENDING))));
+    }
+
+    @Test
+    public void testProjection()
+    {
+        WindowNode source = window(TABLE_SCAN, ImmutableList.of(A), ImmutableMap.of(B, ASCENDING));
+
+        // identity projections keep the layout
+        ProjectNode identity = new ProjectNode(newId(), source, ImmutableMap.of(A, reference(A), B, reference(B), C, reference(C), D, reference(C)));
+        assertTrue(isPreSorted(window(identity, ImmutableList.of(A), ImmutableMap.of(B, ASCENDING))));
+        assertTrue(isPrePartitioned(identity, ImmutableList.of(A)));
+
+        // a symbol with the same values under a different name is not recognized
+        ProjectNode rename = new ProjectNode(newId(), source, ImmutableMap.of(B, reference(B), C, reference(A)));
+        assertFalse(isPreSorted(window(rename, ImmutableList.of(C), ImmutableMap.of(B, ASCENDING))));
+        assertFalse(isPrePartitioned(rename, ImmutableList.of(C)));
+    }
+
+    private static WindowNode window(PlanNode source, List<Symbol> partitionBy, Map<Symbol, Ordering> orderings)
+    {
+        return new WindowNode(
+                newId(),
+                source,
+                partitionBy,
+                ImmutableList.copyOf(orderings.keySet()),
+                orderings,
+                ImmutableMap.<Symbol, FunctionCall>of(),
+                ImmutableMap.<Symbol, FunctionHandle>of());
+    }
+
+    private static Expression reference(Symbol symbol)
+    {
+        return new QualifiedNameReference(symbol.toQualifiedName());
+    }
+
+    private static PlanNodeId newId()
+    {
+        return new PlanNodeId(UUID.randomUUID().toString());
+    }
+}
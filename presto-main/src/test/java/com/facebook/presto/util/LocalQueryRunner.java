@@ -28,6 +28,7 @@ import com.facebook.presto.connector.system.SystemTablesManager;
 import com.facebook.presto.connector.system.SystemTablesMetadata;
 import com.facebook.presto.execution.DataSource;
 import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.execution.TaskManagerConfig;
 import com.facebook.presto.importer.MockPeriodicImportManager;
 import com.facebook.presto.metadata.InMemoryNodeManager;
 import com.facebook.presto.metadata.LocalStorageManager;
@@ -229,7 +230,8 @@ public class LocalQueryRunner
                 dataStreamProvider,
                 storageManager,
                 null,
-                compiler);
+                compiler,
+                new TaskManagerConfig());
 
         // plan query
         LocalExecutionPlan localExecutionPlan = executionPlanner.plan(session,
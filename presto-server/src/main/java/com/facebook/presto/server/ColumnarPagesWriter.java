@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.server;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.operator.Page;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Throwables;
+import com.google.common.reflect.TypeToken;
+import io.airlift.slice.OutputStreamSliceOutput;
+import io.airlift.slice.SliceOutput;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.List;
+
+import static com.facebook.presto.client.ColumnarResults.PRESTO_COLUMNAR_PAGES;
+
+/**
+ * Writes pages in the columnar encoding of {@link com.facebook.presto.client.ColumnarResults}, so
+ * clients can read the output buffers of a query without the engine's block encodings.
+ * The values are copied from the blocks column by column without creating row objects.
+ */
+@Provider
+@Produces(PRESTO_COLUMNAR_PAGES)
+public class ColumnarPagesWriter
+        implements MessageBodyWriter<List<Page>>
+{
+    private static final MediaType PRESTO_COLUMNAR_PAGES_TYPE = MediaType.valueOf(PRESTO_COLUMNAR_PAGES);
+    private static final Type LIST_GENERIC_TOKEN;
+
+    static {
+        try {
+            LIST_GENERIC_TOKEN = List.class.getMethod("get", int.class).getGenericReturnType();
+        }
+        catch (NoSuchMethodException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType)
+    {
+        return List.class.isAssignableFrom(type) &&
+                TypeToken.of(genericType).resolveType(LIST_GENERIC_TOKEN).getRawType().equals(Page.class) &&
+                mediaType.isCompatible(PRESTO_COLUMNAR_PAGES_TYPE);
+    }
+
+    @Override
+    public long getSize(List<Page> pages, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType)
+    {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(List<Page> pages,
+            Class<?> type,
+            Type genericType,
+            Annotation[] annotations,
+            MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders,
+            OutputStream output)
+            throws IOException, WebApplicationException
+    {
+        SliceOutput sliceOutput = new OutputStreamSliceOutput(output);
+        writePages(sliceOutput, pages);
+        sliceOutput.flush();
+    }
+
+    public static void writePages(SliceOutput output, List<Page> pages)
+    {
+        output.writeInt(pages.size());
+        for (Page page : pages) {
+            writePage(output, page);
+        }
+    }
+
+    private static void writePage(SliceOutput output, Page page)
+    {
+        output.writeInt(page.getPositionCount());
+        for (int channel = 0; channel < page.getChannelCount(); channel++) {
+            Block block = page.getBlock(channel);
+            TupleInfo tupleInfo = block.getTupleInfo();
+            for (int field = 0; field < tupleInfo.getFieldCount(); field++) {
+                writeNulls(output, block.cursor(), field);
+                writeValues(output, block, tupleInfo.getTypes().get(field), field);
+            }
+        }
+    }
+
+    private static void writeNulls(SliceOutput output, BlockCursor cursor, int field)
+    {
+        int flags = 0;
+        int bit = 0;
+        while (cursor.advanceNextPosition()) {
+            if (cursor.isNull(field)) {
+                flags |= 1 << bit;
+            }
+            bit++;
+            if (bit == 8) {
+                output.writeByte(flags);
+                flags = 0;
+                bit = 0;
+            }
+        }
+        if (bit > 0) {
+            output.writeByte(flags);
+        }
+    }
+
+    private static void writeValues(SliceOutput output, Block block, TupleInfo.Type type, int field)
+    {
+        BlockCursor cursor = block.cursor();
+        // null positions are written as zero values
+        switch (type) {
+            case BOOLEAN:
+                while (cursor.advanceNextPosition()) {
+                    output.writeByte(!cursor.isNull(field) && cursor.getBoolean(field) ? 1 : 0);
+                }
+                break;
+            case FIXED_INT_64:
+                while (cursor.advanceNextPosition()) {
+                    output.writeLong(cursor.isNull(field) ? 0 : cursor.getLong(field));
+                }
+                break;
+            case DOUBLE:
+                while (cursor.advanceNextPosition()) {
+                    output.writeDouble(cursor.isNull(field) ? 0 : cursor.getDouble(field));
+                }
+                break;
+            case VARIABLE_BINARY:
+                // all lengths are written before the bytes, so the block is read twice
+                BlockCursor bytesCursor = block.cursor();
+                while (cursor.advanceNextPosition()) {
+                    output.writeInt(cursor.isNull(field) ? 0 : cursor.getSlice(field).length());
+                }
+                while (bytesCursor.advanceNextPosition()) {
+                    if (!bytesCursor.isNull(field)) {
+                        output.writeBytes(bytesCursor.getSlice(field));
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unhandled type: " + type);
+        }
+    }
+}
@@ -102,6 +102,9 @@ public class HttpRemoteTask
 {
     private static final Logger log = Logger.get(HttpRemoteTask.class);
 
+    // stats are refreshed at least this often, while state changes are reported immediately
+    private static final Duration TASK_INFO_MAX_WAIT = new Duration(1, TimeUnit.SECONDS);
+
     private final TaskId taskId;
 
     private final Session session;
@@ -131,6 +134,8 @@ public class HttpRemoteTask
     private final Set<String> outputIds = new TreeSet<>();
     @GuardedBy("this")
     private boolean noMoreOutputIds;
+    @GuardedBy("this")
+    private boolean fragmentAcknowledged;
 
     @GuardedBy("this")
     private ContinuousTaskInfoFetcher continuousTaskInfoFetcher;
@@ -420,9 +425,10 @@ public class HttpRemoteTask
             errorRequestRateLimiter.acquire();
         }
 
+        // only send the plan until the worker has created the task
         List<TaskSource> sources = getSources();
         TaskUpdateRequest updateRequest = new TaskUpdateRequest(session,
-                planFragment,
+                fragmentAcknowledged ? null : planFragment,
                 sources,
                 new OutputBuffers(outputIds, noMoreOutputIds));
 
@@ -443,10 +449,14 @@ public class HttpRemoteTask
 
     private synchronized List<TaskSource> getSources()
     {
+        // acknowledged splits are removed from the pending splits, so only new splits are sent,
+        // and a source without new splits is only sent until the worker has seen it is complete
+        Set<PlanNodeId> acknowledgedNoMoreSplits = taskInfo.get().getNoMoreSplits();
+
         ImmutableList.Builder<TaskSource> sources = ImmutableList.builder();
         if (planFragment.isPartitioned()) {
             Set<ScheduledSplit> splits = pendingSplits.get(planFragment.getPartitionedSource());
-            if (!splits.isEmpty() || noMoreSplits) {
+            if (!splits.isEmpty() || (noMoreSplits && !acknowledgedNoMoreSplits.contains(planFragment.getPartitionedSource()))) {
                 sources.add(new TaskSource(planFragment.getPartitionedSource(), splits, noMoreSplits));
             }
         }
@@ -454,7 +464,7 @@ public class HttpRemoteTask
             PlanNodeId planNodeId = planNode.getId();
             if (!planNodeId.equals(planFragment.getPartitionedSource())) {
                 Set<ScheduledSplit> splits = pendingSplits.get(planNodeId);
-                if (!splits.isEmpty() || noMoreExchangeLocations) {
+                if (!splits.isEmpty() || (noMoreExchangeLocations && !acknowledgedNoMoreSplits.contains(planNodeId))) {
                     sources.add(new TaskSource(planNodeId, splits, noMoreExchangeLocations));
                 }
             }
@@ -526,6 +536,7 @@ public class HttpRemoteTask
     {
         try (SetThreadName setThreadName = new SetThreadName("HttpRemoteTask-%s", taskId)) {
             updateTaskInfo(newValue);
+            fragmentAcknowledged = true;
             lastSuccessfulRequest.set(System.nanoTime());
             errorCount.set(0);
             errorsSinceLastSuccess.clear();
@@ -668,9 +679,10 @@ public class HttpRemoteTask
     }
 
     /**
-     * Continuous update loop for task info.  Wait for a short period for task state to change, and
-     * if it does not, return the current state of the task.  This will cause stats to be updated at
-     * a regular interval, and state changes will be immediately recorded.
+     * Continuous update loop for task info.  Wait for a short period for the task or buffer state to
+     * change since the version we have, and if it does not, return the current state of the task.
+     * This will cause stats to be updated at a regular interval, and state changes will be
+     * immediately recorded.
      */
     private class ContinuousTaskInfoFetcher
             implements SimpleHttpResponseCallback<TaskInfo>
@@ -716,11 +728,13 @@ public class HttpRemoteTask
                     return;
                 }
 
+                // without the full flag the worker only sends the pipeline details once the task is done,
+                // and the worker responds as soon as the task or buffer state differs from our version
                 Request request = prepareGet()
                         .setUri(taskInfo.getSelf())
                         .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.JSON_UTF_8.toString())
-                        .setHeader(PrestoHeaders.PRESTO_CURRENT_STATE, taskInfo.getState().toString())
-                        .setHeader(PrestoHeaders.PRESTO_MAX_WAIT, "200ms")
+                        .setHeader(PrestoHeaders.PRESTO_CURRENT_VERSION, String.valueOf(taskInfo.getVersion()))
+                        .setHeader(PrestoHeaders.PRESTO_MAX_WAIT, TASK_INFO_MAX_WAIT.toString())
                         .build();
 
                 future = httpClient.executeAsync(request, createFullJsonResponseHandler(taskInfoCodec));
@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.server;
+
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.client.QueryResults;
+import com.facebook.presto.operator.Page;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Query results with the data still in the output pages, so the data can be
+ * written as JSON rows or in the columnar encoding, as the client prefers.
+ */
+@Immutable
+public class PagedQueryResults
+{
+    private final QueryResults queryResults;
+    private final List<Page> pages;
+
+    /**
+     * @param queryResults the query results without data
+     * @param pages the data, or null if there is no data
+     */
+    public PagedQueryResults(QueryResults queryResults, @Nullable List<Page> pages)
+    {
+        this.queryResults = checkNotNull(queryResults, "queryResults is null");
+        checkArgument(queryResults.getData() == null, "queryResults already contains data");
+        this.pages = (pages != null) ? ImmutableList.copyOf(pages) : null;
+    }
+
+    /**
+     * Returns the query results without data.
+     */
+    public QueryResults getQueryResultsWithoutData()
+    {
+        return queryResults;
+    }
+
+    @Nullable
+    public List<Page> getPages()
+    {
+        return pages;
+    }
+
+    /**
+     * Returns the query results with the data as rows, which are created from the pages as they are iterated.
+     */
+    public QueryResults toQueryResults()
+    {
+        Iterable<List<Object>> data = null;
+        if (pages != null) {
+            data = Iterables.concat(Iterables.transform(pages, new Function<Page, Iterable<List<Object>>>()
+            {
+                @Override
+                public Iterable<List<Object>> apply(Page page)
+                {
+                    return new RowIterable(page);
+                }
+            }));
+        }
+
+        return new QueryResults(
+                queryResults.getId(),
+                queryResults.getInfoUri(),
+                queryResults.getPartialCancelUri(),
+                queryResults.getNextUri(),
+                queryResults.getColumns(),
+                data,
+                queryResults.getDataUris(),
+                queryResults.getStats(),
+                queryResults.getError());
+    }
+
+    private static class RowIterable
+            implements Iterable<List<Object>>
+    {
+        private final Page page;
+
+        private RowIterable(Page page)
+        {
+            this.page = checkNotNull(page, "page is null");
+        }
+
+        @Override
+        public Iterator<List<Object>> iterator()
+        {
+            return new RowIterator(page);
+        }
+    }
+
+    private static class RowIterator
+            extends AbstractIterator<List<Object>>
+    {
+        private final BlockCursor[] cursors;
+        private final int columnCount;
+
+        private RowIterator(Page page)
+        {
+            int columnCount = 0;
+            cursors = new BlockCursor[page.getChannelCount()];
+            for (int channel = 0; channel < cursors.length; channel++) {
+                cursors[channel] = page.getBlock(channel).cursor();
+                columnCount = cursors[channel].getTupleInfo().getFieldCount();
+            }
+            this.columnCount = columnCount;
+        }
+
+        @Override
+        protected List<Object> computeNext()
+        {
+            List<Object> row = new ArrayList<>(columnCount);
+            for (BlockCursor cursor : cursors) {
+                if (!cursor.advanceNextPosition()) {
+                    Preconditions.checkState(row.isEmpty(), "Page is unaligned");
+                    return endOfData();
+                }
+
+                row.addAll(cursor.getTuple().toValues());
+            }
+            return row;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.server;
+
+import com.facebook.presto.client.QueryResults;
+import com.facebook.presto.operator.Page;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import io.airlift.json.JsonCodec;
+import io.airlift.slice.OutputStreamSliceOutput;
+import io.airlift.slice.SliceOutput;
+
+import javax.inject.Inject;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.List;
+
+import static com.facebook.presto.client.ColumnarResults.PRESTO_COLUMNAR_RESULTS;
+import static com.facebook.presto.server.ColumnarPagesWriter.writePages;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writes query results in the encoding read by {@link com.facebook.presto.client.ColumnarResults}.
+ */
+@Provider
+@Produces(PRESTO_COLUMNAR_RESULTS)
+public class PagedQueryResultsWriter
+        implements MessageBodyWriter<PagedQueryResults>
+{
+    private static final MediaType PRESTO_COLUMNAR_RESULTS_TYPE = MediaType.valueOf(PRESTO_COLUMNAR_RESULTS);
+
+    private final JsonCodec<QueryResults> queryResultsCodec;
+
+    @Inject
+    public PagedQueryResultsWriter(JsonCodec<QueryResults> queryResultsCodec)
+    {
+        this.queryResultsCodec = checkNotNull(queryResultsCodec, "queryResultsCodec is null");
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType)
+    {
+        return PagedQueryResults.class.isAssignableFrom(type) && mediaType.isCompatible(PRESTO_COLUMNAR_RESULTS_TYPE);
+    }
+
+    @Override
+    public long getSize(PagedQueryResults results, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType)
+    {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(PagedQueryResults results,
+            Class<?> type,
+            Type genericType,
+            Annotation[] annotations,
+            MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders,
+            OutputStream output)
+            throws IOException, WebApplicationException
+    {
+        SliceOutput sliceOutput = new OutputStreamSliceOutput(output);
+
+        byte[] envelope = queryResultsCodec.toJson(results.getQueryResultsWithoutData()).getBytes(Charsets.UTF_8);
+        sliceOutput.writeInt(envelope.length);
+        sliceOutput.writeBytes(envelope);
+
+        List<Page> pages = results.getPages();
+        writePages(sliceOutput, (pages != null) ? pages : ImmutableList.<Page>of());
+        sliceOutput.flush();
+    }
+}
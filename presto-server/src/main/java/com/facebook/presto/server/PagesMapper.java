@@ -38,14 +38,16 @@ import java.lang.reflect.Type;
 import java.util.List;
 
 import static com.facebook.presto.PrestoMediaTypes.PRESTO_PAGES;
+import static com.facebook.presto.PrestoMediaTypes.PRESTO_PAGES_SNAPPY;
 
 @Provider
-@Consumes(PRESTO_PAGES)
-@Produces(PRESTO_PAGES)
+@Consumes({PRESTO_PAGES, PRESTO_PAGES_SNAPPY})
+@Produces({PRESTO_PAGES, PRESTO_PAGES_SNAPPY})
 public class PagesMapper
         implements MessageBodyReader<List<Page>>, MessageBodyWriter<List<Page>>
 {
     private static final MediaType PRESTO_PAGES_TYPE = MediaType.valueOf(PRESTO_PAGES);
+    private static final MediaType PRESTO_PAGES_SNAPPY_TYPE = MediaType.valueOf(PRESTO_PAGES_SNAPPY);
     private static final Type LIST_GENERIC_TOKEN;
 
     static {
@@ -62,7 +64,7 @@ public class PagesMapper
     {
         return List.class.isAssignableFrom(type) &&
                 TypeToken.of(genericType).resolveType(LIST_GENERIC_TOKEN).getRawType().equals(Page.class) &&
-                mediaType.isCompatible(PRESTO_PAGES_TYPE);
+                (mediaType.isCompatible(PRESTO_PAGES_TYPE) || mediaType.isCompatible(PRESTO_PAGES_SNAPPY_TYPE));
     }
 
     @Override
@@ -74,6 +76,9 @@ public class PagesMapper
             InputStream input)
             throws IOException, WebApplicationException
     {
+        if (mediaType.isCompatible(PRESTO_PAGES_SNAPPY_TYPE)) {
+            return ImmutableList.copyOf(PagesSerde.readCompressedPages(new InputStreamSliceInput(input)));
+        }
         return ImmutableList.copyOf(PagesSerde.readPages(new InputStreamSliceInput(input)));
     }
 
@@ -82,7 +87,7 @@ public class PagesMapper
     {
         return List.class.isAssignableFrom(type) &&
                 TypeToken.of(genericType).resolveType(LIST_GENERIC_TOKEN).getRawType().equals(Page.class) &&
-                mediaType.isCompatible(PRESTO_PAGES_TYPE);
+                (mediaType.isCompatible(PRESTO_PAGES_TYPE) || mediaType.isCompatible(PRESTO_PAGES_SNAPPY_TYPE));
     }
 
     @Override
@@ -101,6 +106,11 @@ public class PagesMapper
             OutputStream output)
             throws IOException, WebApplicationException
     {
-        PagesSerde.writePages(new OutputStreamSliceOutput(output), pages);
+        if (mediaType.isCompatible(PRESTO_PAGES_SNAPPY_TYPE)) {
+            PagesSerde.writeCompressedPages(new OutputStreamSliceOutput(output), pages);
+        }
+        else {
+            PagesSerde.writePages(new OutputStreamSliceOutput(output), pages);
+        }
     }
 }
@@ -134,6 +134,7 @@ public class ServerMainModule
 
         jsonCodecBinder(binder).bindJsonCodec(TaskInfo.class);
         binder.bind(PagesMapper.class).in(Scopes.SINGLETON);
+        binder.bind(ColumnarPagesWriter.class).in(Scopes.SINGLETON);
 
         // exchange client
         binder.bind(new TypeLiteral<Supplier<ExchangeClient>>() {}).to(ExchangeClientFactory.class).in(Scopes.SINGLETON);
@@ -220,6 +221,7 @@ public class ServerMainModule
         jsonCodecBinder(binder).bindJsonCodec(TaskInfo.class);
         jsonCodecBinder(binder).bindJsonCodec(QueryResults.class);
         binder.bind(StatementResource.class).in(Scopes.SINGLETON);
+        binder.bind(PagedQueryResultsWriter.class).in(Scopes.SINGLETON);
 
         // execute resource
         binder.bind(ExecuteResource.class).in(Scopes.SINGLETON);
@@ -13,7 +13,7 @@
  */
 package com.facebook.presto.server;
 
-import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.client.Column;
 import com.facebook.presto.client.FailureInfo;
 import com.facebook.presto.client.QueryError;
@@ -35,10 +35,10 @@ import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.tuple.TupleInfo.Type;
 import com.facebook.presto.util.IterableTransformer;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
-import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -64,6 +64,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
@@ -73,7 +74,6 @@ import java.io.Closeable;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -83,13 +83,16 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static com.facebook.presto.client.ColumnarResults.PRESTO_COLUMNAR_RESULTS;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_CATALOG;
+import static com.facebook.presto.client.PrestoHeaders.PRESTO_PARALLEL_RESULTS;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_SCHEMA;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_SOURCE;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_USER;
 import static com.facebook.presto.execution.QueryInfo.queryIdGetter;
 import static com.facebook.presto.execution.StageInfo.getAllStages;
 import static com.facebook.presto.execution.StageInfo.stageStateGetter;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
 import static com.facebook.presto.util.Failures.toFailure;
 import static com.facebook.presto.util.Threads.threadsNamed;
 import static com.google.common.base.Preconditions.checkArgument;
@@ -109,6 +112,7 @@ public class StatementResource
     private static final Duration MAX_WAIT_TIME = new Duration(1, TimeUnit.SECONDS);
     private static final Ordering<Comparable<Duration>> WAIT_ORDERING = Ordering.natural().nullsLast();
     private static final long DESIRED_RESULT_BYTES = new DataSize(1, MEGABYTE).toBytes();
+    private static final MediaType PRESTO_COLUMNAR_RESULTS_TYPE = MediaType.valueOf(PRESTO_COLUMNAR_RESULTS);
 
     private final QueryManager queryManager;
     private final Supplier<ExchangeClient> exchangeClientSupplier;
@@ -132,15 +136,17 @@ public class StatementResource
     }
 
     @POST
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, PRESTO_COLUMNAR_RESULTS})
     public Response createQuery(
             String statement,
             @HeaderParam(PRESTO_USER) String user,
             @HeaderParam(PRESTO_SOURCE) String source,
             @HeaderParam(PRESTO_CATALOG) String catalog,
             @HeaderParam(PRESTO_SCHEMA) String schema,
+            @HeaderParam(PRESTO_PARALLEL_RESULTS) boolean parallelResults,
             @HeaderParam(USER_AGENT) String userAgent,
             @Context HttpServletRequest requestContext,
+            @Context HttpHeaders httpHeaders,
             @Context UriInfo uriInfo)
             throws InterruptedException
     {
@@ -151,11 +157,11 @@ public class StatementResource
 
         String remoteUserAddress = requestContext.getRemoteAddr();
 
-        Session session = new Session(user, source, catalog, schema, remoteUserAddress, userAgent);
+        Session session = new Session(user, source, catalog, schema, remoteUserAddress, userAgent, System.currentTimeMillis(), parallelResults);
         ExchangeClient exchangeClient = exchangeClientSupplier.get();
         Query query = new Query(session, statement, queryManager, exchangeClient);
         queries.put(query.getQueryId(), query);
-        return Response.ok(query.getNextResults(uriInfo, new Duration(1, TimeUnit.MILLISECONDS))).build();
+        return toResponse(query.getNextResults(uriInfo, new Duration(1, TimeUnit.MILLISECONDS)), httpHeaders);
     }
 
     static void assertRequest(boolean expression, String format, Object... args)
@@ -172,11 +178,12 @@ public class StatementResource
 
     @GET
     @Path("{queryId}/{token}")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, PRESTO_COLUMNAR_RESULTS})
     public Response getQueryResults(
             @PathParam("queryId") QueryId queryId,
             @PathParam("token") long token,
             @QueryParam("maxWait") Duration maxWait,
+            @Context HttpHeaders httpHeaders,
             @Context UriInfo uriInfo)
             throws InterruptedException
     {
@@ -186,7 +193,21 @@ public class StatementResource
         }
 
         Duration wait = WAIT_ORDERING.min(MAX_WAIT_TIME, maxWait);
-        return Response.ok(query.getResults(token, uriInfo, wait)).build();
+        return toResponse(query.getResults(token, uriInfo, wait), httpHeaders);
+    }
+
+    private static Response toResponse(PagedQueryResults results, HttpHeaders httpHeaders)
+    {
+        // the acceptable media types are sorted by preference, and JSON is the default
+        for (MediaType mediaType : httpHeaders.getAcceptableMediaTypes()) {
+            if (mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+                break;
+            }
+            if (mediaType.isCompatible(PRESTO_COLUMNAR_RESULTS_TYPE)) {
+                return Response.ok(results, PRESTO_COLUMNAR_RESULTS_TYPE).build();
+            }
+        }
+        return Response.ok(results.toQueryResults(), MediaType.APPLICATION_JSON_TYPE).build();
     }
 
     @DELETE
@@ -210,11 +231,12 @@ public class StatementResource
         private final QueryManager queryManager;
         private final QueryId queryId;
         private final ExchangeClient exchangeClient;
+        private final boolean parallelResults;
 
         private final AtomicLong resultId = new AtomicLong();
 
         @GuardedBy("this")
-        private QueryResults lastResult;
+        private PagedQueryResults lastResult;
 
         @GuardedBy("this")
         private String lastResultPath;
@@ -237,6 +259,12 @@ public class StatementResource
             QueryInfo queryInfo = queryManager.createQuery(session, query);
             queryId = queryInfo.getQueryId();
             this.exchangeClient = exchangeClient;
+
+            // with parallel results the client reads the output buffers directly
+            this.parallelResults = session.isParallelResults();
+            if (parallelResults) {
+                exchangeClient.close();
+            }
         }
 
         @Override
@@ -250,7 +278,7 @@ public class StatementResource
             return queryId;
         }
 
-        public synchronized QueryResults getResults(long token, UriInfo uriInfo, Duration maxWaitTime)
+        public synchronized PagedQueryResults getResults(long token, UriInfo uriInfo, Duration maxWaitTime)
                 throws InterruptedException
         {
             // is the a repeated request for the last results?
@@ -266,7 +294,8 @@ public class StatementResource
             }
 
             // if this is not a request for the next results, return not found
-            if (lastResult.getNextUri() == null || !requestedPath.equals(lastResult.getNextUri().getPath())) {
+            URI nextUri = lastResult.getQueryResultsWithoutData().getNextUri();
+            if (nextUri == null || !requestedPath.equals(nextUri.getPath())) {
                 // unknown token
                 throw new WebApplicationException(Status.NOT_FOUND);
             }
@@ -274,10 +303,10 @@ public class StatementResource
             return getNextResults(uriInfo, maxWaitTime);
         }
 
-        public synchronized QueryResults getNextResults(UriInfo uriInfo, Duration maxWaitTime)
+        public synchronized PagedQueryResults getNextResults(UriInfo uriInfo, Duration maxWaitTime)
                 throws InterruptedException
         {
-            Iterable<List<Object>> data = getData(maxWaitTime);
+            List<Page> data = getData(maxWaitTime);
 
             // get the query info before returning
             // force update if query manager is closed
@@ -305,10 +334,15 @@ public class StatementResource
                     //
                     // TODO: add support to the API for non-query statements.
                     columns = ImmutableList.of(new Column("result", "varchar"));
-                    data = ImmutableSet.<List<Object>>of(ImmutableList.<Object>of("true"));
+                    data = ImmutableList.of(new Page(new BlockBuilder(SINGLE_VARBINARY).append("true").build()));
                 }
             }
 
+            List<URI> dataUris = null;
+            if (parallelResults && isQueryStarted(queryInfo) && queryInfo.getOutputStage() != null) {
+                dataUris = getOutputBufferUris(queryInfo.getOutputStage());
+            }
+
             // only return a next if the query is not done or there is more data to send (due to buffering)
             URI nextResultsUri = null;
             if ((!queryInfo.getState().isDone()) || (!exchangeClient.isClosed())) {
@@ -322,22 +356,24 @@ public class StatementResource
                     findCancelableLeafStage(queryInfo),
                     nextResultsUri,
                     columns,
-                    data,
-                    toStatementStats(queryInfo),
+                    null,
+                    dataUris,
+                    toStatementStats(queryInfo, queryManager.getQueuePosition(queryId)),
                     toQueryError(queryInfo));
+            PagedQueryResults pagedQueryResults = new PagedQueryResults(queryResults, data);
 
             // cache the last results
             if (lastResult != null) {
-                lastResultPath = lastResult.getNextUri().getPath();
+                lastResultPath = lastResult.getQueryResultsWithoutData().getNextUri().getPath();
             }
             else {
                 lastResultPath = null;
             }
-            lastResult = queryResults;
-            return queryResults;
+            lastResult = pagedQueryResults;
+            return pagedQueryResults;
         }
 
-        private synchronized Iterable<List<Object>> getData(Duration maxWait)
+        private synchronized List<Page> getData(Duration maxWait)
                 throws InterruptedException
         {
             // wait for query to start
@@ -356,9 +392,13 @@ public class StatementResource
                 columns = createColumnsList(queryInfo);
             }
 
+            if (parallelResults) {
+                return null;
+            }
+
             updateExchangeClient(queryInfo.getOutputStage());
 
-            ImmutableList.Builder<RowIterable> pages = ImmutableList.builder();
+            ImmutableList.Builder<Page> pages = ImmutableList.builder();
             // wait up to max wait for data to arrive; then try to return at least DESIRED_RESULT_BYTES
             int bytes = 0;
             while (bytes < DESIRED_RESULT_BYTES) {
@@ -367,7 +407,7 @@ public class StatementResource
                     break;
                 }
                 bytes += page.getDataSize().toBytes();
-                pages.add(new RowIterable(page));
+                pages.add(page);
 
                 // only wait on first call
                 maxWait = new Duration(0, TimeUnit.MILLISECONDS);
@@ -377,7 +417,7 @@ public class StatementResource
                 return null;
             }
 
-            return Iterables.concat(pages.build());
+            return pages.build();
         }
 
         private static boolean isQueryStarted(QueryInfo queryInfo)
@@ -389,6 +429,17 @@ public class StatementResource
         private synchronized void updateExchangeClient(StageInfo outputStage)
         {
             // update the exchange client with any additional locations
+            for (URI uri : getOutputBufferUris(outputStage)) {
+                exchangeClient.addLocation(uri);
+            }
+            if ((outputStage.getState() != StageState.PLANNED) && (outputStage.getState() != StageState.SCHEDULING)) {
+                exchangeClient.noMoreLocations();
+            }
+        }
+
+        private static List<URI> getOutputBufferUris(StageInfo outputStage)
+        {
+            ImmutableList.Builder<URI> uris = ImmutableList.builder();
             for (TaskInfo taskInfo : outputStage.getTasks()) {
                 List<BufferInfo> buffers = taskInfo.getOutputBuffers().getBuffers();
                 Preconditions.checkState(buffers.size() == 1,
@@ -397,12 +448,9 @@ public class StatementResource
                         buffers);
 
                 String bufferId = Iterables.getOnlyElement(buffers).getBufferId();
-                URI uri = uriBuilderFrom(taskInfo.getSelf()).appendPath("results").appendPath(bufferId).build();
-                exchangeClient.addLocation(uri);
-            }
-            if ((outputStage.getState() != StageState.PLANNED) && (outputStage.getState() != StageState.SCHEDULING)) {
-                exchangeClient.noMoreLocations();
+                uris.add(uriBuilderFrom(taskInfo.getSelf()).appendPath("results").appendPath(bufferId).build());
             }
+            return uris.build();
         }
 
         private synchronized URI createNextResultsUri(UriInfo uriInfo)
@@ -450,12 +498,13 @@ public class StatementResource
             return list.build();
         }
 
-        private static StatementStats toStatementStats(QueryInfo queryInfo)
+        private static StatementStats toStatementStats(QueryInfo queryInfo, Optional<Integer> queuePosition)
         {
             QueryStats queryStats = queryInfo.getQueryStats();
 
             return StatementStats.builder()
                     .setState(queryInfo.getState().toString())
+                    .setQueuePosition(queuePosition.orNull())
                     .setScheduled(isScheduled(queryInfo))
                     .setNodes(globalUniqueNodes(queryInfo.getOutputStage()).size())
                     .setTotalSplits(queryStats.getTotalDrivers())
@@ -594,56 +643,6 @@ public class StatementResource
             }
             return new QueryError(failure.getMessage(), null, 0, failure.getErrorLocation(), failure);
         }
-
-        private static class RowIterable
-                implements Iterable<List<Object>>
-        {
-            private final Page page;
-
-            private RowIterable(Page page)
-            {
-                this.page = checkNotNull(page, "page is null");
-            }
-
-            @Override
-            public Iterator<List<Object>> iterator()
-            {
-                return new RowIterator(page);
-            }
-        }
-
-        private static class RowIterator
-                extends AbstractIterator<List<Object>>
-        {
-            private final BlockCursor[] cursors;
-            private final int columnCount;
-
-            private RowIterator(Page page)
-            {
-                int columnCount = 0;
-                cursors = new BlockCursor[page.getChannelCount()];
-                for (int channel = 0; channel < cursors.length; channel++) {
-                    cursors[channel] = page.getBlock(channel).cursor();
-                    columnCount = cursors[channel].getTupleInfo().getFieldCount();
-                }
-                this.columnCount = columnCount;
-            }
-
-            @Override
-            protected List<Object> computeNext()
-            {
-                List<Object> row = new ArrayList<>(columnCount);
-                for (BlockCursor cursor : cursors) {
-                    if (!cursor.advanceNextPosition()) {
-                        Preconditions.checkState(row.isEmpty(), "Page is unaligned");
-                        return endOfData();
-                    }
-
-                    row.addAll(cursor.getTuple().toValues());
-                }
-                return row;
-            }
-        }
     }
 
     private static class PurgeQueriesRunnable
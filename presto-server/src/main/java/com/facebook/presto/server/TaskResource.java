@@ -14,6 +14,7 @@
 package com.facebook.presto.server;
 
 import com.facebook.presto.PrestoMediaTypes;
+import com.facebook.presto.client.ColumnarResults;
 import com.facebook.presto.execution.BufferResult;
 import com.facebook.presto.execution.NoSuchBufferException;
 import com.facebook.presto.execution.TaskId;
@@ -48,6 +49,7 @@ import java.util.List;
 import java.util.NoSuchElementException;
 
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_CURRENT_STATE;
+import static com.facebook.presto.client.PrestoHeaders.PRESTO_CURRENT_VERSION;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_MAX_WAIT;
 import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_SEQUENCE_ID;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -101,6 +103,7 @@ public class TaskResource
     @Produces(MediaType.APPLICATION_JSON)
     public Response getTaskInfo(@PathParam("taskId") TaskId taskId,
             @HeaderParam(PRESTO_CURRENT_STATE) TaskState currentState,
+            @HeaderParam(PRESTO_CURRENT_VERSION) Long currentVersion,
             @HeaderParam(PRESTO_MAX_WAIT) Duration maxWait,
             @Context() UriInfo uriInfo)
             throws InterruptedException
@@ -108,7 +111,13 @@ public class TaskResource
         checkNotNull(taskId, "taskId is null");
 
         if (maxWait != null) {
-            taskManager.waitForStateChange(taskId, currentState, maxWait);
+            if (currentVersion != null) {
+                // long poll until the task info differs from the version the caller already has
+                taskManager.waitForTaskInfoChange(taskId, currentVersion, maxWait);
+            }
+            else {
+                taskManager.waitForStateChange(taskId, currentState, maxWait);
+            }
         }
 
         try {
@@ -143,7 +152,7 @@ public class TaskResource
 
     @GET
     @Path("{taskId}/results/{outputId}/{pageSequenceId}")
-    @Produces(PrestoMediaTypes.PRESTO_PAGES)
+    @Produces({PrestoMediaTypes.PRESTO_PAGES, PrestoMediaTypes.PRESTO_PAGES_SNAPPY, ColumnarResults.PRESTO_COLUMNAR_PAGES})
     public Response getResults(@PathParam("taskId") TaskId taskId,
             @PathParam("outputId") String outputId,
             @PathParam("pageSequenceId") long pageSequenceId)
@@ -23,6 +23,8 @@ import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
+import javax.annotation.Nullable;
+
 import java.util.List;
 
 public class TaskUpdateRequest
@@ -35,12 +37,11 @@ public class TaskUpdateRequest
     @JsonCreator
     public TaskUpdateRequest(
             @JsonProperty("session") Session session,
-            @JsonProperty("fragment") PlanFragment fragment,
+            @JsonProperty("fragment") @Nullable PlanFragment fragment,
             @JsonProperty("sources") List<TaskSource> sources,
             @JsonProperty("outputIds") OutputBuffers outputIds)
     {
         Preconditions.checkNotNull(session, "session is null");
-        Preconditions.checkNotNull(fragment, "fragment is null");
         Preconditions.checkNotNull(sources, "sources is null");
         Preconditions.checkNotNull(outputIds, "outputIds is null");
 
@@ -56,6 +57,10 @@ public class TaskUpdateRequest
         return session;
     }
 
+    /**
+     * Returns the plan of the task, or null if the task has already been created on the worker.
+     */
+    @Nullable
     @JsonProperty
     public PlanFragment getFragment()
     {
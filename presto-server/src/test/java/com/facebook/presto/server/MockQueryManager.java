@@ -31,6 +31,7 @@ import com.facebook.presto.execution.TaskInfo;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
@@ -108,6 +109,12 @@ public class MockQueryManager
         return query.getQueryInfo();
     }
 
+    @Override
+    public Optional<Integer> getQueuePosition(QueryId queryId)
+    {
+        return Optional.absent();
+    }
+
     @Override
     public QueryInfo createQuery(Session session, String query)
     {
@@ -102,6 +102,12 @@ public class MockTaskManager
     {
     }
 
+    @Override
+    public void waitForTaskInfoChange(TaskId taskId, long currentVersion, Duration maxWait)
+            throws InterruptedException
+    {
+    }
+
     @Override
     public synchronized TaskInfo getTaskInfo(TaskId taskId, boolean full)
     {
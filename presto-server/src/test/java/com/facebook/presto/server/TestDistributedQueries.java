@@ -67,11 +67,11 @@ public class TestDistributedQueries
 {
     private static final String ENVIRONMENT = "testing";
     private static final Logger log = Logger.get(TestDistributedQueries.class.getSimpleName());
-    private final JsonCodec<QueryResults> queryResultsCodec = jsonCodec(QueryResults.class);
+    protected final JsonCodec<QueryResults> queryResultsCodec = jsonCodec(QueryResults.class);
 
-    private TestingPrestoServer coordinator;
+    protected TestingPrestoServer coordinator;
     private List<TestingPrestoServer> servers;
-    private AsyncHttpClient httpClient;
+    protected AsyncHttpClient httpClient;
     private TestingDiscoveryServer discoveryServer;
 
     @Test(expectedExceptions = RuntimeException.class, expectedExceptionsMessageRegExp = "statement is too large \\(stack overflow during analysis\\)")
@@ -117,6 +117,15 @@ public class TestDistributedQueries
         assertEquals(emptySample.getMaterializedTuples().size(), 0);
     }
 
+    @Test
+    public void testOrderByOverFilteredScan()
+            throws Exception
+    {
+        // each task scans several splits with the filter and projection fused into the scan
+        assertQueryOrdered("SELECT orderkey, custkey FROM orders WHERE orderstatus = 'F' ORDER BY custkey, orderkey");
+        assertQueryOrdered("SELECT orderkey + 1, custkey * 2 FROM orders ORDER BY custkey * 2 DESC, orderkey + 1");
+    }
+
     @Test
     public void testShowCatalogs()
             throws Exception
@@ -213,7 +222,7 @@ public class TestDistributedQueries
     {
         ClientSession session = new ClientSession(coordinator.getBaseUrl(), "testuser", "test", "default", "default", true, "default");
 
-        try (StatementClient client = new StatementClient(httpClient, queryResultsCodec, session, sql)) {
+        try (StatementClient client = createStatementClient(session, sql)) {
             AtomicBoolean loggedUri = new AtomicBoolean(false);
             ImmutableList.Builder<Tuple> rows = ImmutableList.builder();
             TupleInfo tupleInfo = null;
@@ -251,6 +260,11 @@ public class TestDistributedQueries
         }
     }
 
+    protected StatementClient createStatementClient(ClientSession session, String sql)
+    {
+        return new StatementClient(httpClient, queryResultsCodec, session, sql);
+    }
+
     private static TupleInfo getTupleInfo(List<Column> columns)
     {
         return new TupleInfo(transform(transform(columns, Column.typeGetter()), tupleType()));
@@ -316,15 +330,18 @@ public class TestDistributedQueries
         };
     }
 
-    private static TestingPrestoServer createTestingPrestoServer(URI discoveryUri, boolean coordinator)
-            throws Exception
+    protected Map<String, String> getServerProperties()
     {
-        Map<String, String> properties = ImmutableMap.<String, String>builder()
+        return ImmutableMap.<String, String>builder()
                 .put("query.client.timeout", "10m")
                 .put("exchange.http-client.read-timeout", "1h")
                 .put("datasources", "native,tpch")
                 .build();
+    }
 
-        return new TestingPrestoServer(coordinator, properties, ENVIRONMENT, discoveryUri);
+    private TestingPrestoServer createTestingPrestoServer(URI discoveryUri, boolean coordinator)
+            throws Exception
+    {
+        return new TestingPrestoServer(coordinator, getServerProperties(), ENVIRONMENT, discoveryUri);
     }
 }
@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.server;
+
+import com.facebook.presto.client.ClientSession;
+import com.facebook.presto.client.QueryResults;
+import com.facebook.presto.client.StatementClient;
+import com.google.common.collect.Iterables;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class TestDistributedQueriesWithParallelResults
+        extends TestDistributedQueries
+{
+    private static final Duration CLIENT_TIMEOUT = new Duration(5, SECONDS);
+
+    @Test
+    public void testReadLongerThanClientTimeout()
+            throws Exception
+    {
+        long expectedRows = (long) computeActual("SELECT count(*) FROM lineitem").getMaterializedTuples().get(0).getField(0);
+
+        ClientSession session = new ClientSession(coordinator.getBaseUrl(), "testuser", "test", "default", "default", true, "default");
+        long start = System.nanoTime();
+        long rows = 0;
+        try (StatementClient client = createStatementClient(session, "SELECT * FROM lineitem")) {
+            while (client.isValid()) {
+                QueryResults results = client.current();
+                if (results.getData() != null) {
+                    rows += Iterables.size(results.getData());
+                }
+
+                // consume slowly, so the query is read for longer than the client timeout
+                if (Duration.nanosSince(start).compareTo(CLIENT_TIMEOUT) <= 0) {
+                    sleepUninterruptibly(1500, MILLISECONDS);
+                }
+                client.advance();
+            }
+            assertFalse(client.isFailed(), "query failed");
+        }
+        assertEquals(rows, expectedRows);
+    }
+
+    @Override
+    protected Map<String, String> getServerProperties()
+    {
+        Map<String, String> properties = new HashMap<>(super.getServerProperties());
+        properties.put("query.client.timeout", CLIENT_TIMEOUT.toString());
+        return properties;
+    }
+
+    @Override
+    protected StatementClient createStatementClient(ClientSession session, String sql)
+    {
+        // read the output of every query directly from the workers
+        return new StatementClient(httpClient, queryResultsCodec, session, sql, true, true);
+    }
+}
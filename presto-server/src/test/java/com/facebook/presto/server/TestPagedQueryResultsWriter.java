@@ -0,0 +1,115 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.server;
+
+import com.facebook.presto.client.Column;
+import com.facebook.presto.client.ColumnarResults;
+import com.facebook.presto.client.QueryResults;
+import com.facebook.presto.client.StatementStats;
+import com.facebook.presto.operator.Page;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
+import io.airlift.json.JsonCodec;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.List;
+
+import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_BOOLEAN;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_DOUBLE;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
+import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
+import static io.airlift.json.JsonCodec.jsonCodec;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class TestPagedQueryResultsWriter
+{
+    private static final List<Column> COLUMNS = ImmutableList.of(
+            new Column("boolean", "boolean"),
+            new Column("bigint", "bigint"),
+            new Column("double", "double"),
+            new Column("varchar", "varchar"),
+            new Column("packed_bigint", "bigint"),
+            new Column("packed_varchar", "varchar"));
+
+    private final JsonCodec<QueryResults> codec = jsonCodec(QueryResults.class);
+
+    @Test
+    public void testRoundTrip()
+            throws Exception
+    {
+        // the last two columns are packed into a single channel
+        List<Page> pages = rowPagesBuilder(SINGLE_BOOLEAN, SINGLE_LONG, SINGLE_DOUBLE, SINGLE_VARBINARY, new TupleInfo(FIXED_INT_64, VARIABLE_BINARY))
+                .row(true, 1, 1.5, "a", 10, "x")
+                .row(false, null, -2.5, "", null, null)
+                .row(null, Long.MAX_VALUE, null, null, 12, "y")
+                .row(true, -1, 0.0, "über", 13, "z")
+                .row(false, 2, Double.NaN, "b", 14, "")
+                .row(true, 3, 3.5, "c", 15, "w")
+                .row(false, 4, 4.5, "d", 16, "v")
+                .row(true, 5, 5.5, "e", 17, "u")
+                // more than eight rows, so the null flags span two bytes
+                .row(null, null, null, null, null, null)
+                .pageBreak()
+                .row(false, 6, 6.5, "f", 18, "t")
+                .build();
+        PagedQueryResults results = new PagedQueryResults(queryResults(), pages);
+
+        QueryResults actual = roundTrip(results);
+
+        assertEquals(actual.getId(), "query");
+        assertEquals(actual.getNextUri(), results.getQueryResultsWithoutData().getNextUri());
+        assertEquals(actual.getColumns(), COLUMNS);
+        assertEquals(ImmutableList.copyOf(actual.getData()), ImmutableList.copyOf(results.toQueryResults().getData()));
+    }
+
+    @Test
+    public void testNoData()
+            throws Exception
+    {
+        QueryResults actual = roundTrip(new PagedQueryResults(queryResults(), null));
+
+        assertEquals(actual.getId(), "query");
+        assertEquals(actual.getColumns(), COLUMNS);
+        assertNull(actual.getData());
+    }
+
+    private QueryResults roundTrip(PagedQueryResults results)
+            throws Exception
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new PagedQueryResultsWriter(codec).writeTo(results, PagedQueryResults.class, null, null, null, null, output);
+        return ColumnarResults.readQueryResults(new ByteArrayInputStream(output.toByteArray()), codec);
+    }
+
+    private static QueryResults queryResults()
+    {
+        return new QueryResults(
+                "query",
+                URI.create("http://localhost/v1/query/query"),
+                null,
+                URI.create("http://localhost/v1/statement/query/1"),
+                COLUMNS,
+                (Iterable<List<Object>>) null,
+                null,
+                StatementStats.builder().setState("RUNNING").build(),
+                null);
+    }
+}
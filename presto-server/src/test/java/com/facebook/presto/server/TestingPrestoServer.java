@@ -124,7 +124,8 @@ public class TestingPrestoServer
 
         ConnectorManager connectorManager = injector.getInstance(ConnectorManager.class);
         connectorManager.createConnection("default", "native", ImmutableMap.<String, String>of());
-        connectorManager.createConnection("tpch", "tpch", ImmutableMap.<String, String>of());
+        // several splits per node, so tables imported from tpch have several shards per node and tasks run more than one scan driver
+        connectorManager.createConnection("tpch", "tpch", ImmutableMap.of("tpch.splits-per-node", "3"));
 
         server = injector.getInstance(TestingHttpServer.class);
         metadata = injector.getInstance(Metadata.class);
@@ -0,0 +1,70 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.spi;
+
+import java.io.Closeable;
+
+/**
+ * Batch oriented version of {@link RecordCursor}. Each batch makes the values of many rows available
+ * at once as primitive arrays, so a connector can hand over a batch of values per call instead of
+ * one value per call.
+ * <p/>
+ * The arrays returned by this cursor are owned by the cursor, may be longer than the batch, and are
+ * only valid until the next call to {@link #advanceNextBatch}.
+ */
+public interface RecordBatchCursor
+        extends Closeable
+{
+    long getTotalBytes();
+
+    long getCompletedBytes();
+
+    ColumnType getType(int field);
+
+    /**
+     * Advances to the next batch of rows.
+     *
+     * @return false if there are no more rows
+     */
+    boolean advanceNextBatch();
+
+    /**
+     * Gets the number of rows in the current batch.
+     */
+    int getBatchSize();
+
+    boolean[] getBooleans(int field);
+
+    long[] getLongs(int field);
+
+    double[] getDoubles(int field);
+
+    /**
+     * Gets the bytes of all string values in the current batch. The value at position
+     * <code>i</code> is stored from <code>getStringOffsets(field)[i]</code> inclusive to
+     * <code>getStringOffsets(field)[i + 1]</code> exclusive.
+     */
+    byte[] getStringBytes(int field);
+
+    int[] getStringOffsets(int field);
+
+    /**
+     * Gets the null flags for the values in the current batch. The value array entry for a null
+     * position is undefined.
+     */
+    boolean[] getNulls(int field);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.spi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a {@link RecordCursor} a batch at a time, so engine code can read every record set in batches.
+ */
+public class RecordCursorBatchAdapter
+        implements RecordBatchCursor
+{
+    private final RecordCursor cursor;
+    private final List<ColumnType> types;
+    private final int maxBatchSize;
+
+    private final boolean[][] nulls;
+    private final boolean[][] booleans;
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final byte[][] stringBytes;
+    private final int[][] stringOffsets;
+
+    private int batchSize;
+
+    public RecordCursorBatchAdapter(RecordCursor cursor, List<ColumnType> types, int maxBatchSize)
+    {
+        if (cursor == null) {
+            throw new NullPointerException("cursor is null");
+        }
+        if (types == null) {
+            throw new NullPointerException("types is null");
+        }
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be greater than zero");
+        }
+
+        this.cursor = cursor;
+        this.types = Collections.unmodifiableList(new ArrayList<>(types));
+        this.maxBatchSize = maxBatchSize;
+
+        int fieldCount = types.size();
+        nulls = new boolean[fieldCount][];
+        booleans = new boolean[fieldCount][];
+        longs = new long[fieldCount][];
+        doubles = new double[fieldCount][];
+        stringBytes = new byte[fieldCount][];
+        stringOffsets = new int[fieldCount][];
+        for (int field = 0; field < fieldCount; field++) {
+            nulls[field] = new boolean[maxBatchSize];
+            switch (types.get(field)) {
+                case BOOLEAN:
+                    booleans[field] = new boolean[maxBatchSize];
+                    break;
+                case LONG:
+                    longs[field] = new long[maxBatchSize];
+                    break;
+                case DOUBLE:
+                    doubles[field] = new double[maxBatchSize];
+                    break;
+                case STRING:
+                    stringBytes[field] = new byte[1024];
+                    stringOffsets[field] = new int[maxBatchSize + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported type " + types.get(field));
+            }
+        }
+    }
+
+    @Override
+    public long getTotalBytes()
+    {
+        return cursor.getTotalBytes();
+    }
+
+    @Override
+    public long getCompletedBytes()
+    {
+        return cursor.getCompletedBytes();
+    }
+
+    @Override
+    public ColumnType getType(int field)
+    {
+        return types.get(field);
+    }
+
+    @Override
+    public boolean advanceNextBatch()
+    {
+        batchSize = 0;
+        while (batchSize < maxBatchSize && cursor.advanceNextPosition()) {
+            for (int field = 0; field < types.size(); field++) {
+                readValue(field, batchSize);
+            }
+            batchSize++;
+        }
+        return batchSize > 0;
+    }
+
+    private void readValue(int field, int position)
+    {
+        boolean isNull = cursor.isNull(field);
+        nulls[field][position] = isNull;
+
+        switch (types.get(field)) {
+            case BOOLEAN:
+                booleans[field][position] = !isNull && cursor.getBoolean(field);
+                break;
+            case LONG:
+                longs[field][position] = isNull ? 0 : cursor.getLong(field);
+                break;
+            case DOUBLE:
+                doubles[field][position] = isNull ? 0 : cursor.getDouble(field);
+                break;
+            case STRING:
+                int[] offsets = stringOffsets[field];
+                int offset = position == 0 ? 0 : offsets[position];
+                offsets[position] = offset;
+                if (isNull) {
+                    offsets[position + 1] = offset;
+                }
+                else {
+                    byte[] value = cursor.getString(field);
+                    byte[] bytes = stringBytes[field];
+                    if (offset + value.length > bytes.length) {
+                        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, offset + value.length));
+                        stringBytes[field] = bytes;
+                    }
+                    System.arraycopy(value, 0, bytes, offset, value.length);
+                    offsets[position + 1] = offset + value.length;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unsupported type " + types.get(field));
+        }
+    }
+
+    @Override
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    @Override
+    public boolean[] getBooleans(int field)
+    {
+        checkType(field, ColumnType.BOOLEAN);
+        return booleans[field];
+    }
+
+    @Override
+    public long[] getLongs(int field)
+    {
+        checkType(field, ColumnType.LONG);
+        return longs[field];
+    }
+
+    @Override
+    public double[] getDoubles(int field)
+    {
+        checkType(field, ColumnType.DOUBLE);
+        return doubles[field];
+    }
+
+    @Override
+    public byte[] getStringBytes(int field)
+    {
+        checkType(field, ColumnType.STRING);
+        return stringBytes[field];
+    }
+
+    @Override
+    public int[] getStringOffsets(int field)
+    {
+        checkType(field, ColumnType.STRING);
+        return stringOffsets[field];
+    }
+
+    @Override
+    public boolean[] getNulls(int field)
+    {
+        return nulls[field];
+    }
+
+    private void checkType(int field, ColumnType expected)
+    {
+        if (types.get(field) != expected) {
+            throw new IllegalArgumentException("Expected field " + field + " to be type " + expected + " but is " + types.get(field));
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        cursor.close();
+    }
+}
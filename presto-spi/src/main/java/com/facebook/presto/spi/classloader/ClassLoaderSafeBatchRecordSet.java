@@ -0,0 +1,40 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.spi.classloader;
+
+import com.facebook.presto.spi.BatchRecordSet;
+import com.facebook.presto.spi.RecordBatchCursor;
+
+public class ClassLoaderSafeBatchRecordSet
+        extends ClassLoaderSafeRecordSet
+        implements BatchRecordSet
+{
+    private final BatchRecordSet delegate;
+    private final ClassLoader classLoader;
+
+    public ClassLoaderSafeBatchRecordSet(BatchRecordSet delegate, ClassLoader classLoader)
+    {
+        super(delegate, classLoader);
+        this.delegate = delegate;
+        this.classLoader = classLoader;
+    }
+
+    @Override
+    public RecordBatchCursor batchCursor()
+    {
+        try (ThreadContextClassLoader threadContextClassLoader = new ThreadContextClassLoader(classLoader)) {
+            return delegate.batchCursor();
+        }
+    }
+}
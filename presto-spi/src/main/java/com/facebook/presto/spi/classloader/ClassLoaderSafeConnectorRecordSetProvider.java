@@ -13,6 +13,7 @@
  */
 package com.facebook.presto.spi.classloader;
 
+import com.facebook.presto.spi.BatchRecordSet;
 import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.ConnectorRecordSetProvider;
 import com.facebook.presto.spi.RecordSet;
@@ -45,7 +46,11 @@ public class ClassLoaderSafeConnectorRecordSetProvider
     public RecordSet getRecordSet(Split split, List<? extends ColumnHandle> columns)
     {
         try (ThreadContextClassLoader threadContextClassLoader = new ThreadContextClassLoader(classLoader)) {
-            return new ClassLoaderSafeRecordSet(delegate.getRecordSet(split, columns), classLoader);
+            RecordSet recordSet = delegate.getRecordSet(split, columns);
+            if (recordSet instanceof BatchRecordSet) {
+                return new ClassLoaderSafeBatchRecordSet((BatchRecordSet) recordSet, classLoader);
+            }
+            return new ClassLoaderSafeRecordSet(recordSet, classLoader);
         }
     }
 